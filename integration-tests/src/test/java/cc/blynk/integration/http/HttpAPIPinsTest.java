@@ -4,7 +4,10 @@ import cc.blynk.integration.SingleServerInstancePerTest;
 import cc.blynk.integration.TestUtil;
 import cc.blynk.server.api.http.pojo.EmailPojo;
 import cc.blynk.server.api.http.pojo.PushMessagePojo;
+import cc.blynk.server.core.model.enums.PinType;
 import cc.blynk.server.core.model.serialization.JsonParser;
+import cc.blynk.server.core.reporting.average.AggregationKey;
+import cc.blynk.server.core.reporting.average.AggregationValue;
 import cc.blynk.server.servers.application.AppAndHttpsServer;
 import cc.blynk.server.servers.hardware.HardwareAndHttpAPIServer;
 import cc.blynk.utils.properties.ServerProperties;
@@ -25,6 +28,7 @@ import org.mockito.junit.MockitoJUnitRunner;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import static cc.blynk.integration.BaseTest.getRelativeDataFolder;
 import static cc.blynk.integration.TestUtil.createHolderWithIOMock;
@@ -370,6 +374,102 @@ public class HttpAPIPinsTest extends SingleServerInstancePerTest {
         }
     }
 
+    @Test
+    public void testBatchPut() throws Exception {
+        HttpPut request = new HttpPut(httpsServerUrl + "4ae3851817194e2596cf1b7103603ef8/batch/update");
+        request.setEntity(new StringEntity("["
+                + "{\"pin\":\"v100\", \"values\":[\"1\"], \"timestamp\":1000},"
+                + "{\"pin\":\"v100\", \"values\":[\"2\"], \"timestamp\":2000},"
+                + "{\"token\":\"4ae3851817194e2596cf1b7103603ef8\", \"pin\":\"v101\", \"values\":[\"3\", \"4\"]}"
+                + "]", ContentType.APPLICATION_JSON));
+
+        try (CloseableHttpResponse response = httpclient.execute(request)) {
+            assertEquals(200, response.getStatusLine().getStatusCode());
+        }
+
+        try (CloseableHttpResponse response = httpclient.execute(
+                new HttpGet(httpsServerUrl + "4ae3851817194e2596cf1b7103603ef8/get/v100"))) {
+            assertEquals(200, response.getStatusLine().getStatusCode());
+            assertEquals(Collections.singletonList("2"), TestUtil.consumeJsonPinValues(response));
+        }
+
+        try (CloseableHttpResponse response = httpclient.execute(
+                new HttpGet(httpsServerUrl + "4ae3851817194e2596cf1b7103603ef8/get/v101"))) {
+            assertEquals(200, response.getStatusLine().getStatusCode());
+            List<String> values = TestUtil.consumeJsonPinValues(response);
+            assertEquals(2, values.size());
+            assertEquals("3", values.get(0));
+            assertEquals("4", values.get(1));
+        }
+    }
+
+    @Test
+    public void testBatchPutSamePinWithoutTimestampLastValueWins() throws Exception {
+        HttpPut request = new HttpPut(httpsServerUrl + "4ae3851817194e2596cf1b7103603ef8/batch/update");
+        request.setEntity(new StringEntity("["
+                + "{\"pin\":\"v105\", \"values\":[\"1\"]},"
+                + "{\"pin\":\"v105\", \"values\":[\"2\"]}"
+                + "]", ContentType.APPLICATION_JSON));
+
+        try (CloseableHttpResponse response = httpclient.execute(request)) {
+            assertEquals(200, response.getStatusLine().getStatusCode());
+        }
+
+        try (CloseableHttpResponse response = httpclient.execute(
+                new HttpGet(httpsServerUrl + "4ae3851817194e2596cf1b7103603ef8/get/v105"))) {
+            assertEquals(200, response.getStatusLine().getStatusCode());
+            assertEquals(Collections.singletonList("2"), TestUtil.consumeJsonPinValues(response));
+        }
+
+        //the first value is replaced, not reported as the second value with the same ts
+        int aggregated = 0;
+        for (Map.Entry<AggregationKey, AggregationValue> entry
+                : holder.reportingDiskDao.averageAggregator.getMinute().entrySet()) {
+            if (entry.getKey().getPin() == 105 && entry.getKey().getPinType() == PinType.VIRTUAL) {
+                assertEquals(2D, entry.getValue().calcAverage(), 0.0001);
+                aggregated++;
+            }
+        }
+        assertEquals(1, aggregated);
+    }
+
+    @Test
+    public void testBatchPutNdJson() throws Exception {
+        HttpPut request = new HttpPut(httpsServerUrl + "4ae3851817194e2596cf1b7103603ef8/batch/update");
+        request.setEntity(new StringEntity(
+                "{\"pin\":\"v102\", \"values\":[\"5\"]}\n{\"pin\":\"v103\", \"values\":[\"6\"]}\n",
+                ContentType.create("application/x-ndjson")));
+
+        try (CloseableHttpResponse response = httpclient.execute(request)) {
+            assertEquals(200, response.getStatusLine().getStatusCode());
+        }
+
+        try (CloseableHttpResponse response = httpclient.execute(
+                new HttpGet(httpsServerUrl + "4ae3851817194e2596cf1b7103603ef8/get/v103"))) {
+            assertEquals(200, response.getStatusLine().getStatusCode());
+            assertEquals(Collections.singletonList("6"), TestUtil.consumeJsonPinValues(response));
+        }
+    }
+
+    @Test
+    public void testBatchPutWithWrongTokenChangesNothing() throws Exception {
+        HttpPut request = new HttpPut(httpsServerUrl + "4ae3851817194e2596cf1b7103603ef8/batch/update");
+        request.setEntity(new StringEntity("["
+                + "{\"pin\":\"v104\", \"values\":[\"1\"]},"
+                + "{\"token\":\"wrongToken\", \"pin\":\"v104\", \"values\":[\"2\"]}"
+                + "]", ContentType.APPLICATION_JSON));
+
+        try (CloseableHttpResponse response = httpclient.execute(request)) {
+            assertEquals(400, response.getStatusLine().getStatusCode());
+            assertEquals("Invalid token.", TestUtil.consumeText(response));
+        }
+
+        try (CloseableHttpResponse response = httpclient.execute(
+                new HttpGet(httpsServerUrl + "4ae3851817194e2596cf1b7103603ef8/get/v104"))) {
+            assertEquals(400, response.getStatusLine().getStatusCode());
+        }
+    }
+
     @Test
     public void testPutWithExistingPinWrongBody() throws Exception {
         HttpPut request = new HttpPut(httpsServerUrl + "4ae3851817194e2596cf1b7103603ef8/update/a14");
@@ -0,0 +1,166 @@
+package cc.blynk.integration.tools;
+
+import cc.blynk.client.core.HardwareClient;
+import cc.blynk.server.Limits;
+import cc.blynk.server.core.protocol.handlers.decoders.MessageDecoder;
+import cc.blynk.server.core.protocol.handlers.encoders.MessageEncoder;
+import cc.blynk.server.core.protocol.model.messages.MessageBase;
+import cc.blynk.server.core.protocol.model.messages.common.HardwareMessage;
+import cc.blynk.server.core.stats.GlobalStats;
+import cc.blynk.utils.properties.ServerProperties;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.flush.FlushConsolidationHandler;
+
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Load run for socket.flush.consolidation.limit. Hardware clients send hardware messages
+ * as fast as they can, server pipeline is the same as hardware pipeline of HardwareAndHttpAPIServer
+ * (decoder, encoder, flush consolidation before decoder) and every message is written back
+ * with writeAndFlush(), as it is done when hardware message is forwarded to the app.
+ *
+ * Prints messages/sec handled by the server, socket flushes/sec of the server
+ * (every flush is write syscall) and write syscalls/sec of the whole process from /proc/self/io.
+ * HardwareClient exits JVM when connection is closed, so one run measures one limit.
+ *
+ * Run with : java HardwareFlushConsolidationPerfTest [limit] [clients] [messagesPerClient]
+ *
+ * Results on 1 vCPU VM, loopback, 16 clients, 100k messages per client, median of 5 runs
+ * (msg/sec, server socket flushes per msg) :
+ *   limit 0    :  87k, 1.000
+ *   limit 16   : 127k, 0.063
+ *   limit 64   : 129k, 0.016
+ *   limit 256  : 113k, 0.004
+ *   limit 1024 : 129k, 0.002
+ * Process write syscalls are ~1 per msg with consolidation, as clients flush every message.
+ */
+public class HardwareFlushConsolidationPerfTest {
+
+    private static final Path PROC_IO = Paths.get("/proc/self/io");
+
+    public static void main(String[] args) throws Exception {
+        int limit = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int messages = args.length > 2 ? Integer.parseInt(args[2]) : 100_000;
+
+        GlobalStats stats = new GlobalStats();
+        Limits serverLimits = new Limits(new ServerProperties(Map.of("user.message.quota.limit", "100000000")));
+        LongAdder handled = new LongAdder();
+        LongAdder flushes = new LongAdder();
+
+        NioEventLoopGroup bossGroup = new NioEventLoopGroup(1);
+        NioEventLoopGroup workerGroup = new NioEventLoopGroup();
+        Channel serverChannel = new ServerBootstrap()
+                .group(bossGroup, workerGroup)
+                .channel(NioServerSocketChannel.class)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ChannelPipeline pipeline = ch.pipeline();
+                        pipeline.addLast("SocketFlushCounter", new ChannelOutboundHandlerAdapter() {
+                            @Override
+                            public void flush(ChannelHandlerContext ctx) {
+                                flushes.increment();
+                                ctx.flush();
+                            }
+                        });
+                        if (limit > 0) {
+                            pipeline.addLast(new FlushConsolidationHandler(limit, true));
+                        }
+                        pipeline.addLast(new MessageDecoder(stats, serverLimits, true))
+                                .addLast(new MessageEncoder(stats))
+                                .addLast(new SimpleChannelInboundHandler<MessageBase>() {
+                                    @Override
+                                    protected void channelRead0(ChannelHandlerContext ctx, MessageBase msg) {
+                                        handled.increment();
+                                        ctx.writeAndFlush(msg, ctx.voidPromise());
+                                    }
+                                });
+                    }
+                })
+                .bind("127.0.0.1", 0).sync().channel();
+        int port = ((InetSocketAddress) serverChannel.localAddress()).getPort();
+
+        HardwareClient[] hardwareClients = new HardwareClient[clients];
+        for (int i = 0; i < clients; i++) {
+            hardwareClients[i] = new HardwareClient("127.0.0.1", port);
+            hardwareClients[i].start();
+        }
+
+        //warm up
+        send(hardwareClients, messages / 10, handled);
+        handled.reset();
+        flushes.reset();
+
+        long syscwBefore = syscw();
+        long start = System.nanoTime();
+        long total = send(hardwareClients, messages, handled);
+        long durationNanos = System.nanoTime() - start;
+        long syscw = syscw() - syscwBefore;
+
+        double seconds = durationNanos / 1_000_000_000D;
+        System.out.printf("limit %5d : %,10.0f msg/sec, server socket flushes %,10.0f/sec (%.3f per msg), "
+                        + "process write syscalls %,10.0f/sec%n",
+                limit, total / seconds, flushes.sum() / seconds, (double) flushes.sum() / total,
+                syscwBefore < 0 ? Double.NaN : syscw / seconds);
+        System.out.flush();
+
+        for (HardwareClient hardwareClient : hardwareClients) {
+            hardwareClient.stop();
+        }
+        serverChannel.close().sync();
+        bossGroup.shutdownGracefully();
+        workerGroup.shutdownGracefully();
+    }
+
+    private static long send(HardwareClient[] hardwareClients, int messagesPerClient,
+                             LongAdder handled) throws Exception {
+        long total = handled.sum() + (long) hardwareClients.length * messagesPerClient;
+        Thread[] senders = new Thread[hardwareClients.length];
+        for (int i = 0; i < hardwareClients.length; i++) {
+            HardwareClient hardwareClient = hardwareClients[i];
+            senders[i] = new Thread(() -> {
+                for (int msgId = 0; msgId < messagesPerClient; msgId++) {
+                    hardwareClient.send(new HardwareMessage(msgId & 0xFFFF, "vw\0" + (msgId & 127) + "\0" + msgId));
+                }
+            });
+            senders[i].start();
+        }
+        for (Thread sender : senders) {
+            sender.join();
+        }
+        while (handled.sum() < total) {
+            Thread.sleep(1);
+        }
+        //let the last echoes reach the socket
+        Thread.sleep(50);
+        return (long) hardwareClients.length * messagesPerClient;
+    }
+
+    private static long syscw() throws Exception {
+        if (!Files.exists(PROC_IO)) {
+            return -1;
+        }
+        for (String line : Files.readAllLines(PROC_IO)) {
+            if (line.startsWith("syscw:")) {
+                return Long.parseLong(line.substring(6).trim());
+            }
+        }
+        return -1;
+    }
+
+}
@@ -98,7 +98,8 @@ public class Holder {
         this.props = serverProperties;
 
         this.fileManager = new FileManager(serverProperties.getDataFolder(), serverProperties.host);
-        this.sessionDao = new SessionDao();
+        this.transportTypeHolder = new TransportTypeHolder(serverProperties);
+        this.sessionDao = new SessionDao(transportTypeHolder.sharding);
         this.blockingIOProcessor = new BlockingIOProcessor(
                 serverProperties.getIntProperty("blocking.processor.thread.pool.limit", 6),
                 serverProperties.getIntProperty("notifications.queue.limit", 2000)
@@ -124,9 +125,10 @@ public class Holder {
         this.tokenManager = new TokenManager(this.userDao.users, dbManager, serverProperties.host);
         this.stats = new GlobalStats();
         this.reportingDiskDao = new ReportingDiskDao(serverProperties.getReportingFolder(),
-                serverProperties.isRawDBEnabled() && reportingDBManager.isDBEnabled());
-
-        this.transportTypeHolder = new TransportTypeHolder(serverProperties);
+                serverProperties.isRawDBEnabled() && reportingDBManager.isDBEnabled(),
+                serverProperties.getReportingStorageType(),
+                serverProperties.getRawDataQueueBytes(),
+                serverProperties.removeMigratedReportingFiles());
 
         this.asyncHttpClient = new DefaultAsyncHttpClient(new DefaultAsyncHttpClientConfig.Builder()
                 .setUserAgent(null)
@@ -147,7 +149,7 @@ public class Holder {
         this.eventorProcessor = new EventorProcessor(
                 gcmWrapper, mailWrapper, twitterWrapper, blockingIOProcessor, stats);
         this.timerWorker = new TimerWorker(userDao, sessionDao, gcmWrapper);
-        this.readingWidgetsWorker = new ReadingWidgetsWorker(sessionDao, userDao, props.getAllowWithoutActiveApp());
+        this.readingWidgetsWorker = new ReadingWidgetsWorker(sessionDao, props.getAllowWithoutActiveApp());
         this.limits = new Limits(props);
         this.textHolder = new TextHolder(gcmProperties);
 
@@ -172,7 +174,8 @@ public class Holder {
         this.props = serverProperties;
 
         this.fileManager = new FileManager(serverProperties.getDataFolder(), serverProperties.host);
-        this.sessionDao = new SessionDao();
+        this.transportTypeHolder = new TransportTypeHolder(serverProperties);
+        this.sessionDao = new SessionDao(transportTypeHolder.sharding);
         this.userDao = new UserDao(fileManager.deserializeUsers(), serverProperties.region, serverProperties.host);
         this.blockingIOProcessor = blockingIOProcessor;
 
@@ -183,9 +186,10 @@ public class Holder {
         this.tokenManager = new TokenManager(this.userDao.users, dbManager, serverProperties.host);
         this.stats = new GlobalStats();
         this.reportingDiskDao = new ReportingDiskDao(serverProperties.getReportingFolder(),
-                serverProperties.isRawDBEnabled() && reportingDBManager.isDBEnabled());
-
-        this.transportTypeHolder = new TransportTypeHolder(serverProperties);
+                serverProperties.isRawDBEnabled() && reportingDBManager.isDBEnabled(),
+                serverProperties.getReportingStorageType(),
+                serverProperties.getRawDataQueueBytes(),
+                serverProperties.removeMigratedReportingFiles());
 
         this.twitterWrapper = twitterWrapper;
         this.mailWrapper = mailWrapper;
@@ -206,7 +210,7 @@ public class Holder {
         );
 
         this.timerWorker = new TimerWorker(userDao, sessionDao, gcmWrapper);
-        this.readingWidgetsWorker = new ReadingWidgetsWorker(sessionDao, userDao, props.getAllowWithoutActiveApp());
+        this.readingWidgetsWorker = new ReadingWidgetsWorker(sessionDao, props.getAllowWithoutActiveApp());
         this.limits = new Limits(props);
         this.textHolder = new TextHolder(new GCMProperties(Collections.emptyMap()));
 
@@ -31,6 +31,8 @@ public class Limits {
     public final int webhookFailureLimit;
     public final int hardwareIdleTimeout;
     public final int appIdleTimeout;
+    //0 - every flush goes to the socket
+    public final int flushConsolidationLimit;
 
     public Limits(ServerProperties props) {
         this.webRequestMaxSize = props.getIntProperty("web.request.max.size", 512 * 1024);
@@ -51,6 +53,7 @@ public class Limits {
                 isUnlimited(props.getIntProperty("webhooks.failure.count.limit", 10), Integer.MAX_VALUE);
         this.hardwareIdleTimeout = props.getIntProperty("hard.socket.idle.timeout", 0);
         this.appIdleTimeout = props.getIntProperty("app.socket.idle.timeout", 300);
+        this.flushConsolidationLimit = props.getIntProperty("socket.flush.consolidation.limit", 64);
 
         this.hourlyRegistrationsLimit = props.getIntProperty("hourly.registrations.limit", 1000);
         this.reportsLimit = 25;
@@ -10,7 +10,6 @@ import io.netty.util.CharsetUtil;
 import java.io.BufferedWriter;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
-import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -30,7 +29,7 @@ public class CSVGenerator {
 
     //43200 == 30 * 24 * 60 is minutes points for 1 month
     //todo move to limits
-    private final static int FETCH_COUNT = Integer.parseInt(System.getProperty("csv.export.data.points.max", "43200"));
+    public final static int FETCH_COUNT = Integer.parseInt(System.getProperty("csv.export.data.points.max", "43200"));
     private final ReportingDiskDao reportingDao;
 
     CSVGenerator(ReportingDiskDao reportingDao) {
@@ -49,13 +48,18 @@ public class CSVGenerator {
              BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
                      new GZIPOutputStream(output), CharsetUtil.US_ASCII))) {
 
+            //last points are exported even if device is offline for a long time
             int emptyDataCounter = 0;
             for (int deviceId : deviceIds) {
-                ByteBuffer onePinData = reportingDao.getByteBufferFromDisk(user, dashId, deviceId,
-                        pinType, pin, FETCH_COUNT, GraphGranularityType.MINUTE, 0);
-                if (onePinData != null) {
-                    writeBufToCsv(writer, onePinData, deviceId);
-                } else {
+                boolean hasData = reportingDao.readFromDisk(user, dashId, deviceId,
+                        pinType, pin, FETCH_COUNT, GraphGranularityType.MINUTE, 0, onePinData -> {
+                            if (onePinData != null && onePinData.hasRemaining()) {
+                                writeBufToCsv(writer, onePinData, deviceId);
+                                return true;
+                            }
+                            return false;
+                        });
+                if (!hasData) {
                     emptyDataCounter++;
                 }
             }
@@ -0,0 +1,68 @@
+package cc.blynk.server.core.dao;
+
+import cc.blynk.server.core.model.auth.Session;
+import io.netty.channel.EventLoop;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Sessions served by the single event loop.
+ * Sessions map is changed only within the loop, so it needs no synchronization.
+ * Readers get copy-on-write snapshot, snapshot is republished once per batch
+ * of changes made within one loop iteration.
+ */
+public final class LoopSessions {
+
+    public final EventLoop loop;
+
+    private final HashMap<UserKey, Session> sessions = new HashMap<>();
+    private volatile Map<UserKey, Session> snapshot = Collections.emptyMap();
+    private boolean publishScheduled;
+
+    LoopSessions(EventLoop loop) {
+        this.loop = loop;
+    }
+
+    void add(UserKey userKey, Session session) {
+        runInLoop(() -> {
+            sessions.put(userKey, session);
+            schedulePublish();
+        });
+    }
+
+    void remove(UserKey userKey) {
+        runInLoop(() -> {
+            if (sessions.remove(userKey) != null) {
+                schedulePublish();
+            }
+        });
+    }
+
+    private void runInLoop(Runnable task) {
+        if (loop.inEventLoop()) {
+            task.run();
+        } else {
+            loop.execute(task);
+        }
+    }
+
+    private void schedulePublish() {
+        if (!publishScheduled) {
+            publishScheduled = true;
+            loop.execute(() -> {
+                publishScheduled = false;
+                snapshot = Collections.unmodifiableMap(new HashMap<>(sessions));
+            });
+        }
+    }
+
+    /**
+     * @return - immutable snapshot of the sessions, safe for any thread. May miss the latest changes.
+     */
+    public Map<UserKey, Session> snapshot() {
+        return snapshot;
+    }
+
+}
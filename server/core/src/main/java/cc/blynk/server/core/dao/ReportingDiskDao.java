@@ -1,10 +1,9 @@
 package cc.blynk.server.core.dao;
 
-import cc.blynk.server.core.dao.functions.GraphFunction;
+import cc.blynk.server.core.dao.functions.GraphDataMerger;
 import cc.blynk.server.core.model.DashBoard;
 import cc.blynk.server.core.model.auth.User;
 import cc.blynk.server.core.model.enums.PinType;
-import cc.blynk.server.core.model.widgets.outputs.graph.AggregationFunctionType;
 import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
 import cc.blynk.server.core.protocol.exceptions.NoDataException;
 import cc.blynk.server.core.reporting.GraphPinRequest;
@@ -13,6 +12,12 @@ import cc.blynk.server.core.reporting.raw.BaseReportingKey;
 import cc.blynk.server.core.reporting.raw.GraphValue;
 import cc.blynk.server.core.reporting.raw.RawDataCacheForGraphProcessor;
 import cc.blynk.server.core.reporting.raw.RawDataProcessor;
+import cc.blynk.server.core.reporting.rollup.RollupEngine;
+import cc.blynk.server.core.reporting.storage.CompressedReportingStorage;
+import cc.blynk.server.core.reporting.storage.FileReportingStorage;
+import cc.blynk.server.core.reporting.storage.MappedReportingStorage;
+import cc.blynk.server.core.reporting.storage.RecordsReader;
+import cc.blynk.server.core.reporting.storage.ReportingStorage;
 import cc.blynk.utils.FileUtils;
 import cc.blynk.utils.NumberUtil;
 import org.apache.logging.log4j.LogManager;
@@ -21,20 +26,17 @@ import org.apache.logging.log4j.Logger;
 import java.io.Closeable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
 import java.util.function.Function;
+import java.util.function.Predicate;
 
 import static cc.blynk.server.internal.EmptyArraysUtil.EMPTY_BYTES;
 import static cc.blynk.utils.FileUtils.CSV_DIR;
 import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
-import static cc.blynk.utils.StringUtils.DEVICE_SEPARATOR;
 
 /**
  * The Blynk Project.
@@ -49,6 +51,8 @@ public class ReportingDiskDao implements Closeable {
     private final RawDataCacheForGraphProcessor rawDataCacheForGraphProcessor;
     public final RawDataProcessor rawDataProcessor;
     public final CSVGenerator csvGenerator;
+    public final ReportingStorage storage;
+    public final RollupEngine rollupEngine;
 
     public final String dataFolder;
 
@@ -56,6 +60,10 @@ public class ReportingDiskDao implements Closeable {
 
     private static final Function<Path, Boolean> NO_FILTER = s -> true;
 
+    public static final String FILE_STORAGE = "file";
+    public static final String MAPPED_STORAGE = "mapped";
+    public static final String COMPRESSED_STORAGE = "compressed";
+
     //for test only
     public ReportingDiskDao(String reportingFolder, AverageAggregatorProcessor averageAggregator,
                             boolean isEnabled) {
@@ -65,18 +73,44 @@ public class ReportingDiskDao implements Closeable {
         this.enableRawDbDataStore = isEnabled;
         this.rawDataProcessor = new RawDataProcessor(enableRawDbDataStore);
         this.csvGenerator = new CSVGenerator(this);
+        this.storage = new FileReportingStorage(reportingFolder);
+        this.rollupEngine = new RollupEngine(storage, reportingFolder);
     }
 
     public ReportingDiskDao(String reportingFolder, boolean isEnabled) {
+        this(reportingFolder, isEnabled, FILE_STORAGE, RawDataProcessor.DEFAULT_MAX_QUEUE_BYTES, false);
+    }
+
+    /**
+     * @param removeMigratedFiles - confirms that legacy files kept after migration to the storage
+     *                              are not needed anymore
+     */
+    public ReportingDiskDao(String reportingFolder, boolean isEnabled, String storageType, long rawDataQueueBytes,
+                            boolean removeMigratedFiles) {
         this.averageAggregator = new AverageAggregatorProcessor(reportingFolder);
         this.rawDataCacheForGraphProcessor = new RawDataCacheForGraphProcessor();
         this.dataFolder = reportingFolder;
         this.enableRawDbDataStore = isEnabled;
-        this.rawDataProcessor = new RawDataProcessor(enableRawDbDataStore);
+        this.rawDataProcessor = new RawDataProcessor(enableRawDbDataStore, reportingFolder, rawDataQueueBytes);
         this.csvGenerator = new CSVGenerator(this);
+        this.storage = createStorage(reportingFolder, storageType, removeMigratedFiles);
+        this.rollupEngine = new RollupEngine(storage, reportingFolder);
         createCSVFolder();
     }
 
+    private static ReportingStorage createStorage(String reportingFolder, String storageType,
+                                                  boolean removeMigratedFiles) {
+        if (MAPPED_STORAGE.equals(storageType)) {
+            log.info("Using memory-mapped reporting storage.");
+            return new MappedReportingStorage(reportingFolder, removeMigratedFiles);
+        }
+        if (COMPRESSED_STORAGE.equals(storageType)) {
+            log.info("Using compressed reporting storage.");
+            return new CompressedReportingStorage(reportingFolder);
+        }
+        return new FileReportingStorage(reportingFolder);
+    }
+
     private static void createCSVFolder() {
         try {
             Files.createDirectories(Paths.get(CSV_DIR));
@@ -88,17 +122,37 @@ public class ReportingDiskDao implements Closeable {
     public ByteBuffer getByteBufferFromDisk(User user, int dashId, int deviceId,
                                             PinType pinType, byte pin, int count,
                                             GraphGranularityType type, int skipCount) {
-        Path userDataFile = Paths.get(
-                dataFolder,
-                FileUtils.getUserStorageDir(user.email, user.appName),
-                generateFilename(dashId, deviceId, pinType, pin, type)
-        );
-        if (Files.exists(userDataFile)) {
-            try {
-                return FileUtils.read(userDataFile, count, skipCount);
-            } catch (Exception ioe) {
-                log.error(ioe);
-            }
+        try {
+            return storage.read(FileUtils.getUserStorageDir(user.email, user.appName),
+                    dashId, deviceId, pinType, pin, type, count, skipCount);
+        } catch (Exception ioe) {
+            log.error(ioe);
+        }
+
+        return null;
+    }
+
+    /**
+     * Same as above, but records are passed to the reader right within the read,
+     * so memory-mapped storage doesn't copy them.
+     */
+    public <T> T readFromDisk(User user, int dashId, int deviceId, PinType pinType, byte pin, int count,
+                              GraphGranularityType type, int skipCount, RecordsReader<T> reader) throws IOException {
+        return storage.read(getUserStorageDir(user), dashId, deviceId, pinType, pin, type, count, skipCount, reader);
+    }
+
+    /**
+     * Reads only records with timestamps within [from, to) range,
+     * without reading the rest of the series.
+     */
+    public ByteBuffer getByteBufferFromDisk(User user, int dashId, int deviceId,
+                                            PinType pinType, byte pin, GraphGranularityType type,
+                                            long from, long to) {
+        try {
+            return storage.readRange(FileUtils.getUserStorageDir(user.email, user.appName),
+                    dashId, deviceId, pinType, pin, type, from, to);
+        } catch (Exception ioe) {
+            log.error(ioe);
         }
 
         return null;
@@ -114,57 +168,29 @@ public class ReportingDiskDao implements Closeable {
     }
 
     private ByteBuffer getDataForTag(User user, GraphPinRequest graphPinRequest) {
-        TreeMap<Long, GraphFunction> data = new TreeMap<>();
-        for (int deviceId : graphPinRequest.deviceIds) {
-            ByteBuffer localByteBuf = getByteBufferFromDisk(user,
-                    graphPinRequest.dashId, deviceId,
-                    graphPinRequest.pinType, graphPinRequest.pin,
-                    graphPinRequest.count, graphPinRequest.type,
-                    graphPinRequest.skipCount
-            );
-            addBufferToResult(data, graphPinRequest.functionType, localByteBuf);
+        ByteBuffer[] devicesData = new ByteBuffer[graphPinRequest.deviceIds.length];
+        for (int i = 0; i < graphPinRequest.deviceIds.length; i++) {
+            devicesData[i] = readSeries(user, graphPinRequest, graphPinRequest.deviceIds[i]);
         }
 
-        return toByteBuf(data);
-    }
-
-    private static void addBufferToResult(TreeMap<Long, GraphFunction> data,
-                                          AggregationFunctionType functionType,
-                                          ByteBuffer localByteBuf) {
-        if (localByteBuf != null) {
-            while (localByteBuf.hasRemaining()) {
-                double newVal = localByteBuf.getDouble();
-                Long ts = localByteBuf.getLong();
-                GraphFunction graphFunctionObj = data.get(ts);
-                if (graphFunctionObj == null) {
-                    graphFunctionObj = functionType.produce();
-                    data.put(ts, graphFunctionObj);
-                }
-                graphFunctionObj.apply(newVal);
-            }
-        }
+        return GraphDataMerger.merge(devicesData, graphPinRequest.functionType);
     }
 
-    private static ByteBuffer toByteBuf(TreeMap<Long, GraphFunction> data) {
-        ByteBuffer result = ByteBuffer.allocate(data.size() * SIZE_OF_REPORT_ENTRY);
-        for (Map.Entry<Long, GraphFunction> entry : data.entrySet()) {
-            result.putDouble(entry.getValue().getResult())
-                    .putLong(entry.getKey());
+    private ByteBuffer getByteBufferFromDisk(User user, GraphPinRequest graphPinRequest) {
+        ByteBuffer byteBuffer = readGraphData(user, graphPinRequest);
+        //rollup tiers are filled in background, so fresh series may not have them yet
+        if (graphPinRequest.isRollup() && (byteBuffer == null || !byteBuffer.hasRemaining())) {
+            return readGraphData(user, graphPinRequest.withBaseGranularity());
         }
-        return result;
+        return byteBuffer;
     }
 
-    private ByteBuffer getByteBufferFromDisk(User user, GraphPinRequest graphPinRequest) {
+    private ByteBuffer readGraphData(User user, GraphPinRequest graphPinRequest) {
         try {
             if (graphPinRequest.isTag) {
                 return getDataForTag(user, graphPinRequest);
             } else {
-                return getByteBufferFromDisk(user,
-                        graphPinRequest.dashId, graphPinRequest.deviceId,
-                        graphPinRequest.pinType, graphPinRequest.pin,
-                        graphPinRequest.count, graphPinRequest.type,
-                        graphPinRequest.skipCount
-                );
+                return readSeries(user, graphPinRequest, graphPinRequest.deviceId);
             }
         } catch (Exception e) {
             log.error("Error getting data from disk.", e);
@@ -172,8 +198,50 @@ public class ReportingDiskDao implements Closeable {
         }
     }
 
-    private Path getUserReportingFolderPath(User user) {
-        return Paths.get(dataFolder, FileUtils.getUserStorageDir(user.email, user.appName));
+    /**
+     * Rollup tier lags behind the base granularity for a few source periods,
+     * so points after the last rolled up one are built from the base granularity.
+     */
+    private ByteBuffer readSeries(User user, GraphPinRequest graphPinRequest, int deviceId) {
+        if (!graphPinRequest.isRollup()) {
+            return getByteBufferFromDisk(user,
+                    graphPinRequest.dashId, deviceId,
+                    graphPinRequest.pinType, graphPinRequest.pin,
+                    graphPinRequest.count, graphPinRequest.type,
+                    graphPinRequest.skipCount
+            );
+        }
+
+        //skip is applied after the latest points are added
+        ByteBuffer rolledUp = getByteBufferFromDisk(user,
+                graphPinRequest.dashId, deviceId,
+                graphPinRequest.pinType, graphPinRequest.pin,
+                graphPinRequest.count + graphPinRequest.skipCount, graphPinRequest.type, 0);
+        if (rolledUp == null || !rolledUp.hasRemaining()) {
+            return rolledUp;
+        }
+        long from = rolledUp.getLong(rolledUp.limit() - 8) + graphPinRequest.type.period;
+        ByteBuffer latest = RollupEngine.downsample(getByteBufferFromDisk(user,
+                graphPinRequest.dashId, deviceId,
+                graphPinRequest.pinType, graphPinRequest.pin,
+                graphPinRequest.baseType, from, Long.MAX_VALUE), graphPinRequest.type);
+
+        int records = (rolledUp.remaining() + latest.remaining()) / SIZE_OF_REPORT_ENTRY;
+        int end = records - graphPinRequest.skipCount;
+        int start = Math.max(0, end - graphPinRequest.count);
+        if (start >= end) {
+            return null;
+        }
+        ByteBuffer all = ByteBuffer.allocate(records * SIZE_OF_REPORT_ENTRY);
+        all.put(rolledUp).put(latest);
+        all.position(start * SIZE_OF_REPORT_ENTRY).limit(end * SIZE_OF_REPORT_ENTRY);
+        ByteBuffer result = ByteBuffer.allocate((end - start) * SIZE_OF_REPORT_ENTRY);
+        result.put(all).flip();
+        return result;
+    }
+
+    private static String getUserStorageDir(User user) {
+        return FileUtils.getUserStorageDir(user.email, user.appName);
     }
 
     public int delete(User user) {
@@ -182,23 +250,13 @@ public class ReportingDiskDao implements Closeable {
 
     public int delete(User user, Function<Path, Boolean> filter) {
         log.debug("Removing all reporting data for {}", user.email);
-        Path reportingFolderPath = getUserReportingFolderPath(user);
+        String userStorageDir = getUserStorageDir(user);
 
         int removedFilesCounter = 0;
         try {
-            if (Files.exists(reportingFolderPath)) {
-                try (DirectoryStream<Path> reportingFolder = Files.newDirectoryStream(reportingFolderPath, "*")) {
-                    for (Path reportingFile : reportingFolder) {
-                        if (filter.apply(reportingFile)) {
-                            log.trace("Removing {}", reportingFile);
-                            FileUtils.deleteQuietly(reportingFile);
-                            removedFilesCounter++;
-                        }
-                    }
-                }
-            }
+            removedFilesCounter = delete(userStorageDir, fileName -> filter.apply(Paths.get(fileName)));
         } catch (Exception e) {
-            log.error("Error removing file : {}.", reportingFolderPath);
+            log.error("Error removing reporting data for : {}.", userStorageDir);
         }
         return removedFilesCounter;
     }
@@ -212,90 +270,106 @@ public class ReportingDiskDao implements Closeable {
         return false;
     }
 
-    private static String generateFilename(int dashId, int deviceId, char pinType, byte pin, String type) {
-        return generateFilenamePrefix(dashId, deviceId) + pinType + pin + "_" + type + ".bin";
-    }
-
-    private static String generateFilenamePrefix(int dashId, int deviceId, String pin) {
-        return generateFilenamePrefix(dashId, deviceId) + pin + "_";
-    }
-
-    private static String generateFilenamePrefix(int dashId, int deviceId) {
-        return "history_" + dashId + DEVICE_SEPARATOR + deviceId + "_";
-    }
-
-    private static void delete(String userReportingDir, int dashId, int deviceId, PinType pinType, byte pin,
-                               GraphGranularityType reportGranularity) {
-        Path userDataFile = Paths.get(userReportingDir,
-                generateFilename(dashId, deviceId, pinType, pin, reportGranularity));
-        FileUtils.deleteQuietly(userDataFile);
-    }
-
     public static String generateFilename(int dashId, int deviceId,
                                           PinType pinType, byte pin, GraphGranularityType type) {
-        return generateFilename(dashId, deviceId, pinType.pintTypeChar, pin, type.label);
+        return FileReportingStorage.generateFilename(dashId, deviceId, pinType, pin, type);
     }
 
     public int delete(User user, int dashId, int deviceId, String[] pins) throws IOException {
         log.debug("Removing selected pin data for dashId {}, deviceId {}.", dashId, deviceId);
-        Path userReportingPath = getUserReportingFolderPath(user);
 
-        int count = 0;
         List<String> prefixes = new ArrayList<>();
         for (String pin : pins) {
-            prefixes.add(generateFilenamePrefix(dashId, deviceId, pin));
+            prefixes.add(FileReportingStorage.generateFilenamePrefix(dashId, deviceId, pin));
         }
-        try (DirectoryStream<Path> userReportingFolder = Files.newDirectoryStream(userReportingPath, "*")) {
-            for (Path reportingFile : userReportingFolder) {
-                String userFileName = reportingFile.getFileName().toString();
-                if (containsPrefix(prefixes, userFileName)) {
-                    FileUtils.deleteQuietly(reportingFile);
-                    count++;
-                }
-            }
-        }
-        return count;
+        return delete(getUserStorageDir(user), fileName -> containsPrefix(prefixes, fileName));
     }
 
     public int delete(User user, int dashId, int deviceId) throws IOException {
         log.debug("Removing all pin data for dashId {}, deviceId {}.", dashId, deviceId);
-        Path userReportingPath = getUserReportingFolderPath(user);
-
-        int count = 0;
-        if (Files.exists(userReportingPath)) {
-            String fileNamePrefix = generateFilenamePrefix(dashId, deviceId);
-            try (DirectoryStream<Path> userReportingFolder = Files.newDirectoryStream(userReportingPath, "*")) {
-                for (Path reportingFile : userReportingFolder) {
-                    if (reportingFile.getFileName().toString().startsWith(fileNamePrefix)) {
-                        FileUtils.deleteQuietly(reportingFile);
-                        count++;
-                    }
-                }
-            }
-        }
-        return count;
+
+        String fileNamePrefix = FileReportingStorage.generateFilenamePrefix(dashId, deviceId);
+        return delete(getUserStorageDir(user), fileName -> fileName.startsWith(fileNamePrefix));
     }
 
     public void delete(User user, int dashId, int deviceId, PinType pinType, byte pin) {
         log.debug("Removing {}{} pin data for dashId {}, deviceId {}.", pinType.pintTypeChar, pin, dashId, deviceId);
-        String userReportingDir = getUserReportingFolderPath(user).toString();
 
+        List<String> fileNames = new ArrayList<>();
         for (GraphGranularityType reportGranularity : GraphGranularityType.values()) {
-            delete(userReportingDir, dashId, deviceId, pinType, pin, reportGranularity);
+            fileNames.add(generateFilename(dashId, deviceId, pinType, pin, reportGranularity));
+        }
+        try {
+            delete(getUserStorageDir(user), fileNames::contains);
+        } catch (Exception e) {
+            log.error("Error removing pin data. Reason : {}.", e.getMessage());
         }
     }
 
+    //rollup stats are removed first, so only series are counted
+    private int delete(String userStorageDir, Predicate<String> filter) throws IOException {
+        rollupEngine.stats.delete(userStorageDir, filter);
+        return storage.delete(userStorageDir, filter);
+    }
+
     public void process(User user, DashBoard dash, int deviceId, byte pin, PinType pinType, String value, long ts) {
         try {
             double doubleVal = NumberUtil.parseDouble(value);
-            process(user, dash, deviceId, pin, pinType, value, ts, doubleVal);
+            collect(user, dash, deviceId, pin, pinType, value, ts, doubleVal);
+        } catch (Exception e) {
+            //just in case
+            log.trace("Error collecting reporting entry.");
+        }
+    }
+
+    /**
+     * Same as above, but with the value that is already parsed by the caller.
+     *
+     * @param doubleVal - parsed value or NumberUtil.NO_RESULT
+     */
+    public void process(User user, DashBoard dash, int deviceId, byte pin, PinType pinType,
+                        String value, long ts, double doubleVal) {
+        try {
+            collect(user, dash, deviceId, pin, pinType, value, ts, doubleVal);
         } catch (Exception e) {
             //just in case
             log.trace("Error collecting reporting entry.");
         }
     }
 
-    private void process(User user, DashBoard dash, int deviceId, byte pin, PinType pinType,
+    /**
+     * Bulk version of the above for many values of one pin, reporting key is created once
+     * and every processor takes its lock/series once per call.
+     *
+     * @param count - number of the values to take from the arrays
+     */
+    public void process(User user, DashBoard dash, int deviceId, byte pin, PinType pinType,
+                        String[] values, long[] ts, int count) {
+        try {
+            double[] doubleVals = new double[count];
+            for (int i = 0; i < count; i++) {
+                doubleVals[i] = NumberUtil.parseDouble(values[i]);
+            }
+
+            BaseReportingKey key = new BaseReportingKey(user.email, user.appName, dash.id, deviceId, pinType, pin);
+            if (enableRawDbDataStore) {
+                rawDataProcessor.collect(key, ts, values, doubleVals, count);
+            }
+            averageAggregator.collect(key, ts, doubleVals, count);
+            if (dash.needRawDataForGraph(deviceId, pin, pinType)) {
+                for (int i = 0; i < count; i++) {
+                    if (doubleVals[i] != NumberUtil.NO_RESULT) {
+                        rawDataCacheForGraphProcessor.collect(key, new GraphValue(doubleVals[i], ts[i]));
+                    }
+                }
+            }
+        } catch (Exception e) {
+            //just in case
+            log.trace("Error collecting reporting entries.");
+        }
+    }
+
+    private void collect(User user, DashBoard dash, int deviceId, byte pin, PinType pinType,
                          String value, long ts, double doubleVal) {
         if (enableRawDbDataStore) {
             rawDataProcessor.collect(
@@ -322,11 +396,10 @@ public class ReportingDiskDao implements Closeable {
             GraphPinRequest graphPinRequest = requestedPins[i];
             log.debug("Getting data for graph pin : {}.", graphPinRequest);
             if (graphPinRequest.isValid()) {
-                ByteBuffer byteBuffer = graphPinRequest.isLiveData()
+                values[i] = graphPinRequest.isLiveData()
                         //live graph data is not on disk but in memory
-                        ? rawDataCacheForGraphProcessor.getLiveGraphData(user, graphPinRequest)
-                        : getByteBufferFromDisk(user, graphPinRequest);
-                values[i] = byteBuffer == null ? EMPTY_BYTES : byteBuffer.array();
+                        ? toBytes(rawDataCacheForGraphProcessor.getLiveGraphData(user, graphPinRequest))
+                        : readGraphBytes(user, graphPinRequest);
             } else {
                 values[i] = EMPTY_BYTES;
             }
@@ -339,9 +412,40 @@ public class ReportingDiskDao implements Closeable {
         return values;
     }
 
+    //plain series are copied straight from the storage to the response
+    private byte[] readGraphBytes(User user, GraphPinRequest graphPinRequest) {
+        if (graphPinRequest.isTag || graphPinRequest.isRollup()) {
+            return toBytes(getByteBufferFromDisk(user, graphPinRequest));
+        }
+        try {
+            return readFromDisk(user, graphPinRequest.dashId, graphPinRequest.deviceId,
+                    graphPinRequest.pinType, graphPinRequest.pin,
+                    graphPinRequest.count, graphPinRequest.type, graphPinRequest.skipCount,
+                    ReportingDiskDao::toBytes);
+        } catch (Exception e) {
+            log.error("Error getting data from disk.", e);
+            return EMPTY_BYTES;
+        }
+    }
+
+    private static byte[] toBytes(ByteBuffer byteBuffer) {
+        if (byteBuffer == null) {
+            return EMPTY_BYTES;
+        }
+        if (byteBuffer.hasArray()) {
+            return byteBuffer.array();
+        }
+        //memory-mapped storage passes direct slices of the segment
+        byte[] bytes = new byte[byteBuffer.remaining()];
+        byteBuffer.duplicate().get(bytes);
+        return bytes;
+    }
+
     @Override
     public void close() {
         System.out.println("Stopping aggregator...");
         this.averageAggregator.close();
+        this.rawDataProcessor.close();
+        this.storage.close();
     }
 }
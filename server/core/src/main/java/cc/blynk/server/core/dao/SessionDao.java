@@ -2,6 +2,7 @@ package cc.blynk.server.core.dao;
 
 import cc.blynk.server.core.model.auth.Session;
 import cc.blynk.server.core.model.auth.User;
+import cc.blynk.server.transport.EventLoopSharding;
 import io.netty.channel.Channel;
 import io.netty.channel.EventLoop;
 import io.netty.channel.group.DefaultChannelGroup;
@@ -14,6 +15,7 @@ import io.netty.util.concurrent.GlobalEventExecutor;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.util.Collection;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
@@ -30,7 +32,33 @@ public class SessionDao {
     public final static AttributeKey<User> userAttributeKey = AttributeKey.valueOf("user");
     private static final Logger log = LogManager.getLogger(SessionDao.class);
 
+    //lookup by user. Should be changed only via this dao, as sessions are also partitioned by the loops
     public final ConcurrentHashMap<UserKey, Session> userSession = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<EventLoop, LoopSessions> loopSessions = new ConcurrentHashMap<>();
+
+    //null - session is served by the loop of the first user connection
+    public final EventLoopSharding sharding;
+
+    public SessionDao() {
+        this(null);
+    }
+
+    public SessionDao(EventLoopSharding sharding) {
+        this.sharding = sharding;
+    }
+
+    /**
+     * Returns session for the channel that just logged in.
+     * Channel should be re-registered on session loop in case it is not there yet.
+     */
+    public Session getOrCreateSessionByUser(UserKey key, Channel channel) {
+        if (sharding == null) {
+            return getOrCreateSessionByUser(key, channel.eventLoop());
+        }
+        Session session = getOrCreateSessionByUser(key, sharding.forUser(key));
+        sharding.onLogin(channel, session.initialEventLoop);
+        return session;
+    }
 
     //threadsafe
     public Session getOrCreateSessionByUser(UserKey key, EventLoop initialEventLoop) {
@@ -41,6 +69,7 @@ public class SessionDao {
             group = userSession.putIfAbsent(key, value);
             if (group == null) {
                 log.trace("Creating unique session for user: {}", key);
+                loopSessions.computeIfAbsent(initialEventLoop, LoopSessions::new).add(key, value);
                 return value;
             }
         }
@@ -48,6 +77,25 @@ public class SessionDao {
         return group;
     }
 
+    public Session remove(UserKey key) {
+        Session session = userSession.remove(key);
+        if (session != null) {
+            LoopSessions partition = loopSessions.get(session.initialEventLoop);
+            if (partition != null) {
+                partition.remove(key);
+            }
+        }
+        return session;
+    }
+
+    /**
+     * Sessions partitioned by the event loops. Stats read snapshots of the partitions,
+     * so they never touch the maps changed by the loops.
+     */
+    public Collection<LoopSessions> loopSessions() {
+        return loopSessions.values();
+    }
+
 
 
 
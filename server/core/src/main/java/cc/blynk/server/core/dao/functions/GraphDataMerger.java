@@ -0,0 +1,148 @@
+package cc.blynk.server.core.dao.functions;
+
+import cc.blynk.server.core.model.widgets.outputs.graph.AggregationFunctionType;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
+
+/**
+ * Merges reporting data of many devices (tag or device selector) into one series.
+ * Every device buffer is already sorted by time, so buffers are merged with
+ * k-way merge over min-heap of buffers ordered by their current timestamp.
+ * Points with the same timestamp are aggregated with primitive accumulators
+ * and written straight to the output, without boxing and per point objects.
+ */
+public final class GraphDataMerger {
+
+    private GraphDataMerger() {
+    }
+
+    /**
+     * @param buffers - per device records (double value + long ts) between position and limit,
+     *                  sorted by ts. Null elements are allowed. Buffers are not modified.
+     * @return - heap buffer with aggregated records sorted by ts, backing array has exact size
+     */
+    public static ByteBuffer merge(ByteBuffer[] buffers, AggregationFunctionType functionType) {
+        ByteBuffer[] sources = new ByteBuffer[buffers.length];
+        int[] positions = new int[buffers.length];
+        int[] limits = new int[buffers.length];
+        long[] currentTs = new long[buffers.length];
+        int[] heap = new int[buffers.length];
+        int heapSize = 0;
+        int totalRecords = 0;
+
+        for (ByteBuffer buffer : buffers) {
+            if (buffer != null && buffer.remaining() >= SIZE_OF_REPORT_ENTRY) {
+                int i = heapSize;
+                sources[i] = buffer;
+                positions[i] = buffer.position();
+                limits[i] = buffer.position() + buffer.remaining() / SIZE_OF_REPORT_ENTRY * SIZE_OF_REPORT_ENTRY;
+                currentTs[i] = buffer.getLong(positions[i] + 8);
+                totalRecords += buffer.remaining() / SIZE_OF_REPORT_ENTRY;
+                heap[heapSize++] = i;
+                siftUp(heap, currentTs, heapSize - 1);
+            }
+        }
+
+        byte[] result = new byte[totalRecords * SIZE_OF_REPORT_ENTRY];
+        ByteBuffer out = ByteBuffer.wrap(result);
+        double[] medianValues = functionType == AggregationFunctionType.MED ? new double[heapSize] : null;
+
+        while (heapSize > 0) {
+            long ts = currentTs[heap[0]];
+            int count = 0;
+            double sum = 0;
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+
+            //takes all points with the same ts from all devices
+            while (heapSize > 0 && currentTs[heap[0]] == ts) {
+                int i = heap[0];
+                double value = sources[i].getDouble(positions[i]);
+                sum += value;
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+                if (medianValues != null) {
+                    if (count == medianValues.length) {
+                        medianValues = Arrays.copyOf(medianValues, count * 2);
+                    }
+                    medianValues[count] = value;
+                }
+                count++;
+
+                positions[i] += SIZE_OF_REPORT_ENTRY;
+                if (positions[i] < limits[i]) {
+                    currentTs[i] = sources[i].getLong(positions[i] + 8);
+                } else {
+                    heap[0] = heap[--heapSize];
+                }
+                siftDown(heap, currentTs, heapSize, 0);
+            }
+
+            out.putDouble(result(functionType, count, sum, min, max, medianValues)).putLong(ts);
+        }
+
+        if (out.position() < result.length) {
+            return ByteBuffer.wrap(Arrays.copyOf(result, out.position()));
+        }
+        return out;
+    }
+
+    private static double result(AggregationFunctionType functionType, int count,
+                                 double sum, double min, double max, double[] medianValues) {
+        switch (functionType) {
+            case MIN :
+                return min;
+            case MAX :
+                return max;
+            case SUM :
+                return sum;
+            case MED :
+                Arrays.sort(medianValues, 0, count);
+                int middle = count / 2;
+                if (count % 2 == 0) {
+                    return (medianValues[middle] + medianValues[middle - 1]) / 2;
+                }
+                return medianValues[middle];
+            default:
+                return sum / count;
+        }
+    }
+
+    private static void siftUp(int[] heap, long[] keys, int index) {
+        int element = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (keys[heap[parent]] <= keys[element]) {
+                break;
+            }
+            heap[index] = heap[parent];
+            index = parent;
+        }
+        heap[index] = element;
+    }
+
+    private static void siftDown(int[] heap, long[] keys, int size, int index) {
+        if (size == 0) {
+            return;
+        }
+        int element = heap[index];
+        int half = size >>> 1;
+        while (index < half) {
+            int child = 2 * index + 1;
+            int right = child + 1;
+            if (right < size && keys[heap[right]] < keys[heap[child]]) {
+                child = right;
+            }
+            if (keys[element] <= keys[heap[child]]) {
+                break;
+            }
+            heap[index] = heap[child];
+            index = child;
+        }
+        heap[index] = element;
+    }
+
+}
@@ -8,11 +8,9 @@ import cc.blynk.server.core.model.enums.Theme;
 import cc.blynk.server.core.model.enums.WidgetProperty;
 import cc.blynk.server.core.model.serialization.JsonParser;
 import cc.blynk.server.core.model.serialization.View;
-import cc.blynk.server.core.model.storage.PinPropertyStorageKey;
+import cc.blynk.server.core.model.storage.PinStorage;
 import cc.blynk.server.core.model.storage.PinStorageKey;
-import cc.blynk.server.core.model.storage.PinStorageKeyDeserializer;
 import cc.blynk.server.core.model.storage.PinStorageValue;
-import cc.blynk.server.core.model.storage.PinStorageValueDeserializer;
 import cc.blynk.server.core.model.storage.SinglePinStorageValue;
 import cc.blynk.server.core.model.widgets.AppSyncWidget;
 import cc.blynk.server.core.model.widgets.DeviceCleaner;
@@ -24,6 +22,7 @@ import cc.blynk.server.core.model.widgets.controls.Timer;
 import cc.blynk.server.core.model.widgets.notifications.Mail;
 import cc.blynk.server.core.model.widgets.notifications.Notification;
 import cc.blynk.server.core.model.widgets.notifications.Twitter;
+import cc.blynk.server.core.model.widgets.others.eventor.CompiledEventor;
 import cc.blynk.server.core.model.widgets.others.eventor.Eventor;
 import cc.blynk.server.core.model.widgets.others.webhook.WebHook;
 import cc.blynk.server.core.model.widgets.outputs.graph.EnhancedHistoryGraph;
@@ -36,15 +35,11 @@ import cc.blynk.server.core.protocol.exceptions.IllegalCommandException;
 import cc.blynk.server.workers.timer.TimerWorker;
 import cc.blynk.utils.ArrayUtil;
 import com.fasterxml.jackson.annotation.JsonView;
-import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import io.netty.channel.Channel;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Objects;
 
 import static cc.blynk.server.core.model.widgets.AppSyncWidget.ANY_TARGET;
@@ -98,9 +93,13 @@ public class DashBoard {
     public volatile String sharedToken;
 
     @JsonView(View.Private.class)
-    @JsonDeserialize(keyUsing = PinStorageKeyDeserializer.class,
-                     contentUsing = PinStorageValueDeserializer.class)
-    public Map<PinStorageKey, PinStorageValue> pinsStorage = Collections.emptyMap();
+    public PinStorage pinsStorage = new PinStorage();
+
+    //widgets by pin, built lazily and dropped on any change of the widgets, tiles or devices of widgets
+    private transient volatile PinWidgetsIndex pinIndex;
+
+    //eventor rules by trigger pin, rebuilt when widgets array is replaced
+    private transient volatile CompiledEventor compiledEventor;
 
     public void update(int deviceId, byte pin, PinType pinType, String value, long now) {
         if (!updateWidgets(deviceId, pin, pinType, value)) {
@@ -113,7 +112,7 @@ public class DashBoard {
 
     private boolean updateWidgets(int deviceId, byte pin, PinType type, String value) {
         boolean hasWidget = false;
-        for (Widget widget : widgets) {
+        for (Widget widget : pinWidgets(deviceId, pin, type).widgets) {
             if (widget.updateIfSame(deviceId, pin, type, value)) {
                 hasWidget = true;
             }
@@ -127,69 +126,69 @@ public class DashBoard {
 
     public void putPinPropertyStorageValue(int deviceId, PinType type, byte pin,
                                            WidgetProperty property, String value) {
-        putPinStorageValue(new PinPropertyStorageKey(deviceId, type, pin, property), value);
+        long key = PinStorage.key(deviceId, type, pin, property);
+        PinStorageValue pinStorageValue = pinsStorage.get(key);
+        if (pinStorageValue == null) {
+            pinStorageValue = putIfAbsent(key, new SinglePinStorageValue());
+        }
+        pinStorageValue.update(value);
     }
 
     private void putPinStorageValue(int deviceId, PinType type, byte pin, String value) {
-        putPinStorageValue(new PinStorageKey(deviceId, type, pin), value);
-    }
-
-    private void putPinStorageValue(PinStorageKey key, String value) {
-        if (pinsStorage == Collections.EMPTY_MAP) {
-            pinsStorage = new HashMap<>();
-        }
-
+        long key = PinStorage.key(deviceId, type, pin);
         PinStorageValue pinStorageValue = pinsStorage.get(key);
         if (pinStorageValue == null) {
-            pinStorageValue = initStorageValueForStorageKey(key);
-            pinsStorage.put(key, pinStorageValue);
+            pinStorageValue = putIfAbsent(key, pinWidgets(deviceId, pin, type).newStorageValue());
         }
         pinStorageValue.update(value);
     }
 
+    private PinStorageValue putIfAbsent(long key, PinStorageValue pinStorageValue) {
+        PinStorageValue existing = pinsStorage.putIfAbsent(key, pinStorageValue);
+        return existing == null ? pinStorageValue : existing;
+    }
+
     //multi value widgets has always priority over single value widgets.
     //for example, we have 2 widgets on the same pin, one it terminal, another is value display.
     //so for that pin we have to return multivalue storage
-    private PinStorageValue initStorageValueForStorageKey(PinStorageKey key) {
-        if (!(key instanceof PinPropertyStorageKey)) {
-            for (Widget widget : widgets) {
-                if (widget instanceof OnePinWidget) {
-                    OnePinWidget onePinWidget = (OnePinWidget) widget;
-                    //pim matches and widget assigned to device selector
-                    if (onePinWidget.isAssignedToDeviceSelector() && key.isSamePin(onePinWidget)) {
-                        DeviceSelector deviceSelector = getDeviceSelector(onePinWidget.deviceId);
-                        if (deviceSelector != null && ArrayUtil.contains(deviceSelector.deviceIds, key.deviceId)) {
-                            if (widget.isMultiValueWidget()) {
-                                return widget.getPinStorageValue();
-                            }
+    private static Widget findStorageWidget(Widget[] widgets, PinStorageKey key) {
+        for (Widget widget : widgets) {
+            if (widget instanceof OnePinWidget) {
+                OnePinWidget onePinWidget = (OnePinWidget) widget;
+                //pim matches and widget assigned to device selector
+                if (onePinWidget.isAssignedToDeviceSelector() && key.isSamePin(onePinWidget)) {
+                    DeviceSelector deviceSelector = getDeviceSelector(widgets, onePinWidget.deviceId);
+                    if (deviceSelector != null && ArrayUtil.contains(deviceSelector.deviceIds, key.deviceId)) {
+                        if (widget.isMultiValueWidget()) {
+                            return widget;
                         }
                     }
-                } else if (widget instanceof MultiPinWidget) {
-                    MultiPinWidget multiPinWidget = (MultiPinWidget) widget;
-                    if (multiPinWidget.isAssignedToDeviceSelector() && key.isSamePin(multiPinWidget)) {
-                        DeviceSelector deviceSelector = getDeviceSelector(multiPinWidget.deviceId);
-                        if (deviceSelector != null && ArrayUtil.contains(deviceSelector.deviceIds, key.deviceId)) {
-                            if (widget.isMultiValueWidget()) {
-                                return widget.getPinStorageValue();
-                            }
+                }
+            } else if (widget instanceof MultiPinWidget) {
+                MultiPinWidget multiPinWidget = (MultiPinWidget) widget;
+                if (multiPinWidget.isAssignedToDeviceSelector() && key.isSamePin(multiPinWidget)) {
+                    DeviceSelector deviceSelector = getDeviceSelector(widgets, multiPinWidget.deviceId);
+                    if (deviceSelector != null && ArrayUtil.contains(deviceSelector.deviceIds, key.deviceId)) {
+                        if (widget.isMultiValueWidget()) {
+                            return widget;
                         }
                     }
-                } else if (widget instanceof DeviceTiles) {
-                    DeviceTiles deviceTiles = (DeviceTiles) widget;
-                    for (TileTemplate template : deviceTiles.templates) {
-                        if (ArrayUtil.contains(template.deviceIds, key.deviceId)) {
-                            for (Widget tileWidget : template.widgets) {
-                                if (tileWidget instanceof OnePinWidget) {
-                                    if (key.isSamePin((OnePinWidget) tileWidget)) {
-                                        if (tileWidget.isMultiValueWidget()) {
-                                            return tileWidget.getPinStorageValue();
-                                        }
+                }
+            } else if (widget instanceof DeviceTiles) {
+                DeviceTiles deviceTiles = (DeviceTiles) widget;
+                for (TileTemplate template : deviceTiles.templates) {
+                    if (ArrayUtil.contains(template.deviceIds, key.deviceId)) {
+                        for (Widget tileWidget : template.widgets) {
+                            if (tileWidget instanceof OnePinWidget) {
+                                if (key.isSamePin((OnePinWidget) tileWidget)) {
+                                    if (tileWidget.isMultiValueWidget()) {
+                                        return tileWidget;
                                     }
-                                } else if (tileWidget instanceof MultiPinWidget) {
-                                    if (key.isSamePin((MultiPinWidget) tileWidget)) {
-                                        if (tileWidget.isMultiValueWidget()) {
-                                            return tileWidget.getPinStorageValue();
-                                        }
+                                }
+                            } else if (tileWidget instanceof MultiPinWidget) {
+                                if (key.isSamePin((MultiPinWidget) tileWidget)) {
+                                    if (tileWidget.isMultiValueWidget()) {
+                                        return tileWidget;
                                     }
                                 }
                             }
@@ -199,7 +198,7 @@ public class DashBoard {
             }
         }
 
-        return new SinglePinStorageValue();
+        return null;
     }
 
     public void activate() {
@@ -213,35 +212,64 @@ public class DashBoard {
     }
 
     public Widget findWidgetByPin(int deviceId, byte pin, PinType pinType) {
-        for (Widget widget : widgets) {
-            if (widget.isSame(deviceId, pin, pinType)) {
-                return widget;
-            }
-        }
-        return null;
+        Widget[] pinWidgets = pinWidgets(deviceId, pin, pinType).widgets;
+        return pinWidgets.length == 0 ? null : pinWidgets[0];
     }
 
     public WebHook findWebhookByPin(int deviceId, byte pin, PinType pinType) {
-        for (Widget widget : widgets) {
-            if (widget instanceof WebHook) {
-                WebHook webHook = (WebHook) widget;
-                if (webHook.isSameWebHook(deviceId, pin, pinType)) {
-                    return webHook;
-                }
-            }
-        }
-        return null;
+        return pinWidgets(deviceId, pin, pinType).webHook;
     }
 
     public boolean needRawDataForGraph(int deviceId, byte pin, PinType pinType) {
+        return pinWidgets(deviceId, pin, pinType).needRawData;
+    }
+
+    private PinWidgetsIndex.PinWidgets pinWidgets(int deviceId, byte pin, PinType pinType) {
+        PinWidgetsIndex index = this.pinIndex;
+        //widgets array is replaced on every widget add, update or delete
+        if (index == null || index.widgets != this.widgets) {
+            index = new PinWidgetsIndex(this.widgets);
+            this.pinIndex = index;
+        }
+        long key = PinWidgetsIndex.key(deviceId, pin, pinType);
+        PinWidgetsIndex.PinWidgets pinWidgets = index.get(key);
+        if (pinWidgets == null) {
+            pinWidgets = index.add(key, buildPinWidgets(index.widgets, deviceId, pin, pinType));
+        }
+        return pinWidgets;
+    }
+
+    private static PinWidgetsIndex.PinWidgets buildPinWidgets(Widget[] widgets,
+                                                              int deviceId, byte pin, PinType pinType) {
+        List<Widget> pinWidgets = new ArrayList<>(1);
+        WebHook webHook = null;
+        boolean needRawData = false;
         for (Widget widget : widgets) {
+            if (widget.isSame(deviceId, pin, pinType)) {
+                pinWidgets.add(widget);
+            }
+            if (webHook == null && widget instanceof WebHook) {
+                WebHook widgetWebHook = (WebHook) widget;
+                if (widgetWebHook.isSameWebHook(deviceId, pin, pinType)) {
+                    webHook = widgetWebHook;
+                }
+            }
             if (widget instanceof EnhancedHistoryGraph) {
                 if (((EnhancedHistoryGraph) widget).hasPin(deviceId, pin, pinType)) {
-                    return true;
+                    needRawData = true;
                 }
             }
         }
-        return false;
+        Widget storageWidget = findStorageWidget(widgets, new PinStorageKey(deviceId, pinType, pin));
+        return new PinWidgetsIndex.PinWidgets(pinWidgets.toArray(new Widget[0]), webHook, needRawData, storageWidget);
+    }
+
+    /**
+     * Should be called when pins, devices or tiles of the existing widgets are changed.
+     * Replacement of the widgets array is detected automatically.
+     */
+    public void invalidatePinIndex() {
+        this.pinIndex = null;
     }
 
     public static int getWidgetIndexByIdOrThrow(Widget[] widgets, long id) {
@@ -321,7 +349,11 @@ public class DashBoard {
     }
 
     private DeviceSelector getDeviceSelector(long targetId) {
-        Widget widget = getWidgetById(targetId);
+        return getDeviceSelector(widgets, targetId);
+    }
+
+    private static DeviceSelector getDeviceSelector(Widget[] widgets, long targetId) {
+        Widget widget = getWidgetById(widgets, targetId);
         if (widget instanceof DeviceSelector) {
             return (DeviceSelector) widget;
         }
@@ -366,6 +398,16 @@ public class DashBoard {
         return getWidgetByType(Eventor.class);
     }
 
+    public CompiledEventor getCompiledEventor() {
+        CompiledEventor compiled = this.compiledEventor;
+        //eventor is always updated with the replacement of the widgets array
+        if (compiled == null || compiled.widgets != this.widgets) {
+            compiled = CompiledEventor.compile(this.widgets);
+            this.compiledEventor = compiled;
+        }
+        return compiled;
+    }
+
     public Twitter getTwitterWidget() {
         return getWidgetByType(Twitter.class);
     }
@@ -413,14 +455,14 @@ public class DashBoard {
     }
 
     public void eraseValues() {
-        this.pinsStorage = Collections.emptyMap();
+        pinsStorage.clear();
         for (Widget widget : widgets) {
             widget.erase();
         }
     }
 
     public void eraseValuesForDevice(int deviceId) {
-        pinsStorage.entrySet().removeIf(entry -> entry.getKey().deviceId == deviceId);
+        pinsStorage.removeDevice(deviceId);
         for (Widget widget : widgets) {
             if (widget.isAssignedToDevice(deviceId)) {
                 if (widget instanceof DeviceTiles) {
@@ -435,6 +477,7 @@ public class DashBoard {
     }
 
     public void deleteDeviceFromObjects(int deviceId) {
+        invalidatePinIndex();
         for (Widget widget : widgets) {
             if (widget instanceof DeviceCleaner) {
                 ((DeviceCleaner) widget).deleteDevice(deviceId);
@@ -471,6 +514,8 @@ public class DashBoard {
     }
 
     public void cleanPinStorageInternalWithoutUpdatedAt(Widget widget, boolean removeProperties) {
+        //called on any widget change
+        invalidatePinIndex();
         if (widget instanceof OnePinWidget) {
             OnePinWidget onePinWidget = (OnePinWidget) widget;
             cleanPinStorage(onePinWidget, -1, removeProperties);
@@ -487,13 +532,7 @@ public class DashBoard {
         for (Tile tile : deviceTiles.tiles) {
             if (tile != null && tile.isValidDataStream()) {
                 DataStream dataStream = tile.dataStream;
-                pinsStorage.remove(new PinStorageKey(tile.deviceId, dataStream.pinType, dataStream.pin));
-                if (removeProperties) {
-                    for (WidgetProperty widgetProperty : WidgetProperty.values()) {
-                        pinsStorage.remove(new PinPropertyStorageKey(tile.deviceId,
-                                dataStream.pinType, dataStream.pin, widgetProperty));
-                    }
-                }
+                pinsStorage.remove(tile.deviceId, dataStream.pinType, dataStream.pin, removeProperties);
             }
         }
         for (TileTemplate tileTemplate : deviceTiles.templates) {
@@ -502,6 +541,7 @@ public class DashBoard {
     }
 
     public void cleanPinStorageForTileTemplate(TileTemplate tileTemplate, boolean removeProperties) {
+        invalidatePinIndex();
         for (int deviceId : tileTemplate.deviceIds) {
             for (Widget widget : tileTemplate.widgets) {
                 if (widget instanceof OnePinWidget) {
@@ -537,12 +577,7 @@ public class DashBoard {
         Target target = getTarget(widgetDeviceId);
         if (target != null) {
             for (int deviceId : target.getAssignedDeviceIds()) {
-                pinsStorage.remove(new PinStorageKey(deviceId, pinType, pin));
-                if (removeProperties) {
-                    for (WidgetProperty widgetProperty : WidgetProperty.values()) {
-                        pinsStorage.remove(new PinPropertyStorageKey(deviceId, pinType, pin, widgetProperty));
-                    }
-                }
+                pinsStorage.remove(deviceId, pinType, pin, removeProperties);
             }
         }
     }
@@ -554,11 +589,11 @@ public class DashBoard {
             }
         }
 
-        for (Map.Entry<PinStorageKey, PinStorageValue> entry : pinsStorage.entrySet()) {
-            PinStorageKey key = entry.getKey();
-            if ((targetId == ANY_TARGET || targetId == key.deviceId) && appChannel.isWritable()) {
-                PinStorageValue pinStorageValue = entry.getValue();
-                pinStorageValue.sendAppSync(appChannel, id, key, useNewFormat);
+        PinStorage.Entries entries = pinsStorage.entries();
+        for (int i = 0; i < entries.size(); i++) {
+            long key = entries.keys[i];
+            if ((targetId == ANY_TARGET || targetId == PinStorage.deviceId(key)) && appChannel.isWritable()) {
+                entries.values[i].sendAppSync(appChannel, id, PinStorage.toStorageKey(key), useNewFormat);
             }
         }
     }
@@ -609,6 +644,7 @@ public class DashBoard {
         //do not update devices by purpose
         //this.devices = parent.devices;
         this.widgets = copyWidgetsAndPreservePrevValues(this.widgets, parent.widgets);
+        invalidatePinIndex();
         //export app specific requirement
         for (Widget widget : widgets) {
             widget.isDefaultColor = false;
@@ -0,0 +1,64 @@
+package cc.blynk.server.core.model;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.storage.PinStorageValue;
+import cc.blynk.server.core.model.storage.SinglePinStorageValue;
+import cc.blynk.server.core.model.widgets.Widget;
+import cc.blynk.server.core.model.widgets.others.webhook.WebHook;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index of the dashboard widgets by device pin, so hardware writes don't scan all dashboard widgets.
+ * Entries are created lazily on the first access of the pin.
+ * Index is built for the specific widgets array and is dropped when dashboard structure changes.
+ */
+final class PinWidgetsIndex {
+
+    private static final Widget[] NO_WIDGETS = {};
+
+    final Widget[] widgets;
+    private final ConcurrentHashMap<Long, PinWidgets> pins = new ConcurrentHashMap<>();
+
+    PinWidgetsIndex(Widget[] widgets) {
+        this.widgets = widgets;
+    }
+
+    static long key(int deviceId, byte pin, PinType pinType) {
+        return ((long) deviceId << 16) | (pinType.ordinal() << 8) | (pin & 0xFF);
+    }
+
+    PinWidgets get(long key) {
+        return pins.get(key);
+    }
+
+    PinWidgets add(long key, PinWidgets pinWidgets) {
+        PinWidgets prev = pins.putIfAbsent(key, pinWidgets);
+        return prev == null ? pinWidgets : prev;
+    }
+
+    /**
+     * Everything that is involved into the write to the pin.
+     */
+    static final class PinWidgets {
+
+        //widgets that are updated with the pin value, in the dashboard order
+        final Widget[] widgets;
+        final WebHook webHook;
+        final boolean needRawData;
+        //multi value widget that defines storage for the pin without widget or null
+        private final Widget storageWidget;
+
+        PinWidgets(Widget[] widgets, WebHook webHook, boolean needRawData, Widget storageWidget) {
+            this.widgets = widgets.length == 0 ? NO_WIDGETS : widgets;
+            this.webHook = webHook;
+            this.needRawData = needRawData;
+            this.storageWidget = storageWidget;
+        }
+
+        PinStorageValue newStorageValue() {
+            return storageWidget == null ? new SinglePinStorageValue() : storageWidget.getPinStorageValue();
+        }
+    }
+
+}
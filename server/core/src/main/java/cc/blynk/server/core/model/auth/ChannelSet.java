@@ -0,0 +1,80 @@
+package cc.blynk.server.core.model.auth;
+
+import io.netty.channel.Channel;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Channels of the session. Set is changed only within the event loop of the session,
+ * so there is no contention between writers. Readers from any thread iterate over
+ * immutable snapshot of the channels without any locking.
+ * Set can't be changed via Set API.
+ */
+public final class ChannelSet extends AbstractSet<Channel> {
+
+    private static final Channel[] EMPTY = {};
+
+    private volatile Channel[] channels = EMPTY;
+
+    private static int indexOf(Channel[] channels, Object channel) {
+        for (int i = 0; i < channels.length; i++) {
+            if (channels[i] == channel) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    //should be called only from the session loop
+    boolean addChannel(Channel channel) {
+        Channel[] current = channels;
+        if (indexOf(current, channel) != -1) {
+            return false;
+        }
+        Channel[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = channel;
+        channels = updated;
+        return true;
+    }
+
+    //should be called only from the session loop
+    boolean removeChannel(Channel channel) {
+        Channel[] current = channels;
+        int index = indexOf(current, channel);
+        if (index == -1) {
+            return false;
+        }
+        if (current.length == 1) {
+            channels = EMPTY;
+            return true;
+        }
+        Channel[] updated = new Channel[current.length - 1];
+        System.arraycopy(current, 0, updated, 0, index);
+        System.arraycopy(current, index + 1, updated, index, updated.length - index);
+        channels = updated;
+        return true;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return indexOf(channels, o) != -1;
+    }
+
+    @Override
+    public Iterator<Channel> iterator() {
+        return Arrays.asList(channels).iterator();
+    }
+
+    @Override
+    public int size() {
+        return channels.length;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return channels.length == 0;
+    }
+
+}
@@ -3,25 +3,31 @@ package cc.blynk.server.core.model.auth;
 import cc.blynk.server.common.BaseSimpleChannelInboundHandler;
 import cc.blynk.server.core.protocol.handlers.decoders.AppMessageDecoder;
 import cc.blynk.server.core.protocol.handlers.decoders.MessageDecoder;
+import cc.blynk.server.core.protocol.handlers.encoders.AppMessageEncoder;
+import cc.blynk.server.core.protocol.handlers.encoders.MessageEncoder;
+import cc.blynk.server.core.protocol.handlers.encoders.WebAppMessageEncoder;
+import cc.blynk.server.core.protocol.model.messages.EncodedMessage;
 import cc.blynk.server.core.protocol.model.messages.StringMessage;
 import cc.blynk.server.core.session.HardwareStateHolder;
-import cc.blynk.utils.ArrayUtil;
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPipeline;
 import io.netty.channel.EventLoop;
-import io.netty.util.internal.ConcurrentSet;
+import io.netty.util.AttributeKey;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.util.HashSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static cc.blynk.server.internal.CommonByteBufUtil.deviceOffline;
 import static cc.blynk.server.internal.CommonByteBufUtil.makeUTF8StringMessage;
 import static cc.blynk.server.internal.StateHolderUtil.getHardState;
-import static cc.blynk.server.internal.StateHolderUtil.isSameDash;
-import static cc.blynk.server.internal.StateHolderUtil.isSameDashAndDeviceId;
 import static cc.blynk.utils.StringUtils.prependDashIdAndDeviceId;
 
 /**
@@ -30,17 +36,32 @@ import static cc.blynk.utils.StringUtils.prependDashIdAndDeviceId;
  * Created on 2/1/2015.
  * <p>
  * DefaultChannelGroup.java too complicated. so doing in simple way for now.
+ *
+ * Channels and routing indexes are changed only within the initialEventLoop
+ * (channels are re-registered on it during login), other threads read copy-on-write snapshots.
  */
 public class Session {
 
     private static final Logger log = LogManager.getLogger(Session.class);
 
+    //wire format of the channel, defined once when channel is added to the session
+    private static final AttributeKey<EncodedMessage.Format> FORMAT = AttributeKey.valueOf("EncodedMessageFormat");
+
     public final EventLoop initialEventLoop;
-    public final Set<Channel> appChannels = new ConcurrentSet<>();
-    public final Set<Channel> hardwareChannels = new ConcurrentSet<>();
+    public final ChannelSet appChannels = new ChannelSet();
+    public final ChannelSet hardwareChannels = new ChannelSet();
+
+    //routing indexes, so messages are delivered without scan of all user channels.
+    //device key -> (channel -> state), see deviceKey(). Values are immutable snapshots
+    private final ConcurrentHashMap<Long, Map<Channel, HardwareStateHolder>> hardwareChannelsByDevice =
+            new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, Map<Channel, HardwareStateHolder>> hardwareChannelsByDash =
+            new ConcurrentHashMap<>();
+    //main app receives messages of all dashboards, shared app only of the shared one
+    private final ChannelSet allDashesAppChannels = new ChannelSet();
+    private final ConcurrentHashMap<Integer, ChannelSet> sharedAppChannelsByDash = new ConcurrentHashMap<>();
 
-    private final ChannelFutureListener appRemover = future -> appChannels.remove(future.channel());
-    private final ChannelFutureListener hardRemover = future -> hardwareChannels.remove(future.channel());
+    private final ChannelFutureListener appRemover = future -> removeAppChannel(future.channel());
 
     public Session(EventLoop initialEventLoop) {
         this.initialEventLoop = initialEventLoop;
@@ -75,72 +96,210 @@ public class Session {
         return appHandler != null && appHandler.getState().contains(sharedToken);
     }
 
+    private static long deviceKey(int dashId, int deviceId) {
+        return ((long) dashId << 32) | (deviceId & 0xFFFFFFFFL);
+    }
+
+    //index is changed only within the session loop, so plain get and put are enough
+    private static <K, V> void addToIndex(ConcurrentHashMap<K, Map<Channel, V>> index,
+                                          K key, Channel channel, V value) {
+        Map<Channel, V> channels = index.get(key);
+        channels = channels == null ? new HashMap<>(2) : new HashMap<>(channels);
+        channels.put(channel, value);
+        index.put(key, channels);
+    }
+
+    private static <K, V> void removeFromIndex(ConcurrentHashMap<K, Map<Channel, V>> index, K key, Channel channel) {
+        Map<Channel, V> channels = index.get(key);
+        if (channels == null || !channels.containsKey(channel)) {
+            return;
+        }
+        //empty entries are removed, so key presence means there is connected channel
+        if (channels.size() == 1) {
+            index.remove(key);
+        } else {
+            channels = new HashMap<>(channels);
+            channels.remove(channel);
+            index.put(key, channels);
+        }
+    }
+
+    private void runInLoop(Runnable task) {
+        if (initialEventLoop.inEventLoop()) {
+            task.run();
+        } else {
+            initialEventLoop.execute(task);
+        }
+    }
+
+    /**
+     * @return - format of the encoder in the channel pipeline or null if channel has no known encoder,
+     *           in that case broadcast message is written as is.
+     */
+    private static EncodedMessage.Format detectFormat(Channel channel) {
+        ChannelPipeline pipeline = channel.pipeline();
+        if (pipeline.get(MessageEncoder.class) != null) {
+            return EncodedMessage.Format.HARDWARE;
+        }
+        if (pipeline.get(AppMessageEncoder.class) != null) {
+            return EncodedMessage.Format.APP;
+        }
+        if (pipeline.get(WebAppMessageEncoder.class) != null) {
+            return EncodedMessage.Format.WEB_APP;
+        }
+        return null;
+    }
+
+    /**
+     * Adds main app channel, that receives messages of all dashboards.
+     */
     public void addAppChannel(Channel appChannel) {
-        if (appChannels.add(appChannel)) {
+        if (!initialEventLoop.inEventLoop()) {
+            initialEventLoop.execute(() -> addAppChannel(appChannel));
+            return;
+        }
+        if (appChannels.addChannel(appChannel)) {
+            appChannel.attr(FORMAT).set(detectFormat(appChannel));
+            allDashesAppChannels.addChannel(appChannel);
             appChannel.closeFuture().addListener(appRemover);
         }
     }
 
-    public void addHardChannel(Channel hardChannel) {
-        if (hardwareChannels.add(hardChannel)) {
-            hardChannel.closeFuture().addListener(hardRemover);
-        }
+    private void removeAppChannel(Channel appChannel) {
+        runInLoop(() -> {
+            appChannels.removeChannel(appChannel);
+            allDashesAppChannels.removeChannel(appChannel);
+        });
     }
 
-    private Set<Channel> filter(int bodySize, int activeDashId, int[] deviceIds) {
-        Set<Channel> targetChannels = new HashSet<>();
-        for (Channel channel : hardwareChannels) {
-            HardwareStateHolder hardwareState = getHardState(channel);
-            if (hardwareState != null && hardwareState.dash.id == activeDashId
-                    && (deviceIds.length == 0 || ArrayUtil.contains(deviceIds, hardwareState.device.id))) {
-                if (hardwareState.device.fitsBufferSize(bodySize)) {
-                    targetChannels.add(channel);
-                } else {
-                    log.trace("Message is to large. Size {}.", bodySize);
+    /**
+     * Adds shared app channel, that receives messages only of the given dashboard.
+     */
+    public void addAppChannel(Channel appChannel, int dashId) {
+        if (!initialEventLoop.inEventLoop()) {
+            initialEventLoop.execute(() -> addAppChannel(appChannel, dashId));
+            return;
+        }
+        if (appChannels.addChannel(appChannel)) {
+            appChannel.attr(FORMAT).set(detectFormat(appChannel));
+            sharedAppChannelsByDash.computeIfAbsent(dashId, k -> new ChannelSet()).addChannel(appChannel);
+            appChannel.closeFuture().addListener(future -> runInLoop(() -> {
+                appChannels.removeChannel(appChannel);
+                ChannelSet channels = sharedAppChannelsByDash.get(dashId);
+                if (channels != null && channels.removeChannel(appChannel) && channels.isEmpty()) {
+                    sharedAppChannelsByDash.remove(dashId);
                 }
-            }
+            }));
         }
-        return targetChannels;
     }
 
-    private Set<Channel> filter(int bodySize, int activeDashId, int deviceId) {
-        Set<Channel> targetChannels = new HashSet<>();
-        for (Channel channel : hardwareChannels) {
-            HardwareStateHolder hardwareState = getHardState(channel);
-            if (hardwareState != null && hardwareState.isSameDashAndDeviceId(activeDashId, deviceId)) {
-                if (hardwareState.device.fitsBufferSize(bodySize)) {
-                    targetChannels.add(channel);
-                } else {
-                    log.trace("Message is to large. Size {}.", bodySize);
-                }
-            }
+    /**
+     * Hardware channel should already have HardwareStateHolder in the pipeline.
+     */
+    public void addHardChannel(Channel hardChannel) {
+        HardwareStateHolder hardwareState = getHardState(hardChannel);
+        if (hardwareState == null) {
+            log.warn("Hardware channel without state. {}", hardChannel);
+            return;
+        }
+        if (!initialEventLoop.inEventLoop()) {
+            initialEventLoop.execute(() -> addHardChannel(hardChannel));
+            return;
+        }
+        if (hardwareChannels.addChannel(hardChannel)) {
+            hardChannel.attr(FORMAT).set(detectFormat(hardChannel));
+            int dashId = hardwareState.dash.id;
+            long deviceKey = deviceKey(dashId, hardwareState.device.id);
+            addToIndex(hardwareChannelsByDevice, deviceKey, hardChannel, hardwareState);
+            addToIndex(hardwareChannelsByDash, dashId, hardChannel, hardwareState);
+            hardChannel.closeFuture().addListener(future -> runInLoop(() -> {
+                hardwareChannels.removeChannel(hardChannel);
+                removeFromIndex(hardwareChannelsByDevice, deviceKey, hardChannel);
+                removeFromIndex(hardwareChannelsByDash, dashId, hardChannel);
+            }));
         }
-        return targetChannels;
     }
 
     public boolean sendMessageToHardware(int activeDashId, short cmd, int msgId, String body, int deviceId) {
-        return hardwareChannels.size() == 0
-                || sendMessageToHardware(filter(body.length(), activeDashId, deviceId), cmd, msgId, body);
+        Map<Channel, HardwareStateHolder> targets = hardwareChannelsByDevice.get(deviceKey(activeDashId, deviceId));
+        return noTargets(sendToHardware(targets, null, cmd, msgId, body));
     }
 
     public boolean sendMessageToHardware(int activeDashId, short cmd, int msgId, String body, int... deviceIds) {
-        return hardwareChannels.size() == 0
-                || sendMessageToHardware(filter(body.length(), activeDashId, deviceIds), cmd, msgId, body);
+        if (deviceIds.length == 0) {
+            return noTargets(sendToHardware(hardwareChannelsByDash.get(activeDashId), null, cmd, msgId, body));
+        }
+        Broadcast broadcast = null;
+        for (int deviceId : deviceIds) {
+            broadcast = sendToHardware(hardwareChannelsByDevice.get(deviceKey(activeDashId, deviceId)),
+                    broadcast, cmd, msgId, body);
+        }
+        return noTargets(broadcast);
     }
 
     public boolean sendMessageToHardware(short cmd, int msgId, String body) {
-        return sendMessageToHardware(hardwareChannels, cmd, msgId, body);
+        if (hardwareChannels.size() == 0) {
+            return true; // -> no active hardware
+        }
+
+        Broadcast broadcast = new Broadcast(makeUTF8StringMessage(cmd, msgId, body));
+        send(hardwareChannels, broadcast);
+        broadcast.release();
+        return false; // -> there is active hardware
     }
 
-    private boolean sendMessageToHardware(Set<Channel> targetChannels, short cmd, int msgId, String body) {
-        int channelsNum = targetChannels.size();
-        if (channelsNum == 0) {
-            return true; // -> no active hardware
+    /**
+     * Sends all messages to the device channels with one flush per channel at the end.
+     */
+    public boolean sendMessagesToHardware(int activeDashId, short cmd, int msgId, List<String> bodies, int deviceId) {
+        Map<Channel, HardwareStateHolder> targets = hardwareChannelsByDevice.get(deviceKey(activeDashId, deviceId));
+        if (targets == null) {
+            return true;
+        }
+        boolean noTargets = true;
+        for (String body : bodies) {
+            noTargets &= noTargets(sendToHardware(targets, null, cmd, msgId, body, false));
         }
+        flush(targets.keySet());
+        return noTargets;
+    }
 
-        send(targetChannels, cmd, msgId, body);
+    private static Broadcast sendToHardware(Map<Channel, HardwareStateHolder> targets, Broadcast broadcast,
+                                            short cmd, int msgId, String body) {
+        return sendToHardware(targets, broadcast, cmd, msgId, body, true);
+    }
 
-        return false; // -> there is active hardware
+    /**
+     * Message is created only once and only when there is at least 1 target that accepts message of such size.
+     *
+     * @param broadcast - already created broadcast or null
+     * @return - used broadcast or null if there was no target
+     */
+    private static Broadcast sendToHardware(Map<Channel, HardwareStateHolder> targets, Broadcast broadcast,
+                                            short cmd, int msgId, String body, boolean flush) {
+        if (targets == null) {
+            return broadcast;
+        }
+        int bodySize = body.length();
+        for (Map.Entry<Channel, HardwareStateHolder> target : targets.entrySet()) {
+            if (target.getValue().device.fitsBufferSize(bodySize)) {
+                if (broadcast == null) {
+                    broadcast = new Broadcast(makeUTF8StringMessage(cmd, msgId, body));
+                }
+                broadcast.send(target.getKey(), flush);
+            } else {
+                log.trace("Message is to large. Size {}.", bodySize);
+            }
+        }
+        return broadcast;
+    }
+
+    private static boolean noTargets(Broadcast broadcast) {
+        if (broadcast == null) {
+            return true;
+        }
+        broadcast.release();
+        return false;
     }
 
     public boolean isHardwareConnected() {
@@ -148,30 +307,17 @@ public class Session {
     }
 
     public boolean isHardwareConnected(int dashId, int deviceId) {
-        for (Channel channel : hardwareChannels) {
-            if (isSameDashAndDeviceId(channel, dashId, deviceId)) {
-                return true;
-            }
-        }
-        return false;
+        return hardwareChannelsByDevice.containsKey(deviceKey(dashId, deviceId));
     }
 
     public boolean isHardwareConnected(int dashId) {
-        for (Channel channel : hardwareChannels) {
-            if (isSameDash(channel, dashId)) {
-                return true;
-            }
-        }
-        return false;
+        return hardwareChannelsByDash.containsKey(dashId);
     }
 
     public void sendOfflineMessageToApps(int dashId, int deviceId) {
-        int targetsNum = appChannels.size();
-        if (targetsNum > 0) {
+        if (isAppConnected()) {
             log.trace("Sending device offline message.");
-
-            StringMessage deviceOfflineMessage = deviceOffline(dashId, deviceId);
-            sendMessageToMultipleReceivers(appChannels, deviceOfflineMessage);
+            sendToApps(dashId, deviceOffline(dashId, deviceId));
         }
     }
 
@@ -183,48 +329,76 @@ public class Session {
     }
 
     public void sendToApps(short cmd, int msgId, int dashId, String finalBody) {
-        Set<Channel> targetChannels = filterByDash(dashId);
-
-        int targetsNum = targetChannels.size();
-        if (targetsNum > 0) {
-            send(targetChannels, cmd, msgId, finalBody);
+        if (isAppConnected(dashId)) {
+            sendToApps(dashId, makeUTF8StringMessage(cmd, msgId, finalBody));
         }
     }
 
-    private Set<Channel> filterByDash(int dashId) {
-        Set<Channel> targetChannels = new HashSet<>();
-        for (Channel channel : appChannels) {
-            if (isSameDash(channel, dashId)) {
-                targetChannels.add(channel);
+    /**
+     * Sends all messages to the app channels with one flush per channel at the end.
+     */
+    public void sendToApps(short cmd, int msgId, int dashId, int deviceId, List<String> bodies) {
+        if (!isAppConnected() || !isAppConnected(dashId)) {
+            return;
+        }
+        ChannelSet sharedAppChannels = sharedAppChannelsByDash.get(dashId);
+        for (String body : bodies) {
+            Broadcast broadcast = new Broadcast(
+                    makeUTF8StringMessage(cmd, msgId, prependDashIdAndDeviceId(dashId, deviceId, body)));
+            send(allDashesAppChannels, broadcast, false);
+            if (sharedAppChannels != null) {
+                send(sharedAppChannels, broadcast, false);
             }
+            broadcast.release();
+        }
+        flush(allDashesAppChannels);
+        if (sharedAppChannels != null) {
+            flush(sharedAppChannels);
+        }
+    }
+
+    private boolean isAppConnected(int dashId) {
+        return allDashesAppChannels.size() > 0 || sharedAppChannelsByDash.containsKey(dashId);
+    }
+
+    private void sendToApps(int dashId, StringMessage msg) {
+        Broadcast broadcast = new Broadcast(msg);
+        send(allDashesAppChannels, broadcast);
+        ChannelSet sharedAppChannels = sharedAppChannelsByDash.get(dashId);
+        if (sharedAppChannels != null) {
+            send(sharedAppChannels, broadcast);
         }
-        return targetChannels;
+        broadcast.release();
+    }
+
+    private static void send(Set<Channel> targets, Broadcast broadcast) {
+        send(targets, broadcast, true);
     }
 
-    private static void sendMessageToMultipleReceivers(Set<Channel> targets, StringMessage msg) {
+    private static void send(Set<Channel> targets, Broadcast broadcast, boolean flush) {
         for (Channel channel : targets) {
-            if (channel.isWritable()) {
-                channel.writeAndFlush(msg, channel.voidPromise());
-            }
+            broadcast.send(channel, flush);
         }
     }
 
-    private static void send(Set<Channel> targets, short cmd, int msgId, String body) {
-        StringMessage msg = makeUTF8StringMessage(cmd, msgId, body);
-        sendMessageToMultipleReceivers(targets, msg);
+    private static void flush(Set<Channel> targets) {
+        for (Channel channel : targets) {
+            channel.flush();
+        }
     }
 
     public void sendToSharedApps(Channel sendingChannel, String sharedToken, short cmd, int msgId, String body) {
-        Set<Channel> targetChannels = new HashSet<>();
+        Broadcast broadcast = null;
         for (Channel channel : appChannels) {
             if (channel != sendingChannel && needSync(channel, sharedToken)) {
-                targetChannels.add(channel);
+                if (broadcast == null) {
+                    broadcast = new Broadcast(makeUTF8StringMessage(cmd, msgId, body));
+                }
+                broadcast.send(channel);
             }
         }
-
-        int channelsNum = targetChannels.size();
-        if (channelsNum > 0) {
-            send(targetChannels, cmd, msgId, body);
+        if (broadcast != null) {
+            broadcast.release();
         }
     }
 
@@ -241,16 +415,16 @@ public class Session {
     }
 
     public void closeHardwareChannelByDeviceId(int dashId, int deviceId) {
-        for (Channel channel : hardwareChannels) {
-            if (isSameDashAndDeviceId(channel, dashId, deviceId)) {
-                channel.close();
-            }
-        }
+        close(hardwareChannelsByDevice.get(deviceKey(dashId, deviceId)));
     }
 
     public void closeHardwareChannelByDashId(int dashId) {
-        for (Channel channel : hardwareChannels) {
-            if (isSameDash(channel, dashId)) {
+        close(hardwareChannelsByDash.get(dashId));
+    }
+
+    private static void close(Map<Channel, HardwareStateHolder> channels) {
+        if (channels != null) {
+            for (Channel channel : channels.keySet()) {
                 channel.close();
             }
         }
@@ -261,4 +435,57 @@ public class Session {
         appChannels.forEach(io.netty.channel.Channel::close);
     }
 
+    /**
+     * Message that is sent to many channels. Message is serialized at most once per wire format
+     * and every channel gets retained duplicate of the same pooled buffer.
+     * Should be released after all sends.
+     */
+    private static final class Broadcast {
+
+        private static final EncodedMessage.Format[] FORMATS = EncodedMessage.Format.values();
+
+        private final StringMessage msg;
+        private final ByteBuf[] encoded = new ByteBuf[FORMATS.length];
+
+        Broadcast(StringMessage msg) {
+            this.msg = msg;
+        }
+
+        void send(Channel channel) {
+            send(channel, true);
+        }
+
+        //without flush caller should flush channel after all writes
+        void send(Channel channel, boolean flush) {
+            if (!channel.isWritable()) {
+                return;
+            }
+            EncodedMessage.Format format = channel.attr(FORMAT).get();
+            Object message;
+            if (format == null) {
+                message = msg;
+            } else {
+                ByteBuf buf = encoded[format.ordinal()];
+                if (buf == null) {
+                    buf = format.encode(channel.alloc(), msg);
+                    encoded[format.ordinal()] = buf;
+                }
+                message = new EncodedMessage(msg.command, buf.retainedDuplicate());
+            }
+            if (flush) {
+                channel.writeAndFlush(message, channel.voidPromise());
+            } else {
+                channel.write(message, channel.voidPromise());
+            }
+        }
+
+        void release() {
+            for (ByteBuf buf : encoded) {
+                if (buf != null) {
+                    buf.release();
+                }
+            }
+        }
+    }
+
 }
@@ -14,7 +14,7 @@ import static cc.blynk.utils.StringUtils.BODY_SEPARATOR;
  */
 public final class PinPropertyStorageKey extends PinStorageKey {
 
-    private final WidgetProperty property;
+    public final WidgetProperty property;
 
     public PinPropertyStorageKey(int deviceId, PinType pinType, byte pin, WidgetProperty property) {
         super(deviceId, pinType, pin);
@@ -0,0 +1,228 @@
+package cc.blynk.server.core.model.storage;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.enums.WidgetProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * Values of the dashboard pins that have no widget and values of the widget properties.
+ *
+ * Key is packed into long : device id, pin type, pin and widget property, so lookups don't
+ * create key objects. Entries are kept in the sorted arrays that are replaced on every
+ * add or remove (copy-on-write), so reads and iterations are lock-free and don't copy anything.
+ * New keys are rare comparing to the updates of the existing values, as values are updated
+ * within PinStorageValue.
+ *
+ * Serialized as map, in the same format as it was Map<PinStorageKey, PinStorageValue>.
+ */
+@JsonSerialize(using = PinStorageSerializer.class)
+@JsonDeserialize(using = PinStorageDeserializer.class)
+public final class PinStorage {
+
+    //key : 32 bits device id, 8 bits pin type, 8 bits pin, 8 bits widget property
+    private static final int NO_PROPERTY = 0;
+    private static final long PROPERTY_MASK = 0xFFL;
+    private static final long DEVICE_MASK = 0xFFFFFFFFL;
+    private static final PinType[] PIN_TYPES = PinType.values();
+    private static final WidgetProperty[] PROPERTIES = WidgetProperty.values();
+
+    private static final Entries EMPTY = new Entries(new long[0], new PinStorageValue[0]);
+
+    private volatile Entries entries;
+
+    public PinStorage() {
+        this.entries = EMPTY;
+    }
+
+    //bulk load, used for the profile reading, so every value doesn't copy the arrays
+    PinStorage(SortedMap<Long, PinStorageValue> values) {
+        long[] keys = new long[values.size()];
+        PinStorageValue[] pinStorageValues = new PinStorageValue[values.size()];
+        int i = 0;
+        for (Map.Entry<Long, PinStorageValue> entry : values.entrySet()) {
+            keys[i] = entry.getKey();
+            pinStorageValues[i] = entry.getValue();
+            i++;
+        }
+        this.entries = i == 0 ? EMPTY : new Entries(keys, pinStorageValues);
+    }
+
+    private static long key(int deviceId, PinType pinType, byte pin, int property) {
+        return ((long) deviceId << 32) | (pinType.ordinal() << 16) | ((pin & 0xFF) << 8) | property;
+    }
+
+    public static long key(int deviceId, PinType pinType, byte pin) {
+        return key(deviceId, pinType, pin, NO_PROPERTY);
+    }
+
+    public static long key(int deviceId, PinType pinType, byte pin, WidgetProperty property) {
+        return key(deviceId, pinType, pin, property.ordinal() + 1);
+    }
+
+    public static long key(PinStorageKey key) {
+        PinType pinType = PinType.getPinType(key.pinTypeChar);
+        if (key instanceof PinPropertyStorageKey) {
+            return key(key.deviceId, pinType, key.pin, ((PinPropertyStorageKey) key).property);
+        }
+        return key(key.deviceId, pinType, key.pin);
+    }
+
+    public static int deviceId(long key) {
+        return (int) (key >> 32);
+    }
+
+    public static PinType pinType(long key) {
+        return PIN_TYPES[(int) (key >>> 16) & 0xFF];
+    }
+
+    public static byte pin(long key) {
+        return (byte) (key >>> 8);
+    }
+
+    public static boolean isProperty(long key) {
+        return (key & PROPERTY_MASK) != NO_PROPERTY;
+    }
+
+    public static PinStorageKey toStorageKey(long key) {
+        int property = (int) (key & PROPERTY_MASK);
+        if (property == NO_PROPERTY) {
+            return new PinStorageKey(deviceId(key), pinType(key), pin(key));
+        }
+        return new PinPropertyStorageKey(deviceId(key), pinType(key), pin(key), PROPERTIES[property - 1]);
+    }
+
+    public PinStorageValue get(long key) {
+        Entries entries = this.entries;
+        int index = Arrays.binarySearch(entries.keys, key);
+        return index < 0 ? null : entries.values[index];
+    }
+
+    public PinStorageValue get(int deviceId, PinType pinType, byte pin) {
+        return get(key(deviceId, pinType, pin));
+    }
+
+    public PinStorageValue get(PinStorageKey key) {
+        return get(key(key));
+    }
+
+    /**
+     * @return - existing value or null if value was added
+     */
+    public synchronized PinStorageValue putIfAbsent(long key, PinStorageValue value) {
+        Entries entries = this.entries;
+        int index = Arrays.binarySearch(entries.keys, key);
+        if (index >= 0) {
+            return entries.values[index];
+        }
+        this.entries = entries.insert(-index - 1, key, value);
+        return null;
+    }
+
+    public synchronized void put(long key, PinStorageValue value) {
+        Entries entries = this.entries;
+        int index = Arrays.binarySearch(entries.keys, key);
+        if (index >= 0) {
+            PinStorageValue[] values = entries.values.clone();
+            values[index] = value;
+            this.entries = new Entries(entries.keys, values);
+        } else {
+            this.entries = entries.insert(-index - 1, key, value);
+        }
+    }
+
+    public void put(PinStorageKey key, PinStorageValue value) {
+        put(key(key), value);
+    }
+
+    public void remove(int deviceId, PinType pinType, byte pin, boolean removeProperties) {
+        long key = key(deviceId, pinType, pin);
+        //properties of the pin follow the pin value in the sorted keys
+        removeRange(key, removeProperties ? key | PROPERTY_MASK : key);
+    }
+
+    public void removeDevice(int deviceId) {
+        long from = (long) deviceId << 32;
+        removeRange(from, from | DEVICE_MASK);
+    }
+
+    //removes keys from 'from' to 'to' inclusive
+    private synchronized void removeRange(long from, long to) {
+        Entries entries = this.entries;
+        int start = Arrays.binarySearch(entries.keys, from);
+        start = start < 0 ? -start - 1 : start;
+        //keys are unique, so the end is after the found key
+        int end = Arrays.binarySearch(entries.keys, to);
+        end = end < 0 ? -end - 1 : end + 1;
+        if (start < end) {
+            this.entries = entries.remove(start, end);
+        }
+    }
+
+    public synchronized void clear() {
+        this.entries = EMPTY;
+    }
+
+    public int size() {
+        return entries.keys.length;
+    }
+
+    public boolean isEmpty() {
+        return entries.keys.length == 0;
+    }
+
+    /**
+     * @return - immutable snapshot of the storage for iteration. Arrays should not be modified.
+     */
+    public Entries entries() {
+        return entries;
+    }
+
+    public static final class Entries {
+
+        //sorted
+        public final long[] keys;
+        public final PinStorageValue[] values;
+
+        private Entries(long[] keys, PinStorageValue[] values) {
+            this.keys = keys;
+            this.values = values;
+        }
+
+        public int size() {
+            return keys.length;
+        }
+
+        private Entries insert(int index, long key, PinStorageValue value) {
+            int size = keys.length;
+            long[] newKeys = new long[size + 1];
+            PinStorageValue[] newValues = new PinStorageValue[size + 1];
+            System.arraycopy(keys, 0, newKeys, 0, index);
+            System.arraycopy(values, 0, newValues, 0, index);
+            newKeys[index] = key;
+            newValues[index] = value;
+            System.arraycopy(keys, index, newKeys, index + 1, size - index);
+            System.arraycopy(values, index, newValues, index + 1, size - index);
+            return new Entries(newKeys, newValues);
+        }
+
+        private Entries remove(int start, int end) {
+            int size = keys.length - (end - start);
+            if (size == 0) {
+                return EMPTY;
+            }
+            long[] newKeys = new long[size];
+            PinStorageValue[] newValues = new PinStorageValue[size];
+            System.arraycopy(keys, 0, newKeys, 0, start);
+            System.arraycopy(values, 0, newValues, 0, start);
+            System.arraycopy(keys, end, newKeys, start, keys.length - end);
+            System.arraycopy(values, end, newValues, start, keys.length - end);
+            return new Entries(newKeys, newValues);
+        }
+    }
+
+}
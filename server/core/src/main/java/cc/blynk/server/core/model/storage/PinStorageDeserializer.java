@@ -0,0 +1,43 @@
+package cc.blynk.server.core.model.storage;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+
+import java.io.IOException;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Reads pin storage map. Keys and values are parsed in the same way as for the
+ * Map<PinStorageKey, PinStorageValue>, so all stored profiles are compatible.
+ * Entries with broken values are skipped.
+ */
+public class PinStorageDeserializer extends JsonDeserializer<PinStorage> {
+
+    private final PinStorageKeyDeserializer keyDeserializer = new PinStorageKeyDeserializer();
+    private final PinStorageValueDeserializer valueDeserializer = new PinStorageValueDeserializer();
+
+    @Override
+    public PinStorage deserialize(JsonParser p, DeserializationContext ctx) throws IOException {
+        SortedMap<Long, PinStorageValue> values = new TreeMap<>();
+        JsonToken token = p.currentToken();
+        if (token == JsonToken.START_OBJECT) {
+            token = p.nextToken();
+        }
+        while (token == JsonToken.FIELD_NAME) {
+            PinStorageKey key = keyDeserializer.deserializeKey(p.getCurrentName(), ctx);
+            p.nextToken();
+            PinStorageValue value = (PinStorageValue) valueDeserializer.deserialize(p, ctx);
+            if (value == null) {
+                p.skipChildren();
+            } else {
+                values.put(PinStorage.key(key), value);
+            }
+            token = p.nextToken();
+        }
+        return new PinStorage(values);
+    }
+
+}
@@ -0,0 +1,31 @@
+package cc.blynk.server.core.model.storage;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+
+import java.io.IOException;
+
+/**
+ * Writes pin storage as map of "deviceId-pin[-property]" keys, see PinStorageKey.toString().
+ */
+public class PinStorageSerializer extends JsonSerializer<PinStorage> {
+
+    @Override
+    public void serialize(PinStorage pinStorage, JsonGenerator jsonGenerator,
+                          SerializerProvider serializers) throws IOException {
+        PinStorage.Entries entries = pinStorage.entries();
+        jsonGenerator.writeStartObject();
+        for (int i = 0; i < entries.size(); i++) {
+            jsonGenerator.writeFieldName(PinStorage.toStorageKey(entries.keys[i]).toString());
+            serializers.defaultSerializeValue(entries.values[i], jsonGenerator);
+        }
+        jsonGenerator.writeEndObject();
+    }
+
+    @Override
+    public boolean isEmpty(SerializerProvider provider, PinStorage pinStorage) {
+        return pinStorage.isEmpty();
+    }
+
+}
@@ -15,6 +15,6 @@ public interface FrequencyWidget {
 
     int getDeviceId();
 
-    boolean isTicked(long now);
+    int getFrequency();
 
 }
@@ -16,15 +16,9 @@ public abstract class OnePinReadingWidget extends OnePinWidget implements Freque
 
     public int frequency;
 
-    private transient long lastRequestTS;
-
     @Override
-    public boolean isTicked(long now) {
-        if (frequency > 0 && now >= lastRequestTS + frequency) {
-            this.lastRequestTS = now;
-            return true;
-        }
-        return false;
+    public int getFrequency() {
+        return frequency;
     }
 
     @Override
@@ -0,0 +1,112 @@
+package cc.blynk.server.core.model.widgets.others.eventor;
+
+import cc.blynk.server.core.model.DataStream;
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.widgets.Widget;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Eventor rules of the dashboard grouped by trigger pin, so hardware write
+ * evaluates only rules that target the written pin.
+ * Compiled for the specific widgets array and rebuilt when it is replaced.
+ */
+public final class CompiledEventor {
+
+    private static final int[] NO_KEYS = {};
+    private static final PinRules[] NO_PIN_RULES = {};
+
+    public final Widget[] widgets;
+    public final Eventor eventor;
+    //sorted, for binary search without boxing
+    private final int[] pinKeys;
+    private final PinRules[] pinRules;
+
+    private CompiledEventor(Widget[] widgets, Eventor eventor, int[] pinKeys, PinRules[] pinRules) {
+        this.widgets = widgets;
+        this.eventor = eventor;
+        this.pinKeys = pinKeys;
+        this.pinRules = pinRules;
+    }
+
+    public static CompiledEventor compile(Widget[] widgets) {
+        Eventor eventor = null;
+        for (Widget widget : widgets) {
+            if (widget instanceof Eventor) {
+                eventor = (Eventor) widget;
+                break;
+            }
+        }
+        if (eventor == null || eventor.rules == null) {
+            return new CompiledEventor(widgets, eventor, NO_KEYS, NO_PIN_RULES);
+        }
+
+        Map<Integer, List<Rule>> rulesByPin = new TreeMap<>();
+        for (Rule rule : eventor.rules) {
+            if (rule.isValidTriggerRule()) {
+                DataStream dataStream = rule.triggerDataStream;
+                if (dataStream.pinType != null) {
+                    add(rulesByPin, key(dataStream.pin, dataStream.pinType), rule);
+                }
+                //pwm pins are also triggered by analog writes
+                if (dataStream.pwmMode && dataStream.pinType != PinType.ANALOG) {
+                    add(rulesByPin, key(dataStream.pin, PinType.ANALOG), rule);
+                }
+            }
+        }
+
+        int[] pinKeys = new int[rulesByPin.size()];
+        PinRules[] pinRules = new PinRules[rulesByPin.size()];
+        int i = 0;
+        for (Map.Entry<Integer, List<Rule>> entry : rulesByPin.entrySet()) {
+            pinKeys[i] = entry.getKey();
+            pinRules[i] = new PinRules(entry.getValue().toArray(new Rule[0]));
+            i++;
+        }
+        return new CompiledEventor(widgets, eventor, pinKeys, pinRules);
+    }
+
+    private static void add(Map<Integer, List<Rule>> rulesByPin, int key, Rule rule) {
+        rulesByPin.computeIfAbsent(key, k -> new ArrayList<>(1)).add(rule);
+    }
+
+    private static int key(byte pin, PinType pinType) {
+        return (pinType.ordinal() << 8) | (pin & 0xFF);
+    }
+
+    /**
+     * @return rules triggered by the pin or null if there are no such rules.
+     */
+    public PinRules get(byte pin, PinType pinType) {
+        if (pinKeys.length == 0) {
+            return null;
+        }
+        int index = Arrays.binarySearch(pinKeys, key(pin, pinType));
+        return index < 0 ? null : pinRules[index];
+    }
+
+    public static final class PinRules {
+
+        //in the order of eventor rules
+        public final Rule[] rules;
+        //when all conditions are string conditions trigger value is not parsed
+        public final boolean hasNumericCondition;
+
+        PinRules(Rule[] rules) {
+            this.rules = rules;
+            boolean hasNumericCondition = false;
+            for (Rule rule : rules) {
+                if (rule.condition.isNumeric()) {
+                    hasNumericCondition = true;
+                    break;
+                }
+            }
+            this.hasNumericCondition = hasNumericCondition;
+        }
+    }
+
+}
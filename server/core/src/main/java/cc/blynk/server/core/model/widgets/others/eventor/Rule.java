@@ -8,6 +8,8 @@ import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import cc.blynk.server.core.model.widgets.controls.Timer;
 
+import java.util.concurrent.atomic.LongAdder;
+
 /**
  * The Blynk Project.
  * Created by Dmitriy Dumanskiy.
@@ -28,6 +30,10 @@ public class Rule {
 
     public transient boolean isProcessed;
 
+    //how many times condition was checked and how many times actions were triggered
+    public final transient LongAdder evaluations = new LongAdder();
+    public final transient LongAdder hits = new LongAdder();
+
     @JsonCreator
     public Rule(@JsonProperty("triggerPin") DataStream triggerDataStream,
                 @JsonProperty("triggerTime") TimerTime triggerTime,
@@ -49,6 +55,10 @@ public class Rule {
         return isActive && notEmpty() && triggerDataStream.isSame(pin, pinType);
     }
 
+    public boolean isValidTriggerRule() {
+        return isActive && notEmpty();
+    }
+
     public boolean isValidTimerRule() {
         return isActive && triggerTime != null && Timer.isValidTime(triggerTime.time)
          && actions != null && actions.length > 0 && actions[0].isValid();
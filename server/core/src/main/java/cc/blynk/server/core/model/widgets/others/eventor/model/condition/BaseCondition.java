@@ -39,4 +39,11 @@ public abstract class BaseCondition {
 
     public abstract boolean matches(String inString, double in);
 
+    /**
+     * @return true if condition uses parsed double value of the trigger value.
+     */
+    public boolean isNumeric() {
+        return true;
+    }
+
 }
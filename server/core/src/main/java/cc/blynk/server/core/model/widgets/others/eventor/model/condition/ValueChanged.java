@@ -26,4 +26,9 @@ public class ValueChanged extends BaseCondition {
         return true;
     }
 
+    @Override
+    public boolean isNumeric() {
+        return false;
+    }
+
 }
@@ -23,4 +23,9 @@ public class StringEqual extends BaseCondition {
         return inString.equals(value);
     }
 
+    @Override
+    public boolean isNumeric() {
+        return false;
+    }
+
 }
@@ -23,4 +23,9 @@ public class StringNotEqual extends BaseCondition {
         return !inString.equals(value);
     }
 
+    @Override
+    public boolean isNumeric() {
+        return false;
+    }
+
 }
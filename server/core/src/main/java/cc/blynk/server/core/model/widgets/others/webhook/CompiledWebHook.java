@@ -0,0 +1,56 @@
+package cc.blynk.server.core.model.widgets.others.webhook;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Everything webhook needs for the request, prepared once per widget change.
+ */
+public final class CompiledWebHook {
+
+    private static final String CONTENT_TYPE = "Content-Type";
+    private static final Header[] NO_HEADERS = {};
+
+    //sources, to detect the change of the widget fields
+    private final String url;
+    private final Header[] headers;
+    private final String body;
+
+    //null when webhook has no url
+    public final WebHookTemplate urlTemplate;
+    public final Header[] validHeaders;
+    //body is sent only with Content-Type header, null otherwise
+    public final WebHookTemplate bodyTemplate;
+    public final boolean hasValueParts;
+
+    CompiledWebHook(String url, Header[] headers, String body) {
+        this.url = url;
+        this.headers = headers;
+        this.body = body;
+        this.urlTemplate = url == null ? null : WebHookTemplate.compile(url);
+
+        List<Header> validHeaders = new ArrayList<>();
+        boolean hasContentType = false;
+        if (headers != null) {
+            for (Header header : headers) {
+                if (header.isValid()) {
+                    validHeaders.add(header);
+                    if (CONTENT_TYPE.equals(header.name)) {
+                        hasContentType = true;
+                    }
+                }
+            }
+        }
+        this.validHeaders = validHeaders.isEmpty() ? NO_HEADERS : validHeaders.toArray(new Header[0]);
+        this.bodyTemplate = hasContentType && body != null && !body.isEmpty()
+                ? WebHookTemplate.compile(body)
+                : null;
+        this.hasValueParts = (urlTemplate != null && urlTemplate.hasValueParts)
+                || (bodyTemplate != null && bodyTemplate.hasValueParts);
+    }
+
+    boolean isCompiledFrom(String url, Header[] headers, String body) {
+        return this.url == url && this.headers == headers && this.body == body;
+    }
+
+}
@@ -24,10 +24,25 @@ public class WebHook extends OnePinWidget {
 
     public transient volatile int failureCounter = 0;
 
+    //url, headers and body prepared for sending, rebuilt when any of them is changed
+    private transient volatile CompiledWebHook compiled;
+
     public static boolean isValidUrl(String url) {
         return url != null && !url.isEmpty() && url.regionMatches(true, 0, "http", 0, 4);
     }
 
+    public CompiledWebHook getCompiled() {
+        CompiledWebHook compiled = this.compiled;
+        String url = this.url;
+        Header[] headers = this.headers;
+        String body = this.body;
+        if (compiled == null || !compiled.isCompiledFrom(url, headers, body)) {
+            compiled = new CompiledWebHook(url, headers, body);
+            this.compiled = compiled;
+        }
+        return compiled;
+    }
+
     public boolean isNotFailed(int webhookFailureLimit) {
         return failureCounter < webhookFailureLimit;
     }
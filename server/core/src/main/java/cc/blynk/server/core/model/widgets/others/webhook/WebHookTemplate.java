@@ -0,0 +1,200 @@
+package cc.blynk.server.core.model.widgets.others.webhook;
+
+import io.netty.util.concurrent.FastThreadLocal;
+
+import java.time.Instant;
+import java.util.Arrays;
+
+import static cc.blynk.utils.StringUtils.BODY_SEPARATOR;
+
+/**
+ * Webhook url or body split into literal and placeholder segments, so trigger value
+ * is substituted in a single pass instead of a regex replace per placeholder.
+ *
+ * Placeholders:
+ * /pin/ and %s - trigger value;
+ * /pin[0]/ ... /pin[9]/ - part of the multi value trigger value (values separated with \0),
+ * replaced only when value has from 1 to 10 parts, otherwise left as is;
+ * /datetime_iso/ - current time in ISO-8601.
+ * Only the first occurrence of every placeholder is replaced.
+ */
+public final class WebHookTemplate {
+
+    private static final byte VALUE = -1;
+    private static final byte DATETIME = -2;
+
+    private static final int MAX_PARTS = 10;
+    private static final int MAX_RETAINED_CAPACITY = 16 * 1024;
+
+    //in the order previous sequential replacement was done
+    private static final String[] PLACEHOLDERS = {
+            "/pin/",
+            "/pin[9]/", "/pin[8]/", "/pin[7]/", "/pin[6]/", "/pin[5]/",
+            "/pin[4]/", "/pin[3]/", "/pin[2]/", "/pin[1]/", "/pin[0]/",
+            "%s",
+            "/datetime_iso/"
+    };
+    private static final byte[] PLACEHOLDER_TYPES = {
+            VALUE,
+            9, 8, 7, 6, 5, 4, 3, 2, 1, 0,
+            VALUE,
+            DATETIME
+    };
+
+    private static final FastThreadLocal<StringBuilder> BUILDER = new FastThreadLocal<>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(256);
+        }
+    };
+
+    public final String source;
+    //literals.length == placeholders.length + 1, literal goes before every placeholder and after the last one
+    private final String[] literals;
+    private final byte[] placeholders;
+    public final boolean hasValueParts;
+    private final boolean hasDateTime;
+
+    private WebHookTemplate(String source, String[] literals, byte[] placeholders) {
+        this.source = source;
+        this.literals = literals;
+        this.placeholders = placeholders;
+        boolean hasValueParts = false;
+        boolean hasDateTime = false;
+        for (byte placeholder : placeholders) {
+            if (placeholder >= 0) {
+                hasValueParts = true;
+            } else if (placeholder == DATETIME) {
+                hasDateTime = true;
+            }
+        }
+        this.hasValueParts = hasValueParts;
+        this.hasDateTime = hasDateTime;
+    }
+
+    public static WebHookTemplate compile(String source) {
+        int[] starts = new int[PLACEHOLDERS.length];
+        int[] ends = new int[PLACEHOLDERS.length];
+        byte[] types = new byte[PLACEHOLDERS.length];
+        int count = 0;
+
+        for (int i = 0; i < PLACEHOLDERS.length; i++) {
+            String placeholder = PLACEHOLDERS[i];
+            int index = source.indexOf(placeholder);
+            //placeholder that shares chars with already replaced one is not found by sequential replace
+            while (index >= 0 && overlaps(starts, ends, count, index, index + placeholder.length())) {
+                index = source.indexOf(placeholder, index + 1);
+            }
+            if (index >= 0) {
+                starts[count] = index;
+                ends[count] = index + placeholder.length();
+                types[count] = PLACEHOLDER_TYPES[i];
+                count++;
+            }
+        }
+
+        //order segments by position
+        long[] order = new long[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = ((long) starts[i] << 8) | i;
+        }
+        Arrays.sort(order);
+
+        String[] literals = new String[count + 1];
+        byte[] placeholders = new byte[count];
+        int pos = 0;
+        for (int i = 0; i < count; i++) {
+            int j = (int) (order[i] & 0xFF);
+            literals[i] = source.substring(pos, starts[j]);
+            placeholders[i] = types[j];
+            pos = ends[j];
+        }
+        literals[count] = source.substring(pos);
+        return new WebHookTemplate(source, literals, placeholders);
+    }
+
+    private static boolean overlaps(int[] starts, int[] ends, int count, int start, int end) {
+        for (int i = 0; i < count; i++) {
+            if (start < ends[i] && starts[i] < end) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Splits multi value the same way String.split(BODY_SEPARATOR_STRING) does.
+     *
+     * @return parts of the value or null if value placeholders should not be replaced.
+     */
+    public static String[] splitValue(String value) {
+        int separators = 0;
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) == BODY_SEPARATOR) {
+                separators++;
+            }
+        }
+        if (separators == 0) {
+            return new String[] {value};
+        }
+
+        String[] parts = new String[separators + 1];
+        int start = 0;
+        int partIndex = 0;
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) == BODY_SEPARATOR) {
+                parts[partIndex++] = value.substring(start, i);
+                start = i + 1;
+            }
+        }
+        parts[partIndex] = value.substring(start);
+
+        //trailing empty parts are dropped by split
+        int length = parts.length;
+        while (length > 0 && parts[length - 1].isEmpty()) {
+            length--;
+        }
+        if (length == 0 || length > MAX_PARTS) {
+            return null;
+        }
+        return length == parts.length ? parts : Arrays.copyOf(parts, length);
+    }
+
+    public boolean isLiteral() {
+        return placeholders.length == 0;
+    }
+
+    /**
+     * @param valueParts - result of splitValue, only used when template has value parts placeholders.
+     */
+    public String render(String value, String[] valueParts) {
+        if (isLiteral()) {
+            return source;
+        }
+
+        StringBuilder sb = BUILDER.get();
+        sb.setLength(0);
+        String dateTime = hasDateTime ? Instant.now().toString() : null;
+        for (int i = 0; i < placeholders.length; i++) {
+            sb.append(literals[i]);
+            byte placeholder = placeholders[i];
+            if (placeholder == VALUE) {
+                sb.append(value);
+            } else if (placeholder == DATETIME) {
+                sb.append(dateTime);
+            } else if (valueParts != null && placeholder < valueParts.length) {
+                sb.append(valueParts[placeholder]);
+            } else {
+                sb.append("/pin[").append(placeholder).append("]/");
+            }
+        }
+        sb.append(literals[placeholders.length]);
+
+        String result = sb.toString();
+        if (sb.capacity() > MAX_RETAINED_CAPACITY) {
+            BUILDER.remove();
+        }
+        return result;
+    }
+
+}
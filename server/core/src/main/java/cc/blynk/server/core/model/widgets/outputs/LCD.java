@@ -34,8 +34,6 @@ public class LCD extends MultiPinWidget implements FrequencyWidget {
 
     private int frequency;
 
-    private transient long lastRequestTS;
-
     //todo move to persistent LCDLimitedQueue?
     private transient final LimitedArrayDeque<String> lastCommands = new LimitedArrayDeque<>(LCDLimitedQueue.POOL_SIZE);
 
@@ -96,12 +94,8 @@ public class LCD extends MultiPinWidget implements FrequencyWidget {
     }
 
     @Override
-    public boolean isTicked(long now) {
-        if (frequency > 0 && now >= lastRequestTS + frequency) {
-            this.lastRequestTS = now;
-            return true;
-        }
-        return false;
+    public int getFrequency() {
+        return frequency;
     }
 
     @Override
@@ -9,16 +9,35 @@ public enum GraphGranularityType {
 
     MINUTE("minute", 'm', 60 * 1000),
     HOURLY("hourly", 'h', 60 * 60 * 1000),
-    DAILY("daily", 'd', 24 * 60 * 60 * 1000);
+    DAILY("daily", 'd', 24 * 60 * 60 * 1000),
+
+    //rollup tiers, derived from the finer tiers on disk
+    FIVE_MINUTES("5minute", 'f', 5 * 60 * 1000),
+    FIFTEEN_MINUTES("15minute", 'q', 15 * 60 * 1000),
+    //epoch starts on Thursday, so weeks are shifted by 4 days to start on Monday
+    WEEKLY("weekly", 'w', 7 * 24 * 60 * 60 * 1000L, 4 * 24 * 60 * 60 * 1000L);
 
     public final String label;
     public final char type;
     public final long period;
+    private final long offset;
 
     GraphGranularityType(String label, char type, long period) {
+        this(label, type, period, 0);
+    }
+
+    GraphGranularityType(String label, char type, long period, long offset) {
         this.label = label;
         this.type = type;
         this.period = period;
+        this.offset = offset;
+    }
+
+    /**
+     * @return - start of the period the ts belongs to
+     */
+    public long truncate(long ts) {
+        return Math.floorDiv(ts - offset, period) * period + offset;
     }
 
     public static GraphGranularityType getPeriodByType(char type) {
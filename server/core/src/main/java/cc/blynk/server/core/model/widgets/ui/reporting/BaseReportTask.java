@@ -144,14 +144,13 @@ public abstract class BaseReportTask implements Runnable {
     }
 
     private ReportResult generateReport(Path userCsvFolder, DashBoard dash, long now) throws Exception {
-        int fetchCount = (int) report.reportType.getFetchCount(report.granularityType);
         long startFrom = now - TimeUnit.DAYS.toMillis(report.reportType.getDuration());
         //truncate second, minute, hour, depending of granularity in order to do not filter first point.
         //https://github.com/blynkkk/blynk-server/issues/1149
-        startFrom = (startFrom / report.granularityType.period) * report.granularityType.period;
+        startFrom = report.granularityType.truncate(startFrom);
         Path output = Paths.get(userCsvFolder.toString() + ".zip");
 
-        boolean hasData = generateReport(output, dash, fetchCount, startFrom);
+        boolean hasData = generateReportFiles(output, dash, startFrom);
         if (hasData) {
             sendEmail(output);
             return ReportResult.OK;
@@ -161,21 +160,21 @@ public abstract class BaseReportTask implements Runnable {
         return ReportResult.NO_DATA;
     }
 
-    private boolean generateReport(Path output, DashBoard dash, int fetchCount, long startFrom) throws Exception {
+    private boolean generateReportFiles(Path output, DashBoard dash, long startFrom) throws Exception {
         //todo for now supporting only some types of output format
         switch (report.reportOutput) {
             case EXCEL_TAB_PER_DEVICE:
             case MERGED_CSV:
-                return merged(output, dash, fetchCount, startFrom);
+                return merged(output, dash, startFrom);
             case CSV_FILE_PER_DEVICE:
-                return filePerDevice(output, dash, fetchCount, startFrom);
+                return filePerDevice(output, dash, startFrom);
             case CSV_FILE_PER_DEVICE_PER_PIN:
             default:
-                return filePerDevicePerPin(output, dash, fetchCount, startFrom);
+                return filePerDevicePerPin(output, dash, startFrom);
         }
     }
 
-    private boolean merged(Path output, DashBoard dash, int fetchCount, long startFrom) throws Exception {
+    private boolean merged(Path output, DashBoard dash, long startFrom) throws Exception {
         boolean atLeastOne = false;
         try (ZipOutputStream zipStream = new ZipOutputStream(Files.newOutputStream(output));
              BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(zipStream, REPORT_ENCODING), size)) {
@@ -190,7 +189,7 @@ public abstract class BaseReportTask implements Runnable {
                             if (reportDataStream.isValid()) {
                                 ByteBuffer onePinData = reportingDiskDao.getByteBufferFromDisk(key.user,
                                         key.dashId, deviceId, reportDataStream.pinType,
-                                        reportDataStream.pin, fetchCount, report.granularityType, 0);
+                                        reportDataStream.pin, report.granularityType, startFrom, Long.MAX_VALUE);
 
                                 if (onePinData != null) {
                                     String pin = reportDataStream.formatAndEscapePin();
@@ -207,7 +206,7 @@ public abstract class BaseReportTask implements Runnable {
         return atLeastOne;
     }
 
-    private boolean filePerDevice(Path output, DashBoard dash, int fetchCount, long startFrom) throws Exception {
+    private boolean filePerDevice(Path output, DashBoard dash, long startFrom) throws Exception {
         boolean atLeastOne = false;
         try (ZipOutputStream zipStream = new ZipOutputStream(Files.newOutputStream(output));
              BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(zipStream, REPORT_ENCODING), size)) {
@@ -222,7 +221,7 @@ public abstract class BaseReportTask implements Runnable {
                             if (reportDataStream.isValid()) {
                                 ByteBuffer onePinData = reportingDiskDao.getByteBufferFromDisk(key.user,
                                         key.dashId, deviceId, reportDataStream.pinType,
-                                        reportDataStream.pin, fetchCount, report.granularityType, 0);
+                                        reportDataStream.pin, report.granularityType, startFrom, Long.MAX_VALUE);
 
                                 if (onePinData != null) {
                                     String pin = reportDataStream.formatAndEscapePin();
@@ -239,7 +238,7 @@ public abstract class BaseReportTask implements Runnable {
         return atLeastOne;
     }
 
-    private boolean filePerDevicePerPin(Path output, DashBoard dash, int fetchCount, long startFrom) throws Exception {
+    private boolean filePerDevicePerPin(Path output, DashBoard dash, long startFrom) throws Exception {
         boolean atLeastOne = false;
         try (ZipOutputStream zipStream = new ZipOutputStream(Files.newOutputStream(output))) {
             for (ReportSource reportSource : report.reportSources) {
@@ -250,7 +249,7 @@ public abstract class BaseReportTask implements Runnable {
                             if (reportDataStream.isValid()) {
                                 ByteBuffer onePinData = reportingDiskDao.getByteBufferFromDisk(key.user,
                                         key.dashId, deviceId, reportDataStream.pinType,
-                                        reportDataStream.pin, fetchCount, report.granularityType, 0);
+                                        reportDataStream.pin, report.granularityType, startFrom, Long.MAX_VALUE);
 
                                 if (onePinData != null) {
                                     String onePinDataCsv = FileUtils.writeBufToCsvFilterAndFormat(onePinData,
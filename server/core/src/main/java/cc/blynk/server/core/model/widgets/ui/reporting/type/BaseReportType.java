@@ -1,12 +1,10 @@
 package cc.blynk.server.core.model.widgets.ui.reporting.type;
 
-import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
 import com.fasterxml.jackson.annotation.JsonSubTypes;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
 
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
-import java.util.concurrent.TimeUnit;
 
 /**
  * The Blynk Project.
@@ -32,15 +30,4 @@ public abstract class BaseReportType {
 
     public abstract void buildDynamicSection(StringBuilder sb, ZoneId zoneId);
 
-    public long getFetchCount(GraphGranularityType granularity) {
-        switch (granularity) {
-            case DAILY:
-                return TimeUnit.DAYS.toDays(getDuration());
-            case HOURLY:
-                return TimeUnit.DAYS.toHours(getDuration());
-            default:
-                return TimeUnit.DAYS.toMinutes(getDuration());
-        }
-    }
-
 }
@@ -12,6 +12,9 @@ import com.fasterxml.jackson.annotation.JsonProperty;
  */
 public class Tile {
 
+    //todo 1000 is hardcoded for now
+    public static final int READING_FREQUENCY = 1000;
+
     public final int deviceId;
 
     public final long templateId;
@@ -21,8 +24,6 @@ public class Tile {
     @JsonProperty("pin")
     public final DataStream dataStream;
 
-    private transient long lastRequestTS;
-
     @JsonCreator
     public Tile(@JsonProperty("deviceId") int deviceId,
                 @JsonProperty("templateId") long templateId,
@@ -55,13 +56,4 @@ public class Tile {
             dataStream.value = null;
         }
     }
-
-    public boolean isTicked(long now) {
-        //todo 1000 is hardcoded for now
-        if (now >= lastRequestTS + 1000) {
-            this.lastRequestTS = now;
-            return true;
-        }
-        return false;
-    }
 }
@@ -8,6 +8,7 @@ import cc.blynk.server.core.model.enums.PinType;
 import cc.blynk.server.core.model.widgets.notifications.Mail;
 import cc.blynk.server.core.model.widgets.notifications.Notification;
 import cc.blynk.server.core.model.widgets.notifications.Twitter;
+import cc.blynk.server.core.model.widgets.others.eventor.CompiledEventor;
 import cc.blynk.server.core.model.widgets.others.eventor.Eventor;
 import cc.blynk.server.core.model.widgets.others.eventor.Rule;
 import cc.blynk.server.core.model.widgets.others.eventor.model.action.BaseAction;
@@ -30,6 +31,7 @@ import org.asynchttpclient.Response;
 
 import static cc.blynk.server.core.protocol.enums.Command.EVENTOR;
 import static cc.blynk.server.core.protocol.enums.Command.HARDWARE;
+import static cc.blynk.utils.NumberUtil.NO_RESULT;
 import static cc.blynk.utils.StringUtils.PIN_PATTERN;
 
 /**
@@ -88,33 +90,42 @@ public class EventorProcessor {
 
     public void process(User user, Session session, DashBoard dash, int deviceId, byte pin,
                         PinType type, String triggerValue, long now) {
-        Eventor eventor = dash.getEventorWidget();
-        if (eventor == null || eventor.rules == null
-                || eventor.deviceId != deviceId || !dash.isActive) {
+        if (!dash.isActive) {
             return;
         }
 
-        double valueParsed = NumberUtil.parseDouble(triggerValue);
-
-        for (Rule rule : eventor.rules) {
-            if (rule.isReady(pin, type)) {
-                if (rule.matchesCondition(triggerValue, valueParsed)) {
-                    if (!rule.isProcessed) {
-                        for (BaseAction action : rule.actions) {
-                            if (action.isValid()) {
-                                if (action instanceof SetPinAction) {
-                                    execute(session, dash, deviceId, (SetPinAction) action, now);
-                                } else if (action instanceof NotificationAction) {
-                                    execute(user, dash, triggerValue, (NotificationAction) action);
-                                }
-                                globalStats.mark(EVENTOR);
+        CompiledEventor compiledEventor = dash.getCompiledEventor();
+        Eventor eventor = compiledEventor.eventor;
+        if (eventor == null || eventor.deviceId != deviceId) {
+            return;
+        }
+
+        CompiledEventor.PinRules pinRules = compiledEventor.get(pin, type);
+        if (pinRules == null) {
+            return;
+        }
+
+        double valueParsed = pinRules.hasNumericCondition ? NumberUtil.parseDouble(triggerValue) : NO_RESULT;
+
+        for (Rule rule : pinRules.rules) {
+            rule.evaluations.increment();
+            if (rule.matchesCondition(triggerValue, valueParsed)) {
+                if (!rule.isProcessed) {
+                    rule.hits.increment();
+                    for (BaseAction action : rule.actions) {
+                        if (action.isValid()) {
+                            if (action instanceof SetPinAction) {
+                                execute(session, dash, deviceId, (SetPinAction) action, now);
+                            } else if (action instanceof NotificationAction) {
+                                execute(user, dash, triggerValue, (NotificationAction) action);
                             }
+                            globalStats.mark(EVENTOR);
                         }
-                        rule.isProcessed = true;
                     }
-                } else {
-                    rule.isProcessed = false;
+                    rule.isProcessed = true;
                 }
+            } else {
+                rule.isProcessed = false;
             }
         }
     }
@@ -4,11 +4,12 @@ import cc.blynk.server.core.model.DashBoard;
 import cc.blynk.server.core.model.DataStream;
 import cc.blynk.server.core.model.auth.Session;
 import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.widgets.others.webhook.CompiledWebHook;
 import cc.blynk.server.core.model.widgets.others.webhook.Header;
 import cc.blynk.server.core.model.widgets.others.webhook.WebHook;
+import cc.blynk.server.core.model.widgets.others.webhook.WebHookTemplate;
 import cc.blynk.server.core.protocol.enums.Command;
 import cc.blynk.server.core.stats.GlobalStats;
-import cc.blynk.utils.StringUtils;
 import io.netty.util.CharsetUtil;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -19,23 +20,7 @@ import org.asynchttpclient.DefaultAsyncHttpClient;
 import org.asynchttpclient.HttpResponseBodyPart;
 import org.asynchttpclient.Response;
 
-import java.time.Instant;
-import java.util.regex.Matcher;
-
 import static cc.blynk.server.core.protocol.enums.Command.WEB_HOOKS;
-import static cc.blynk.utils.StringUtils.DATETIME_PATTERN;
-import static cc.blynk.utils.StringUtils.GENERIC_PLACEHOLDER;
-import static cc.blynk.utils.StringUtils.PIN_PATTERN;
-import static cc.blynk.utils.StringUtils.PIN_PATTERN_0;
-import static cc.blynk.utils.StringUtils.PIN_PATTERN_1;
-import static cc.blynk.utils.StringUtils.PIN_PATTERN_2;
-import static cc.blynk.utils.StringUtils.PIN_PATTERN_3;
-import static cc.blynk.utils.StringUtils.PIN_PATTERN_4;
-import static cc.blynk.utils.StringUtils.PIN_PATTERN_5;
-import static cc.blynk.utils.StringUtils.PIN_PATTERN_6;
-import static cc.blynk.utils.StringUtils.PIN_PATTERN_7;
-import static cc.blynk.utils.StringUtils.PIN_PATTERN_8;
-import static cc.blynk.utils.StringUtils.PIN_PATTERN_9;
 
 /**
  * Handles all webhooks logic.
@@ -47,7 +32,6 @@ import static cc.blynk.utils.StringUtils.PIN_PATTERN_9;
 public class WebhookProcessor extends NotificationBase {
 
     private static final Logger log = LogManager.getLogger(WebhookProcessor.class);
-    private static final String CONTENT_TYPE = "Content-Type";
 
     private final AsyncHttpClient httpclient;
     private final GlobalStats globalStats;
@@ -77,13 +61,18 @@ public class WebhookProcessor extends NotificationBase {
 
         checkIfNotificationQuotaLimitIsNotReached(now);
 
-        if (webhook.isNotFailed(webhookFailureLimit) && webhook.url != null) {
-            process(session, dash.id, deviceId, webhook, triggerValue);
+        if (webhook.isNotFailed(webhookFailureLimit)) {
+            CompiledWebHook compiled = webhook.getCompiled();
+            if (compiled.urlTemplate != null) {
+                process(session, dash.id, deviceId, webhook, compiled, triggerValue);
+            }
         }
     }
 
-    private void process(Session session, int dashId, int deviceId,  WebHook webHook, String triggerValue) {
-        String newUrl = format(webHook.url, triggerValue);
+    private void process(Session session, int dashId, int deviceId, WebHook webHook,
+                         CompiledWebHook compiled, String triggerValue) {
+        String[] valueParts = compiled.hasValueParts ? WebHookTemplate.splitValue(triggerValue) : null;
+        String newUrl = compiled.urlTemplate.render(triggerValue, valueParts);
 
         if (!WebHook.isValidUrl(newUrl)) {
             return;
@@ -108,19 +97,13 @@ public class WebhookProcessor extends NotificationBase {
             }
         }
 
-        if (webHook.headers != null) {
-            for (Header header : webHook.headers) {
-                if (header.isValid()) {
-                    builder.setHeader(header.name, header.value);
-                    if (webHook.body != null && !webHook.body.isEmpty()) {
-                        if (CONTENT_TYPE.equals(header.name)) {
-                            String newBody = format(webHook.body, triggerValue);
-                            log.trace("Webhook formatted body : {}", newBody);
-                            builder.setBody(newBody);
-                        }
-                    }
-                }
-            }
+        for (Header header : compiled.validHeaders) {
+            builder.setHeader(header.name, header.value);
+        }
+        if (compiled.bodyTemplate != null) {
+            String newBody = compiled.bodyTemplate.render(triggerValue, valueParts);
+            log.trace("Webhook formatted body : {}", newBody);
+            builder.setBody(newBody);
         }
 
         log.trace("Sending webhook. ", webHook);
@@ -183,38 +166,4 @@ public class WebhookProcessor extends NotificationBase {
                 return false;
         }
     }
-
-    private static String format(String data, String triggerValue) {
-        //this is an ugly hack to make it work with Blynk HTTP API.
-        String quotedValue = Matcher.quoteReplacement(triggerValue);
-        data = PIN_PATTERN.matcher(data).replaceFirst(quotedValue);
-
-        String[] splitted = quotedValue.split(StringUtils.BODY_SEPARATOR_STRING);
-        switch (splitted.length) {
-            case 10 :
-                data = PIN_PATTERN_9.matcher(data).replaceFirst(splitted[9]);
-            case 9 :
-                data = PIN_PATTERN_8.matcher(data).replaceFirst(splitted[8]);
-            case 8 :
-                data = PIN_PATTERN_7.matcher(data).replaceFirst(splitted[7]);
-            case 7 :
-                data = PIN_PATTERN_6.matcher(data).replaceFirst(splitted[6]);
-            case 6 :
-                data = PIN_PATTERN_5.matcher(data).replaceFirst(splitted[5]);
-            case 5 :
-                data = PIN_PATTERN_4.matcher(data).replaceFirst(splitted[4]);
-            case 4 :
-                data = PIN_PATTERN_3.matcher(data).replaceFirst(splitted[3]);
-            case 3 :
-                data = PIN_PATTERN_2.matcher(data).replaceFirst(splitted[2]);
-            case 2 :
-                data = PIN_PATTERN_1.matcher(data).replaceFirst(splitted[1]);
-            case 1 :
-                data = PIN_PATTERN_0.matcher(data).replaceFirst(splitted[0]);
-            default :
-                data = GENERIC_PLACEHOLDER.matcher(data).replaceFirst(quotedValue);
-                data = DATETIME_PATTERN.matcher(data).replaceFirst(Instant.now().toString());
-        }
-        return data;
-    }
 }
@@ -4,6 +4,7 @@ import cc.blynk.server.Limits;
 import cc.blynk.server.core.protocol.enums.Command;
 import cc.blynk.server.core.protocol.model.messages.MessageBase;
 import cc.blynk.server.core.protocol.model.messages.ResponseMessage;
+import cc.blynk.server.core.protocol.model.messages.hardware.RawHardwareMessage;
 import cc.blynk.server.core.stats.GlobalStats;
 import cc.blynk.server.core.stats.metrics.InstanceLoadMeter;
 import cc.blynk.server.internal.QuotaLimitChecker;
@@ -31,10 +32,17 @@ public class MessageDecoder extends ByteToMessageDecoder {
 
     private final GlobalStats stats;
     private final QuotaLimitChecker limitChecker;
+    //only hardware pipelines handle RawHardwareMessage, others get regular HardwareMessage
+    private final boolean rawHardware;
 
     public MessageDecoder(GlobalStats stats, Limits limits) {
+        this(stats, limits, false);
+    }
+
+    public MessageDecoder(GlobalStats stats, Limits limits, boolean rawHardware) {
         this.stats = stats;
         this.limitChecker = new QuotaLimitChecker(limits.userQuotaLimit);
+        this.rawHardware = rawHardware;
     }
 
     @Override
@@ -62,7 +70,14 @@ public class MessageDecoder extends ByteToMessageDecoder {
                 return;
             }
 
-            message = produce(messageId, command, (String) in.readCharSequence(codeOrLength, CharsetUtil.UTF_8));
+            if (rawHardware && command == Command.HARDWARE) {
+                //the most frequent command, body is parsed lazily from bytes, without String creation
+                byte[] body = new byte[codeOrLength];
+                in.readBytes(body);
+                message = new RawHardwareMessage(messageId, body);
+            } else {
+                message = produce(messageId, command, (String) in.readCharSequence(codeOrLength, CharsetUtil.UTF_8));
+            }
         }
 
         log.trace("Incoming {}", message);
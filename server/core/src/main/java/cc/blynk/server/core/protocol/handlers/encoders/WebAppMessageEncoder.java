@@ -1,5 +1,6 @@
 package cc.blynk.server.core.protocol.handlers.encoders;
 
+import cc.blynk.server.core.protocol.model.messages.EncodedMessage;
 import cc.blynk.server.core.protocol.model.messages.MessageBase;
 import cc.blynk.server.core.protocol.model.messages.ResponseMessage;
 import io.netty.buffer.ByteBuf;
@@ -42,6 +43,8 @@ public class WebAppMessageEncoder extends ChannelOutboundHandlerAdapter {
                 }
             }
             super.write(ctx, new BinaryWebSocketFrame(out), promise);
+        } else if (msg instanceof EncodedMessage) {
+            super.write(ctx, new BinaryWebSocketFrame(((EncodedMessage) msg).content()), promise);
         } else {
             super.write(ctx, msg, promise);
         }
@@ -0,0 +1,48 @@
+package cc.blynk.server.core.protocol.model.messages;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.DefaultByteBufHolder;
+
+/**
+ * Message that is already serialized into the wire format of the target channel.
+ * Used for broadcasts : message is encoded once per format and every target gets
+ * retained duplicate of the same buffer. Encoders pass content of such message as is.
+ */
+public final class EncodedMessage extends DefaultByteBufHolder {
+
+    public final short command;
+
+    public EncodedMessage(short command, ByteBuf content) {
+        super(content);
+        this.command = command;
+    }
+
+    /**
+     * Wire formats of the message encoders.
+     */
+    public enum Format {
+
+        //MessageEncoder : command, id, 2 bytes body length, body
+        HARDWARE,
+        //AppMessageEncoder : command, id, 4 bytes body length, body
+        APP,
+        //WebAppMessageEncoder : command, id, body
+        WEB_APP;
+
+        public ByteBuf encode(ByteBufAllocator alloc, MessageBase message) {
+            byte[] body = message.getBytes();
+            ByteBuf out = alloc.buffer(7 + body.length);
+            out.writeByte(message.command);
+            out.writeShort(message.id);
+            if (this == HARDWARE) {
+                out.writeShort(body.length);
+            } else if (this == APP) {
+                out.writeInt(body.length);
+            }
+            out.writeBytes(body);
+            return out;
+        }
+    }
+
+}
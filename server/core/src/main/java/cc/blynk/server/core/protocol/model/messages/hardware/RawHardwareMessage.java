@@ -0,0 +1,141 @@
+package cc.blynk.server.core.protocol.model.messages.hardware;
+
+import cc.blynk.server.core.protocol.model.messages.MessageBase;
+import cc.blynk.utils.NumberUtil;
+
+import java.nio.charset.StandardCharsets;
+
+import static cc.blynk.server.core.protocol.enums.Command.HARDWARE;
+import static cc.blynk.utils.StringUtils.BODY_SEPARATOR;
+
+/**
+ * Hardware command from the hardware that keeps body in bytes.
+ * Pin and value are parsed straight from the bytes on first access,
+ * body and value strings are created only when somebody asks for them.
+ *
+ * Body has the same format as for {@link cc.blynk.server.core.protocol.model.messages.common.HardwareMessage},
+ * for example "vw\01\022.5".
+ */
+public final class RawHardwareMessage extends MessageBase {
+
+    private static final int NOT_PARSED = -2;
+
+    private final byte[] body;
+
+    //positions of the separators, same as in StringUtils.split3()
+    private int pinSeparator = NOT_PARSED;
+    private int valueSeparator;
+
+    private String bodyString;
+    private String value;
+
+    public RawHardwareMessage(int messageId, byte[] body) {
+        super(messageId, HARDWARE);
+        this.body = body;
+    }
+
+    private static int indexOf(byte[] bytes, int from) {
+        for (int i = from; i < bytes.length; i++) {
+            if (bytes[i] == BODY_SEPARATOR) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void parse() {
+        if (pinSeparator == NOT_PARSED) {
+            pinSeparator = indexOf(body, 1);
+            valueSeparator = pinSeparator == -1 ? -1 : indexOf(body, pinSeparator + 1);
+        }
+    }
+
+    public int length() {
+        return body.length;
+    }
+
+    public boolean isWriteOperation() {
+        return body.length > 1 && body[1] == 'w';
+    }
+
+    /**
+     * @return - true if body has pin type, pin and not empty value.
+     */
+    public boolean hasPinAndValue() {
+        parse();
+        return valueSeparator != -1 && valueSeparator + 1 < body.length;
+    }
+
+    public char pinTypeChar() {
+        return (char) body[0];
+    }
+
+    /**
+     * Same as Byte.parseByte() for the pin part of the body.
+     */
+    public byte pin() {
+        parse();
+        int from = pinSeparator + 1;
+        int to = valueSeparator;
+        boolean negative = from < to && body[from] == '-';
+        if (negative || from < to && body[from] == '+') {
+            from++;
+        }
+        if (from >= to) {
+            throw new NumberFormatException("Pin is empty.");
+        }
+        int result = 0;
+        for (int i = from; i < to; i++) {
+            int digit = body[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("Pin is not a number.");
+            }
+            result = result * 10 + digit;
+            if (result > Byte.MAX_VALUE + 1) {
+                throw new NumberFormatException("Pin is out of range.");
+            }
+        }
+        if (negative) {
+            return (byte) -result;
+        }
+        if (result > Byte.MAX_VALUE) {
+            throw new NumberFormatException("Pin is out of range.");
+        }
+        return (byte) result;
+    }
+
+    /**
+     * @return - parsed value or NumberUtil.NO_RESULT if value is not a number.
+     */
+    public double doubleValue() {
+        parse();
+        return NumberUtil.parseDouble(body, valueSeparator + 1, body.length);
+    }
+
+    public String value() {
+        if (value == null) {
+            parse();
+            int from = valueSeparator + 1;
+            value = new String(body, from, body.length - from, StandardCharsets.UTF_8);
+        }
+        return value;
+    }
+
+    public String body() {
+        if (bodyString == null) {
+            bodyString = new String(body, StandardCharsets.UTF_8);
+        }
+        return bodyString;
+    }
+
+    @Override
+    public byte[] getBytes() {
+        return body;
+    }
+
+    @Override
+    public String toString() {
+        return "RawHardwareMessage{" + super.toString() + ", body='" + body() + "'}";
+    }
+
+}
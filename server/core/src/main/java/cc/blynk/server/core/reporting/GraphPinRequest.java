@@ -6,6 +6,7 @@ import cc.blynk.server.core.model.widgets.outputs.graph.AggregationFunctionType;
 import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
 import cc.blynk.server.core.model.widgets.outputs.graph.GraphPeriod;
 import cc.blynk.server.core.protocol.exceptions.IllegalCommandException;
+import cc.blynk.server.core.reporting.rollup.RollupTier;
 
 import java.util.Arrays;
 
@@ -19,6 +20,9 @@ import static cc.blynk.server.internal.EmptyArraysUtil.EMPTY_INTS;
  */
 public class GraphPinRequest {
 
+    //graph period with more points is served from the coarser rollup tier
+    public static final int MAX_GRAPH_POINTS = 720;
+
     public final int dashId;
 
     public final int deviceId;
@@ -41,6 +45,12 @@ public class GraphPinRequest {
 
     public final int skipCount;
 
+    //requested granularity, used as fallback when rollup tier has no data yet
+    //and for the latest periods that are not rolled up yet
+    public final GraphGranularityType baseType;
+    private final int baseCount;
+    private final int baseSkipCount;
+
     //todo remove in future versions
     public GraphPinRequest(int dashId, int deviceId, String[] messageParts, int pinIndex, int valuesPerPin) {
         try {
@@ -59,6 +69,9 @@ public class GraphPinRequest {
             this.count = Integer.parseInt(messageParts[pinIndex * valuesPerPin + 2]);
             this.type = GraphGranularityType.getPeriodByType(messageParts[pinIndex * valuesPerPin + 3].charAt(0));
             this.skipCount = 0;
+            this.baseType = type;
+            this.baseCount = count;
+            this.baseSkipCount = 0;
         } catch (NumberFormatException e) {
             throw new IllegalCommandException("Graph request command body incorrect.");
         }
@@ -79,9 +92,14 @@ public class GraphPinRequest {
         }
         this.graphPeriod = graphPeriod;
         this.functionType = function;
-        this.count = graphPeriod.numberOfPoints;
-        this.type = graphPeriod.granularityType;
-        this.skipCount = skipCount;
+        this.baseType = graphPeriod.granularityType;
+        this.baseCount = graphPeriod.numberOfPoints;
+        this.baseSkipCount = skipCount;
+        this.type = graphPeriod == LIVE
+                ? baseType
+                : RollupTier.cheapestFor(baseType, baseCount, MAX_GRAPH_POINTS);
+        this.count = (int) (baseCount * baseType.period / type.period);
+        this.skipCount = (int) (skipCount * baseType.period / type.period);
     }
 
     public GraphPinRequest(int dashId, int deviceId, DataStream dataStream,
@@ -99,9 +117,42 @@ public class GraphPinRequest {
         }
         this.graphPeriod = graphPeriod;
         this.functionType = (function == null ? AggregationFunctionType.AVG : function);
-        this.count = graphPeriod.numberOfPoints;
-        this.type = graphPeriod.granularityType;
-        this.skipCount = skipCount;
+        this.baseType = graphPeriod.granularityType;
+        this.baseCount = graphPeriod.numberOfPoints;
+        this.baseSkipCount = skipCount;
+        this.type = graphPeriod == LIVE
+                ? baseType
+                : RollupTier.cheapestFor(baseType, baseCount, MAX_GRAPH_POINTS);
+        this.count = (int) (baseCount * baseType.period / type.period);
+        this.skipCount = (int) (skipCount * baseType.period / type.period);
+    }
+
+    private GraphPinRequest(GraphPinRequest request) {
+        this.dashId = request.dashId;
+        this.deviceId = request.deviceId;
+        this.deviceIds = request.deviceIds;
+        this.isTag = request.isTag;
+        this.pinType = request.pinType;
+        this.pin = request.pin;
+        this.graphPeriod = request.graphPeriod;
+        this.functionType = request.functionType;
+        this.count = request.baseCount;
+        this.type = request.baseType;
+        this.skipCount = request.baseSkipCount;
+        this.baseType = request.baseType;
+        this.baseCount = request.baseCount;
+        this.baseSkipCount = request.baseSkipCount;
+    }
+
+    public boolean isRollup() {
+        return type != baseType;
+    }
+
+    /**
+     * @return - same request for the originally requested granularity
+     */
+    public GraphPinRequest withBaseGranularity() {
+        return new GraphPinRequest(this);
     }
 
     public boolean isLiveData() {
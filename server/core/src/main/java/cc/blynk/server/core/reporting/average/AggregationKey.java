@@ -18,14 +18,28 @@ public final class AggregationKey implements Serializable {
 
     private final BaseReportingKey baseReportingKey;
     public final long ts;
+    //id of the series in aggregation table + 1, 0 for keys created outside of the table
+    private final transient int seriesRef;
 
     public AggregationKey(String email, String appName, int dashId, int deviceId, PinType pinType, byte pin, long ts) {
         this(new BaseReportingKey(email, appName, dashId, deviceId, pinType, pin), ts);
     }
 
     public AggregationKey(BaseReportingKey baseReportingKey, long ts) {
+        this(baseReportingKey, ts, -1);
+    }
+
+    AggregationKey(BaseReportingKey baseReportingKey, long ts, int seriesId) {
         this.baseReportingKey = baseReportingKey;
         this.ts = ts;
+        this.seriesRef = seriesId + 1;
+    }
+
+    /**
+     * @return - id of the series the key was read from aggregation table with or -1
+     */
+    int getSeriesId() {
+        return seriesRef - 1;
     }
 
     public long getTs(GraphGranularityType type) {
@@ -36,6 +50,10 @@ public final class AggregationKey implements Serializable {
         return ts < nowTruncatedToPeriod;
     }
 
+    public BaseReportingKey getBaseReportingKey() {
+        return baseReportingKey;
+    }
+
     public String getEmail() {
         return baseReportingKey.email;
     }
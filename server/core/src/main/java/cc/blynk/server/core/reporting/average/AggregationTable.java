@@ -0,0 +1,316 @@
+package cc.blynk.server.core.reporting.average;
+
+import cc.blynk.server.core.reporting.raw.BaseReportingKey;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Sums and counts of one granularity stored in open-addressing primitive arrays
+ * keyed by (series id, period). Table is split into stripes with own lock,
+ * so aggregation from different event loops rarely contends and never allocates
+ * (except rare resize).
+ *
+ * Map view is used only for draining (once a minute) and materializes
+ * AggregationKey/AggregationValue objects on demand. Iteration works over snapshot,
+ * while get/remove go directly to the table. Keys returned by iteration keep series id,
+ * so they are found even after the series was unlinked from the lookup.
+ */
+final class AggregationTable extends AbstractMap<AggregationKey, AggregationValue> {
+
+    private static final int STRIPES = 16;
+
+    private final SeriesInterner seriesInterner;
+    private final Stripe[] stripes;
+
+    AggregationTable(SeriesInterner seriesInterner) {
+        this.seriesInterner = seriesInterner;
+        this.stripes = new Stripe[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            this.stripes[i] = new Stripe();
+        }
+    }
+
+    private Stripe stripe(int seriesId) {
+        return stripes[seriesId & (STRIPES - 1)];
+    }
+
+    void aggregate(int seriesId, long period, double value) {
+        stripe(seriesId).add(seriesId, period, value, 1);
+    }
+
+    void add(int seriesId, long period, double sum, long count) {
+        stripe(seriesId).add(seriesId, period, sum, count);
+    }
+
+    /**
+     * Iterates over copy of every stripe, so consumer may do IO without blocking aggregation.
+     */
+    void forEach(AggregateConsumer consumer) throws IOException {
+        for (Stripe stripe : stripes) {
+            stripe.copy().forEach(consumer);
+        }
+    }
+
+    /**
+     * Marks ids of all series that have aggregates in the table.
+     */
+    void markSeries(BitSet seriesIds) {
+        for (Stripe stripe : stripes) {
+            stripe.markSeries(seriesIds);
+        }
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public AggregationValue get(Object key) {
+        if (!(key instanceof AggregationKey)) {
+            return null;
+        }
+        AggregationKey aggregationKey = (AggregationKey) key;
+        int seriesId = seriesInterner.find(aggregationKey);
+        if (seriesId == -1) {
+            return null;
+        }
+        return stripe(seriesId).get(seriesId, aggregationKey.ts, false);
+    }
+
+    @Override
+    public AggregationValue remove(Object key) {
+        if (!(key instanceof AggregationKey)) {
+            return null;
+        }
+        AggregationKey aggregationKey = (AggregationKey) key;
+        int seriesId = seriesInterner.find(aggregationKey);
+        if (seriesId == -1) {
+            return null;
+        }
+        return stripe(seriesId).get(seriesId, aggregationKey.ts, true);
+    }
+
+    /**
+     * Adds value to the existing aggregation. Used for restoring of the stored state.
+     */
+    @Override
+    public AggregationValue put(AggregationKey key, AggregationValue value) {
+        int seriesId = seriesInterner.intern(key.getBaseReportingKey());
+        Stripe stripe = stripe(seriesId);
+        AggregationValue prev = stripe.get(seriesId, key.ts, false);
+        stripe.add(seriesId, key.ts, value.getValues(), value.getCount());
+        return prev;
+    }
+
+    @Override
+    public void clear() {
+        for (Stripe stripe : stripes) {
+            stripe.clear();
+        }
+    }
+
+    @Override
+    public Set<Entry<AggregationKey, AggregationValue>> entrySet() {
+        //not a map, as unlinked and new id of the same series may have the same period
+        List<Entry<AggregationKey, AggregationValue>> snapshot = new ArrayList<>();
+        for (Stripe stripe : stripes) {
+            stripe.copyTo(seriesInterner, snapshot);
+        }
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<AggregationKey, AggregationValue>> iterator() {
+                return snapshot.iterator();
+            }
+
+            @Override
+            public int size() {
+                return snapshot.size();
+            }
+        };
+    }
+
+    @FunctionalInterface
+    interface AggregateConsumer {
+        void accept(int seriesId, long period, double sum, long count) throws IOException;
+    }
+
+    private static int hash(int seriesId, long period) {
+        long h = (period * 0x9E3779B97F4A7C15L) ^ seriesId;
+        h ^= h >>> 32;
+        h *= 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 29));
+    }
+
+    /**
+     * Linear probing table. Slot is free when count is 0.
+     * Removal uses backward shift, so there are no tombstones.
+     */
+    private static final class Stripe {
+
+        private static final int INITIAL_CAPACITY = 64;
+
+        private int[] seriesIds;
+        private long[] periods;
+        private double[] sums;
+        private long[] counts;
+        private int mask;
+        private int size;
+
+        Stripe() {
+            allocate(INITIAL_CAPACITY);
+        }
+
+        private void allocate(int capacity) {
+            this.seriesIds = new int[capacity];
+            this.periods = new long[capacity];
+            this.sums = new double[capacity];
+            this.counts = new long[capacity];
+            this.mask = capacity - 1;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        private int slot(int seriesId, long period) {
+            int slot = hash(seriesId, period) & mask;
+            while (counts[slot] != 0) {
+                if (seriesIds[slot] == seriesId && periods[slot] == period) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        synchronized void add(int seriesId, long period, double sum, long count) {
+            int slot = slot(seriesId, period);
+            if (counts[slot] == 0) {
+                seriesIds[slot] = seriesId;
+                periods[slot] = period;
+                sums[slot] = sum;
+                counts[slot] = count;
+                if (++size * 2 > counts.length) {
+                    resize();
+                }
+            } else {
+                sums[slot] += sum;
+                counts[slot] += count;
+            }
+        }
+
+        synchronized AggregationValue get(int seriesId, long period, boolean remove) {
+            int slot = slot(seriesId, period);
+            if (counts[slot] == 0) {
+                return null;
+            }
+            AggregationValue value = new AggregationValue(sums[slot], counts[slot]);
+            if (remove) {
+                removeAt(slot);
+            }
+            return value;
+        }
+
+        private void removeAt(int slot) {
+            int gap = slot;
+            int i = slot;
+            while (true) {
+                i = (i + 1) & mask;
+                if (counts[i] == 0) {
+                    break;
+                }
+                int ideal = hash(seriesIds[i], periods[i]) & mask;
+                //entry may be moved to the gap only if it doesn't jump over its ideal slot
+                if (((i - ideal) & mask) >= ((i - gap) & mask)) {
+                    seriesIds[gap] = seriesIds[i];
+                    periods[gap] = periods[i];
+                    sums[gap] = sums[i];
+                    counts[gap] = counts[i];
+                    gap = i;
+                }
+            }
+            counts[gap] = 0;
+            sums[gap] = 0;
+            size--;
+        }
+
+        private void resize() {
+            int[] oldSeriesIds = seriesIds;
+            long[] oldPeriods = periods;
+            double[] oldSums = sums;
+            long[] oldCounts = counts;
+
+            allocate(oldCounts.length * 2);
+            for (int i = 0; i < oldCounts.length; i++) {
+                if (oldCounts[i] != 0) {
+                    int slot = slot(oldSeriesIds[i], oldPeriods[i]);
+                    seriesIds[slot] = oldSeriesIds[i];
+                    periods[slot] = oldPeriods[i];
+                    sums[slot] = oldSums[i];
+                    counts[slot] = oldCounts[i];
+                }
+            }
+        }
+
+        synchronized void clear() {
+            allocate(INITIAL_CAPACITY);
+            size = 0;
+        }
+
+        synchronized Stripe copy() {
+            Stripe copy = new Stripe();
+            copy.seriesIds = seriesIds.clone();
+            copy.periods = periods.clone();
+            copy.sums = sums.clone();
+            copy.counts = counts.clone();
+            copy.mask = mask;
+            copy.size = size;
+            return copy;
+        }
+
+        private void forEach(AggregateConsumer consumer) throws IOException {
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] != 0) {
+                    consumer.accept(seriesIds[i], periods[i], sums[i], counts[i]);
+                }
+            }
+        }
+
+        synchronized void markSeries(BitSet result) {
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] != 0) {
+                    result.set(seriesIds[i]);
+                }
+            }
+        }
+
+        synchronized void copyTo(SeriesInterner seriesInterner, List<Entry<AggregationKey, AggregationValue>> list) {
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] != 0) {
+                    BaseReportingKey baseReportingKey = seriesInterner.get(seriesIds[i]);
+                    list.add(new SimpleImmutableEntry<>(
+                            new AggregationKey(baseReportingKey, periods[i], seriesIds[i]),
+                            new AggregationValue(sums[i], counts[i])));
+                }
+            }
+        }
+    }
+
+}
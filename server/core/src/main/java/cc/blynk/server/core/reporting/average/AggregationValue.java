@@ -20,11 +20,29 @@ public class AggregationValue implements Serializable {
         this.count = 1;
     }
 
+    AggregationValue(double values, long count) {
+        this.values = values;
+        this.count = count;
+    }
+
+    double getValues() {
+        return values;
+    }
+
+    long getCount() {
+        return count;
+    }
+
     public void update(double val) {
         values += val;
         count++;
     }
 
+    public void merge(AggregationValue other) {
+        values += other.values;
+        count += other.count;
+    }
+
     public double calcAverage() {
         return values / count;
     }
@@ -0,0 +1,179 @@
+package cc.blynk.server.core.reporting.average;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.reporting.raw.BaseReportingKey;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Binary snapshot of in-flight aggregates. Written and read in one pass
+ * with DataOutput/DataInput, without reflection.
+ *
+ * int magic, byte version, then for every table records till END:
+ *   SERIES - int id, utf email, utf appName, int dashId, int deviceId, char pinType, byte pin
+ *   ENTRY  - int id, long period, double sum, long count
+ * Series record is written once before first entry that refers to it.
+ * Snapshot is written to temp file and atomically moved, so checkpoint
+ * never leaves half-written file.
+ */
+final class AggregatorSnapshot {
+
+    private static final int MAGIC = 0x424C4B41;
+    private static final byte VERSION = 1;
+
+    private static final byte END = 0;
+    private static final byte SERIES = 1;
+    private static final byte ENTRY = 2;
+
+    private AggregatorSnapshot() {
+    }
+
+    /**
+     * @return - number of written entries
+     */
+    static int write(Path path, SeriesInterner seriesInterner, AggregationTable... tables) throws IOException {
+        Path tmpPath = Paths.get(path.toString() + ".tmp");
+        BitSet writtenSeries = new BitSet();
+        int[] entries = {0};
+
+        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpPath)))) {
+            dos.writeInt(MAGIC);
+            dos.writeByte(VERSION);
+            for (AggregationTable table : tables) {
+                table.forEach((seriesId, period, sum, count) -> {
+                    if (!writtenSeries.get(seriesId)) {
+                        writeSeries(dos, seriesId, seriesInterner.get(seriesId));
+                        writtenSeries.set(seriesId);
+                    }
+                    dos.writeByte(ENTRY);
+                    dos.writeInt(seriesId);
+                    dos.writeLong(period);
+                    dos.writeDouble(sum);
+                    dos.writeLong(count);
+                    entries[0]++;
+                });
+                dos.writeByte(END);
+            }
+        }
+
+        Files.move(tmpPath, path, REPLACE_EXISTING, ATOMIC_MOVE);
+        return entries[0];
+    }
+
+    private static void writeSeries(DataOutputStream dos, int seriesId, BaseReportingKey key) throws IOException {
+        dos.writeByte(SERIES);
+        dos.writeInt(seriesId);
+        dos.writeUTF(key.email);
+        dos.writeUTF(key.appName);
+        dos.writeInt(key.dashId);
+        dos.writeInt(key.deviceId);
+        dos.writeChar(key.pinType.pintTypeChar);
+        dos.writeByte(key.pin);
+    }
+
+    /**
+     * Stores periods, entries before them are already flushed to the reporting storage.
+     */
+    static void writeFlushed(Path path, long... periods) throws IOException {
+        Path tmpPath = Paths.get(path.toString() + ".tmp");
+        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpPath)))) {
+            dos.writeInt(MAGIC);
+            dos.writeByte(VERSION);
+            dos.writeByte(periods.length);
+            for (long period : periods) {
+                dos.writeLong(period);
+            }
+        }
+        Files.move(tmpPath, path, REPLACE_EXISTING, ATOMIC_MOVE);
+    }
+
+    /**
+     * @return - flushed periods, one per table, zeros if there is no file.
+     */
+    static long[] readFlushed(Path path, int tablesCount) throws IOException {
+        long[] periods = new long[tablesCount];
+        if (Files.notExists(path)) {
+            return periods;
+        }
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (dis.readInt() != MAGIC || dis.readByte() != VERSION || dis.readByte() != tablesCount) {
+                throw new IOException("Not an aggregator flushed periods file.");
+            }
+            for (int i = 0; i < tablesCount; i++) {
+                periods[i] = dis.readLong();
+            }
+        }
+        return periods;
+    }
+
+    /**
+     * Adds all entries from the snapshot to the given tables.
+     * Entries with period before flushedPeriods of the table are skipped, as they are already
+     * stored by reporting flush that happened after the snapshot.
+     *
+     * @return - number of read entries
+     */
+    static int read(Path path, SeriesInterner seriesInterner, long[] flushedPeriods,
+                    AggregationTable... tables) throws IOException {
+        //snapshot ids -> ids of the current interner
+        Map<Integer, Integer> seriesIds = new HashMap<>();
+        int entries = 0;
+
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (dis.readInt() != MAGIC) {
+                throw new IOException("Not an aggregator snapshot.");
+            }
+            byte version = dis.readByte();
+            if (version != VERSION) {
+                throw new IOException("Unsupported aggregator snapshot version " + version + ".");
+            }
+
+            for (int i = 0; i < tables.length; i++) {
+                AggregationTable table = tables[i];
+                for (byte type = dis.readByte(); type != END; type = dis.readByte()) {
+                    switch (type) {
+                        case SERIES :
+                            int snapshotId = dis.readInt();
+                            BaseReportingKey key = new BaseReportingKey(
+                                    dis.readUTF(), dis.readUTF(),
+                                    dis.readInt(), dis.readInt(),
+                                    PinType.getPinType(dis.readChar()), dis.readByte());
+                            seriesIds.put(snapshotId, seriesInterner.intern(key));
+                            break;
+                        case ENTRY :
+                            Integer seriesId = seriesIds.get(dis.readInt());
+                            if (seriesId == null) {
+                                throw new IOException("Entry refers to unknown series.");
+                            }
+                            long period = dis.readLong();
+                            double sum = dis.readDouble();
+                            long count = dis.readLong();
+                            if (period >= flushedPeriods[i]) {
+                                table.add(seriesId, period, sum, count);
+                                entries++;
+                            }
+                            break;
+                        default :
+                            throw new IOException("Unknown record type " + type + ".");
+                    }
+                }
+            }
+        }
+
+        return entries;
+    }
+
+}
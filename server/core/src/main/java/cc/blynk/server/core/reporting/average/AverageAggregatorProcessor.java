@@ -1,22 +1,27 @@
 package cc.blynk.server.core.reporting.average;
 
+import cc.blynk.server.core.reporting.average.SeriesInterner.CollectSlot;
 import cc.blynk.server.core.reporting.raw.BaseReportingKey;
 import cc.blynk.utils.FileUtils;
+import cc.blynk.utils.NumberUtil;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.Closeable;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.BitSet;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
+ * Aggregates all incoming values into minute, hourly and daily averages.
+ * Every series is interned to int id once and sums/counts are kept
+ * in primitive tables, so collect() doesn't allocate.
+ *
  * The Blynk Project.
  * Created by Dmitriy Dumanskiy.
  * Created on 10.08.15.
@@ -31,90 +36,170 @@ public class AverageAggregatorProcessor implements Closeable {
     public static final String MINUTE_TEMP_FILENAME = "minute_temp.bin";
     public static final String HOURLY_TEMP_FILENAME = "hourly_temp.bin";
     public static final String DAILY_TEMP_FILENAME = "daily_temp.bin";
+    public static final String SNAPSHOT_FILENAME = "aggregates.bin";
+    public static final String FLUSHED_FILENAME = "aggregates_flushed.bin";
     private final String dataFolder;
-    private final ConcurrentHashMap<AggregationKey, AggregationValue> minute;
-    private final ConcurrentHashMap<AggregationKey, AggregationValue> hourly;
-    private final ConcurrentHashMap<AggregationKey, AggregationValue> daily;
+    private final SeriesInterner seriesInterner;
+    private final AggregationTable minute;
+    private final AggregationTable hourly;
+    private final AggregationTable daily;
 
     public AverageAggregatorProcessor(String dataFolder) {
         this.dataFolder = dataFolder;
+        this.seriesInterner = new SeriesInterner();
+        this.minute = new AggregationTable(seriesInterner);
+        this.hourly = new AggregationTable(seriesInterner);
+        this.daily = new AggregationTable(seriesInterner);
 
         Path path;
 
         path = Paths.get(dataFolder, MINUTE_TEMP_FILENAME);
-        this.minute = read(path);
+        read(path, minute);
         FileUtils.deleteQuietly(path);
 
         path = Paths.get(dataFolder, HOURLY_TEMP_FILENAME);
-        this.hourly = read(path);
+        read(path, hourly);
         FileUtils.deleteQuietly(path);
 
         path = Paths.get(dataFolder, DAILY_TEMP_FILENAME);
-        this.daily = read(path);
+        read(path, daily);
         FileUtils.deleteQuietly(path);
+
+        //snapshot is removed after read, so data flushed after restart is never restored twice
+        path = Paths.get(dataFolder, SNAPSHOT_FILENAME);
+        Path flushedPath = Paths.get(dataFolder, FLUSHED_FILENAME);
+        readSnapshot(path, flushedPath);
+        FileUtils.deleteQuietly(path);
+        FileUtils.deleteQuietly(flushedPath);
     }
 
-    private static void aggregate(Map<AggregationKey, AggregationValue> map, AggregationKey key, double value) {
-        AggregationValue aggregationValue = map.get(key);
-        if (aggregationValue == null) {
-            aggregationValue = map.putIfAbsent(key, new AggregationValue(value));
-            if (aggregationValue == null) {
-                return;
-            }
+    public void collect(BaseReportingKey baseReportingKey, long ts, double val) {
+        CollectSlot collectSlot = seriesInterner.enterCollect();
+        try {
+            int seriesId = seriesInterner.intern(baseReportingKey);
+            minute.aggregate(seriesId, ts / MINUTE, val);
+            hourly.aggregate(seriesId, ts / HOUR, val);
+            daily.aggregate(seriesId, ts / DAY, val);
+        } finally {
+            SeriesInterner.exitCollect(collectSlot);
         }
-
-        aggregationValue.update(value);
     }
 
-    public void collect(BaseReportingKey baseReportingKey, long ts, double val) {
-        aggregate(minute, new AggregationKey(baseReportingKey, ts / MINUTE), val);
-        aggregate(hourly, new AggregationKey(baseReportingKey, ts / HOUR), val);
-        aggregate(daily, new AggregationKey(baseReportingKey, ts / DAY), val);
+    /**
+     * Same as above for many values of the same series, series is interned once.
+     * Not numeric values (NumberUtil.NO_RESULT) are skipped.
+     */
+    public void collect(BaseReportingKey baseReportingKey, long[] ts, double[] vals, int count) {
+        CollectSlot collectSlot = seriesInterner.enterCollect();
+        try {
+            int seriesId = seriesInterner.intern(baseReportingKey);
+            for (int i = 0; i < count; i++) {
+                if (vals[i] != NumberUtil.NO_RESULT) {
+                    minute.aggregate(seriesId, ts[i] / MINUTE, vals[i]);
+                    hourly.aggregate(seriesId, ts[i] / HOUR, vals[i]);
+                    daily.aggregate(seriesId, ts[i] / DAY, vals[i]);
+                }
+            }
+        } finally {
+            SeriesInterner.exitCollect(collectSlot);
+        }
     }
 
-    public ConcurrentHashMap<AggregationKey, AggregationValue> getMinute() {
+    /**
+     * Returned map is live view over the aggregation table.
+     * get/remove work directly with the table, iteration works over snapshot.
+     */
+    public Map<AggregationKey, AggregationValue> getMinute() {
         return minute;
     }
 
-    public ConcurrentHashMap<AggregationKey, AggregationValue> getHourly() {
+    public Map<AggregationKey, AggregationValue> getHourly() {
         return hourly;
     }
 
-    public ConcurrentHashMap<AggregationKey, AggregationValue> getDaily() {
+    public Map<AggregationKey, AggregationValue> getDaily() {
         return daily;
     }
 
+    /**
+     * Stores all in-flight aggregates to disk. Called periodically right after
+     * reporting flush and on shutdown, so restart doesn't lose them.
+     */
+    public void checkpoint() {
+        long now = System.currentTimeMillis();
+        try {
+            int entries = AggregatorSnapshot.write(Paths.get(dataFolder, SNAPSHOT_FILENAME),
+                    seriesInterner, minute, hourly, daily);
+            log.debug("Aggregator checkpoint. Entries : {}, time : {} ms.",
+                    entries, System.currentTimeMillis() - now);
+        } catch (Exception e) {
+            log.error("Error storing aggregator snapshot.", e);
+        }
+    }
+
+    /**
+     * Marks all aggregates before the given time as stored to the reporting storage.
+     * Called after every reporting flush, so the snapshot taken before the flush
+     * doesn't bring them back after crash.
+     */
+    public void flushed(long now) {
+        try {
+            AggregatorSnapshot.writeFlushed(Paths.get(dataFolder, FLUSHED_FILENAME),
+                    now / MINUTE, now / HOUR, now / DAY);
+        } catch (Exception e) {
+            log.error("Error storing aggregator flushed periods.", e);
+        }
+    }
+
+    /**
+     * Releases ids of the series that have no aggregates left, so interned series
+     * don't grow with every series ever seen. Called after every reporting flush
+     * from the same thread as checkpoint().
+     * Values collected concurrently with unlinked id are kept under that id till the next flush.
+     */
+    public void releaseIdleSeries() {
+        int unlinked = seriesInterner.unlink(liveSeries());
+        seriesInterner.awaitCollects();
+        int freed = seriesInterner.free(liveSeries());
+        if (unlinked > 0 || freed > 0) {
+            log.debug("Unlinked {} idle series, freed {} ids, left : {}.",
+                    unlinked, freed, seriesInterner.size());
+        }
+    }
+
+    private BitSet liveSeries() {
+        BitSet liveSeries = new BitSet();
+        minute.markSeries(liveSeries);
+        hourly.markSeries(liveSeries);
+        daily.markSeries(liveSeries);
+        return liveSeries;
+    }
+
     @Override
     public void close() {
-        if (minute.size() > 100_000) {
-            log.info("Too many minute records ({}). "
-                    + "This may cause performance issues on server start. Skipping.", minute.size());
-        } else {
-            write(Paths.get(dataFolder, MINUTE_TEMP_FILENAME), minute);
-        }
-        write(Paths.get(dataFolder, HOURLY_TEMP_FILENAME), hourly);
-        write(Paths.get(dataFolder, DAILY_TEMP_FILENAME), daily);
+        checkpoint();
     }
 
-    @SuppressWarnings("unchecked")
-    private static ConcurrentHashMap<AggregationKey, AggregationValue> read(Path path) {
+    private void readSnapshot(Path path, Path flushedPath) {
         if (Files.exists(path)) {
-            try (InputStream is = Files.newInputStream(path);
-                 ObjectInputStream objectinputstream = new ObjectInputStream(is)) {
-                return (ConcurrentHashMap<AggregationKey, AggregationValue>) objectinputstream.readObject();
+            long now = System.currentTimeMillis();
+            try {
+                long[] flushedPeriods = AggregatorSnapshot.readFlushed(flushedPath, 3);
+                int entries = AggregatorSnapshot.read(path, seriesInterner, flushedPeriods, minute, hourly, daily);
+                log.info("Restored {} aggregates. Time : {} ms.", entries, System.currentTimeMillis() - now);
             } catch (Exception e) {
-                log.error(e);
+                log.error("Error reading aggregator snapshot.", e);
             }
         }
-
-        return new ConcurrentHashMap<>();
     }
 
-    private static void write(Path path, Map<AggregationKey, AggregationValue> map) {
-        if (map.size() > 0) {
-            try (OutputStream os = Files.newOutputStream(path);
-                 ObjectOutputStream oos = new ObjectOutputStream(os)) {
-                oos.writeObject(map);
+    //legacy format, left only for reading of files created by previous versions
+    @SuppressWarnings("unchecked")
+    private static void read(Path path, AggregationTable table) {
+        if (Files.exists(path)) {
+            try (InputStream is = Files.newInputStream(path);
+                 ObjectInputStream objectinputstream = new ObjectInputStream(is)) {
+                table.putAll((ConcurrentHashMap<AggregationKey, AggregationValue>) objectinputstream.readObject());
             } catch (Exception e) {
                 log.error(e);
             }
@@ -0,0 +1,177 @@
+package cc.blynk.server.core.reporting.average;
+
+import cc.blynk.server.core.reporting.raw.BaseReportingKey;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Maps every reporting series (user + dash + device + pin) to the int id once,
+ * so aggregation tables could store only primitives.
+ * Lookup of the known series doesn't allocate.
+ *
+ * Ids of the series without aggregates are released in 2 steps. unlink() removes
+ * the series from lookup, so new values get new id. free() makes ids reusable,
+ * but only after awaitCollects() - when no collect that looked up the unlinked id is in progress.
+ * Values collected with unlinked id stay in the tables under that id and are drained by id,
+ * id is freed only when it has no aggregates left.
+ */
+final class SeriesInterner {
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final long IDLE = 0;
+
+    private final ConcurrentHashMap<BaseReportingKey, Integer> ids = new ConcurrentHashMap<>();
+    private volatile BaseReportingKey[] keys = new BaseReportingKey[INITIAL_CAPACITY];
+    private int size;
+    //removed from lookup, but not reusable yet
+    private final BitSet unlinked = new BitSet();
+    private final BitSet free = new BitSet();
+
+    //every collecting thread publishes epoch of its collect in progress in own slot, so there is no contention
+    private volatile long epoch = IDLE + 1;
+    private final CopyOnWriteArrayList<CollectSlot> slots = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<CollectSlot> slot = ThreadLocal.withInitial(() -> {
+        CollectSlot collectSlot = new CollectSlot();
+        slots.add(collectSlot);
+        return collectSlot;
+    });
+
+    /**
+     * Marks start of the collect. Ids returned by intern() may be used only till exitCollect().
+     */
+    CollectSlot enterCollect() {
+        CollectSlot collectSlot = slot.get();
+        long epoch;
+        do {
+            epoch = this.epoch;
+            collectSlot.epoch = epoch;
+        } while (epoch != this.epoch);
+        return collectSlot;
+    }
+
+    static void exitCollect(CollectSlot collectSlot) {
+        collectSlot.epoch = IDLE;
+    }
+
+    int intern(BaseReportingKey key) {
+        Integer id = ids.get(key);
+        if (id != null) {
+            return id;
+        }
+        return register(key);
+    }
+
+    private synchronized int register(BaseReportingKey key) {
+        Integer id = ids.get(key);
+        if (id != null) {
+            return id;
+        }
+        BaseReportingKey[] keys = this.keys;
+        int newId = free.nextSetBit(0);
+        if (newId >= 0) {
+            free.clear(newId);
+        } else {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, keys.length * 2);
+            }
+            newId = size++;
+        }
+        keys[newId] = key;
+        this.keys = keys;
+        ids.put(key, newId);
+        return newId;
+    }
+
+    /**
+     * Removes series without aggregates from lookup.
+     *
+     * @param liveSeries - ids of the series that have aggregates
+     * @return - number of series removed from lookup
+     */
+    synchronized int unlink(BitSet liveSeries) {
+        BaseReportingKey[] keys = this.keys;
+        int unlinkedCount = 0;
+        for (int id = 0; id < size; id++) {
+            BaseReportingKey key = keys[id];
+            if (key != null && !liveSeries.get(id) && !unlinked.get(id)) {
+                ids.remove(key, id);
+                unlinked.set(id);
+                unlinkedCount++;
+            }
+        }
+        return unlinkedCount;
+    }
+
+    /**
+     * Waits till all collects started before the call are finished,
+     * so none of them holds id that was unlinked before the call.
+     * Collects take microseconds, so it is just a spin.
+     */
+    void awaitCollects() {
+        long epoch = this.epoch;
+        this.epoch = epoch + 1;
+        for (CollectSlot collectSlot : slots) {
+            long slotEpoch;
+            while ((slotEpoch = collectSlot.epoch) != IDLE && slotEpoch <= epoch) {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    /**
+     * Makes unlinked ids without aggregates reusable. Must be called after awaitCollects().
+     *
+     * @param liveSeries - ids of the series that have aggregates
+     * @return - number of freed ids
+     */
+    synchronized int free(BitSet liveSeries) {
+        BaseReportingKey[] keys = this.keys;
+        int freedCount = 0;
+        for (int id = unlinked.nextSetBit(0); id >= 0; id = unlinked.nextSetBit(id + 1)) {
+            if (!liveSeries.get(id)) {
+                unlinked.clear(id);
+                keys[id] = null;
+                free.set(id);
+                freedCount++;
+            }
+        }
+        return freedCount;
+    }
+
+    synchronized int size() {
+        return ids.size();
+    }
+
+    /**
+     * @return - series id or -1 if series is unknown
+     */
+    int find(BaseReportingKey key) {
+        Integer id = ids.get(key);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * @return - id the key was materialized with if it still belongs to the same series,
+     *           otherwise id of the series from lookup or -1
+     */
+    int find(AggregationKey key) {
+        int seriesId = key.getSeriesId();
+        if (seriesId >= 0 && get(seriesId) == key.getBaseReportingKey()) {
+            return seriesId;
+        }
+        return find(key.getBaseReportingKey());
+    }
+
+    BaseReportingKey get(int id) {
+        BaseReportingKey[] keys = this.keys;
+        return id < keys.length ? keys[id] : null;
+    }
+
+    static final class CollectSlot {
+        private volatile long epoch = IDLE;
+    }
+
+}
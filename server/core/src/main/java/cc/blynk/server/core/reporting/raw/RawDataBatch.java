@@ -0,0 +1,137 @@
+package cc.blynk.server.core.reporting.raw;
+
+import cc.blynk.server.core.model.enums.PinType;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Reusable batch of raw records that goes to the reporting DB in one insert.
+ * String value is null for numeric records.
+ */
+public final class RawDataBatch {
+
+    public final BaseReportingKey[] keys;
+    public final long[] ts;
+    public final double[] doubleValues;
+    public final String[] stringValues;
+    public int size;
+
+    public RawDataBatch(int capacity) {
+        this.keys = new BaseReportingKey[capacity];
+        this.ts = new long[capacity];
+        this.doubleValues = new double[capacity];
+        this.stringValues = new String[capacity];
+    }
+
+    void add(BaseReportingKey key, long ts, String stringValue, double doubleValue) {
+        this.keys[size] = key;
+        this.ts[size] = ts;
+        this.stringValues[size] = stringValue;
+        this.doubleValues[size] = doubleValue;
+        size++;
+    }
+
+    boolean isFull() {
+        return size == keys.length;
+    }
+
+    /**
+     * Keeps only the last value for the same series and ts, as reporting_raw_data
+     * primary key doesn't allow 2 rows with the same ts. Order of the left records is kept.
+     *
+     * @return - number of removed records
+     */
+    public int removeDuplicates() {
+        Set<RowKey> seen = new HashSet<>(size * 2);
+        boolean[] duplicates = null;
+        int removed = 0;
+        //going from the end, so the last value wins
+        for (int i = size - 1; i >= 0; i--) {
+            if (!seen.add(new RowKey(keys[i], ts[i]))) {
+                if (duplicates == null) {
+                    duplicates = new boolean[size];
+                }
+                duplicates[i] = true;
+                removed++;
+            }
+        }
+        if (removed == 0) {
+            return 0;
+        }
+
+        int newSize = 0;
+        for (int i = 0; i < size; i++) {
+            if (!duplicates[i]) {
+                keys[newSize] = keys[i];
+                ts[newSize] = ts[i];
+                stringValues[newSize] = stringValues[i];
+                doubleValues[newSize] = doubleValues[i];
+                newSize++;
+            }
+        }
+        for (int i = newSize; i < size; i++) {
+            keys[i] = null;
+            stringValues[i] = null;
+        }
+        size = newSize;
+        return removed;
+    }
+
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            keys[i] = null;
+            stringValues[i] = null;
+        }
+        size = 0;
+    }
+
+    //columns of reporting_raw_data primary key, app name is not part of it
+    private static final class RowKey {
+
+        private final String email;
+        private final int dashId;
+        private final int deviceId;
+        private final PinType pinType;
+        private final byte pin;
+        private final long ts;
+
+        private RowKey(BaseReportingKey key, long ts) {
+            this.email = key.email;
+            this.dashId = key.dashId;
+            this.deviceId = key.deviceId;
+            this.pinType = key.pinType;
+            this.pin = key.pin;
+            this.ts = ts;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof RowKey)) {
+                return false;
+            }
+            RowKey that = (RowKey) o;
+            return ts == that.ts
+                    && dashId == that.dashId
+                    && deviceId == that.deviceId
+                    && pin == that.pin
+                    && pinType == that.pinType
+                    && email.equals(that.email);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = email.hashCode();
+            result = 31 * result + dashId;
+            result = 31 * result + deviceId;
+            result = 31 * result + pinType.hashCode();
+            result = 31 * result + pin;
+            result = 31 * result + Long.hashCode(ts);
+            return result;
+        }
+    }
+
+}
@@ -1,40 +1,568 @@
 package cc.blynk.server.core.reporting.raw;
 
-import cc.blynk.server.core.reporting.average.AggregationKey;
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.utils.BlynkTPFactory;
+import cc.blynk.utils.FileUtils;
 import cc.blynk.utils.NumberUtil;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
-import java.util.Collections;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
 
 /**
- * Simply stores every record in memory that should be stored in reporting DB lately.
- * Could cause OOM at high request rate. However we don't use it very high loads.
- * So this is fine for now.
+ * Stores every record in memory that should be stored in reporting DB lately.
+ * Records are encoded in journal format into byte segments, so memory usage is bounded
+ * by bytes and queued records don't hold any objects.
+ * Every collecting thread appends to own stripe, so event loops don't contend for one lock.
+ * Full segments are queued. When queued segments exceed half of the limit
+ * (DB is slow or down) oldest of them are spilled to append-only journal
+ * within reporting folder by separate thread, so event loops never touch the disk.
+ * Drain takes queued segments, then stripes and then the journal in batches.
  *
  * The Blynk Project.
  * Created by Dmitriy Dumanskiy.
  * Created on 25.01.17.
  */
-public class RawDataProcessor {
+public class RawDataProcessor implements Closeable {
+
+    private static final Logger log = LogManager.getLogger(RawDataProcessor.class);
+
+    public static final String JOURNAL_FILENAME = "raw_journal.bin";
+    private static final String DRAIN_JOURNAL_FILENAME = JOURNAL_FILENAME + ".drain";
+    public static final String QUARANTINE_FILENAME = JOURNAL_FILENAME + ".quarantine";
+    public static final long DEFAULT_MAX_QUEUE_BYTES = 8 * 1024 * 1024;
+    public static final int BATCH_SIZE = 10_000;
+
+    private static final int MIN_SEGMENT_BYTES = 1024;
+    private static final int MAX_SEGMENT_BYTES = 64 * 1024;
+    private static final int MAX_STRIPES = 64;
+
+    //null if journal is disabled, in that case records are dropped when memory limit is reached
+    private final Path journalPath;
+    private final Path drainJournalPath;
+    private final Path quarantinePath;
+
+    private final Stripe[] stripes;
+    private final int segmentBytes;
+    //full segments, oldest first
+    private final ConcurrentLinkedQueue<Segment> sealed = new ConcurrentLinkedQueue<>();
+    private final AtomicLong sealedBytes = new AtomicLong();
+    private final long maxSealedBytes;
+    private final long spillThreshold;
+    private final ThreadPoolExecutor spillExecutor;
+    private final AtomicBoolean spillScheduled = new AtomicBoolean();
+
+    private final LongAdder queuedRecords = new LongAdder();
+    private final LongAdder spilledRecords = new LongAdder();
+    private final LongAdder droppedRecords = new LongAdder();
+    private final LongAdder quarantinedRecords = new LongAdder();
 
-    public final Map<AggregationKey, Object> rawStorage;
+    private final Object journalLock = new Object();
+    //guarded by journalLock
+    private DataOutputStream journal;
+
+    //accessed only by drainer
+    private final Object drainLock = new Object();
+    private DataInputStream drainJournal;
+    private Segment drainSegment;
+    private ByteArrayInputStream drainSegmentBytes;
+    private DataInputStream drainSegmentInput;
+    private int drainSegmentRecords;
 
     public RawDataProcessor(boolean enable) {
-        if (enable) {
-            rawStorage = new ConcurrentHashMap<>();
+        this(enable, null, DEFAULT_MAX_QUEUE_BYTES);
+    }
+
+    public RawDataProcessor(boolean enable, String journalFolder, long maxQueueBytes) {
+        this(enable, journalFolder, maxQueueBytes, defaultStripes());
+    }
+
+    RawDataProcessor(boolean enable, String journalFolder, long maxQueueBytes, int stripesCount) {
+        int stripesNumber = enable ? stripesCount : 1;
+        this.segmentBytes = (int) Math.max(MIN_SEGMENT_BYTES,
+                Math.min(MAX_SEGMENT_BYTES, maxQueueBytes / (4L * stripesNumber)));
+        this.stripes = new Stripe[stripesNumber];
+        for (int i = 0; i < stripesNumber; i++) {
+            stripes[i] = new Stripe();
+        }
+        //every stripe holds up to one segment
+        this.maxSealedBytes = enable ? Math.max(0, maxQueueBytes - (long) stripesNumber * segmentBytes) : 0;
+        this.spillThreshold = maxSealedBytes / 2;
+        if (enable && journalFolder != null) {
+            this.journalPath = Paths.get(journalFolder, JOURNAL_FILENAME);
+            this.drainJournalPath = Paths.get(journalFolder, DRAIN_JOURNAL_FILENAME);
+            this.quarantinePath = Paths.get(journalFolder, QUARANTINE_FILENAME);
+            this.spillExecutor = new ThreadPoolExecutor(1, 1, 30L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), BlynkTPFactory.build("RawDataSpill"));
+            this.spillExecutor.allowCoreThreadTimeOut(true);
         } else {
-            rawStorage = Collections.emptyMap();
+            this.journalPath = null;
+            this.drainJournalPath = null;
+            this.quarantinePath = null;
+            this.spillExecutor = null;
         }
     }
 
+    //power of 2 not less than number of cores, so every event loop gets own stripe
+    private static int defaultStripes() {
+        int cores = Math.max(1, Runtime.getRuntime().availableProcessors());
+        return Math.min(MAX_STRIPES, Integer.highestOneBit(cores * 2 - 1));
+    }
+
+    private Stripe stripe() {
+        long threadId = Thread.currentThread().getId();
+        return stripes[(int) ((threadId ^ (threadId >>> 32)) % stripes.length)];
+    }
+
     //todo 2 millis is minimum allowed interval for data pushing.
     public void collect(BaseReportingKey key, long ts, String stringValue, double doubleValue) {
-        final AggregationKey aggregationKey = new AggregationKey(key, ts);
-        if (doubleValue == NumberUtil.NO_RESULT) {
-            rawStorage.put(aggregationKey, stringValue);
+        String value = doubleValue == NumberUtil.NO_RESULT ? stringValue : null;
+        Stripe stripe = stripe();
+        synchronized (stripe) {
+            append(stripe, key, ts, value, doubleValue);
+        }
+    }
+
+    /**
+     * Same as above for many records of the same series, lock is taken once.
+     */
+    public void collect(BaseReportingKey key, long[] ts, String[] stringValues, double[] doubleValues, int count) {
+        Stripe stripe = stripe();
+        synchronized (stripe) {
+            for (int i = 0; i < count; i++) {
+                String value = doubleValues[i] == NumberUtil.NO_RESULT ? stringValues[i] : null;
+                append(stripe, key, ts[i], value, doubleValues[i]);
+            }
+        }
+    }
+
+    //must be called under the stripe lock
+    private void append(Stripe stripe, BaseReportingKey key, long ts, String stringValue, double doubleValue) {
+        RecordBuffer recordBuffer = stripe.recordBuffer;
+        recordBuffer.reset();
+        try {
+            writeRecord(stripe.recordOut, key, ts, stringValue, doubleValue);
+        } catch (IOException e) {
+            //too long string value
+            droppedRecords.increment();
+            log.debug("Error encoding raw data record.", e);
+            return;
+        }
+
+        int recordSize = recordBuffer.size();
+        Segment segment = stripe.active;
+        if (segment.size + recordSize > segment.data.length) {
+            if (segment.records > 0) {
+                seal(segment);
+            }
+            segment = new Segment(Math.max(segmentBytes, recordSize));
+            stripe.active = segment;
+        }
+        recordBuffer.copyTo(segment.data, segment.size);
+        segment.size += recordSize;
+        segment.records++;
+        queuedRecords.increment();
+    }
+
+    private void seal(Segment segment) {
+        long queuedBytes = sealedBytes.addAndGet(segment.size);
+        if (queuedBytes > maxSealedBytes) {
+            //spill can't keep up or journal is disabled
+            sealedBytes.addAndGet(-segment.size);
+            queuedRecords.add(-segment.records);
+            droppedRecords.add(segment.records);
+            return;
+        }
+        sealed.offer(segment);
+        if (spillExecutor != null && queuedBytes > spillThreshold && spillScheduled.compareAndSet(false, true)) {
+            spillExecutor.execute(this::spillSealed);
+        }
+    }
+
+    private Segment pollSealed() {
+        Segment segment = sealed.poll();
+        if (segment != null) {
+            sealedBytes.addAndGet(-segment.size);
+        }
+        return segment;
+    }
+
+    private void spillSealed() {
+        try {
+            while (sealedBytes.get() > spillThreshold) {
+                Segment segment = pollSealed();
+                if (segment == null) {
+                    break;
+                }
+                queuedRecords.add(-segment.records);
+                spill(segment.data, 0, segment.size, segment.records);
+            }
+        } finally {
+            spillScheduled.set(false);
+        }
+    }
+
+    private void spill(byte[] data, int offset, int length, int records) {
+        synchronized (journalLock) {
+            try {
+                openJournal().write(data, offset, length);
+                spilledRecords.add(records);
+            } catch (IOException e) {
+                droppedRecords.add(records);
+                log.error("Error writing raw data journal. Reason : {}", e.getMessage());
+            }
+        }
+    }
+
+    //must be called under the journal lock
+    private DataOutputStream openJournal() throws IOException {
+        if (journal == null) {
+            journal = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(journalPath, CREATE, APPEND)));
+        }
+        return journal;
+    }
+
+    /**
+     * Returns records back, for example, when DB insert failed. Records go to journal.
+     */
+    public void spill(RawDataBatch batch) {
+        if (journalPath == null) {
+            droppedRecords.add(batch.size);
+            return;
+        }
+        synchronized (journalLock) {
+            for (int i = 0; i < batch.size; i++) {
+                try {
+                    writeRecord(openJournal(), batch.keys[i], batch.ts[i],
+                            batch.stringValues[i], batch.doubleValues[i]);
+                    spilledRecords.increment();
+                } catch (IOException e) {
+                    droppedRecords.increment();
+                    log.error("Error writing raw data journal. Reason : {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Moves records that DB constantly rejects out of the drain cycle, so they don't block
+     * other records. Quarantine file has journal format and is never drained automatically.
+     */
+    public void quarantine(RawDataBatch batch) {
+        if (quarantinePath == null) {
+            droppedRecords.add(batch.size);
+            return;
+        }
+        synchronized (journalLock) {
+            try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(quarantinePath, CREATE, APPEND)))) {
+                for (int i = 0; i < batch.size; i++) {
+                    writeRecord(dos, batch.keys[i], batch.ts[i], batch.stringValues[i], batch.doubleValues[i]);
+                }
+                quarantinedRecords.add(batch.size);
+            } catch (IOException e) {
+                droppedRecords.add(batch.size);
+                log.error("Error writing raw data quarantine. Reason : {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Moves next portion of records to the batch. Memory goes first, then journal.
+     *
+     * @return - number of records in batch
+     */
+    public int drain(RawDataBatch batch) {
+        synchronized (drainLock) {
+            try {
+                while (!batch.isFull()) {
+                    if (drainSegmentRecords == 0 && !nextDrainSegment()) {
+                        break;
+                    }
+                    readRecord(drainSegmentInput, batch);
+                    drainSegmentRecords--;
+                    queuedRecords.decrement();
+                }
+            } catch (IOException e) {
+                //never happens, segments contain only whole records
+                log.error("Error reading raw data segment.", e);
+                queuedRecords.add(-drainSegmentRecords);
+                drainSegmentRecords = 0;
+            }
+            if (!batch.isFull() && journalPath != null) {
+                drainJournal(batch);
+            }
+            return batch.size;
+        }
+    }
+
+    private boolean nextDrainSegment() {
+        Segment segment = pollSealed();
+        if (segment == null) {
+            for (Stripe stripe : stripes) {
+                synchronized (stripe) {
+                    if (stripe.active.records > 0) {
+                        segment = stripe.active;
+                        stripe.active = Segment.EMPTY;
+                        break;
+                    }
+                }
+            }
+        }
+        if (segment == null) {
+            drainSegment = null;
+            drainSegmentBytes = null;
+            drainSegmentInput = null;
+            return false;
+        }
+        drainSegment = segment;
+        drainSegmentBytes = new ByteArrayInputStream(segment.data, 0, segment.size);
+        drainSegmentInput = new DataInputStream(drainSegmentBytes);
+        drainSegmentRecords = segment.records;
+        return true;
+    }
+
+    private void drainJournal(RawDataBatch batch) {
+        try {
+            if (drainJournal == null) {
+                if (Files.notExists(drainJournalPath)) {
+                    rotateJournal();
+                }
+                if (Files.notExists(drainJournalPath)) {
+                    return;
+                }
+                drainJournal = new DataInputStream(new BufferedInputStream(Files.newInputStream(drainJournalPath)));
+            }
+            while (!batch.isFull()) {
+                readRecord(drainJournal, batch);
+            }
+        } catch (EOFException eof) {
+            //whole journal is drained. truncated last record (after crash) is skipped
+            closeDrainJournal();
+            FileUtils.deleteQuietly(drainJournalPath);
+        } catch (IOException e) {
+            log.error("Error reading raw data journal. Reason : {}", e.getMessage());
+        }
+    }
+
+    private void rotateJournal() throws IOException {
+        synchronized (journalLock) {
+            closeJournal();
+            if (Files.exists(journalPath)) {
+                Files.move(journalPath, drainJournalPath);
+            }
+        }
+    }
+
+    //must be called under the journal lock
+    private void closeJournal() throws IOException {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+    }
+
+    private static void writeRecord(DataOutputStream dos, BaseReportingKey key,
+                                    long ts, String stringValue, double doubleValue) throws IOException {
+        dos.writeUTF(key.email);
+        dos.writeUTF(key.appName);
+        dos.writeInt(key.dashId);
+        dos.writeInt(key.deviceId);
+        dos.writeChar(key.pinType.pintTypeChar);
+        dos.writeByte(key.pin);
+        dos.writeLong(ts);
+        if (stringValue == null) {
+            dos.writeBoolean(false);
+            dos.writeDouble(doubleValue);
+        } else {
+            dos.writeBoolean(true);
+            dos.writeUTF(stringValue);
+        }
+    }
+
+    private void closeDrainJournal() {
+        try {
+            drainJournal.close();
+        } catch (IOException e) {
+            log.error("Error closing raw data journal.", e);
+        }
+        drainJournal = null;
+    }
+
+    private static void readRecord(DataInputStream dis, RawDataBatch batch) throws IOException {
+        BaseReportingKey key = new BaseReportingKey(dis.readUTF(), dis.readUTF(), dis.readInt(), dis.readInt(),
+                PinType.getPinType(dis.readChar()), dis.readByte());
+        long ts = dis.readLong();
+        if (dis.readBoolean()) {
+            batch.add(key, ts, dis.readUTF(), NumberUtil.NO_RESULT);
         } else {
-            rawStorage.put(aggregationKey, doubleValue);
+            batch.add(key, ts, null, dis.readDouble());
+        }
+    }
+
+    public int getQueueSize() {
+        return (int) queuedRecords.sum();
+    }
+
+    /**
+     * @return - bytes of the full segments waiting for the drain or spill
+     */
+    public long getQueueBytes() {
+        return sealedBytes.get();
+    }
+
+    public long getSpilledRecords() {
+        return spilledRecords.sum();
+    }
+
+    public long getDroppedRecords() {
+        return droppedRecords.sum();
+    }
+
+    public long getQuarantinedRecords() {
+        return quarantinedRecords.sum();
+    }
+
+    public long getJournalBytes() {
+        if (journalPath == null) {
+            return 0;
+        }
+        long bytes = 0;
+        try {
+            synchronized (journalLock) {
+                if (journal != null) {
+                    journal.flush();
+                }
+            }
+            if (Files.exists(journalPath)) {
+                bytes += Files.size(journalPath);
+            }
+            if (Files.exists(drainJournalPath)) {
+                bytes += Files.size(drainJournalPath);
+            }
+        } catch (IOException e) {
+            log.debug("Error getting raw data journal size.", e);
+        }
+        return bytes;
+    }
+
+    public boolean hasData() {
+        return getQueueSize() > 0 || getJournalBytes() > 0;
+    }
+
+    /**
+     * Moves all in-memory records to the journal, so they are stored to DB after restart.
+     */
+    @Override
+    public void close() {
+        if (spillExecutor != null) {
+            spillExecutor.shutdown();
+            try {
+                spillExecutor.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (drainLock) {
+            if (journalPath != null) {
+                if (drainSegmentRecords > 0) {
+                    int left = drainSegmentBytes.available();
+                    spill(drainSegment.data, drainSegment.size - left, left, drainSegmentRecords);
+                    drainSegmentRecords = 0;
+                }
+                drainSegment = null;
+                drainSegmentBytes = null;
+                drainSegmentInput = null;
+                Segment segment;
+                while ((segment = pollSealed()) != null) {
+                    spill(segment.data, 0, segment.size, segment.records);
+                }
+                for (Stripe stripe : stripes) {
+                    synchronized (stripe) {
+                        segment = stripe.active;
+                        if (segment.records > 0) {
+                            spill(segment.data, 0, segment.size, segment.records);
+                        }
+                        stripe.active = Segment.EMPTY;
+                    }
+                }
+                queuedRecords.reset();
+            }
+            synchronized (journalLock) {
+                try {
+                    closeJournal();
+                } catch (IOException e) {
+                    log.error("Error closing raw data journal.", e);
+                }
+            }
+            if (drainJournal != null) {
+                //leaving only not yet drained records, so they are not stored twice after restart
+                Path tmpPath = Paths.get(drainJournalPath + ".tmp");
+                try (DataInputStream dis = drainJournal) {
+                    Files.copy(dis, tmpPath, REPLACE_EXISTING);
+                    Files.move(tmpPath, drainJournalPath, REPLACE_EXISTING);
+                } catch (IOException e) {
+                    log.error("Error closing raw data journal.", e);
+                }
+                drainJournal = null;
+            }
+        }
+    }
+
+    //encoded records in journal format
+    private static final class Segment {
+
+        //segment is allocated on the first record of the stripe
+        private static final Segment EMPTY = new Segment(0);
+
+        private final byte[] data;
+        private int size;
+        private int records;
+
+        private Segment(int capacity) {
+            this.data = new byte[capacity];
+        }
+    }
+
+    private static final class Stripe {
+
+        private final RecordBuffer recordBuffer = new RecordBuffer();
+        private final DataOutputStream recordOut = new DataOutputStream(recordBuffer);
+        private Segment active = Segment.EMPTY;
+    }
+
+    //record is encoded first, so failed encoding never leaves half-written record in segment
+    private static final class RecordBuffer extends ByteArrayOutputStream {
+
+        private RecordBuffer() {
+            super(256);
+        }
+
+        private void copyTo(byte[] dest, int offset) {
+            System.arraycopy(buf, 0, dest, offset, count);
         }
     }
 
@@ -0,0 +1,167 @@
+package cc.blynk.server.core.reporting.rollup;
+
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import cc.blynk.server.core.reporting.storage.ReportingStorage;
+import cc.blynk.server.core.reporting.storage.SeriesKey;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static cc.blynk.server.core.reporting.rollup.RollupStats.SIZE_OF_STATS_ENTRY;
+import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
+
+/**
+ * Derives coarser tiers from the finer ones already stored on disk.
+ * Every run continues from the last rolled up point of the tier and takes only
+ * complete periods, so rollup is incremental and never rewrites existing points.
+ * Average goes to the regular series of the tier, min/max/count to the {@link RollupStats}.
+ */
+public class RollupEngine {
+
+    private static final Logger log = LogManager.getLogger(RollupEngine.class);
+
+    //reporting worker flushes period of the source tier within a minute after it ends
+    private static final long FLUSH_MARGIN = GraphGranularityType.MINUTE.period;
+
+    private final ReportingStorage storage;
+    public final RollupStats stats;
+
+    public RollupEngine(ReportingStorage storage, String dataFolder) {
+        this.storage = storage;
+        this.stats = new RollupStats(dataFolder);
+    }
+
+    /**
+     * Averages records of the finer granularity into points of the target one.
+     * Used for the latest periods that are not rolled up yet.
+     *
+     * @param source - records ordered by ts
+     * @return - points of the target granularity, empty if source is null
+     */
+    public static ByteBuffer downsample(ByteBuffer source, GraphGranularityType target) {
+        if (source == null) {
+            return ByteBuffer.allocate(0);
+        }
+        int sourceRecords = source.remaining() / SIZE_OF_REPORT_ENTRY;
+        ByteBuffer result = ByteBuffer.allocate(sourceRecords * SIZE_OF_REPORT_ENTRY);
+        int base = source.position();
+        long bucket = 0;
+        long count = 0;
+        double sum = 0;
+        for (int i = 0; i < sourceRecords; i++) {
+            int recordPos = base + i * SIZE_OF_REPORT_ENTRY;
+            long recordBucket = target.truncate(source.getLong(recordPos + 8));
+            if (count > 0 && recordBucket != bucket) {
+                result.putDouble(sum / count).putLong(bucket);
+                count = 0;
+                sum = 0;
+            }
+            bucket = recordBucket;
+            sum += source.getDouble(recordPos);
+            count++;
+        }
+        if (count > 0) {
+            result.putDouble(sum / count).putLong(bucket);
+        }
+        result.flip();
+        return result;
+    }
+
+    /**
+     * @param now - only periods that ended before now and were already flushed are rolled up
+     * @return - number of produced points
+     */
+    public int rollup(String userDir, long now) throws IOException {
+        int points = 0;
+        for (RollupTier tier : RollupTier.values()) {
+            for (SeriesKey key : storage.listSeries(userDir, tier.source)) {
+                try {
+                    points += rollup(userDir, key, tier, now);
+                } catch (Exception e) {
+                    log.error("Error rolling up {} for {}. Reason : {}", key, userDir, e.getMessage());
+                }
+            }
+        }
+        return points;
+    }
+
+    private int rollup(String userDir, SeriesKey key, RollupTier tier, long now) throws IOException {
+        GraphGranularityType target = tier.target;
+        ByteBuffer last = storage.read(userDir, key.dashId, key.deviceId, key.pinType, key.pin, target, 1, 0);
+        long from = last == null ? Long.MIN_VALUE : last.getLong(last.limit() - 8) + target.period;
+        //last source period could be still in memory of the aggregator
+        long to = target.truncate(now - tier.source.period - FLUSH_MARGIN);
+        if (from >= to) {
+            return 0;
+        }
+
+        ByteBuffer source = storage.readRange(userDir, key.dashId, key.deviceId, key.pinType, key.pin,
+                tier.source, from, to);
+        if (source == null) {
+            return 0;
+        }
+        int sourceRecords = source.remaining() / SIZE_OF_REPORT_ENTRY;
+        ByteBuffer sourceStats = stats.readRange(userDir, key, tier.source, from, to);
+        //stats are valid only when aligned record by record with the series
+        if (sourceStats != null && sourceStats.remaining() / SIZE_OF_STATS_ENTRY != sourceRecords) {
+            sourceStats = null;
+        }
+
+        ByteBuffer averages = ByteBuffer.allocate(sourceRecords * SIZE_OF_REPORT_ENTRY);
+        ByteBuffer targetStats = ByteBuffer.allocate(sourceRecords * SIZE_OF_STATS_ENTRY);
+
+        int base = source.position();
+        int statsBase = sourceStats == null ? 0 : sourceStats.position();
+        long bucket = 0;
+        long count = 0;
+        double sum = 0;
+        double min = 0;
+        double max = 0;
+        for (int i = 0; i < sourceRecords; i++) {
+            int recordPos = base + i * SIZE_OF_REPORT_ENTRY;
+            double value = source.getDouble(recordPos);
+            long recordBucket = target.truncate(source.getLong(recordPos + 8));
+
+            double recordMin = value;
+            double recordMax = value;
+            long recordCount = 1;
+            if (sourceStats != null) {
+                int statsPos = statsBase + i * SIZE_OF_STATS_ENTRY;
+                recordMin = sourceStats.getDouble(statsPos);
+                recordMax = sourceStats.getDouble(statsPos + 8);
+                recordCount = sourceStats.getLong(statsPos + 16);
+            }
+
+            if (count > 0 && recordBucket != bucket) {
+                averages.putDouble(sum / count).putLong(bucket);
+                targetStats.putDouble(min).putDouble(max).putLong(count).putLong(bucket);
+                count = 0;
+            }
+            if (count == 0) {
+                bucket = recordBucket;
+                sum = 0;
+                min = recordMin;
+                max = recordMax;
+            }
+            //points of finer tiers are weighted by number of raw points behind them
+            sum += value * recordCount;
+            count += recordCount;
+            min = Math.min(min, recordMin);
+            max = Math.max(max, recordMax);
+        }
+        if (count > 0) {
+            averages.putDouble(sum / count).putLong(bucket);
+            targetStats.putDouble(min).putDouble(max).putLong(count).putLong(bucket);
+        }
+
+        averages.flip();
+        targetStats.flip();
+        int points = averages.remaining() / SIZE_OF_REPORT_ENTRY;
+        storage.write(userDir, key.dashId, key.deviceId, key.pinType, key.pin, target, averages);
+        stats.write(userDir, key, target, targetStats);
+        return points;
+    }
+
+}
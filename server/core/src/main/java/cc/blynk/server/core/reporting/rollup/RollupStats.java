@@ -0,0 +1,146 @@
+package cc.blynk.server.core.reporting.rollup;
+
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import cc.blynk.server.core.reporting.storage.FileReportingStorage;
+import cc.blynk.server.core.reporting.storage.SeriesKey;
+import cc.blynk.utils.FileUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.function.Predicate;
+
+import static cc.blynk.server.core.reporting.storage.FileReportingStorage.FILE_EXTENSION;
+import static cc.blynk.server.core.reporting.storage.FileReportingStorage.FILE_PREFIX;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Min/max/count of every rolled up point. Graphs need only average, so it stays
+ * in the regular series and stats are kept in companion history_*.stats file
+ * of the same name, record by record aligned with the series.
+ *
+ * Record is 32 bytes : double min + double max + long count + long ts.
+ */
+public class RollupStats {
+
+    public static final String STATS_EXTENSION = ".stats";
+    public static final int SIZE_OF_STATS_ENTRY = 32;
+
+    private final String dataFolder;
+
+    public RollupStats(String dataFolder) {
+        this.dataFolder = dataFolder;
+    }
+
+    public static String generateFilename(SeriesKey key, GraphGranularityType type) {
+        String seriesFileName = FileReportingStorage.generateFilename(key.dashId, key.deviceId,
+                key.pinType, key.pin, type);
+        return toStatsFilename(seriesFileName);
+    }
+
+    private static String toStatsFilename(String seriesFileName) {
+        return seriesFileName.substring(0, seriesFileName.length() - FILE_EXTENSION.length()) + STATS_EXTENSION;
+    }
+
+    private static String toSeriesFilename(String statsFileName) {
+        return statsFileName.substring(0, statsFileName.length() - STATS_EXTENSION.length()) + FILE_EXTENSION;
+    }
+
+    private Path getStatsPath(String userDir, SeriesKey key, GraphGranularityType type) {
+        return Paths.get(dataFolder, userDir, generateFilename(key, type));
+    }
+
+    public void write(String userDir, SeriesKey key, GraphGranularityType type, ByteBuffer records)
+            throws IOException {
+        Path statsPath = getStatsPath(userDir, key, type);
+        Files.createDirectories(statsPath.getParent());
+        try (FileChannel fileChannel = FileChannel.open(statsPath, CREATE, WRITE, APPEND)) {
+            while (records.hasRemaining()) {
+                fileChannel.write(records);
+            }
+        }
+    }
+
+    /**
+     * @return - stats records within [from, to) range or null if there is no stats
+     */
+    public ByteBuffer readRange(String userDir, SeriesKey key, GraphGranularityType type, long from, long to)
+            throws IOException {
+        Path statsPath = getStatsPath(userDir, key, type);
+        if (Files.exists(statsPath)) {
+            return FileUtils.readRange(statsPath, SIZE_OF_STATS_ENTRY, from, to);
+        }
+        return null;
+    }
+
+    /**
+     * Leaves only last maxRecordsCount records for every stats file of the given granularity.
+     *
+     * @return - number of truncated files
+     */
+    public int truncate(String userDir, GraphGranularityType type, int maxRecordsCount) throws IOException {
+        Path userReportingPath = Paths.get(dataFolder, userDir);
+        if (Files.notExists(userReportingPath)) {
+            return 0;
+        }
+
+        long maxSize = (long) maxRecordsCount * SIZE_OF_STATS_ENTRY;
+        int truncatedFilesCounter = 0;
+        try (DirectoryStream<Path> userReportingFolder = Files.newDirectoryStream(userReportingPath,
+                FILE_PREFIX + "*_" + type.label + STATS_EXTENSION)) {
+            for (Path statsFile : userReportingFolder) {
+                ByteBuffer lastRecords;
+                try (FileChannel fileChannel = FileChannel.open(statsFile, READ)) {
+                    long fileSize = fileChannel.size() / SIZE_OF_STATS_ENTRY * SIZE_OF_STATS_ENTRY;
+                    if (fileSize <= maxSize) {
+                        continue;
+                    }
+                    lastRecords = ByteBuffer.allocate((int) maxSize);
+                    while (lastRecords.hasRemaining()) {
+                        if (fileChannel.read(lastRecords, fileSize - maxSize + lastRecords.position()) < 0) {
+                            break;
+                        }
+                    }
+                    lastRecords.flip();
+                }
+                try (FileChannel fileChannel = FileChannel.open(statsFile, WRITE, TRUNCATE_EXISTING)) {
+                    while (lastRecords.hasRemaining()) {
+                        fileChannel.write(lastRecords);
+                    }
+                }
+                truncatedFilesCounter++;
+            }
+        }
+        return truncatedFilesCounter;
+    }
+
+    /**
+     * Removes stats of the series accepted by the filter.
+     *
+     * @param filter - accepts legacy file name of the series, same as for the series removal
+     */
+    public void delete(String userDir, Predicate<String> filter) throws IOException {
+        Path userReportingPath = Paths.get(dataFolder, userDir);
+        if (Files.notExists(userReportingPath)) {
+            return;
+        }
+
+        try (DirectoryStream<Path> userReportingFolder = Files.newDirectoryStream(userReportingPath,
+                FILE_PREFIX + "*" + STATS_EXTENSION)) {
+            for (Path statsFile : userReportingFolder) {
+                if (filter.test(toSeriesFilename(statsFile.getFileName().toString()))) {
+                    FileUtils.deleteQuietly(statsFile);
+                }
+            }
+        }
+    }
+
+}
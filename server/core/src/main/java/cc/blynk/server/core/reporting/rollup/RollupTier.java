@@ -0,0 +1,67 @@
+package cc.blynk.server.core.reporting.rollup;
+
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+
+import java.util.concurrent.TimeUnit;
+
+import static cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType.DAILY;
+import static cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType.FIFTEEN_MINUTES;
+import static cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType.FIVE_MINUTES;
+import static cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType.MINUTE;
+import static cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType.WEEKLY;
+
+/**
+ * Downsampling tiers. Every tier is derived from the finer one that is already on disk,
+ * so order of constants is order of rollup : 15 minute tier uses 5 minute points
+ * produced within the same run.
+ */
+public enum RollupTier {
+
+    MINUTE_TO_FIVE_MINUTES(MINUTE, FIVE_MINUTES, TimeUnit.DAYS.toMillis(90)),
+    FIVE_TO_FIFTEEN_MINUTES(FIVE_MINUTES, FIFTEEN_MINUTES, TimeUnit.DAYS.toMillis(365)),
+    DAILY_TO_WEEKLY(DAILY, WEEKLY, 0);
+
+    private static final RollupTier[] values = values();
+
+    public final GraphGranularityType source;
+    public final GraphGranularityType target;
+    //0 means data is kept forever
+    public final long retention;
+
+    RollupTier(GraphGranularityType source, GraphGranularityType target, long retention) {
+        this.source = source;
+        this.target = target;
+        this.retention = retention;
+    }
+
+    public int maxRecordsCount() {
+        return (int) (retention / target.period);
+    }
+
+    private static RollupTier derivedFrom(GraphGranularityType source) {
+        for (RollupTier tier : values) {
+            if (tier.source == source) {
+                return tier;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Walks down the tiers derived from the base granularity and picks the finest one
+     * that covers requested period with no more than maxPoints points.
+     *
+     * @return - base granularity in case it already fits or there is no coarser tier
+     */
+    public static GraphGranularityType cheapestFor(GraphGranularityType base, int numberOfPoints, int maxPoints) {
+        long span = numberOfPoints * base.period;
+        GraphGranularityType result = base;
+        RollupTier tier = derivedFrom(base);
+        while (span / result.period > maxPoints && tier != null) {
+            result = tier.target;
+            tier = derivedFrom(result);
+        }
+        return result;
+    }
+
+}
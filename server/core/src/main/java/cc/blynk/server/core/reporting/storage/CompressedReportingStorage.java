@@ -0,0 +1,692 @@
+package cc.blynk.server.core.reporting.storage;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import cc.blynk.utils.FileUtils;
+import cc.blynk.utils.structure.LRUCache;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import static cc.blynk.server.core.reporting.storage.FileReportingStorage.FILE_EXTENSION;
+import static cc.blynk.server.core.reporting.storage.FileReportingStorage.FILE_PREFIX;
+import static cc.blynk.server.core.reporting.storage.GorillaCodec.COUNT_POS;
+import static cc.blynk.server.core.reporting.storage.GorillaCodec.FIRST_TS_POS;
+import static cc.blynk.server.core.reporting.storage.GorillaCodec.HEADER_SIZE;
+import static cc.blynk.server.core.reporting.storage.GorillaCodec.LAST_TS_POS;
+import static cc.blynk.server.core.reporting.storage.GorillaCodec.PAYLOAD_SIZE_POS;
+import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Same layout as file storage (one file per series), but records are stored
+ * within {@link GorillaCodec} blocks in history_*.gbin files. Block headers keep
+ * records count and time bounds, so tail and range reads decode only blocks they need.
+ * New records are appended as is to the history_*.gtail file of the series. Once it has
+ * MAX_BLOCK_RECORDS records they are encoded into the new block appended to the .gbin file
+ * and only then the tail is cleared, so written blocks are never rewritten.
+ * Block headers of recently used series are kept in memory, so append and read
+ * don't walk over all headers of the file.
+ * Files of the series are accessed under the series lock, so flush and rollup
+ * writes of the same series never interleave.
+ *
+ * Existing history_*.bin files are converted on start.
+ */
+public class CompressedReportingStorage implements ReportingStorage {
+
+    private static final Logger log = LogManager.getLogger(CompressedReportingStorage.class);
+
+    public static final String COMPRESSED_FILE_EXTENSION = ".gbin";
+    public static final String TAIL_FILE_EXTENSION = ".gtail";
+    //4 hours of minute points
+    static final int MAX_BLOCK_RECORDS = 256;
+    private static final int MAX_CACHED_INDEXES = 10_000;
+    private static final int LOCK_STRIPES = 64;
+
+    private final String dataFolder;
+    private final Map<Path, BlockIndex> indexes = Collections.synchronizedMap(new LRUCache<>(MAX_CACHED_INDEXES));
+    private final Object[] locks;
+
+    public CompressedReportingStorage(String dataFolder) {
+        this.dataFolder = dataFolder;
+        this.locks = new Object[LOCK_STRIPES];
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            this.locks[i] = new Object();
+        }
+        migrate();
+    }
+
+    private Object lock(Path filePath) {
+        return locks[(filePath.hashCode() & Integer.MAX_VALUE) % LOCK_STRIPES];
+    }
+
+    public static String generateFilename(int dashId, int deviceId,
+                                          PinType pinType, byte pin, GraphGranularityType type) {
+        return toCompressedFilename(FileReportingStorage.generateFilename(dashId, deviceId, pinType, pin, type));
+    }
+
+    private static String toCompressedFilename(String fileName) {
+        return fileName.substring(0, fileName.length() - FILE_EXTENSION.length()) + COMPRESSED_FILE_EXTENSION;
+    }
+
+    private static String toPlainFilename(String compressedFileName) {
+        return compressedFileName.substring(0, compressedFileName.length() - COMPRESSED_FILE_EXTENSION.length())
+                + FILE_EXTENSION;
+    }
+
+    private static Path toTailPath(Path compressedFile) {
+        String fileName = compressedFile.getFileName().toString();
+        return compressedFile.resolveSibling(
+                fileName.substring(0, fileName.length() - COMPRESSED_FILE_EXTENSION.length()) + TAIL_FILE_EXTENSION);
+    }
+
+    private Path getSeriesPath(String userDir, int dashId, int deviceId, PinType pinType, byte pin,
+                               GraphGranularityType type) {
+        return Paths.get(dataFolder, userDir, generateFilename(dashId, deviceId, pinType, pin, type));
+    }
+
+    @Override
+    public void write(String userDir, int dashId, int deviceId, PinType pinType, byte pin,
+                      GraphGranularityType type, double value, long ts) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(SIZE_OF_REPORT_ENTRY);
+        record.putDouble(value).putLong(ts).flip();
+        write(userDir, dashId, deviceId, pinType, pin, type, record);
+    }
+
+    @Override
+    public void write(String userDir, int dashId, int deviceId, PinType pinType, byte pin,
+                      GraphGranularityType type, ByteBuffer records) throws IOException {
+        Path filePath = getSeriesPath(userDir, dashId, deviceId, pinType, pin, type);
+        Files.createDirectories(filePath.getParent());
+        synchronized (lock(filePath)) {
+            try (FileChannel channel = FileChannel.open(filePath, CREATE, READ, WRITE);
+                 FileChannel tailChannel = FileChannel.open(toTailPath(filePath), CREATE, READ, WRITE)) {
+                indexes.put(filePath, append(channel, getIndex(filePath, channel), tailChannel, records));
+            } catch (IOException e) {
+                indexes.remove(filePath);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Appends records to the compressed file without index cache and locking.
+     */
+    public static void append(Path filePath, ByteBuffer records) throws IOException {
+        try (FileChannel channel = FileChannel.open(filePath, CREATE, READ, WRITE);
+             FileChannel tailChannel = FileChannel.open(toTailPath(filePath), CREATE, READ, WRITE)) {
+            append(channel, readIndex(channel), tailChannel, records);
+        }
+    }
+
+    /**
+     * Records go to the tail first. When the tail is full, all its records are appended
+     * as new blocks and the tail is cleared. Crash in between leaves full tail that
+     * is equal to the last blocks, such tail is ignored and cleared on the next append.
+     *
+     * @return - index of the file after append
+     */
+    private static BlockIndex append(FileChannel channel, BlockIndex index, FileChannel tailChannel,
+                                     ByteBuffer records) throws IOException {
+        ByteBuffer tail = readTail(channel, index, tailChannel);
+        if (!tail.hasRemaining() && tailChannel.size() >= SIZE_OF_REPORT_ENTRY) {
+            tailChannel.truncate(0);
+        }
+
+        ByteBuffer newRecords = records.duplicate();
+        //partial record left by crash is overwritten
+        long position = tail.remaining();
+        while (records.hasRemaining()) {
+            position += tailChannel.write(records, position);
+        }
+
+        if (position / SIZE_OF_REPORT_ENTRY < MAX_BLOCK_RECORDS) {
+            return index;
+        }
+        ByteBuffer fullTail = ByteBuffer.allocate((int) position);
+        fullTail.put(tail).put(newRecords).flip();
+        BlockIndex newIndex = appendBlocks(channel, index, fullTail);
+        tailChannel.truncate(0);
+        return newIndex;
+    }
+
+    private static BlockIndex appendBlocks(FileChannel channel, BlockIndex index, ByteBuffer records)
+            throws IOException {
+        long position = index.end();
+        //incomplete block left by crash
+        if (channel.size() > position) {
+            channel.truncate(position);
+        }
+        List<BlockHeader> blocks = new ArrayList<>(index.blocks);
+        long size = writeBlocks(channel, position, records, blocks);
+        channel.force(false);
+        return new BlockIndex(blocks, size);
+    }
+
+    /**
+     * Partial record at the end of the tail (crash during append) is skipped.
+     *
+     * @return - records of the tail, empty if the tail was already written as blocks
+     */
+    private static ByteBuffer readTail(FileChannel channel, BlockIndex index,
+                                       FileChannel tailChannel) throws IOException {
+        int tailCount = (int) (tailChannel.size() / SIZE_OF_REPORT_ENTRY);
+        ByteBuffer tail = ByteBuffer.allocate(tailCount * SIZE_OF_REPORT_ENTRY);
+        readFully(tailChannel, tail, 0);
+        tail.flip();
+        //only tail that wasn't cleared after it was written as blocks may be full
+        if (tailCount >= MAX_BLOCK_RECORDS && index.recordsCount >= tailCount
+                && tail.equals(read(channel, index, ByteBuffer.allocate(0), tailCount, 0))) {
+            tail.limit(0);
+        }
+        return tail;
+    }
+
+    private static ByteBuffer readTail(Path filePath, FileChannel channel, BlockIndex index) throws IOException {
+        Path tailPath = toTailPath(filePath);
+        if (Files.notExists(tailPath)) {
+            return ByteBuffer.allocate(0);
+        }
+        try (FileChannel tailChannel = FileChannel.open(tailPath, READ)) {
+            return readTail(channel, index, tailChannel);
+        }
+    }
+
+    /**
+     * @param blocks - headers of the written blocks are added to it
+     * @return - position after the last written block
+     */
+    private static long writeBlocks(FileChannel channel, long position, ByteBuffer data,
+                                    List<BlockHeader> blocks) throws IOException {
+        int recordsCount = data.remaining() / SIZE_OF_REPORT_ENTRY;
+        for (int i = 0; i < recordsCount; i += MAX_BLOCK_RECORDS) {
+            int offset = data.position() + i * SIZE_OF_REPORT_ENTRY;
+            ByteBuffer block = ByteBuffer.wrap(
+                    GorillaCodec.encode(data, offset, Math.min(MAX_BLOCK_RECORDS, recordsCount - i)));
+            blocks.add(BlockHeader.read(block, position));
+            while (block.hasRemaining()) {
+                position += channel.write(block, position);
+            }
+        }
+        data.position(data.limit());
+        return position;
+    }
+
+    /**
+     * Cached index is valid only for the file of the same size, so the file
+     * changed not by this storage (tools, manual copy) is indexed again.
+     */
+    private BlockIndex getIndex(Path filePath, FileChannel channel) throws IOException {
+        BlockIndex index = indexes.get(filePath);
+        if (index == null || index.fileSize != channel.size()) {
+            index = readIndex(channel);
+            indexes.put(filePath, index);
+        }
+        return index;
+    }
+
+    @Override
+    public ByteBuffer read(String userDir, int dashId, int deviceId, PinType pinType, byte pin,
+                           GraphGranularityType type, int count, int skip) throws IOException {
+        Path filePath = getSeriesPath(userDir, dashId, deviceId, pinType, pin, type);
+        synchronized (lock(filePath)) {
+            if (Files.notExists(filePath)) {
+                return null;
+            }
+            try (FileChannel channel = FileChannel.open(filePath, READ)) {
+                BlockIndex index = getIndex(filePath, channel);
+                return read(channel, index, readTail(filePath, channel, index), count, skip);
+            }
+        }
+    }
+
+    /**
+     * Same as {@link FileUtils#read(Path, int, int)} for the compressed file.
+     */
+    public static ByteBuffer read(Path filePath, int count, int skip) throws IOException {
+        try (FileChannel channel = FileChannel.open(filePath, READ)) {
+            BlockIndex index = readIndex(channel);
+            return read(channel, index, readTail(filePath, channel, index), count, skip);
+        }
+    }
+
+    private static ByteBuffer read(FileChannel channel, BlockIndex index, ByteBuffer tail,
+                                   int count, int skip) throws IOException {
+        long tailStart = index.recordsCount;
+        long end = tailStart + tail.remaining() / SIZE_OF_REPORT_ENTRY - skip;
+        long start = Math.max(0, end - count);
+        if (start >= end) {
+            return null;
+        }
+
+        ByteBuffer result = ByteBuffer.allocate((int) (end - start) * SIZE_OF_REPORT_ENTRY);
+        if (end > tailStart) {
+            long from = Math.max(start, tailStart);
+            ByteBuffer tailRecords = tail.duplicate();
+            tailRecords.position(tail.position() + (int) (from - tailStart) * SIZE_OF_REPORT_ENTRY)
+                    .limit(tail.position() + (int) (end - tailStart) * SIZE_OF_REPORT_ENTRY);
+            result.position((int) (from - start) * SIZE_OF_REPORT_ENTRY);
+            result.put(tailRecords);
+        }
+        //going from the tail, as mostly the latest records are requested
+        long blockEnd = index.recordsCount;
+        for (int i = index.blocks.size() - 1; i >= 0 && blockEnd > start; i--) {
+            BlockHeader block = index.blocks.get(i);
+            long blockStart = blockEnd - block.count;
+            if (blockStart < end) {
+                ByteBuffer decoded = decode(channel, block);
+                int from = (int) (Math.max(start, blockStart) - blockStart);
+                int to = (int) (Math.min(end, blockEnd) - blockStart);
+                decoded.position(from * SIZE_OF_REPORT_ENTRY).limit(to * SIZE_OF_REPORT_ENTRY);
+                result.position((int) (Math.max(start, blockStart) - start) * SIZE_OF_REPORT_ENTRY);
+                result.put(decoded);
+            }
+            blockEnd = blockStart;
+        }
+        result.clear();
+        return result;
+    }
+
+    @Override
+    public ByteBuffer readRange(String userDir, int dashId, int deviceId, PinType pinType, byte pin,
+                                GraphGranularityType type, long from, long to) throws IOException {
+        Path filePath = getSeriesPath(userDir, dashId, deviceId, pinType, pin, type);
+        synchronized (lock(filePath)) {
+            if (Files.notExists(filePath)) {
+                return null;
+            }
+
+            try (FileChannel channel = FileChannel.open(filePath, READ)) {
+                BlockIndex index = getIndex(filePath, channel);
+                List<ByteBuffer> decodedBlocks = new ArrayList<>();
+                int size = 0;
+                for (BlockHeader block : index.blocks) {
+                    if (block.lastTs >= from && block.firstTs < to) {
+                        ByteBuffer slice = FileUtils.slice(decode(channel, block), from, to);
+                        if (slice != null) {
+                            decodedBlocks.add(slice);
+                            size += slice.remaining();
+                        }
+                    }
+                }
+                ByteBuffer tailSlice = FileUtils.slice(readTail(filePath, channel, index), from, to);
+                if (tailSlice != null) {
+                    decodedBlocks.add(tailSlice);
+                    size += tailSlice.remaining();
+                }
+                if (size == 0) {
+                    return null;
+                }
+
+                ByteBuffer result = ByteBuffer.allocate(size);
+                for (ByteBuffer decodedBlock : decodedBlocks) {
+                    result.put(decodedBlock);
+                }
+                result.flip();
+                return result;
+            }
+        }
+    }
+
+    @Override
+    public List<SeriesKey> listSeries(String userDir, GraphGranularityType type) throws IOException {
+        Path userReportingPath = Paths.get(dataFolder, userDir);
+        List<SeriesKey> result = new ArrayList<>();
+        if (Files.exists(userReportingPath)) {
+            try (DirectoryStream<Path> userReportingFolder = Files.newDirectoryStream(userReportingPath,
+                    FILE_PREFIX + "*_" + type.label + COMPRESSED_FILE_EXTENSION)) {
+                for (Path reportingFile : userReportingFolder) {
+                    SeriesKey key = FileReportingStorage.parseSeriesKey(
+                            toPlainFilename(reportingFile.getFileName().toString()), type);
+                    if (key != null) {
+                        result.add(key);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public int delete(String userDir, Predicate<String> filter) throws IOException {
+        Path userReportingPath = Paths.get(dataFolder, userDir);
+
+        int count = 0;
+        if (Files.exists(userReportingPath)) {
+            try (DirectoryStream<Path> userReportingFolder = Files.newDirectoryStream(userReportingPath, "*")) {
+                for (Path reportingFile : userReportingFolder) {
+                    String fileName = reportingFile.getFileName().toString();
+                    //tail is removed together with its compressed file
+                    if (fileName.endsWith(TAIL_FILE_EXTENSION)) {
+                        continue;
+                    }
+                    //filters are applied to the plain file name of the series
+                    boolean compressed = fileName.endsWith(COMPRESSED_FILE_EXTENSION);
+                    if (compressed) {
+                        fileName = toPlainFilename(fileName);
+                    }
+                    if (filter.test(fileName)) {
+                        synchronized (lock(reportingFile)) {
+                            FileUtils.deleteQuietly(reportingFile);
+                            if (compressed) {
+                                FileUtils.deleteQuietly(toTailPath(reportingFile));
+                            }
+                            indexes.remove(reportingFile);
+                        }
+                        count++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public int truncate(String userDir, GraphGranularityType type, int maxRecordsCount) throws IOException {
+        Path userReportingPath = Paths.get(dataFolder, userDir);
+        int truncatedFilesCounter = 0;
+        try (DirectoryStream<Path> userReportingFolder = Files.newDirectoryStream(userReportingPath,
+                FILE_PREFIX + "*_" + type.label + COMPRESSED_FILE_EXTENSION)) {
+            for (Path userReportingFile : userReportingFolder) {
+                synchronized (lock(userReportingFile)) {
+                    try {
+                        if (truncate(userReportingFile, maxRecordsCount)) {
+                            truncatedFilesCounter++;
+                        }
+                    } finally {
+                        indexes.remove(userReportingFile);
+                    }
+                }
+            }
+        }
+        return truncatedFilesCounter;
+    }
+
+    /**
+     * Truncated file is written next to the original one and atomically replaces it,
+     * so crash in the middle never leaves half-written series.
+     * Only blocks are truncated, records of the tail are always kept.
+     */
+    private static boolean truncate(Path filePath, int maxRecordsCount) throws IOException {
+        Path tmpPath = filePath.resolveSibling(filePath.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(filePath, READ)) {
+            BlockIndex index = readIndex(channel);
+            int tailCount = readTail(filePath, channel, index).remaining() / SIZE_OF_REPORT_ENTRY;
+            long toSkip = Math.min(index.recordsCount, index.recordsCount + tailCount - maxRecordsCount);
+            if (toSkip <= 0) {
+                return false;
+            }
+            //tail left by crash is already within blocks and may be truncated with them
+            Path tailPath = toTailPath(filePath);
+            if (tailCount == 0 && Files.exists(tailPath) && Files.size(tailPath) >= SIZE_OF_REPORT_ENTRY) {
+                Files.write(tailPath, new byte[0]);
+            }
+
+            //whole blocks are dropped from the beginning, the block with the boundary is re-encoded
+            List<BlockHeader> blocks = index.blocks;
+            int firstBlock = 0;
+            while (firstBlock < blocks.size() && toSkip >= blocks.get(firstBlock).count) {
+                toSkip -= blocks.get(firstBlock).count;
+                firstBlock++;
+            }
+
+            try (FileChannel tmpChannel = FileChannel.open(tmpPath, CREATE, WRITE, TRUNCATE_EXISTING)) {
+                if (firstBlock < blocks.size()) {
+                    ByteBuffer head = decode(channel, blocks.get(firstBlock));
+                    head.position((int) toSkip * SIZE_OF_REPORT_ENTRY);
+                    long restPosition = blocks.get(firstBlock).end();
+                    //incomplete block at the end of the file is not copied
+                    ByteBuffer rest = ByteBuffer.allocate((int) (index.end() - restPosition));
+                    readFully(channel, rest, restPosition);
+                    rest.flip();
+
+                    long position = writeBlocks(tmpChannel, 0, head, new ArrayList<>());
+                    while (rest.hasRemaining()) {
+                        position += tmpChannel.write(rest, position);
+                    }
+                }
+                tmpChannel.force(false);
+            }
+        } catch (IOException e) {
+            FileUtils.deleteQuietly(tmpPath);
+            throw e;
+        }
+        Files.move(tmpPath, filePath, REPLACE_EXISTING, ATOMIC_MOVE);
+        return true;
+    }
+
+    /**
+     * Converts plain history_*.bin file into the compressed one next to it and removes the plain file.
+     */
+    public static void compress(Path plainFile) throws IOException {
+        String fileName = plainFile.getFileName().toString();
+        Path compressedFile = plainFile.resolveSibling(toCompressedFilename(fileName));
+        Path tmpFile = plainFile.resolveSibling(fileName + ".tmp");
+        ByteBuffer records = ByteBuffer.wrap(Files.readAllBytes(plainFile));
+        records.limit(records.limit() / SIZE_OF_REPORT_ENTRY * SIZE_OF_REPORT_ENTRY);
+        try (FileChannel tmpChannel = FileChannel.open(tmpFile, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            long position = writeBlocks(tmpChannel, 0, records, new ArrayList<>());
+            //plain file is always older than compressed one, so its blocks go after converted records.
+            //tail of the compressed file stays as is
+            if (Files.exists(compressedFile)) {
+                try (FileChannel channel = FileChannel.open(compressedFile, READ)) {
+                    ByteBuffer blocks = ByteBuffer.allocate((int) readIndex(channel).end());
+                    readFully(channel, blocks, 0);
+                    blocks.flip();
+                    while (blocks.hasRemaining()) {
+                        position += tmpChannel.write(blocks, position);
+                    }
+                }
+            }
+            tmpChannel.force(false);
+        } catch (IOException e) {
+            FileUtils.deleteQuietly(tmpFile);
+            throw e;
+        }
+        Files.move(tmpFile, compressedFile, REPLACE_EXISTING);
+        Files.delete(plainFile);
+    }
+
+    /**
+     * Converts compressed history_*.gbin file back into plain one and removes compressed file.
+     */
+    public static void decompress(Path compressedFile) throws IOException {
+        String fileName = compressedFile.getFileName().toString();
+        Path plainFile = compressedFile.resolveSibling(toPlainFilename(fileName));
+        Path tmpFile = compressedFile.resolveSibling(fileName + ".tmp");
+        FileUtils.deleteQuietly(tmpFile);
+        if (Files.exists(plainFile)) {
+            Files.copy(plainFile, tmpFile);
+        }
+        ByteBuffer records = read(compressedFile, Integer.MAX_VALUE, 0);
+        try (FileChannel channel = FileChannel.open(tmpFile, CREATE, WRITE)) {
+            long position = channel.size();
+            while (records != null && records.hasRemaining()) {
+                position += channel.write(records, position);
+            }
+        }
+        Files.move(tmpFile, plainFile, REPLACE_EXISTING);
+        Files.delete(compressedFile);
+        FileUtils.deleteQuietly(toTailPath(compressedFile));
+    }
+
+    private static ByteBuffer decode(FileChannel channel, BlockHeader block) throws IOException {
+        ByteBuffer decoded = ByteBuffer.allocate(block.count * SIZE_OF_REPORT_ENTRY);
+        GorillaCodec.decode(readBlock(channel, block), 0, decoded);
+        decoded.flip();
+        return decoded;
+    }
+
+    private static ByteBuffer readBlock(FileChannel channel, BlockHeader block) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + block.payloadSize);
+        readFully(channel, buf, block.position);
+        return buf;
+    }
+
+    /**
+     * Walks over block headers only, payload is skipped.
+     * Incomplete block at the end of the file (crash during write) is ignored.
+     */
+    private static BlockIndex readIndex(FileChannel channel) throws IOException {
+        List<BlockHeader> blocks = new ArrayList<>();
+        long size = channel.size();
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (position + HEADER_SIZE <= size) {
+            header.clear();
+            readFully(channel, header, position);
+            BlockHeader block = BlockHeader.read(header, position);
+            if (block.end() > size) {
+                break;
+            }
+            blocks.add(block);
+            position = block.end();
+        }
+        return new BlockIndex(blocks, size);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    /**
+     * Converts all legacy history_*.bin files on start.
+     */
+    private void migrate() {
+        Path reportingFolderPath = Paths.get(dataFolder);
+        if (Files.notExists(reportingFolderPath)) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        int migratedFiles = 0;
+        try (DirectoryStream<Path> reportingFolder = Files.newDirectoryStream(reportingFolderPath)) {
+            for (Path userReportingDirectory : reportingFolder) {
+                if (Files.isDirectory(userReportingDirectory)) {
+                    migratedFiles += compressAll(userReportingDirectory);
+                }
+            }
+        } catch (Exception e) {
+            log.error("Error compressing reporting files.", e);
+        }
+
+        if (migratedFiles > 0) {
+            log.info("Compressed {} reporting files. Time : {} ms.", migratedFiles, System.currentTimeMillis() - now);
+        }
+    }
+
+    /**
+     * @return - number of compressed files within user folder
+     */
+    public static int compressAll(Path userReportingDirectory) throws IOException {
+        int compressedFiles = 0;
+        try (DirectoryStream<Path> userFolder =
+                     Files.newDirectoryStream(userReportingDirectory, FILE_PREFIX + "*" + FILE_EXTENSION)) {
+            for (Path reportingFile : userFolder) {
+                try {
+                    compress(reportingFile);
+                    compressedFiles++;
+                } catch (Exception e) {
+                    log.error("Error compressing {}. Reason : {}", reportingFile, e.getMessage());
+                }
+            }
+        }
+        return compressedFiles;
+    }
+
+    /**
+     * @return - number of decompressed files within user folder
+     */
+    public static int decompressAll(Path userReportingDirectory) throws IOException {
+        int decompressedFiles = 0;
+        try (DirectoryStream<Path> userFolder =
+                     Files.newDirectoryStream(userReportingDirectory, FILE_PREFIX + "*" + COMPRESSED_FILE_EXTENSION)) {
+            for (Path reportingFile : userFolder) {
+                try {
+                    decompress(reportingFile);
+                    decompressedFiles++;
+                } catch (Exception e) {
+                    log.error("Error decompressing {}. Reason : {}", reportingFile, e.getMessage());
+                }
+            }
+        }
+        return decompressedFiles;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private static final class BlockHeader {
+
+        final long position;
+        final int count;
+        final int payloadSize;
+        final long firstTs;
+        final long lastTs;
+
+        BlockHeader(long position, int count, int payloadSize, long firstTs, long lastTs) {
+            this.position = position;
+            this.count = count;
+            this.payloadSize = payloadSize;
+            this.firstTs = firstTs;
+            this.lastTs = lastTs;
+        }
+
+        //header is at the beginning of the buffer
+        static BlockHeader read(ByteBuffer block, long position) {
+            return new BlockHeader(position,
+                    block.getInt(COUNT_POS), block.getInt(PAYLOAD_SIZE_POS),
+                    block.getLong(FIRST_TS_POS), block.getLong(LAST_TS_POS));
+        }
+
+        long end() {
+            return position + HEADER_SIZE + payloadSize;
+        }
+    }
+
+    //immutable, replaced on every new block
+    private static final class BlockIndex {
+
+        final List<BlockHeader> blocks;
+        final long recordsCount;
+        final long fileSize;
+
+        BlockIndex(List<BlockHeader> blocks, long fileSize) {
+            this.blocks = blocks;
+            long recordsCount = 0;
+            for (BlockHeader block : blocks) {
+                recordsCount += block.count;
+            }
+            this.recordsCount = recordsCount;
+            this.fileSize = fileSize;
+        }
+
+        //end of the last complete block
+        long end() {
+            return blocks.isEmpty() ? 0 : blocks.get(blocks.size() - 1).end();
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package cc.blynk.server.core.reporting.storage;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import cc.blynk.utils.FileUtils;
+import cc.blynk.utils.structure.LRUCache;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
+import static cc.blynk.utils.StringUtils.DEVICE_SEPARATOR;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Default reporting storage. Every series is stored in separate append-only
+ * history_*.bin file within user reporting folder.
+ * Append channels of recently written series are kept open, so flush doesn't
+ * open and close the file for every series every time.
+ * Map of channels is locked only for lookup, writes are synchronized on the channel
+ * of the series, so series are flushed in parallel.
+ */
+public class FileReportingStorage implements ReportingStorage {
+
+    public static final String FILE_PREFIX = "history_";
+    public static final String FILE_EXTENSION = ".bin";
+
+    private static final Logger log = LogManager.getLogger(FileReportingStorage.class);
+
+    private static final int MAX_OPEN_CHANNELS = 1000;
+
+    private final String dataFolder;
+    //guarded by itself. channel is closed under own monitor, so it is never closed during write
+    private final Map<Path, FileChannel> channels;
+    //evicted channels, closed after the map lock is released
+    private final List<FileChannel> evicted = new ArrayList<>();
+
+    public FileReportingStorage(String dataFolder) {
+        this.dataFolder = dataFolder;
+        this.channels = new LRUCache<>(MAX_OPEN_CHANNELS, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, FileChannel> eldest) {
+                if (super.removeEldestEntry(eldest)) {
+                    evicted.add(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        synchronized (channel) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.debug("Error closing reporting file channel.", e);
+            }
+        }
+    }
+
+    private FileChannel getChannel(Path filePath) throws IOException {
+        synchronized (channels) {
+            FileChannel fileChannel = channels.get(filePath);
+            if (fileChannel != null && fileChannel.isOpen()) {
+                return fileChannel;
+            }
+        }
+
+        FileChannel newChannel = FileChannel.open(filePath, CREATE, WRITE, APPEND);
+        FileChannel fileChannel;
+        List<FileChannel> toClose;
+        synchronized (channels) {
+            fileChannel = channels.get(filePath);
+            if (fileChannel == null || !fileChannel.isOpen()) {
+                fileChannel = newChannel;
+                newChannel = null;
+                channels.put(filePath, fileChannel);
+            }
+            toClose = drainEvicted();
+        }
+        if (newChannel != null) {
+            //other thread opened the same series first
+            toClose.add(newChannel);
+        }
+        for (FileChannel channel : toClose) {
+            closeQuietly(channel);
+        }
+        return fileChannel;
+    }
+
+    //must be called under the map lock
+    private List<FileChannel> drainEvicted() {
+        List<FileChannel> result = new ArrayList<>(evicted);
+        evicted.clear();
+        return result;
+    }
+
+    public static String generateFilename(int dashId, int deviceId,
+                                          PinType pinType, byte pin, GraphGranularityType type) {
+        return generateFilename(dashId, deviceId, pinType.pintTypeChar, pin, type.label);
+    }
+
+    private static String generateFilename(int dashId, int deviceId, char pinType, byte pin, String type) {
+        return generateFilenamePrefix(dashId, deviceId) + pinType + pin + "_" + type + FILE_EXTENSION;
+    }
+
+    public static String generateFilenamePrefix(int dashId, int deviceId, String pin) {
+        return generateFilenamePrefix(dashId, deviceId) + pin + "_";
+    }
+
+    public static String generateFilenamePrefix(int dashId, int deviceId) {
+        return FILE_PREFIX + dashId + DEVICE_SEPARATOR + deviceId + "_";
+    }
+
+    /**
+     * Parses legacy series file name, for example history_1-0_v1_minute.bin.
+     *
+     * @return - key of the series or null if file name is not a series of the given granularity
+     */
+    static SeriesKey parseSeriesKey(String fileName, GraphGranularityType type) {
+        String suffix = "_" + type.label + FILE_EXTENSION;
+        if (!fileName.startsWith(FILE_PREFIX) || !fileName.endsWith(suffix)) {
+            return null;
+        }
+        String[] parts = fileName.substring(FILE_PREFIX.length(), fileName.length() - suffix.length()).split("_");
+        if (parts.length != 2 || parts[1].length() < 2) {
+            return null;
+        }
+        int separatorIndex = parts[0].indexOf(DEVICE_SEPARATOR);
+        if (separatorIndex == -1) {
+            return null;
+        }
+        try {
+            return new SeriesKey(
+                    Integer.parseInt(parts[0].substring(0, separatorIndex)),
+                    Integer.parseInt(parts[0].substring(separatorIndex + 1)),
+                    PinType.getPinType(parts[1].charAt(0)),
+                    Byte.parseByte(parts[1].substring(1))
+            );
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private Path getSeriesPath(String userDir, int dashId, int deviceId, PinType pinType, byte pin,
+                               GraphGranularityType type) {
+        return Paths.get(dataFolder, userDir, generateFilename(dashId, deviceId, pinType, pin, type));
+    }
+
+    @Override
+    public void write(String userDir, int dashId, int deviceId, PinType pinType, byte pin,
+                      GraphGranularityType type, double value, long ts) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(SIZE_OF_REPORT_ENTRY);
+        record.putDouble(value).putLong(ts).flip();
+        write(userDir, dashId, deviceId, pinType, pin, type, record);
+    }
+
+    @Override
+    public void write(String userDir, int dashId, int deviceId, PinType pinType, byte pin,
+                      GraphGranularityType type, ByteBuffer records) throws IOException {
+        Path userReportFolder = Paths.get(dataFolder, userDir);
+        if (Files.notExists(userReportFolder)) {
+            Files.createDirectories(userReportFolder);
+        }
+
+        Path filePath = Paths.get(userReportFolder.toString(),
+                generateFilename(dashId, deviceId, pinType, pin, type));
+        while (true) {
+            FileChannel fileChannel = getChannel(filePath);
+            synchronized (fileChannel) {
+                //evicted or deleted after lookup
+                if (!fileChannel.isOpen()) {
+                    continue;
+                }
+                try {
+                    while (records.hasRemaining()) {
+                        fileChannel.write(records);
+                    }
+                    return;
+                } catch (IOException e) {
+                    closeChannel(filePath, fileChannel);
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private void closeChannel(Path filePath, FileChannel fileChannel) {
+        synchronized (channels) {
+            channels.remove(filePath, fileChannel);
+        }
+        closeQuietly(fileChannel);
+    }
+
+    //cached channel of the removed file would write to the unlinked file
+    private void closeChannel(Path filePath) {
+        FileChannel fileChannel;
+        synchronized (channels) {
+            fileChannel = channels.remove(filePath);
+        }
+        if (fileChannel != null) {
+            closeQuietly(fileChannel);
+        }
+    }
+
+    @Override
+    public ByteBuffer read(String userDir, int dashId, int deviceId, PinType pinType, byte pin,
+                           GraphGranularityType type, int count, int skip) throws IOException {
+        Path userDataFile = getSeriesPath(userDir, dashId, deviceId, pinType, pin, type);
+        if (Files.exists(userDataFile)) {
+            return FileUtils.read(userDataFile, count, skip);
+        }
+        return null;
+    }
+
+    @Override
+    public ByteBuffer readRange(String userDir, int dashId, int deviceId, PinType pinType, byte pin,
+                                GraphGranularityType type, long from, long to) throws IOException {
+        Path userDataFile = getSeriesPath(userDir, dashId, deviceId, pinType, pin, type);
+        if (Files.exists(userDataFile)) {
+            return FileUtils.readRange(userDataFile, from, to);
+        }
+        return null;
+    }
+
+    @Override
+    public List<SeriesKey> listSeries(String userDir, GraphGranularityType type) throws IOException {
+        Path userReportingPath = Paths.get(dataFolder, userDir);
+        List<SeriesKey> result = new ArrayList<>();
+        if (Files.exists(userReportingPath)) {
+            try (DirectoryStream<Path> userReportingFolder = Files.newDirectoryStream(userReportingPath,
+                    FILE_PREFIX + "*_" + type.label + FILE_EXTENSION)) {
+                for (Path reportingFile : userReportingFolder) {
+                    SeriesKey key = parseSeriesKey(reportingFile.getFileName().toString(), type);
+                    if (key != null) {
+                        result.add(key);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public int delete(String userDir, Predicate<String> filter) throws IOException {
+        Path userReportingPath = Paths.get(dataFolder, userDir);
+
+        int count = 0;
+        if (Files.exists(userReportingPath)) {
+            try (DirectoryStream<Path> userReportingFolder = Files.newDirectoryStream(userReportingPath, "*")) {
+                for (Path reportingFile : userReportingFolder) {
+                    if (filter.test(reportingFile.getFileName().toString())) {
+                        closeChannel(reportingFile);
+                        FileUtils.deleteQuietly(reportingFile);
+                        count++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public int truncate(String userDir, GraphGranularityType type, int maxRecordsCount) throws IOException {
+        Path userReportingPath = Paths.get(dataFolder, userDir);
+        String suffix = "_" + type.label + FILE_EXTENSION;
+        DirectoryStream.Filter<Path> filter = entry -> entry.getFileName().toString().endsWith(suffix);
+
+        int truncatedFilesCounter = 0;
+        try (DirectoryStream<Path> userReportingFolder = Files.newDirectoryStream(userReportingPath, filter)) {
+            for (Path userReportingFile : userReportingFolder) {
+                long fileSize = Files.size(userReportingFile);
+                if (fileSize > (long) maxRecordsCount * SIZE_OF_REPORT_ENTRY) {
+                    ByteBuffer userReportingData = FileUtils.read(userReportingFile, maxRecordsCount);
+                    try (OutputStream os = Files.newOutputStream(userReportingFile, TRUNCATE_EXISTING)) {
+                        os.write(userReportingData.array());
+                    }
+                    truncatedFilesCounter++;
+                }
+            }
+        }
+        return truncatedFilesCounter;
+    }
+
+    @Override
+    public void close() {
+        List<FileChannel> toClose;
+        synchronized (channels) {
+            toClose = drainEvicted();
+            toClose.addAll(channels.values());
+            channels.clear();
+        }
+        for (FileChannel fileChannel : toClose) {
+            closeQuietly(fileChannel);
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package cc.blynk.server.core.reporting.storage;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
+
+/**
+ * Gorilla-style encoding of the block of reporting records.
+ * Timestamps are stored as delta-of-delta, values as XOR with previous value,
+ * so regular minute points with slowly changing values take few bits per record.
+ *
+ * Block layout :
+ *   header (32 bytes) - int count, int payload size, long first ts, long last ts, double first value;
+ *   payload - bit stream of all records except the first one.
+ *
+ * Header allows to skip the block or select it for the time range without decoding.
+ */
+final class GorillaCodec {
+
+    static final int HEADER_SIZE = 32;
+    static final int COUNT_POS = 0;
+    static final int PAYLOAD_SIZE_POS = 4;
+    static final int FIRST_TS_POS = 8;
+    static final int LAST_TS_POS = 16;
+    static final int FIRST_VALUE_POS = 24;
+
+    private GorillaCodec() {
+    }
+
+    /**
+     * @param records - buffer with 16 bytes records
+     * @param offset  - absolute position of the first record to encode
+     * @param count   - number of records to encode, at least 1
+     * @return - encoded block with header
+     */
+    static byte[] encode(ByteBuffer records, int offset, int count) {
+        long firstTs = records.getLong(offset + 8);
+        double firstValue = records.getDouble(offset);
+
+        BitWriter writer = new BitWriter(count * 2 + 16);
+        long prevTs = firstTs;
+        long prevDelta = 0;
+        long prevBits = Double.doubleToRawLongBits(firstValue);
+        int prevLeading = -1;
+        int prevTrailing = 0;
+
+        for (int i = 1; i < count; i++) {
+            int recordPos = offset + i * SIZE_OF_REPORT_ENTRY;
+            long ts = records.getLong(recordPos + 8);
+            long delta = ts - prevTs;
+            writeDeltaOfDelta(writer, delta - prevDelta);
+            prevDelta = delta;
+            prevTs = ts;
+
+            long bits = Double.doubleToRawLongBits(records.getDouble(recordPos));
+            long xor = bits ^ prevBits;
+            if (xor == 0) {
+                writer.write(0, 1);
+            } else {
+                int leading = Math.min(31, Long.numberOfLeadingZeros(xor));
+                int trailing = Long.numberOfTrailingZeros(xor);
+                if (prevLeading != -1 && leading >= prevLeading && trailing >= prevTrailing) {
+                    //meaningful bits fit into the window of previous value
+                    writer.write(0b10, 2);
+                    writer.write(xor >>> prevTrailing, 64 - prevLeading - prevTrailing);
+                } else {
+                    int significant = 64 - leading - trailing;
+                    writer.write(0b11, 2);
+                    writer.write(leading, 5);
+                    //64 doesn't fit into 6 bits, 0 significant bits is not possible
+                    writer.write(significant == 64 ? 0 : significant, 6);
+                    writer.write(xor >>> trailing, significant);
+                    prevLeading = leading;
+                    prevTrailing = trailing;
+                }
+            }
+            prevBits = bits;
+        }
+
+        int payloadSize = writer.size();
+        ByteBuffer block = ByteBuffer.allocate(HEADER_SIZE + payloadSize);
+        block.putInt(count)
+             .putInt(payloadSize)
+             .putLong(firstTs)
+             .putLong(prevTs)
+             .putDouble(firstValue)
+             .put(writer.bytes, 0, payloadSize);
+        return block.array();
+    }
+
+    private static void writeDeltaOfDelta(BitWriter writer, long deltaOfDelta) {
+        if (deltaOfDelta == 0) {
+            writer.write(0, 1);
+        } else if (deltaOfDelta >= -64 && deltaOfDelta <= 63) {
+            writer.write(0b10, 2);
+            writer.write(deltaOfDelta, 7);
+        } else if (deltaOfDelta >= -256 && deltaOfDelta <= 255) {
+            writer.write(0b110, 3);
+            writer.write(deltaOfDelta, 9);
+        } else if (deltaOfDelta >= -2048 && deltaOfDelta <= 2047) {
+            writer.write(0b1110, 4);
+            writer.write(deltaOfDelta, 12);
+        } else if (deltaOfDelta >= Integer.MIN_VALUE && deltaOfDelta <= Integer.MAX_VALUE) {
+            writer.write(0b11110, 5);
+            writer.write(deltaOfDelta, 32);
+        } else {
+            writer.write(0b11111, 5);
+            writer.write(deltaOfDelta, 64);
+        }
+    }
+
+    /**
+     * Decodes block into 16 bytes records and puts them to the out buffer.
+     *
+     * @param block - buffer with the block, starting at absolute blockPos
+     */
+    static void decode(ByteBuffer block, int blockPos, ByteBuffer out) {
+        int count = block.getInt(blockPos + COUNT_POS);
+        long ts = block.getLong(blockPos + FIRST_TS_POS);
+        double value = block.getDouble(blockPos + FIRST_VALUE_POS);
+        out.putDouble(value).putLong(ts);
+
+        BitReader reader = new BitReader(block, blockPos + HEADER_SIZE);
+        long delta = 0;
+        long bits = Double.doubleToRawLongBits(value);
+        int leading = 0;
+        int trailing = 0;
+
+        for (int i = 1; i < count; i++) {
+            delta += readDeltaOfDelta(reader);
+            ts += delta;
+
+            if (reader.read(1) != 0) {
+                if (reader.read(1) != 0) {
+                    leading = (int) reader.read(5);
+                    int significant = (int) reader.read(6);
+                    if (significant == 0) {
+                        significant = 64;
+                    }
+                    trailing = 64 - leading - significant;
+                }
+                bits ^= reader.read(64 - leading - trailing) << trailing;
+            }
+            out.putDouble(Double.longBitsToDouble(bits)).putLong(ts);
+        }
+    }
+
+    private static long readDeltaOfDelta(BitReader reader) {
+        if (reader.read(1) == 0) {
+            return 0;
+        }
+        if (reader.read(1) == 0) {
+            return reader.readSigned(7);
+        }
+        if (reader.read(1) == 0) {
+            return reader.readSigned(9);
+        }
+        if (reader.read(1) == 0) {
+            return reader.readSigned(12);
+        }
+        if (reader.read(1) == 0) {
+            return reader.readSigned(32);
+        }
+        return reader.read(64);
+    }
+
+    private static final class BitWriter {
+
+        private byte[] bytes;
+        private int bitPosition;
+
+        BitWriter(int initialSize) {
+            this.bytes = new byte[initialSize];
+        }
+
+        /**
+         * Writes lowest bits of the value, starting from the highest one.
+         */
+        void write(long value, int bits) {
+            while (bits > 0) {
+                int index = bitPosition >>> 3;
+                if (index == bytes.length) {
+                    bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                }
+                int free = 8 - (bitPosition & 7);
+                int n = Math.min(free, bits);
+                int chunk = (int) (value >>> (bits - n)) & ((1 << n) - 1);
+                bytes[index] |= chunk << (free - n);
+                bitPosition += n;
+                bits -= n;
+            }
+        }
+
+        int size() {
+            return (bitPosition + 7) >>> 3;
+        }
+    }
+
+    private static final class BitReader {
+
+        private final ByteBuffer buffer;
+        private final int start;
+        private int bitPosition;
+
+        BitReader(ByteBuffer buffer, int start) {
+            this.buffer = buffer;
+            this.start = start;
+        }
+
+        long read(int bits) {
+            long result = 0;
+            while (bits > 0) {
+                int current = buffer.get(start + (bitPosition >>> 3)) & 0xFF;
+                int available = 8 - (bitPosition & 7);
+                int n = Math.min(available, bits);
+                int chunk = (current >>> (available - n)) & ((1 << n) - 1);
+                result = (result << n) | chunk;
+                bitPosition += n;
+                bits -= n;
+            }
+            return result;
+        }
+
+        long readSigned(int bits) {
+            long value = read(bits);
+            return (value << (64 - bits)) >> (64 - bits);
+        }
+    }
+}
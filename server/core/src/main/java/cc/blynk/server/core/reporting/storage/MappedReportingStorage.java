@@ -0,0 +1,322 @@
+package cc.blynk.server.core.reporting.storage;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import cc.blynk.utils.FileUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+import static cc.blynk.server.core.reporting.storage.FileReportingStorage.FILE_EXTENSION;
+import static cc.blynk.server.core.reporting.storage.FileReportingStorage.FILE_PREFIX;
+import static cc.blynk.server.core.reporting.storage.FileReportingStorage.generateFilename;
+import static cc.blynk.server.core.reporting.storage.MappedSegment.SEGMENT_EXTENSION;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Reporting storage that keeps all series of the user within few memory-mapped
+ * segment files, one per granularity (minute.seg, hourly.seg, daily.seg).
+ * This removes open/close of the separate file for every pin on every flush
+ * and allows to serve reads without syscalls.
+ *
+ * Existing history_*.bin files are migrated into segments on start and kept
+ * as history_*.bin.migrated till their removal is confirmed.
+ */
+public class MappedReportingStorage implements ReportingStorage {
+
+    private static final Logger log = LogManager.getLogger(MappedReportingStorage.class);
+
+    public static final String MIGRATED_EXTENSION = ".migrated";
+
+    private static final GraphGranularityType[] GRANULARITIES = GraphGranularityType.values();
+
+    private final String dataFolder;
+    private final ConcurrentHashMap<String, MappedSegment[]> userSegments;
+
+    public MappedReportingStorage(String dataFolder) {
+        this(dataFolder, false);
+    }
+
+    /**
+     * @param removeMigratedFiles - removes legacy files left by previous migrations
+     */
+    public MappedReportingStorage(String dataFolder, boolean removeMigratedFiles) {
+        this.dataFolder = dataFolder;
+        this.userSegments = new ConcurrentHashMap<>();
+        migrate(removeMigratedFiles);
+    }
+
+    private Path getSegmentPath(String userDir, GraphGranularityType type) {
+        return Paths.get(dataFolder, userDir, type.label + SEGMENT_EXTENSION);
+    }
+
+    private MappedSegment[] getSegments(String userDir) {
+        return userSegments.computeIfAbsent(userDir, k -> new MappedSegment[GRANULARITIES.length]);
+    }
+
+    private MappedSegment getSegment(String userDir, GraphGranularityType type, boolean create) throws IOException {
+        MappedSegment[] segments = getSegments(userDir);
+        synchronized (segments) {
+            MappedSegment segment = segments[type.ordinal()];
+            if (segment == null) {
+                Path segmentPath = getSegmentPath(userDir, type);
+                if (!create && Files.notExists(segmentPath)) {
+                    return null;
+                }
+                Files.createDirectories(segmentPath.getParent());
+                segment = MappedSegment.open(segmentPath);
+                segments[type.ordinal()] = segment;
+            }
+            return segment;
+        }
+    }
+
+    @Override
+    public void write(String userDir, int dashId, int deviceId, PinType pinType, byte pin,
+                      GraphGranularityType type, double value, long ts) throws IOException {
+        SeriesKey key = new SeriesKey(dashId, deviceId, pinType, pin);
+        while (true) {
+            try {
+                getSegment(userDir, type, true).append(key, value, ts);
+                return;
+            } catch (ClosedChannelException e) {
+                //segment was closed by delete in between, next getSegment opens the new one
+            }
+        }
+    }
+
+    @Override
+    public void write(String userDir, int dashId, int deviceId, PinType pinType, byte pin,
+                      GraphGranularityType type, ByteBuffer records) throws IOException {
+        SeriesKey key = new SeriesKey(dashId, deviceId, pinType, pin);
+        while (true) {
+            try {
+                getSegment(userDir, type, true).append(key, records);
+                return;
+            } catch (ClosedChannelException e) {
+                //segment was closed by delete in between, next getSegment opens the new one
+            }
+        }
+    }
+
+    @Override
+    public ByteBuffer read(String userDir, int dashId, int deviceId, PinType pinType, byte pin,
+                           GraphGranularityType type, int count, int skip) throws IOException {
+        MappedSegment segment = getSegment(userDir, type, false);
+        if (segment == null) {
+            return null;
+        }
+        return segment.read(new SeriesKey(dashId, deviceId, pinType, pin), count, skip);
+    }
+
+    @Override
+    public <T> T read(String userDir, int dashId, int deviceId, PinType pinType, byte pin,
+                      GraphGranularityType type, int count, int skip, RecordsReader<T> reader) throws IOException {
+        MappedSegment segment = getSegment(userDir, type, false);
+        if (segment == null) {
+            return reader.read(null);
+        }
+        return segment.read(new SeriesKey(dashId, deviceId, pinType, pin), count, skip, reader);
+    }
+
+    @Override
+    public ByteBuffer readRange(String userDir, int dashId, int deviceId, PinType pinType, byte pin,
+                                GraphGranularityType type, long from, long to) throws IOException {
+        MappedSegment segment = getSegment(userDir, type, false);
+        if (segment == null) {
+            return null;
+        }
+        return segment.readRange(new SeriesKey(dashId, deviceId, pinType, pin), from, to);
+    }
+
+    @Override
+    public <T> T readRange(String userDir, int dashId, int deviceId, PinType pinType, byte pin,
+                           GraphGranularityType type, long from, long to,
+                           RecordsReader<T> reader) throws IOException {
+        MappedSegment segment = getSegment(userDir, type, false);
+        if (segment == null) {
+            return reader.read(null);
+        }
+        return segment.readRange(new SeriesKey(dashId, deviceId, pinType, pin), from, to, reader);
+    }
+
+    @Override
+    public List<SeriesKey> listSeries(String userDir, GraphGranularityType type) throws IOException {
+        MappedSegment segment = getSegment(userDir, type, false);
+        if (segment == null) {
+            return List.of();
+        }
+        return segment.keys();
+    }
+
+    @Override
+    public int delete(String userDir, Predicate<String> filter) throws IOException {
+        int removed = 0;
+        for (GraphGranularityType type : GRANULARITIES) {
+            MappedSegment segment = getSegment(userDir, type, false);
+            if (segment != null) {
+                removed += segment.remove(key -> filter.test(
+                        generateFilename(key.dashId, key.deviceId, key.pinType, key.pin, type)));
+                closeSegmentIfEmpty(userDir, type, segment);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Segment is closed under its own lock, so concurrent append either completes before
+     * (and segment is kept) or fails with ClosedChannelException and reopens the segment.
+     */
+    private void closeSegmentIfEmpty(String userDir, GraphGranularityType type, MappedSegment segment) {
+        MappedSegment[] segments = getSegments(userDir);
+        synchronized (segments) {
+            if (segments[type.ordinal()] == segment && segment.closeIfEmpty()) {
+                segments[type.ordinal()] = null;
+                FileUtils.deleteQuietly(segment.path);
+            }
+        }
+    }
+
+    @Override
+    public int truncate(String userDir, GraphGranularityType type, int maxRecordsCount) throws IOException {
+        MappedSegment segment = getSegment(userDir, type, false);
+        if (segment != null && segment.needsCompaction(maxRecordsCount)) {
+            segment.compact(maxRecordsCount);
+            return 1;
+        }
+        return 0;
+    }
+
+    /**
+     * Copies all legacy history_*.bin files into segments.
+     * Files are kept as history_*.bin.migrated, so migration could be rolled back,
+     * till removal of the migrated files is confirmed with removeMigratedFiles.
+     */
+    private void migrate(boolean removeMigratedFiles) {
+        Path reportingFolderPath = Paths.get(dataFolder);
+        if (Files.notExists(reportingFolderPath)) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        int migratedFiles = 0;
+        int removedFiles = 0;
+        try (DirectoryStream<Path> reportingFolder = Files.newDirectoryStream(reportingFolderPath)) {
+            for (Path userReportingDirectory : reportingFolder) {
+                if (Files.isDirectory(userReportingDirectory)) {
+                    migratedFiles += migrateUser(userReportingDirectory);
+                    if (removeMigratedFiles) {
+                        removedFiles += removeMigratedFiles(userReportingDirectory);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            log.error("Error migrating reporting files to segments.", e);
+        }
+
+        if (migratedFiles > 0) {
+            log.info("Migrated {} reporting files to segments. Time : {} ms. Files are kept with {} extension.",
+                    migratedFiles, System.currentTimeMillis() - now, MIGRATED_EXTENSION);
+        }
+        if (removedFiles > 0) {
+            log.info("Removed {} migrated reporting files.", removedFiles);
+        }
+    }
+
+    private int migrateUser(Path userReportingDirectory) throws IOException {
+        String userDir = userReportingDirectory.getFileName().toString();
+        List<Path> migratedFiles = new ArrayList<>();
+        try (DirectoryStream<Path> userFolder =
+                     Files.newDirectoryStream(userReportingDirectory, FILE_PREFIX + "*" + FILE_EXTENSION)) {
+            for (Path reportingFile : userFolder) {
+                try {
+                    if (migrateFile(userDir, reportingFile)) {
+                        migratedFiles.add(reportingFile);
+                    }
+                } catch (Exception e) {
+                    log.error("Error migrating {}. Reason : {}", reportingFile, e.getMessage());
+                }
+            }
+        }
+        if (migratedFiles.isEmpty()) {
+            return 0;
+        }
+
+        //legacy files are moved aside only when their records are on disk
+        MappedSegment[] segments = getSegments(userDir);
+        synchronized (segments) {
+            for (MappedSegment segment : segments) {
+                if (segment != null) {
+                    segment.force();
+                }
+            }
+        }
+        for (Path reportingFile : migratedFiles) {
+            Files.move(reportingFile, toMigratedPath(reportingFile), REPLACE_EXISTING);
+        }
+        return migratedFiles.size();
+    }
+
+    private static Path toMigratedPath(Path reportingFile) {
+        return reportingFile.resolveSibling(reportingFile.getFileName() + MIGRATED_EXTENSION);
+    }
+
+    private static int removeMigratedFiles(Path userReportingDirectory) throws IOException {
+        int removedFiles = 0;
+        try (DirectoryStream<Path> userFolder = Files.newDirectoryStream(userReportingDirectory,
+                FILE_PREFIX + "*" + FILE_EXTENSION + MIGRATED_EXTENSION)) {
+            for (Path migratedFile : userFolder) {
+                FileUtils.deleteQuietly(migratedFile);
+                removedFiles++;
+            }
+        }
+        return removedFiles;
+    }
+
+    //history_1-0_v1_minute.bin
+    private boolean migrateFile(String userDir, Path reportingFile) throws IOException {
+        String fileName = reportingFile.getFileName().toString();
+        for (GraphGranularityType type : GRANULARITIES) {
+            SeriesKey key = FileReportingStorage.parseSeriesKey(fileName, type);
+            if (key != null) {
+                MappedSegment segment = getSegment(userDir, type, true);
+                ByteBuffer records = ByteBuffer.wrap(Files.readAllBytes(reportingFile));
+                //previous migration could be interrupted before the file was moved aside
+                ByteBuffer last = segment.read(key, 1, 0);
+                if (last != null) {
+                    records = FileUtils.slice(records, last.getLong(8) + 1, Long.MAX_VALUE);
+                }
+                if (records != null) {
+                    segment.append(key, records);
+                }
+                return true;
+            }
+        }
+        log.warn("Unknown reporting file {}. Skipping.", reportingFile);
+        return false;
+    }
+
+    @Override
+    public void close() {
+        for (MappedSegment[] segments : userSegments.values()) {
+            synchronized (segments) {
+                for (MappedSegment segment : segments) {
+                    if (segment != null) {
+                        segment.force();
+                    }
+                }
+            }
+        }
+    }
+}
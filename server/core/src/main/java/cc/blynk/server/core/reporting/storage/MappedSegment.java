@@ -0,0 +1,531 @@
+package cc.blynk.server.core.reporting.storage;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.utils.FileUtils;
+import io.netty.util.internal.PlatformDependent;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Memory-mapped file that holds all series of one user for one granularity.
+ *
+ * File layout :
+ *   header (64 bytes)  - magic, version, index capacity, index size, data end;
+ *   index (32 bytes per series) - dashId, deviceId, pinType, pin, flags, capacity, count, offset;
+ *   data - contiguous extent of 16 bytes records for every series.
+ *
+ * Extent of the series is only appended. When it is full, records are copied to the new
+ * extent of double capacity at the end of the file. Abandoned extents and removed
+ * series are reclaimed by compact(), that rewrites the segment to the new file and
+ * atomically replaces the old one.
+ *
+ * Written records never move within the mapping, so reads pass zero-copy slices of it
+ * to the reader. Mapping is reference counted : readers retain it for the time of the read,
+ * so replaced mapping (on growth, compaction or close) is unmapped right after
+ * the last reader released it instead of waiting for GC.
+ */
+final class MappedSegment {
+
+    static final String SEGMENT_EXTENSION = ".seg";
+
+    private static final int MAGIC = 0x424C4B53;
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 64;
+    private static final int INDEX_ENTRY_SIZE = 32;
+    private static final int DEFAULT_INDEX_CAPACITY = 128;
+    private static final int INITIAL_SERIES_CAPACITY = 64;
+
+    private static final int MAGIC_POS = 0;
+    private static final int VERSION_POS = 4;
+    private static final int INDEX_CAPACITY_POS = 8;
+    private static final int INDEX_SIZE_POS = 12;
+    private static final int DATA_END_POS = 16;
+
+    private static final int DASH_ID_POS = 0;
+    private static final int DEVICE_ID_POS = 4;
+    private static final int PIN_TYPE_POS = 8;
+    private static final int PIN_POS = 9;
+    private static final int FLAGS_POS = 10;
+    private static final int CAPACITY_POS = 12;
+    private static final int COUNT_POS = 16;
+    private static final int OFFSET_POS = 20;
+
+    private static final short REMOVED_FLAG = 1;
+
+    final Path path;
+    private final Map<SeriesKey, Integer> index;
+    private MappedByteBuffer buffer;
+    private Mapping mapping;
+    private int indexCapacity;
+    private int indexSize;
+    private int dataEnd;
+    private boolean closed;
+
+    private MappedSegment(Path path) {
+        this.path = path;
+        this.index = new HashMap<>();
+    }
+
+    static MappedSegment open(Path path) throws IOException {
+        MappedSegment segment = new MappedSegment(path);
+        if (Files.exists(path)) {
+            segment.load();
+        } else {
+            segment.init(DEFAULT_INDEX_CAPACITY);
+        }
+        return segment;
+    }
+
+    private static MappedByteBuffer map(Path path, int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, CREATE, READ, WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private void init(int indexCapacity) throws IOException {
+        this.indexCapacity = indexCapacity;
+        this.indexSize = 0;
+        this.dataEnd = HEADER_SIZE + indexCapacity * INDEX_ENTRY_SIZE;
+        setBuffer(map(path, dataEnd + INITIAL_SERIES_CAPACITY * SIZE_OF_REPORT_ENTRY));
+        buffer.putInt(MAGIC_POS, MAGIC);
+        buffer.putInt(VERSION_POS, VERSION);
+        buffer.putInt(INDEX_CAPACITY_POS, indexCapacity);
+        writeHeader();
+    }
+
+    private void load() throws IOException {
+        long size = Files.size(path);
+        if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+            throw new IOException("Wrong segment size " + size + " for " + path);
+        }
+        setBuffer(map(path, (int) size));
+        if (buffer.getInt(MAGIC_POS) != MAGIC || buffer.getInt(VERSION_POS) != VERSION) {
+            throw new IOException("Unsupported segment format for " + path);
+        }
+        this.indexCapacity = buffer.getInt(INDEX_CAPACITY_POS);
+        this.indexSize = buffer.getInt(INDEX_SIZE_POS);
+        this.dataEnd = buffer.getInt(DATA_END_POS);
+
+        for (int slot = 0; slot < indexSize; slot++) {
+            int entryPos = entryPosition(slot);
+            if (buffer.getShort(entryPos + FLAGS_POS) != REMOVED_FLAG) {
+                index.put(readKey(entryPos), slot);
+            }
+        }
+    }
+
+    /**
+     * Replaces current mapping. Old one is unmapped once all readers released it.
+     */
+    private void setBuffer(MappedByteBuffer newBuffer) {
+        Mapping oldMapping = this.mapping;
+        this.buffer = newBuffer;
+        this.mapping = newBuffer == null ? null : new Mapping(newBuffer);
+        if (oldMapping != null) {
+            oldMapping.release();
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    private void writeHeader() {
+        buffer.putInt(INDEX_SIZE_POS, indexSize);
+        buffer.putInt(DATA_END_POS, dataEnd);
+    }
+
+    private static int entryPosition(int slot) {
+        return HEADER_SIZE + slot * INDEX_ENTRY_SIZE;
+    }
+
+    private SeriesKey readKey(int entryPos) {
+        return new SeriesKey(
+                buffer.getInt(entryPos + DASH_ID_POS),
+                buffer.getInt(entryPos + DEVICE_ID_POS),
+                PinType.getPinType((char) buffer.get(entryPos + PIN_TYPE_POS)),
+                buffer.get(entryPos + PIN_POS)
+        );
+    }
+
+    synchronized int size() {
+        return index.size();
+    }
+
+    synchronized List<SeriesKey> keys() {
+        return new ArrayList<>(index.keySet());
+    }
+
+    /**
+     * @throws ClosedChannelException - in case segment was already closed,
+     *                                  so new segment should be opened
+     */
+    synchronized void append(SeriesKey key, double value, long ts) throws IOException {
+        ensureOpen();
+        int entryPos = entryPosition(reserve(key, 1));
+        int count = buffer.getInt(entryPos + COUNT_POS);
+        int recordPos = buffer.getInt(entryPos + OFFSET_POS) + count * SIZE_OF_REPORT_ENTRY;
+        buffer.putDouble(recordPos, value);
+        buffer.putLong(recordPos + 8, ts);
+        buffer.putInt(entryPos + COUNT_POS, count + 1);
+    }
+
+    /**
+     * Appends bunch of 16 bytes records to the series.
+     *
+     * @param records - records to append, consumed from position to limit
+     */
+    synchronized void append(SeriesKey key, ByteBuffer records) throws IOException {
+        int recordsCount = records.remaining() / SIZE_OF_REPORT_ENTRY;
+        if (recordsCount == 0) {
+            return;
+        }
+        ensureOpen();
+        int entryPos = entryPosition(reserve(key, recordsCount));
+        int count = buffer.getInt(entryPos + COUNT_POS);
+        int recordPos = buffer.getInt(entryPos + OFFSET_POS) + count * SIZE_OF_REPORT_ENTRY;
+
+        ByteBuffer target = buffer.duplicate();
+        target.position(recordPos);
+        target.put(records.slice().limit(recordsCount * SIZE_OF_REPORT_ENTRY));
+        records.position(records.position() + recordsCount * SIZE_OF_REPORT_ENTRY);
+        buffer.putInt(entryPos + COUNT_POS, count + recordsCount);
+    }
+
+    /**
+     * Read bunch of last records of the series.
+     *
+     * @param count - number of records to read
+     * @param skip  - number of entries to skip from the end
+     * @return - copy of the records or null if there is no data
+     */
+    ByteBuffer read(SeriesKey key, int count, int skip) throws IOException {
+        return read(key, count, skip, MappedSegment::copy);
+    }
+
+    /**
+     * Same as above, but passes zero-copy slice of the mapping to the reader.
+     */
+    <T> T read(SeriesKey key, int count, int skip, RecordsReader<T> reader) throws IOException {
+        ByteBuffer records = null;
+        Mapping readMapping = null;
+        synchronized (this) {
+            Integer slot = index.get(key);
+            if (slot != null) {
+                int entryPos = entryPosition(slot);
+                int offset = buffer.getInt(entryPos + OFFSET_POS);
+                int size = buffer.getInt(entryPos + COUNT_POS) * SIZE_OF_REPORT_ENTRY;
+
+                int expectedMinimumLength = (count + skip) * SIZE_OF_REPORT_ENTRY;
+                int diff = size - expectedMinimumLength;
+                int startReadIndex = Math.max(0, diff);
+                int bufferSize = diff < 0 ? count * SIZE_OF_REPORT_ENTRY + diff : count * SIZE_OF_REPORT_ENTRY;
+                if (bufferSize > 0) {
+                    records = buffer.duplicate();
+                    records.position(offset + startReadIndex).limit(offset + startReadIndex + bufferSize);
+                    readMapping = mapping.retain();
+                }
+            }
+        }
+        return read(records, readMapping, reader);
+    }
+
+    /**
+     * Read records of the series with timestamps within [from, to) range.
+     *
+     * @return - copy of the records or null if there is no data within range
+     */
+    ByteBuffer readRange(SeriesKey key, long from, long to) throws IOException {
+        return readRange(key, from, to, MappedSegment::copy);
+    }
+
+    /**
+     * Same as above, but passes zero-copy slice of the mapping to the reader.
+     */
+    <T> T readRange(SeriesKey key, long from, long to, RecordsReader<T> reader) throws IOException {
+        ByteBuffer records = null;
+        Mapping readMapping = null;
+        synchronized (this) {
+            Integer slot = index.get(key);
+            if (slot != null) {
+                int entryPos = entryPosition(slot);
+                int offset = buffer.getInt(entryPos + OFFSET_POS);
+                int size = buffer.getInt(entryPos + COUNT_POS) * SIZE_OF_REPORT_ENTRY;
+                records = buffer.duplicate();
+                records.position(offset).limit(offset + size);
+                readMapping = mapping.retain();
+            }
+        }
+        //records within extent never change, so range is searched without the segment lock
+        if (records != null) {
+            records = FileUtils.slice(records, from, to);
+        }
+        return read(records, readMapping, reader);
+    }
+
+    private static <T> T read(ByteBuffer records, Mapping readMapping, RecordsReader<T> reader) throws IOException {
+        try {
+            return reader.read(records == null ? null : records.slice());
+        } finally {
+            if (readMapping != null) {
+                readMapping.release();
+            }
+        }
+    }
+
+    private static ByteBuffer copy(ByteBuffer records) {
+        if (records == null) {
+            return null;
+        }
+        ByteBuffer result = ByteBuffer.allocate(records.remaining());
+        result.put(records);
+        return result.flip();
+    }
+
+    /**
+     * Marks matched series as removed. Space is reclaimed on next compaction.
+     *
+     * @return - number of removed series
+     */
+    synchronized int remove(Predicate<SeriesKey> filter) {
+        int removed = 0;
+        var iterator = index.entrySet().iterator();
+        while (iterator.hasNext()) {
+            var entry = iterator.next();
+            if (filter.test(entry.getKey())) {
+                buffer.putShort(entryPosition(entry.getValue()) + FLAGS_POS, REMOVED_FLAG);
+                iterator.remove();
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * @return - true in case any series has more than maxRecordsCount records
+     *           or more than half of the data region is occupied by abandoned extents
+     */
+    synchronized boolean needsCompaction(int maxRecordsCount) {
+        if (closed) {
+            return false;
+        }
+        long liveBytes = 0;
+        for (int slot : index.values()) {
+            int entryPos = entryPosition(slot);
+            if (buffer.getInt(entryPos + COUNT_POS) > maxRecordsCount) {
+                return true;
+            }
+            liveBytes += (long) buffer.getInt(entryPos + CAPACITY_POS) * SIZE_OF_REPORT_ENTRY;
+        }
+        long usedBytes = dataEnd - HEADER_SIZE - (long) indexCapacity * INDEX_ENTRY_SIZE;
+        return liveBytes * 2 < usedBytes;
+    }
+
+    /**
+     * Rewrites segment to the new file leaving only live series and
+     * last maxRecordsCount records for every series.
+     */
+    synchronized void compact(int maxRecordsCount) throws IOException {
+        ensureOpen();
+        compact(Math.max(DEFAULT_INDEX_CAPACITY, Integer.highestOneBit(index.size()) * 2), maxRecordsCount);
+    }
+
+    private void compact(int newIndexCapacity, int maxRecordsCount) throws IOException {
+        long newSize = HEADER_SIZE + (long) newIndexCapacity * INDEX_ENTRY_SIZE;
+        for (int slot : index.values()) {
+            int count = Math.min(maxRecordsCount, buffer.getInt(entryPosition(slot) + COUNT_POS));
+            newSize += (long) seriesCapacity(count) * SIZE_OF_REPORT_ENTRY;
+        }
+        if (newSize > Integer.MAX_VALUE) {
+            throw new IOException("Segment " + path + " is full.");
+        }
+
+        Path tmpPath = Paths.get(path.toString() + ".tmp");
+        Files.deleteIfExists(tmpPath);
+        MappedByteBuffer target = map(tmpPath, (int) newSize);
+        target.putInt(MAGIC_POS, MAGIC);
+        target.putInt(VERSION_POS, VERSION);
+        target.putInt(INDEX_CAPACITY_POS, newIndexCapacity);
+
+        int newSlot = 0;
+        int newDataEnd = HEADER_SIZE + newIndexCapacity * INDEX_ENTRY_SIZE;
+        for (Map.Entry<SeriesKey, Integer> entry : index.entrySet()) {
+            int entryPos = entryPosition(entry.getValue());
+            int count = buffer.getInt(entryPos + COUNT_POS);
+            int offset = buffer.getInt(entryPos + OFFSET_POS);
+            int newCount = Math.min(maxRecordsCount, count);
+            int newCapacity = seriesCapacity(newCount);
+
+            ByteBuffer records = buffer.duplicate();
+            records.position(offset + (count - newCount) * SIZE_OF_REPORT_ENTRY)
+                    .limit(offset + count * SIZE_OF_REPORT_ENTRY);
+            ByteBuffer targetData = target.duplicate();
+            targetData.position(newDataEnd);
+            targetData.put(records);
+
+            int newEntryPos = entryPosition(newSlot);
+            writeEntry(target, newEntryPos, entry.getKey(), newCapacity, newCount, newDataEnd);
+            entry.setValue(newSlot);
+
+            newSlot++;
+            newDataEnd += newCapacity * SIZE_OF_REPORT_ENTRY;
+        }
+        target.putInt(INDEX_SIZE_POS, newSlot);
+        target.putInt(DATA_END_POS, newDataEnd);
+        target.force();
+
+        Files.move(tmpPath, path, ATOMIC_MOVE, REPLACE_EXISTING);
+
+        setBuffer(target);
+        this.indexCapacity = newIndexCapacity;
+        this.indexSize = newSlot;
+        this.dataEnd = newDataEnd;
+    }
+
+    synchronized void force() {
+        if (!closed) {
+            buffer.force();
+        }
+    }
+
+    /**
+     * Unmaps the segment in case it has no series left.
+     * Writers that still hold the segment get ClosedChannelException and reopen it.
+     *
+     * @return - true in case segment was closed
+     */
+    synchronized boolean closeIfEmpty() {
+        if (closed || !index.isEmpty()) {
+            return false;
+        }
+        this.closed = true;
+        setBuffer(null);
+        return true;
+    }
+
+    private static int seriesCapacity(int count) {
+        if (count <= INITIAL_SERIES_CAPACITY) {
+            return INITIAL_SERIES_CAPACITY;
+        }
+        int capacity = Integer.highestOneBit(count);
+        return capacity == count ? capacity : capacity << 1;
+    }
+
+    private static void writeEntry(ByteBuffer buf, int entryPos, SeriesKey key,
+                                   int capacity, int count, int offset) {
+        buf.putInt(entryPos + DASH_ID_POS, key.dashId);
+        buf.putInt(entryPos + DEVICE_ID_POS, key.deviceId);
+        buf.put(entryPos + PIN_TYPE_POS, (byte) key.pinType.pintTypeChar);
+        buf.put(entryPos + PIN_POS, key.pin);
+        buf.putShort(entryPos + FLAGS_POS, (short) 0);
+        buf.putInt(entryPos + CAPACITY_POS, capacity);
+        buf.putInt(entryPos + COUNT_POS, count);
+        buf.putInt(entryPos + OFFSET_POS, offset);
+    }
+
+    /**
+     * Returns index slot of the series that has free space for recordsCount records.
+     * Creates new series or moves existing one to the bigger extent when necessary.
+     */
+    private int reserve(SeriesKey key, int recordsCount) throws IOException {
+        Integer slot = index.get(key);
+        if (slot == null) {
+            if (indexSize == indexCapacity) {
+                compact(indexCapacity * 2, Integer.MAX_VALUE);
+            }
+            int capacity = seriesCapacity(recordsCount);
+            int offset = allocate(capacity);
+            slot = indexSize++;
+            writeEntry(buffer, entryPosition(slot), key, capacity, 0, offset);
+            writeHeader();
+            index.put(key, slot);
+            return slot;
+        }
+
+        int entryPos = entryPosition(slot);
+        int capacity = buffer.getInt(entryPos + CAPACITY_POS);
+        int count = buffer.getInt(entryPos + COUNT_POS);
+        if (count + recordsCount > capacity) {
+            int newCapacity = seriesCapacity(Math.max(capacity * 2, count + recordsCount));
+            int newOffset = allocate(newCapacity);
+
+            int offset = buffer.getInt(entryPos + OFFSET_POS);
+            ByteBuffer records = buffer.duplicate();
+            records.position(offset).limit(offset + count * SIZE_OF_REPORT_ENTRY);
+            ByteBuffer target = buffer.duplicate();
+            target.position(newOffset);
+            target.put(records);
+
+            buffer.putInt(entryPos + CAPACITY_POS, newCapacity);
+            buffer.putInt(entryPos + OFFSET_POS, newOffset);
+        }
+        return slot;
+    }
+
+    /**
+     * Allocates extent for capacity records at the end of the data region.
+     *
+     * @return - offset of the new extent
+     */
+    private int allocate(int capacity) throws IOException {
+        long newDataEnd = (long) dataEnd + (long) capacity * SIZE_OF_REPORT_ENTRY;
+        if (newDataEnd > Integer.MAX_VALUE) {
+            throw new IOException("Segment " + path + " is full.");
+        }
+        if (newDataEnd > buffer.capacity()) {
+            long newSize = Math.min(Integer.MAX_VALUE, Math.max(newDataEnd, (long) buffer.capacity() * 2));
+            setBuffer(map(path, (int) newSize));
+        }
+        int offset = dataEnd;
+        this.dataEnd = (int) newDataEnd;
+        writeHeader();
+        return offset;
+    }
+
+    //unmapped when both segment and all readers released it
+    private static final class Mapping {
+
+        private final MappedByteBuffer buffer;
+        //segment holds 1 reference till mapping is replaced
+        private final AtomicInteger refCnt = new AtomicInteger(1);
+
+        private Mapping(MappedByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        //called under the segment lock, while segment still holds its reference
+        private Mapping retain() {
+            refCnt.incrementAndGet();
+            return this;
+        }
+
+        private void release() {
+            if (refCnt.decrementAndGet() == 0) {
+                PlatformDependent.freeDirectBuffer(buffer);
+            }
+        }
+    }
+}
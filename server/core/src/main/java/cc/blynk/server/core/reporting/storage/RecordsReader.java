@@ -0,0 +1,19 @@
+package cc.blynk.server.core.reporting.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Consumes records of the series right within the storage read,
+ * so storage may pass them without copying.
+ */
+@FunctionalInterface
+public interface RecordsReader<T> {
+
+    /**
+     * @param records - records of the series or null if there is no data.
+     *                  Valid only within the call, must not be kept.
+     */
+    T read(ByteBuffer records) throws IOException;
+
+}
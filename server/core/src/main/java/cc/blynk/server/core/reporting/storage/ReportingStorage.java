@@ -0,0 +1,90 @@
+package cc.blynk.server.core.reporting.storage;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Storage engine behind ReportingDiskDao. Every pin series is a sequence of
+ * fixed 16 bytes records (double value + long ts) sorted by time.
+ * Series are addressed by user storage dir, pin key and granularity.
+ * Filters for removal are applied to the legacy series file name
+ * (history_1-0_v1_minute.bin), so callers don't depend on the storage layout.
+ */
+public interface ReportingStorage extends Closeable {
+
+    void write(String userDir, int dashId, int deviceId, PinType pinType, byte pin,
+               GraphGranularityType type, double value, long ts) throws IOException;
+
+    /**
+     * Appends bunch of already encoded records to the end of the series with single write.
+     *
+     * @param records - records sorted by time, from position to limit
+     */
+    void write(String userDir, int dashId, int deviceId, PinType pinType, byte pin,
+               GraphGranularityType type, ByteBuffer records) throws IOException;
+
+    /**
+     * Reads bunch of last records of the series.
+     *
+     * @param count - number of records to read
+     * @param skip  - number of entries to skip from the end
+     * @return - byte buffer with data or null if there is no data
+     */
+    ByteBuffer read(String userDir, int dashId, int deviceId, PinType pinType, byte pin,
+                    GraphGranularityType type, int count, int skip) throws IOException;
+
+    /**
+     * Same as above, but records are passed to the reader. Storage that keeps records
+     * in memory passes them without copying.
+     */
+    default <T> T read(String userDir, int dashId, int deviceId, PinType pinType, byte pin,
+                       GraphGranularityType type, int count, int skip, RecordsReader<T> reader) throws IOException {
+        return reader.read(read(userDir, dashId, deviceId, pinType, pin, type, count, skip));
+    }
+
+    /**
+     * Reads records of the series with timestamps within [from, to) range.
+     *
+     * @return - byte buffer with data or null if there is no data within range
+     */
+    ByteBuffer readRange(String userDir, int dashId, int deviceId, PinType pinType, byte pin,
+                         GraphGranularityType type, long from, long to) throws IOException;
+
+    /**
+     * Same as above, but records are passed to the reader. Storage that keeps records
+     * in memory passes them without copying.
+     */
+    default <T> T readRange(String userDir, int dashId, int deviceId, PinType pinType, byte pin,
+                            GraphGranularityType type, long from, long to,
+                            RecordsReader<T> reader) throws IOException {
+        return reader.read(readRange(userDir, dashId, deviceId, pinType, pin, type, from, to));
+    }
+
+    /**
+     * @return - all series of the user with the given granularity
+     */
+    List<SeriesKey> listSeries(String userDir, GraphGranularityType type) throws IOException;
+
+    /**
+     * @param filter - accepts legacy file name of the series
+     * @return - number of removed series
+     */
+    int delete(String userDir, Predicate<String> filter) throws IOException;
+
+    /**
+     * Leaves only last maxRecordsCount records for every series of the given granularity.
+     *
+     * @return - number of truncated series
+     */
+    int truncate(String userDir, GraphGranularityType type, int maxRecordsCount) throws IOException;
+
+    @Override
+    void close();
+
+}
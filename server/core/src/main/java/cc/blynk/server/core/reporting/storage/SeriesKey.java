@@ -0,0 +1,56 @@
+package cc.blynk.server.core.reporting.storage;
+
+import cc.blynk.server.core.model.enums.PinType;
+
+/**
+ * Identifies pin series within user reporting storage.
+ */
+public final class SeriesKey {
+
+    public final int dashId;
+    public final int deviceId;
+    public final PinType pinType;
+    public final byte pin;
+
+    public SeriesKey(int dashId, int deviceId, PinType pinType, byte pin) {
+        this.dashId = dashId;
+        this.deviceId = deviceId;
+        this.pinType = pinType;
+        this.pin = pin;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof SeriesKey)) {
+            return false;
+        }
+
+        SeriesKey that = (SeriesKey) o;
+        return dashId == that.dashId
+                && deviceId == that.deviceId
+                && pin == that.pin
+                && pinType == that.pinType;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = dashId;
+        result = 31 * result + deviceId;
+        result = 31 * result + pinType.hashCode();
+        result = 31 * result + (int) pin;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "SeriesKey{"
+                + "dashId=" + dashId
+                + ", deviceId=" + deviceId
+                + ", pinType=" + pinType
+                + ", pin=" + pin
+                + '}';
+    }
+}
@@ -20,8 +20,11 @@ public class GlobalStats {
     //2 last load adders are used as separate counters
     public final LongAdder[] specificCounters;
 
+    public final ReportingFlushStats reportingFlush;
+
     public GlobalStats() {
         this.totalMessages = new Meter();
+        this.reportingFlush = new ReportingFlushStats();
 
         //yeah, this is a bit ugly code, but as fast as possible =).
         this.specificCounters = new LongAdder[Command.LAST_COMMAND_INDEX];
@@ -0,0 +1,49 @@
+package cc.blynk.server.core.stats;
+
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the reporting flushes to disk, separate for every granularity.
+ */
+public class ReportingFlushStats {
+
+    private final Counters[] counters;
+
+    public ReportingFlushStats() {
+        GraphGranularityType[] types = GraphGranularityType.values();
+        this.counters = new Counters[types.length];
+        for (int i = 0; i < types.length; i++) {
+            counters[i] = new Counters();
+        }
+    }
+
+    public void mark(GraphGranularityType type, int keys, int files, long bytes, long timeMs, int errors) {
+        Counters typeCounters = counters[type.ordinal()];
+        typeCounters.flushes.increment();
+        typeCounters.keys.add(keys);
+        typeCounters.files.add(files);
+        typeCounters.bytes.add(bytes);
+        typeCounters.timeMs.add(timeMs);
+        typeCounters.errors.add(errors);
+    }
+
+    public Counters get(GraphGranularityType type) {
+        return counters[type.ordinal()];
+    }
+
+    public static final class Counters {
+
+        public final LongAdder flushes = new LongAdder();
+        public final LongAdder keys = new LongAdder();
+        public final LongAdder files = new LongAdder();
+        public final LongAdder bytes = new LongAdder();
+        public final LongAdder timeMs = new LongAdder();
+        public final LongAdder errors = new LongAdder();
+
+        private Counters() {
+        }
+    }
+
+}
@@ -0,0 +1,74 @@
+package cc.blynk.server.core.stats.model;
+
+import cc.blynk.server.core.dao.LoopSessions;
+import cc.blynk.server.core.dao.SessionDao;
+import cc.blynk.server.core.model.auth.Session;
+import cc.blynk.server.transport.EventLoopSharding;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Distribution of the user channels over the worker event loops.
+ */
+public class LoopStat {
+
+    public final int loops;
+
+    public final long sameLoopLogins;
+
+    public final long reRegistrations;
+
+    public final long hostDispatches;
+
+    public final int minLoopChannels;
+
+    public final int maxLoopChannels;
+
+    //channels of the most loaded loop to average channels per loop, 1 means perfect balance
+    public final double skew;
+
+    LoopStat(SessionDao sessionDao, boolean reset) {
+        EventLoopSharding sharding = sessionDao.sharding;
+        if (sharding == null) {
+            this.loops = 0;
+            this.sameLoopLogins = 0;
+            this.reRegistrations = 0;
+            this.hostDispatches = 0;
+            this.minLoopChannels = 0;
+            this.maxLoopChannels = 0;
+            this.skew = 0;
+            return;
+        }
+
+        int[] channels = new int[sharding.size()];
+        for (LoopSessions loopSessions : sessionDao.loopSessions()) {
+            int index = sharding.indexOf(loopSessions.loop);
+            if (index != -1) {
+                for (Session session : loopSessions.snapshot().values()) {
+                    channels[index] += session.appChannels.size() + session.hardwareChannels.size();
+                }
+            }
+        }
+
+        int min = Integer.MAX_VALUE;
+        int max = 0;
+        long total = 0;
+        for (int loopChannels : channels) {
+            min = Math.min(min, loopChannels);
+            max = Math.max(max, loopChannels);
+            total += loopChannels;
+        }
+
+        this.loops = channels.length;
+        this.sameLoopLogins = sum(sharding.sameLoopLogins, reset);
+        this.reRegistrations = sum(sharding.reRegistrations, reset);
+        this.hostDispatches = sum(sharding.hostDispatches, reset);
+        this.minLoopChannels = channels.length == 0 ? 0 : min;
+        this.maxLoopChannels = max;
+        this.skew = total == 0 ? 0 : (double) max * channels.length / total;
+    }
+
+    private static long sum(LongAdder counter, boolean reset) {
+        return reset ? counter.sumThenReset() : counter.sum();
+    }
+}
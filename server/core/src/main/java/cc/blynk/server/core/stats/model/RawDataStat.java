@@ -0,0 +1,24 @@
+package cc.blynk.server.core.stats.model;
+
+import cc.blynk.server.core.reporting.raw.RawDataProcessor;
+
+class RawDataStat {
+
+    private final int queueSize;
+
+    private final long queueBytes;
+
+    private final long journalBytes;
+
+    private final long spilledRecords;
+
+    private final long droppedRecords;
+
+    RawDataStat(RawDataProcessor rawDataProcessor) {
+        this.queueSize = rawDataProcessor.getQueueSize();
+        this.queueBytes = rawDataProcessor.getQueueBytes();
+        this.journalBytes = rawDataProcessor.getJournalBytes();
+        this.spilledRecords = rawDataProcessor.getSpilledRecords();
+        this.droppedRecords = rawDataProcessor.getDroppedRecords();
+    }
+}
@@ -0,0 +1,52 @@
+package cc.blynk.server.core.stats.model;
+
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import cc.blynk.server.core.stats.ReportingFlushStats;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Reporting flushes of the minute, hourly and daily aggregates since the last stat.
+ */
+class ReportingFlushStat {
+
+    private final FlushStat minute;
+
+    private final FlushStat hourly;
+
+    private final FlushStat daily;
+
+    ReportingFlushStat(ReportingFlushStats reportingFlushStats, boolean reset) {
+        this.minute = new FlushStat(reportingFlushStats.get(GraphGranularityType.MINUTE), reset);
+        this.hourly = new FlushStat(reportingFlushStats.get(GraphGranularityType.HOURLY), reset);
+        this.daily = new FlushStat(reportingFlushStats.get(GraphGranularityType.DAILY), reset);
+    }
+
+    private static long sum(LongAdder counter, boolean reset) {
+        return reset ? counter.sumThenReset() : counter.sum();
+    }
+
+    private static final class FlushStat {
+
+        private final long flushes;
+
+        private final long keys;
+
+        private final long files;
+
+        private final long bytes;
+
+        private final long timeMs;
+
+        private final long errors;
+
+        private FlushStat(ReportingFlushStats.Counters counters, boolean reset) {
+            this.flushes = sum(counters.flushes, reset);
+            this.keys = sum(counters.keys, reset);
+            this.files = sum(counters.files, reset);
+            this.bytes = sum(counters.bytes, reset);
+            this.timeMs = sum(counters.timeMs, reset);
+            this.errors = sum(counters.errors, reset);
+        }
+    }
+}
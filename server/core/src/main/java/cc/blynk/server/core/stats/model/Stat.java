@@ -1,6 +1,7 @@
 package cc.blynk.server.core.stats.model;
 
 import cc.blynk.server.core.BlockingIOProcessor;
+import cc.blynk.server.core.dao.LoopSessions;
 import cc.blynk.server.core.dao.SessionDao;
 import cc.blynk.server.core.dao.UserDao;
 import cc.blynk.server.core.dao.UserKey;
@@ -10,6 +11,7 @@ import cc.blynk.server.core.model.auth.User;
 import cc.blynk.server.core.model.serialization.JsonParser;
 import cc.blynk.server.core.model.widgets.ui.reporting.ReportScheduler;
 import cc.blynk.server.core.protocol.enums.Command;
+import cc.blynk.server.core.reporting.raw.RawDataProcessor;
 import cc.blynk.server.core.stats.GlobalStats;
 import io.netty.buffer.ByteBufAllocator;
 
@@ -31,6 +33,9 @@ public class Stat {
     public final HttpStat http = new HttpStat();
     public final BlockingIOStat ioStat;
     public final MemoryStat memoryStat;
+    public final RawDataStat rawDataStat;
+    public final LoopStat loopStat;
+    public final ReportingFlushStat reportingFlushStat;
 
     public final int oneMinRate;
     public final int registrations;
@@ -45,7 +50,8 @@ public class Stat {
     public final transient long ts;
 
     public Stat(SessionDao sessionDao, UserDao userDao, BlockingIOProcessor blockingIOProcessor,
-                GlobalStats globalStats, ReportScheduler reportScheduler, boolean reset) {
+                GlobalStats globalStats, ReportScheduler reportScheduler,
+                RawDataProcessor rawDataProcessor, boolean reset) {
         //yeap, some stats updates may be lost (because of sumThenReset()),
         //but we don't care, cause this is just for general monitoring
         for (Short command : Command.VALUES_NAME.keySet()) {
@@ -73,37 +79,40 @@ public class Stat {
         int activeMonth = 0;
 
         this.ts = System.currentTimeMillis();
-        for (Map.Entry<UserKey, Session> entry: sessionDao.userSession.entrySet()) {
-            Session session = entry.getValue();
+        //snapshots of the loop partitions, so stats don't touch maps changed by the loops
+        for (LoopSessions loopSessions : sessionDao.loopSessions()) {
+            for (Map.Entry<UserKey, Session> entry : loopSessions.snapshot().entrySet()) {
+                Session session = entry.getValue();
 
-            if (session.isHardwareConnected() && session.isAppConnected()) {
-                connectedSessions++;
-            }
-            if (session.isHardwareConnected()) {
-                hardActive++;
-                totalOnlineHards += session.hardwareChannels.size();
-            }
-            if (session.isAppConnected()) {
-                appActive++;
-                totalOnlineApps += session.appChannels.size();
-            }
-            UserKey userKey = entry.getKey();
-            User user = userDao.users.get(userKey);
-
-            if (user != null) {
-                if (this.ts - user.lastModifiedTs < ONE_DAY || dashUpdated(user, this.ts, ONE_DAY)) {
-                    active++;
-                    activeWeek++;
-                    activeMonth++;
-                    continue;
+                if (session.isHardwareConnected() && session.isAppConnected()) {
+                    connectedSessions++;
+                }
+                if (session.isHardwareConnected()) {
+                    hardActive++;
+                    totalOnlineHards += session.hardwareChannels.size();
                 }
-                if (this.ts - user.lastModifiedTs < ONE_WEEK || dashUpdated(user, this.ts, ONE_WEEK)) {
-                    activeWeek++;
-                    activeMonth++;
-                    continue;
+                if (session.isAppConnected()) {
+                    appActive++;
+                    totalOnlineApps += session.appChannels.size();
                 }
-                if (this.ts - user.lastModifiedTs < ONE_MONTH || dashUpdated(user, this.ts, ONE_MONTH)) {
-                    activeMonth++;
+                UserKey userKey = entry.getKey();
+                User user = userDao.users.get(userKey);
+
+                if (user != null) {
+                    if (this.ts - user.lastModifiedTs < ONE_DAY || dashUpdated(user, this.ts, ONE_DAY)) {
+                        active++;
+                        activeWeek++;
+                        activeMonth++;
+                        continue;
+                    }
+                    if (this.ts - user.lastModifiedTs < ONE_WEEK || dashUpdated(user, this.ts, ONE_WEEK)) {
+                        activeWeek++;
+                        activeMonth++;
+                        continue;
+                    }
+                    if (this.ts - user.lastModifiedTs < ONE_MONTH || dashUpdated(user, this.ts, ONE_MONTH)) {
+                        activeMonth++;
+                    }
                 }
             }
         }
@@ -121,6 +130,9 @@ public class Stat {
 
         this.ioStat = new BlockingIOStat(blockingIOProcessor, reportScheduler);
         this.memoryStat = new MemoryStat(ByteBufAllocator.DEFAULT);
+        this.rawDataStat = new RawDataStat(rawDataProcessor);
+        this.loopStat = new LoopStat(sessionDao, reset);
+        this.reportingFlushStat = new ReportingFlushStat(globalStats.reportingFlush, reset);
     }
 
     private boolean dashUpdated(User user, long now, long period) {
@@ -4,6 +4,8 @@ import cc.blynk.server.core.BlockingIOProcessor;
 import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
 import cc.blynk.server.core.reporting.average.AggregationKey;
 import cc.blynk.server.core.reporting.average.AggregationValue;
+import cc.blynk.server.core.reporting.raw.RawDataBatch;
+import cc.blynk.server.core.reporting.raw.RawDataProcessor;
 import cc.blynk.server.core.stats.model.Stat;
 import cc.blynk.server.db.dao.ReportingDBDao;
 import cc.blynk.utils.properties.BaseProperties;
@@ -15,9 +17,14 @@ import org.apache.logging.log4j.Logger;
 
 import java.io.Closeable;
 import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
 import java.sql.Statement;
 import java.time.Instant;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static cc.blynk.utils.properties.DBProperties.DB_PROPERTIES_FILENAME;
 
@@ -36,6 +43,12 @@ public class ReportingDBManager implements Closeable {
 
     public ReportingDBDao reportingDBDao;
 
+    private static final int MAX_RAW_BATCH_FAILURES = 3;
+
+    private final AtomicBoolean rawDataDraining = new AtomicBoolean();
+    //guarded by rawDataDraining
+    private int rawBatchFailures;
+
     public ReportingDBManager(BlockingIOProcessor blockingIOProcessor, boolean isEnabled) {
         this(DB_PROPERTIES_FILENAME, blockingIOProcessor, isEnabled);
     }
@@ -100,10 +113,73 @@ public class ReportingDBManager implements Closeable {
         }
     }
 
-    public void insertReportingRaw(Map<AggregationKey, Object> rawData) {
-        if (isDBEnabled() && rawData.size() > 0) {
-            blockingIOProcessor.executeDB(() -> reportingDBDao.insertRawData(rawData));
+    /**
+     * Drains raw data queue and journal into DB in batches.
+     * Only one drain runs at a time, while it runs new records stay
+     * in bounded queue or go to the journal.
+     */
+    public void insertReportingRaw(RawDataProcessor rawDataProcessor) {
+        if (isDBEnabled() && rawDataProcessor.hasData() && rawDataDraining.compareAndSet(false, true)) {
+            try {
+                blockingIOProcessor.executeDB(() -> {
+                    try {
+                        drainRawData(rawDataProcessor);
+                    } finally {
+                        rawDataDraining.set(false);
+                    }
+                });
+            } catch (RejectedExecutionException ree) {
+                rawDataDraining.set(false);
+                log.warn("DB executor is full. Raw data drain postponed.");
+            }
+        }
+    }
+
+    private void drainRawData(RawDataProcessor rawDataProcessor) {
+        long start = System.currentTimeMillis();
+        var batch = new RawDataBatch(RawDataProcessor.BATCH_SIZE);
+        long counter = 0;
+
+        while (rawDataProcessor.drain(batch) > 0) {
+            try {
+                reportingDBDao.insertRawData(batch);
+                counter += batch.size;
+                rawBatchFailures = 0;
+            } catch (Exception e) {
+                if (isConnectionError(e) || ++rawBatchFailures < MAX_RAW_BATCH_FAILURES) {
+                    log.error("Error inserting raw reporting data in DB. Returning {} records to journal.",
+                            batch.size, e);
+                    rawDataProcessor.spill(batch);
+                    break;
+                }
+                //the same records are rejected again and again, they should not block the rest of the journal
+                log.error("Error inserting raw reporting data in DB. Batch failed {} times. "
+                        + "Moving {} records to quarantine.", rawBatchFailures, batch.size, e);
+                rawDataProcessor.quarantine(batch);
+                rawBatchFailures = 0;
+            } finally {
+                batch.clear();
+            }
+        }
+
+        log.info("Storing raw reporting finished. Time {}. Records saved {}. Queue : {}, journal : {} bytes, "
+                        + "spilled : {}, dropped : {}, quarantined : {}.",
+                System.currentTimeMillis() - start, counter,
+                rawDataProcessor.getQueueSize(), rawDataProcessor.getJournalBytes(),
+                rawDataProcessor.getSpilledRecords(), rawDataProcessor.getDroppedRecords(),
+                rawDataProcessor.getQuarantinedRecords());
+    }
+
+    //SQL state class 08 - connection exception, DB is down and batch will be accepted later
+    private static boolean isConnectionError(Exception e) {
+        if (e instanceof SQLTransientException || e instanceof SQLRecoverableException) {
+            return true;
+        }
+        if (e instanceof SQLException) {
+            String sqlState = ((SQLException) e).getSQLState();
+            return sqlState != null && sqlState.startsWith("08");
         }
+        return false;
     }
 
     public void cleanOldReportingRecords(Instant now) {
@@ -0,0 +1,126 @@
+package cc.blynk.server.db.dao;
+
+import org.postgresql.copy.CopyIn;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+
+/**
+ * Streams rows into "COPY ... FROM STDIN (FORMAT BINARY)".
+ * Rows are encoded into reusable buffer that is sent to the server
+ * every time it is full, so memory usage doesn't depend on number of rows.
+ *
+ * https://www.postgresql.org/docs/current/static/sql-copy.html - "Binary Format"
+ */
+final class PgBinaryCopyWriter implements Closeable {
+
+    private static final byte[] SIGNATURE = {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0};
+    //2000-01-01 00:00:00 UTC, postgres timestamps are microseconds since this moment
+    private static final long PG_EPOCH_MILLIS = 946_684_800_000L;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final CopyIn copyIn;
+    private final ByteBuffer buffer;
+
+    PgBinaryCopyWriter(CopyIn copyIn) throws SQLException {
+        this.copyIn = copyIn;
+        this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        ensure(SIGNATURE.length + 8);
+        buffer.put(SIGNATURE)
+              //flags
+              .putInt(0)
+              //header extension length
+              .putInt(0);
+    }
+
+    void startRow(int fieldsCount) throws SQLException {
+        ensure(2);
+        buffer.putShort((short) fieldsCount);
+    }
+
+    void writeText(String value) throws SQLException {
+        if (value == null) {
+            writeNull();
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        ensure(4);
+        buffer.putInt(bytes.length);
+        if (bytes.length > buffer.remaining()) {
+            flush();
+            copyIn.writeToCopy(bytes, 0, bytes.length);
+        } else {
+            buffer.put(bytes);
+        }
+    }
+
+    void writeInt2(short value) throws SQLException {
+        ensure(6);
+        buffer.putInt(2).putShort(value);
+    }
+
+    void writeInt4(int value) throws SQLException {
+        ensure(8);
+        buffer.putInt(4).putInt(value);
+    }
+
+    void writeInt8(long value) throws SQLException {
+        ensure(12);
+        buffer.putInt(8).putLong(value);
+    }
+
+    void writeFloat8(double value) throws SQLException {
+        ensure(12);
+        buffer.putInt(8).putDouble(value);
+    }
+
+    /**
+     * Works for both timestamp and timestamptz columns. UTC is used, same as for inserts.
+     */
+    void writeTimestamp(long epochMillis) throws SQLException {
+        writeInt8((epochMillis - PG_EPOCH_MILLIS) * 1000);
+    }
+
+    void writeNull() throws SQLException {
+        ensure(4);
+        buffer.putInt(-1);
+    }
+
+    /**
+     * @return - number of rows stored by server
+     */
+    long finish() throws SQLException {
+        ensure(2);
+        //file trailer
+        buffer.putShort((short) -1);
+        flush();
+        return copyIn.endCopy();
+    }
+
+    private void ensure(int bytes) throws SQLException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    private void flush() throws SQLException {
+        if (buffer.position() > 0) {
+            copyIn.writeToCopy(buffer.array(), 0, buffer.position());
+            buffer.clear();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (copyIn.isActive()) {
+            try {
+                copyIn.cancelCopy();
+            } catch (SQLException e) {
+                //connection is rolled back by caller anyway
+            }
+        }
+    }
+
+}
@@ -0,0 +1,220 @@
+package cc.blynk.server.db.dao;
+
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import cc.blynk.server.core.reporting.average.AggregationKey;
+import cc.blynk.server.core.reporting.average.AggregationValue;
+import cc.blynk.server.core.reporting.raw.BaseReportingKey;
+import cc.blynk.server.core.reporting.raw.RawDataBatch;
+import cc.blynk.utils.DateTimeUtils;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+import org.postgresql.core.BaseConnection;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Bulk insert of reporting rows. Uses binary COPY for postgres connections
+ * and multi-row INSERT ... VALUES (...), (...) as fallback.
+ * Raw data fallback insert overrides rows with the same primary key, while COPY fails on them.
+ * Doesn't commit, caller is responsible for the transaction.
+ */
+public final class ReportingBulkLoader {
+
+    private static final String AVERAGE_COLUMNS = "(email, project_id, device_id, pin, pin_type, ts, value)";
+    private static final int AVERAGE_COLUMNS_COUNT = 7;
+    private static final String RAW_TABLE = "reporting_raw_data";
+    private static final String RAW_COLUMNS =
+            "(email, project_id, device_id, pin, pinType, ts, stringValue, doubleValue)";
+    private static final int RAW_COLUMNS_COUNT = 8;
+    //the same ts could be already stored by previous batch, for example, after partially failed drain
+    private static final String RAW_ON_CONFLICT =
+            " ON CONFLICT (email, project_id, device_id, pin, pinType, ts)"
+            + " DO UPDATE SET stringValue = EXCLUDED.stringValue, doubleValue = EXCLUDED.doubleValue";
+
+    //postgres allows up to 32767 bind parameters per statement
+    static final int INSERT_ROWS_PER_STATEMENT = 1000;
+
+    private ReportingBulkLoader() {
+    }
+
+    public static boolean isCopySupported(Connection connection) throws SQLException {
+        return connection.isWrapperFor(PGConnection.class);
+    }
+
+    public static String getAverageTable(GraphGranularityType type) {
+        switch (type) {
+            case MINUTE :
+                return "reporting_average_minute";
+            case HOURLY :
+                return "reporting_average_hourly";
+            default :
+                return "reporting_average_daily";
+        }
+    }
+
+    public static long copyAverage(Connection connection, Map<AggregationKey, AggregationValue> data,
+                                   GraphGranularityType type) throws SQLException {
+        CopyManager copyManager = new CopyManager(connection.unwrap(BaseConnection.class));
+        String sql = "COPY " + getAverageTable(type) + " " + AVERAGE_COLUMNS + " FROM STDIN (FORMAT BINARY)";
+        try (PgBinaryCopyWriter writer = new PgBinaryCopyWriter(copyManager.copyIn(sql))) {
+            for (Map.Entry<AggregationKey, AggregationValue> entry : data.entrySet()) {
+                AggregationKey key = entry.getKey();
+                writer.startRow(AVERAGE_COLUMNS_COUNT);
+                writer.writeText(key.getEmail());
+                writer.writeInt4(key.getDashId());
+                //device_id is int8 in average tables
+                writer.writeInt8(key.getDeviceId());
+                writer.writeInt2(key.getPin());
+                writer.writeInt2((short) key.getPinType().ordinal());
+                writer.writeTimestamp(key.getTs(type));
+                writer.writeFloat8(entry.getValue().calcAverage());
+            }
+            return writer.finish();
+        }
+    }
+
+    public static long copyRawData(Connection connection, RawDataBatch batch) throws SQLException {
+        CopyManager copyManager = new CopyManager(connection.unwrap(BaseConnection.class));
+        String sql = "COPY " + RAW_TABLE + " " + RAW_COLUMNS + " FROM STDIN (FORMAT BINARY)";
+        try (PgBinaryCopyWriter writer = new PgBinaryCopyWriter(copyManager.copyIn(sql))) {
+            for (int i = 0; i < batch.size; i++) {
+                BaseReportingKey key = batch.keys[i];
+                writer.startRow(RAW_COLUMNS_COUNT);
+                writer.writeText(key.email);
+                writer.writeInt4(key.dashId);
+                writer.writeInt4(key.deviceId);
+                writer.writeInt2(key.pin);
+                writer.writeText(key.pinType.pinTypeString);
+                writer.writeTimestamp(batch.ts[i]);
+                String stringValue = batch.stringValues[i];
+                if (stringValue != null) {
+                    writer.writeText(stringValue);
+                    writer.writeNull();
+                } else {
+                    writer.writeNull();
+                    writer.writeFloat8(batch.doubleValues[i]);
+                }
+            }
+            return writer.finish();
+        }
+    }
+
+    public static long insertAverage(Connection connection, Map<AggregationKey, AggregationValue> data,
+                                     GraphGranularityType type) throws SQLException {
+        String table = getAverageTable(type);
+        Iterator<Map.Entry<AggregationKey, AggregationValue>> iterator = data.entrySet().iterator();
+        int left = data.size();
+        long inserted = 0;
+
+        try (PreparedStatement fullPs = left >= INSERT_ROWS_PER_STATEMENT
+                ? connection.prepareStatement(
+                        multiRowInsert(table, AVERAGE_COLUMNS, AVERAGE_COLUMNS_COUNT, INSERT_ROWS_PER_STATEMENT))
+                : null) {
+            while (left > 0) {
+                int rows = Math.min(left, INSERT_ROWS_PER_STATEMENT);
+                if (rows == INSERT_ROWS_PER_STATEMENT) {
+                    inserted += insertAverageRows(fullPs, iterator, rows, type);
+                } else {
+                    try (PreparedStatement ps = connection.prepareStatement(
+                            multiRowInsert(table, AVERAGE_COLUMNS, AVERAGE_COLUMNS_COUNT, rows))) {
+                        inserted += insertAverageRows(ps, iterator, rows, type);
+                    }
+                }
+                left -= rows;
+            }
+        }
+        return inserted;
+    }
+
+    private static int insertAverageRows(PreparedStatement ps,
+                                         Iterator<Map.Entry<AggregationKey, AggregationValue>> iterator,
+                                         int rows, GraphGranularityType type) throws SQLException {
+        int index = 1;
+        for (int i = 0; i < rows; i++) {
+            Map.Entry<AggregationKey, AggregationValue> entry = iterator.next();
+            AggregationKey key = entry.getKey();
+            ps.setString(index++, key.getEmail());
+            ps.setInt(index++, key.getDashId());
+            ps.setInt(index++, key.getDeviceId());
+            ps.setByte(index++, key.getPin());
+            ps.setInt(index++, key.getPinType().ordinal());
+            ps.setTimestamp(index++, new Timestamp(key.getTs(type)), DateTimeUtils.UTC_CALENDAR);
+            ps.setDouble(index++, entry.getValue().calcAverage());
+        }
+        return ps.executeUpdate();
+    }
+
+    public static long insertRawData(Connection connection, RawDataBatch batch) throws SQLException {
+        long inserted = 0;
+        int offset = 0;
+
+        try (PreparedStatement fullPs = batch.size >= INSERT_ROWS_PER_STATEMENT
+                ? connection.prepareStatement(
+                        multiRowInsert(RAW_TABLE, RAW_COLUMNS, RAW_COLUMNS_COUNT, INSERT_ROWS_PER_STATEMENT)
+                                + RAW_ON_CONFLICT)
+                : null) {
+            while (offset < batch.size) {
+                int rows = Math.min(batch.size - offset, INSERT_ROWS_PER_STATEMENT);
+                if (rows == INSERT_ROWS_PER_STATEMENT) {
+                    inserted += insertRawRows(fullPs, batch, offset, rows);
+                } else {
+                    try (PreparedStatement ps = connection.prepareStatement(
+                            multiRowInsert(RAW_TABLE, RAW_COLUMNS, RAW_COLUMNS_COUNT, rows) + RAW_ON_CONFLICT)) {
+                        inserted += insertRawRows(ps, batch, offset, rows);
+                    }
+                }
+                offset += rows;
+            }
+        }
+        return inserted;
+    }
+
+    private static int insertRawRows(PreparedStatement ps, RawDataBatch batch,
+                                     int offset, int rows) throws SQLException {
+        int index = 1;
+        for (int i = offset; i < offset + rows; i++) {
+            BaseReportingKey key = batch.keys[i];
+            ps.setString(index++, key.email);
+            ps.setInt(index++, key.dashId);
+            ps.setInt(index++, key.deviceId);
+            ps.setByte(index++, key.pin);
+            ps.setString(index++, key.pinType.pinTypeString);
+            ps.setTimestamp(index++, new Timestamp(batch.ts[i]), DateTimeUtils.UTC_CALENDAR);
+            String stringValue = batch.stringValues[i];
+            if (stringValue != null) {
+                ps.setString(index++, stringValue);
+                ps.setNull(index++, Types.DOUBLE);
+            } else {
+                ps.setNull(index++, Types.VARCHAR);
+                ps.setDouble(index++, batch.doubleValues[i]);
+            }
+        }
+        return ps.executeUpdate();
+    }
+
+    static String multiRowInsert(String table, String columns, int columnsCount, int rows) {
+        StringBuilder sb = new StringBuilder(table.length() + columns.length() + 32 + rows * columnsCount * 3);
+        sb.append("INSERT INTO ").append(table).append(' ').append(columns).append(" VALUES ");
+        for (int row = 0; row < rows; row++) {
+            if (row > 0) {
+                sb.append(',');
+            }
+            sb.append('(');
+            for (int column = 0; column < columnsCount; column++) {
+                if (column > 0) {
+                    sb.append(',');
+                }
+                sb.append('?');
+            }
+            sb.append(')');
+        }
+        return sb.toString();
+    }
+
+}
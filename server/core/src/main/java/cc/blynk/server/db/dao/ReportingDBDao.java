@@ -6,6 +6,7 @@ import cc.blynk.server.core.model.widgets.outputs.graph.GraphPeriod;
 import cc.blynk.server.core.reporting.average.AggregationKey;
 import cc.blynk.server.core.reporting.average.AggregationValue;
 import cc.blynk.server.core.reporting.average.AverageAggregatorProcessor;
+import cc.blynk.server.core.reporting.raw.RawDataBatch;
 import cc.blynk.server.core.stats.model.CommandStat;
 import cc.blynk.server.core.stats.model.HttpStat;
 import cc.blynk.server.core.stats.model.Stat;
@@ -18,10 +19,8 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Timestamp;
-import java.sql.Types;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
-import java.util.Iterator;
 import java.util.Map;
 
 /**
@@ -34,17 +33,6 @@ public class ReportingDBDao {
     public static final String insertMinute =
             "INSERT INTO reporting_average_minute (email, project_id, device_id, pin, pin_type, ts, value) "
                     + "VALUES (?, ?, ?, ?, ?, ?, ?)";
-    private static final String insertHourly =
-            "INSERT INTO reporting_average_hourly (email, project_id, device_id, pin, pin_type, ts, value) "
-                    + "VALUES (?, ?, ?, ?, ?, ?, ?)";
-    private static final String insertDaily =
-            "INSERT INTO reporting_average_daily (email, project_id, device_id, pin, pin_type, ts, value) "
-                    + "VALUES (?, ?, ?, ?, ?, ?, ?)";
-
-    private static final String insertRawData =
-            "INSERT INTO reporting_raw_data (email, project_id, device_id, pin, pinType, ts, "
-                    + "stringValue, doubleValue) "
-                    + "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
 
     public static final String selectMinute =
             "SELECT ts, value FROM reporting_average_minute WHERE ts > ? ORDER BY ts DESC limit ?";
@@ -95,15 +83,6 @@ public class ReportingDBDao {
         ps.setInt(2, limit);
     }
 
-    private static void prepareReportingInsert(PreparedStatement ps,
-                                               Map.Entry<AggregationKey, AggregationValue> entry,
-                                               GraphGranularityType type) throws SQLException {
-        AggregationKey key = entry.getKey();
-        AggregationValue value = entry.getValue();
-        prepareReportingInsert(ps, key.getEmail(), key.getDashId(), key.getDeviceId(),
-                key.getPin(), key.getPinType(), key.getTs(type), value.calcAverage());
-    }
-
     public static void prepareReportingInsert(PreparedStatement ps,
                                                  String email,
                                                  int dashId,
@@ -121,60 +100,36 @@ public class ReportingDBDao {
         ps.setDouble(7, value);
     }
 
-    private static String getTableByGraphType(GraphGranularityType graphGranularityType) {
-        switch (graphGranularityType) {
-            case MINUTE :
-                return insertMinute;
-            case HOURLY :
-                return insertHourly;
-            default :
-                return insertDaily;
-        }
-    }
-
-    public void insertRawData(Map<AggregationKey, Object> rawData) {
+    /**
+     * Inserts whole batch within one transaction.
+     * Exception is propagated, so caller may return records back to the queue.
+     */
+    public void insertRawData(RawDataBatch batch) throws SQLException {
         long start = System.currentTimeMillis();
 
-        log.info("Storing raw reporting...");
-        int counter = 0;
+        int duplicates = batch.removeDuplicates();
+        if (duplicates > 0) {
+            log.debug("Removed {} raw records with the same ts.", duplicates);
+        }
 
-        try (Connection connection = ds.getConnection();
-             PreparedStatement ps = connection.prepareStatement(insertRawData)) {
-
-            for (Iterator<Map.Entry<AggregationKey, Object>> iter = rawData.entrySet().iterator(); iter.hasNext();) {
-                Map.Entry<AggregationKey, Object> entry = iter.next();
-
-                final AggregationKey key = entry.getKey();
-                final Object value = entry.getValue();
-
-                ps.setString(1, key.getEmail());
-                ps.setInt(2, key.getDashId());
-                ps.setInt(3, key.getDeviceId());
-                ps.setByte(4, key.getPin());
-                ps.setString(5, key.getPinType().pinTypeString);
-                ps.setTimestamp(6, new Timestamp(key.ts), DateTimeUtils.UTC_CALENDAR);
-
-                if (value instanceof String) {
-                    ps.setString(7, (String) value);
-                    ps.setNull(8, Types.DOUBLE);
-                } else {
-                    ps.setNull(7, Types.VARCHAR);
-                    ps.setDouble(8, (Double) value);
+        try (Connection connection = ds.getConnection()) {
+            if (ReportingBulkLoader.isCopySupported(connection)) {
+                try {
+                    ReportingBulkLoader.copyRawData(connection, batch);
+                } catch (SQLException e) {
+                    log.warn("Error copying raw reporting batch, falling back to insert. Reason : {}",
+                            e.getMessage());
+                    connection.rollback();
+                    ReportingBulkLoader.insertRawData(connection, batch);
                 }
-
-                ps.addBatch();
-                counter++;
-                iter.remove();
+            } else {
+                ReportingBulkLoader.insertRawData(connection, batch);
             }
-
-            ps.executeBatch();
             connection.commit();
-        } catch (Exception e) {
-            log.error("Error inserting raw reporting data in DB.", e);
         }
 
-        log.info("Storing raw reporting finished. Time {}. Records saved {}",
-                System.currentTimeMillis() - start, counter);
+        log.debug("Storing raw reporting batch finished. Time {}. Records saved {}",
+                System.currentTimeMillis() - start, batch.size);
     }
 
     public void insertStat(String region, Stat stat) {
@@ -282,17 +237,19 @@ public class ReportingDBDao {
 
         log.info("Storing {} reporting...", graphGranularityType.name());
 
-        String insertSQL = getTableByGraphType(graphGranularityType);
-
-        try (Connection connection = ds.getConnection();
-             PreparedStatement ps = connection.prepareStatement(insertSQL)) {
-
-            for (Map.Entry<AggregationKey, AggregationValue> entry : map.entrySet()) {
-                prepareReportingInsert(ps, entry, graphGranularityType);
-                ps.addBatch();
+        try (Connection connection = ds.getConnection()) {
+            if (ReportingBulkLoader.isCopySupported(connection)) {
+                try {
+                    ReportingBulkLoader.copyAverage(connection, map, graphGranularityType);
+                } catch (SQLException e) {
+                    log.warn("Error copying {} reporting, falling back to insert. Reason : {}",
+                            graphGranularityType.name(), e.getMessage());
+                    connection.rollback();
+                    ReportingBulkLoader.insertAverage(connection, map, graphGranularityType);
+                }
+            } else {
+                ReportingBulkLoader.insertAverage(connection, map, graphGranularityType);
             }
-
-            ps.executeBatch();
             connection.commit();
         } catch (Exception e) {
             log.error("Error inserting reporting data in DB.", e);
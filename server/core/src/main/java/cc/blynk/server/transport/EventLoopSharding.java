@@ -0,0 +1,126 @@
+package cc.blynk.server.transport;
+
+import cc.blynk.server.core.dao.UserKey;
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.EventExecutor;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Assigns users to the event loops of the worker group.
+ * All channels of the user are served by the single event loop (see Session.initialEventLoop),
+ * user loop is defined by the hash of the user key, so it is known before the first connection.
+ *
+ * User is not known when connection is accepted, so accepted channel is registered
+ * on the loop of the user that logged in from the same host last time.
+ * In most cases devices and apps of the user work from the same network, so login
+ * doesn't need channel re-registration. Hosts with users of different loops (proxies, big NATs)
+ * are not used for dispatching, so they don't overload single loop.
+ */
+public final class EventLoopSharding {
+
+    //protection from the unlimited growth, hosts are learned again after cleanup
+    private static final int MAX_HOSTS = 100_000;
+    private static final Integer SHARED_HOST = -1;
+
+    private final EventLoop[] loops;
+    //host -> index of the loop of users from that host
+    private final ConcurrentHashMap<InetAddress, Integer> hostLoops = new ConcurrentHashMap<>();
+
+    //logins that were already on the user loop
+    public final LongAdder sameLoopLogins = new LongAdder();
+    public final LongAdder reRegistrations = new LongAdder();
+    //accepted channels that were registered on the loop of the known host
+    public final LongAdder hostDispatches = new LongAdder();
+
+    public EventLoopSharding(EventLoopGroup group) {
+        List<EventLoop> loops = new ArrayList<>();
+        for (EventExecutor executor : group) {
+            loops.add((EventLoop) executor);
+        }
+        this.loops = loops.toArray(new EventLoop[0]);
+    }
+
+    private static InetAddress host(Channel channel) {
+        SocketAddress address = channel.remoteAddress();
+        if (address instanceof InetSocketAddress) {
+            return ((InetSocketAddress) address).getAddress();
+        }
+        return null;
+    }
+
+    public EventLoop forUser(UserKey userKey) {
+        return loops[indexForUser(userKey)];
+    }
+
+    public int indexForUser(UserKey userKey) {
+        int hash = userKey.hashCode();
+        //spreading higher bits, as emails have similar endings
+        hash ^= hash >>> 16;
+        return Math.floorMod(hash, loops.length);
+    }
+
+    public EventLoop get(int index) {
+        return loops[index];
+    }
+
+    /**
+     * @return - loop of the users that logged in from the same host or null if host is unknown.
+     */
+    public EventLoop forChannel(Channel channel) {
+        InetAddress host = host(channel);
+        if (host == null) {
+            return null;
+        }
+        Integer loopIndex = hostLoops.get(host);
+        if (loopIndex == null || loopIndex < 0) {
+            return null;
+        }
+        hostDispatches.increment();
+        return loops[loopIndex];
+    }
+
+    /**
+     * Called on login, before channel re-registration.
+     */
+    public void onLogin(Channel channel, EventLoop userLoop) {
+        if (channel.eventLoop() == userLoop) {
+            sameLoopLogins.increment();
+        } else {
+            reRegistrations.increment();
+        }
+        InetAddress host = host(channel);
+        if (host != null) {
+            if (hostLoops.size() >= MAX_HOSTS) {
+                hostLoops.clear();
+            }
+            hostLoops.merge(host, indexOf(userLoop),
+                    (prevIndex, index) -> prevIndex.equals(index) ? prevIndex : SHARED_HOST);
+        }
+    }
+
+    public int size() {
+        return loops.length;
+    }
+
+    /**
+     * @return - index of the loop or -1 if loop is not from the worker group
+     */
+    public int indexOf(EventLoop loop) {
+        for (int i = 0; i < loops.length; i++) {
+            if (loops[i] == loop) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+}
@@ -28,6 +28,7 @@ public class TransportTypeHolder implements Closeable {
     public final EventLoopGroup bossGroup;
     public final EventLoopGroup workerGroup;
     public final Class<? extends ServerChannel> channelClass;
+    public final EventLoopSharding sharding;
 
     public TransportTypeHolder(ServerProperties serverProperties) {
         this(serverProperties.getIntProperty("server.worker.threads", Runtime.getRuntime().availableProcessors() * 2));
@@ -44,6 +45,7 @@ public class TransportTypeHolder implements Closeable {
             workerGroup = new NioEventLoopGroup(workerThreads);
             channelClass = NioServerSocketChannel.class;
         }
+        this.sharding = new EventLoopSharding(workerGroup);
     }
 
     @Override
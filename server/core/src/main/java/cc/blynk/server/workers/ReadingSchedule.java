@@ -0,0 +1,207 @@
+package cc.blynk.server.workers;
+
+import cc.blynk.server.core.model.DashBoard;
+import cc.blynk.server.core.model.auth.Session;
+import cc.blynk.server.core.model.device.Tag;
+import cc.blynk.server.core.model.widgets.FrequencyWidget;
+import cc.blynk.server.core.model.widgets.Target;
+import cc.blynk.server.core.model.widgets.Widget;
+import cc.blynk.server.core.model.widgets.ui.tiles.DeviceTiles;
+import cc.blynk.server.core.model.widgets.ui.tiles.Tile;
+import cc.blynk.server.core.model.widgets.ui.tiles.TileTemplate;
+import cc.blynk.server.core.session.HardwareStateHolder;
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoop;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+
+import static cc.blynk.server.internal.StateHolderUtil.getHardState;
+
+/**
+ * Reading widgets of the hardware channels of one event loop, ordered by the time of the next reading.
+ * So every tick touches only the readings that are due.
+ *
+ * Channel readings are registered on hardware login and re-registered when dash is activated or
+ * its widgets are changed. Closed channel is removed from the schedule.
+ *
+ * Not thread safe, used only within the loop.
+ */
+final class ReadingSchedule {
+
+    final EventLoop loop;
+
+    private final PriorityQueue<Reading> deadlines =
+            new PriorityQueue<>((r1, r2) -> Long.compare(r1.deadline, r2.deadline));
+    private final HashMap<Channel, ChannelReadings> channels = new HashMap<>();
+    private final ArrayList<Reading> due = new ArrayList<>();
+    private final ArrayList<ChannelReadings> written = new ArrayList<>();
+
+    ReadingSchedule(EventLoop loop) {
+        this.loop = loop;
+    }
+
+    void register(Session session, Channel channel, long now) {
+        HardwareStateHolder state = getHardState(channel);
+        if (state == null || !channel.isActive()) {
+            return;
+        }
+
+        ChannelReadings prev = channels.get(channel);
+        if (prev == null) {
+            channel.closeFuture().addListener(future -> loop.execute(() -> deregister(channel)));
+        } else {
+            prev.cancelled = true;
+        }
+
+        ChannelReadings channelReadings = new ChannelReadings(session, channel, state.dash, state.device.id);
+        channels.put(channel, channelReadings);
+
+        DashBoard dash = state.dash;
+        if (!dash.isActive) {
+            return;
+        }
+        int deviceId = state.device.id;
+        for (Widget widget : dash.widgets) {
+            if (widget instanceof FrequencyWidget) {
+                FrequencyWidget frequencyWidget = (FrequencyWidget) widget;
+                if (frequencyWidget.getFrequency() > 0 && mayTarget(frequencyWidget.getDeviceId(), deviceId)) {
+                    deadlines.add(new Reading(channelReadings, frequencyWidget, null, null,
+                            frequencyWidget.getFrequency(), now));
+                }
+            } else if (widget instanceof DeviceTiles) {
+                DeviceTiles deviceTiles = (DeviceTiles) widget;
+                for (Tile tile : deviceTiles.tiles) {
+                    if (tile.deviceId == deviceId) {
+                        deadlines.add(new Reading(channelReadings, null, deviceTiles, tile,
+                                Tile.READING_FREQUENCY, now));
+                    }
+                }
+            }
+        }
+    }
+
+    //widgets assigned to the other device are skipped, tags and device selectors are checked on reading
+    private static boolean mayTarget(int targetId, int deviceId) {
+        return targetId >= Tag.START_TAG_ID || targetId == deviceId;
+    }
+
+    void deregister(Channel channel) {
+        ChannelReadings channelReadings = channels.remove(channel);
+        if (channelReadings != null) {
+            channelReadings.cancelled = true;
+        }
+    }
+
+    /**
+     * @return - number of the sent reading commands
+     */
+    int tick(long now, boolean allowRunWithoutApp) {
+        Reading reading;
+        while ((reading = deadlines.peek()) != null && reading.deadline <= now) {
+            deadlines.poll();
+            if (!reading.owner.cancelled) {
+                due.add(reading);
+            }
+        }
+
+        int sent = 0;
+        for (Reading dueReading : due) {
+            ChannelReadings owner = dueReading.owner;
+            if (!owner.dash.isActive) {
+                //dash activation registers readings again
+                continue;
+            }
+            if (!owner.channel.isWritable()) {
+                //retry on the next tick
+                deadlines.add(dueReading);
+                continue;
+            }
+            if (allowRunWithoutApp || owner.session.isAppConnected()) {
+                int count = dueReading.read();
+                if (count > 0 && !owner.written) {
+                    owner.written = true;
+                    written.add(owner);
+                }
+                sent += count;
+            }
+            dueReading.deadline = now + dueReading.frequency;
+            deadlines.add(dueReading);
+        }
+        due.clear();
+
+        for (ChannelReadings owner : written) {
+            owner.written = false;
+            owner.channel.flush();
+        }
+        written.clear();
+        return sent;
+    }
+
+    int size() {
+        return deadlines.size();
+    }
+
+    private static final class ChannelReadings {
+
+        private final Session session;
+        private final Channel channel;
+        private final DashBoard dash;
+        private final int deviceId;
+        private boolean cancelled;
+        private boolean written;
+
+        private ChannelReadings(Session session, Channel channel, DashBoard dash, int deviceId) {
+            this.session = session;
+            this.channel = channel;
+            this.dash = dash;
+            this.deviceId = deviceId;
+        }
+    }
+
+    //either frequency widget or tile with frequency widgets in its template
+    private static final class Reading {
+
+        private final ChannelReadings owner;
+        private final FrequencyWidget widget;
+        private final DeviceTiles deviceTiles;
+        private final Tile tile;
+        private final int frequency;
+        private long deadline;
+
+        private Reading(ChannelReadings owner, FrequencyWidget widget, DeviceTiles deviceTiles, Tile tile,
+                        int frequency, long deadline) {
+            this.owner = owner;
+            this.widget = widget;
+            this.deviceTiles = deviceTiles;
+            this.tile = tile;
+            this.frequency = frequency;
+            this.deadline = deadline;
+        }
+
+        private int read() {
+            if (widget != null) {
+                Target target = owner.dash.getTarget(widget.getDeviceId());
+                if (target != null && target.isSelected(owner.deviceId)) {
+                    widget.writeReadingCommand(owner.channel);
+                    return 1;
+                }
+                return 0;
+            }
+
+            int count = 0;
+            TileTemplate tileTemplate = deviceTiles.getTileTemplateById(tile.templateId);
+            if (tileTemplate != null) {
+                for (Widget tileWidget : tileTemplate.widgets) {
+                    if (tileWidget instanceof FrequencyWidget) {
+                        ((FrequencyWidget) tileWidget).writeReadingCommand(owner.channel);
+                        count++;
+                    }
+                }
+            }
+            return count;
+        }
+    }
+
+}
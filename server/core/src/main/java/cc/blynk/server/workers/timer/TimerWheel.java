@@ -0,0 +1,207 @@
+package cc.blynk.server.workers.timer;
+
+import cc.blynk.server.core.model.widgets.others.eventor.TimerTime;
+import cc.blynk.server.core.model.widgets.others.eventor.model.action.BaseAction;
+import cc.blynk.utils.ArrayUtil;
+import cc.blynk.utils.DateTimeUtils;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * Hierarchical timing wheel of the timers of one users shard.
+ *
+ * Every timer is scheduled to the absolute epoch second of its next firing, timezone and
+ * days of week are resolved at that moment, so tick doesn't do any date math.
+ * Lower level has slot for every second of the current hour, upper level has slot for every
+ * hour of the next 8 days (timer fires at least once per week). Upper level slot is moved
+ * to the lower level when its hour starts.
+ *
+ * Not thread safe, every wheel is accessed only from the event loop of its shard.
+ * Deleted timers are just marked, they are dropped when their slot is processed.
+ */
+final class TimerWheel {
+
+    private static final int DAY = 86400;
+    static final int SECONDS = 3600;
+    static final int HOURS = 8 * 24;
+    //missed seconds are processed only for the small delays of the scheduler
+    static final int MAX_CATCH_UP = 10;
+
+    private final ArrayList<Entry>[] seconds;
+    private final ArrayList<Entry>[] hours;
+    private final HashMap<TimerKey, Entry> entries = new HashMap<>();
+
+    //last processed second
+    private long current;
+    //for stats only, read from the other threads
+    volatile int size;
+
+    @SuppressWarnings("unchecked")
+    TimerWheel(long nowSecond) {
+        this.seconds = new ArrayList[SECONDS];
+        this.hours = new ArrayList[HOURS];
+        this.current = nowSecond - 1;
+    }
+
+    static long nextFireSecond(TimerTime time, long after) {
+        if (time.days == null || time.days.length == 0) {
+            return -1;
+        }
+        ZoneId zoneId = time.tzName == null ? DateTimeUtils.UTC : time.tzName;
+        long dayStart = Math.floorDiv(after, DAY) * DAY;
+        int secondOfDay = Math.floorMod(time.time, DAY);
+        //days are in the timezone of the user, so week + 1 day
+        for (int day = 0; day <= 7; day++) {
+            long candidate = dayStart + day * DAY + secondOfDay;
+            if (candidate > after) {
+                int dayOfWeek = Instant.ofEpochSecond(candidate).atZone(zoneId).getDayOfWeek().getValue();
+                if (ArrayUtil.contains(time.days, dayOfWeek)) {
+                    return candidate;
+                }
+            }
+        }
+        return -1;
+    }
+
+    void add(TimerKey key, BaseAction[] actions) {
+        Entry entry = new Entry(key, actions);
+        Entry prev = entries.put(key, entry);
+        if (prev != null) {
+            prev.cancelled = true;
+        }
+        schedule(entry, current);
+        size = entries.size();
+    }
+
+    void remove(TimerKey key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            entry.cancelled = true;
+            size = entries.size();
+        }
+    }
+
+    /**
+     * Processes all seconds up to the given one, including it.
+     *
+     * @return - number of fired timers
+     */
+    int advance(long second, BiConsumer<TimerKey, BaseAction[]> handler) {
+        if (second <= current) {
+            return 0;
+        }
+        if (second - current > MAX_CATCH_UP) {
+            //worker wasn't running or clock jumped, missed timers are skipped
+            rescheduleAll(second - 1);
+        }
+        int fired = 0;
+        while (current < second) {
+            current++;
+            if (current % SECONDS == 0) {
+                cascade(current / SECONDS);
+            }
+            fired += fire(current, handler);
+        }
+        return fired;
+    }
+
+    private int fire(long second, BiConsumer<TimerKey, BaseAction[]> handler) {
+        int index = (int) (second % SECONDS);
+        ArrayList<Entry> slot = seconds[index];
+        if (slot == null) {
+            return 0;
+        }
+        seconds[index] = null;
+
+        int fired = 0;
+        for (Entry entry : slot) {
+            if (entry.cancelled) {
+                continue;
+            }
+            if (entry.fireSecond == second) {
+                handler.accept(entry.key, entry.actions);
+                fired++;
+            }
+            schedule(entry, second);
+        }
+        return fired;
+    }
+
+    private void cascade(long hour) {
+        int index = (int) (hour % HOURS);
+        ArrayList<Entry> slot = hours[index];
+        if (slot == null) {
+            return;
+        }
+        hours[index] = null;
+        for (Entry entry : slot) {
+            if (!entry.cancelled) {
+                place(entry);
+            }
+        }
+    }
+
+    private void rescheduleAll(long after) {
+        this.current = after;
+        for (int i = 0; i < SECONDS; i++) {
+            seconds[i] = null;
+        }
+        for (int i = 0; i < HOURS; i++) {
+            hours[i] = null;
+        }
+        for (Entry entry : entries.values()) {
+            entry.fireSecond = 0;
+            schedule(entry, after);
+        }
+    }
+
+    private void schedule(Entry entry, long after) {
+        if (entry.fireSecond <= after) {
+            entry.fireSecond = nextFireSecond(entry.key.time, after);
+            if (entry.fireSecond < 0) {
+                entries.remove(entry.key, entry);
+                entry.cancelled = true;
+                size = entries.size();
+                return;
+            }
+        }
+        place(entry);
+    }
+
+    private void place(Entry entry) {
+        long hour = entry.fireSecond / SECONDS;
+        ArrayList<Entry>[] wheel;
+        int index;
+        if (hour <= (current + 1) / SECONDS) {
+            wheel = seconds;
+            index = (int) (entry.fireSecond % SECONDS);
+        } else {
+            wheel = hours;
+            index = (int) (hour % HOURS);
+        }
+        ArrayList<Entry> slot = wheel[index];
+        if (slot == null) {
+            slot = new ArrayList<>();
+            wheel[index] = slot;
+        }
+        slot.add(entry);
+    }
+
+    private static final class Entry {
+
+        private final TimerKey key;
+        private final BaseAction[] actions;
+        private long fireSecond;
+        private boolean cancelled;
+
+        private Entry(TimerKey key, BaseAction[] actions) {
+            this.key = key;
+            this.actions = actions;
+        }
+    }
+
+}
@@ -20,32 +20,33 @@ import cc.blynk.server.core.model.widgets.ui.tiles.Tile;
 import cc.blynk.server.core.model.widgets.ui.tiles.TileTemplate;
 import cc.blynk.server.core.processors.EventorProcessor;
 import cc.blynk.server.notifications.push.GCMWrapper;
+import cc.blynk.server.transport.EventLoopSharding;
 import cc.blynk.utils.ArrayUtil;
-import cc.blynk.utils.DateTimeUtils;
+import io.netty.channel.EventLoop;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.time.ZonedDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
 
 import static cc.blynk.server.core.protocol.enums.Command.HARDWARE;
 import static cc.blynk.server.internal.EmptyArraysUtil.EMPTY_INTS;
 
 /**
  * Timer worker class responsible for triggering all timers at specified time.
- * Current implementation is some kind of Hashed Wheel Timer.
- * In general idea is very simple :
+ * Current implementation is Hierarchical Timing Wheel (see TimerWheel).
  *
- * Select timers at specified cell timer[secondsOfDayNow]
- * and run it one by one, instead of naive implementation
- * with iteration over all profiles every second
+ * Timers are sharded by user the same way as sessions, every event loop of the
+ * worker group has own wheel and processes its timers in parallel with other loops.
+ * So timers of the user are triggered within the loop of the user session.
  *
- * + Concurrency around it as timerWorker may be accessed from different threads.
+ * Scheduler thread only starts the tick on every loop.
  *
  * The Blynk Project.
  * Created by Dmitriy Dumanskiy.
@@ -57,20 +58,35 @@ public class TimerWorker implements Runnable {
     private static final Logger log = LogManager.getLogger(TimerWorker.class);
     public static final int TIMER_MSG_ID = 7777;
 
+    //ticks for percentiles of the tick duration, 10 minutes
+    private static final int TICKS_WINDOW = 600;
+    private static final int REPORT_PERIOD = 60;
+
     private final UserDao userDao;
     private final SessionDao sessionDao;
     private final GCMWrapper gcmWrapper;
-    private final AtomicReferenceArray<ConcurrentHashMap<TimerKey, BaseAction[]>> timerExecutors;
-    private final static int size = 86400;
+    private final EventLoopSharding sharding;
+    private final Shard[] shards;
+
+    //updated from all loops
+    private final LongAdder actuallySendTimers = new LongAdder();
+    private final LongAdder activeTimers = new LongAdder();
+    private final AtomicLongArray tickDurations = new AtomicLongArray(TICKS_WINDOW);
+    private long ticks;
 
-    @SuppressWarnings("unchecked")
     public TimerWorker(UserDao userDao, SessionDao sessionDao, GCMWrapper gcmWrapper) {
         this.userDao = userDao;
         this.sessionDao = sessionDao;
         this.gcmWrapper = gcmWrapper;
-        //array cell for every second in a day,
-        //yes, it costs a bit of memory, but still cheap :)
-        this.timerExecutors = new AtomicReferenceArray<>(size);
+        this.sharding = sessionDao.sharding;
+
+        long nowSecond = System.currentTimeMillis() / 1000;
+        int shardsNumber = sharding == null ? 1 : sharding.size();
+        this.shards = new Shard[shardsNumber];
+        for (int i = 0; i < shardsNumber; i++) {
+            EventLoop loop = sharding == null ? null : sharding.get(i);
+            shards[i] = new Shard(loop, new TimerWheel(nowSecond));
+        }
         init(userDao.users);
     }
 
@@ -97,6 +113,10 @@ public class TimerWorker implements Runnable {
         log.info("Timers : {}", counter);
     }
 
+    private Shard shard(UserKey userKey) {
+        return sharding == null ? shards[0] : shards[sharding.indexForUser(userKey)];
+    }
+
     public void add(UserKey userKey, Eventor eventor, int dashId) {
         if (eventor.rules != null) {
             for (Rule rule : eventor.rules) {
@@ -115,14 +135,14 @@ public class TimerWorker implements Runnable {
                 SetPinAction action = new SetPinAction(timer.pin, timer.pinType, timer.startValue);
                 TimerKey timerKey = new TimerKey(userKey, dashId, timer.deviceId, timer.id, 0,
                         deviceTilesId, templateId, timerTime);
-                getExecutorOrCreate(timerTime.time).put(timerKey, new BaseAction[]{action});
+                add(timerKey, new BaseAction[]{action});
             }
             if (timer.isValidStop()) {
                 TimerTime timerTime = new TimerTime(timer.stopTime);
                 SetPinAction action = new SetPinAction(timer.pin, timer.pinType, timer.stopValue);
                 TimerKey timerKey = new TimerKey(userKey, dashId, timer.deviceId, timer.id, 1,
                         deviceTilesId, templateId, timerTime);
-                getExecutorOrCreate(timerTime.time).put(timerKey, new BaseAction[]{action});
+                add(timerKey, new BaseAction[]{action});
             }
         }
     }
@@ -137,13 +157,16 @@ public class TimerWorker implements Runnable {
             }
         }
         if (!validActions.isEmpty()) {
-            getExecutorOrCreate(time.time).put(
-                    new TimerKey(userKey, dashId, deviceId, widgetId, additionalId,
-                            deviceTilesId, templateId, time),
+            add(new TimerKey(userKey, dashId, deviceId, widgetId, additionalId, deviceTilesId, templateId, time),
                     validActions.toArray(new BaseAction[0]));
         }
     }
 
+    private void add(TimerKey timerKey, BaseAction[] actions) {
+        Shard shard = shard(timerKey.userKey);
+        shard.execute(() -> shard.wheel.add(timerKey, actions));
+    }
+
     public void delete(UserKey userKey, Eventor eventor, int dashId) {
         if (eventor.rules != null) {
             for (Rule rule : eventor.rules) {
@@ -168,103 +191,63 @@ public class TimerWorker implements Runnable {
 
     private void delete(UserKey userKey, int dashId, int deviceId, long widgetId, int additionalId,
                         long deviceTilesId, long templateId, TimerTime time) {
-        ConcurrentHashMap<TimerKey, BaseAction[]> secondExecutor = timerExecutors.get(time.time);
-        if (secondExecutor != null) {
-            secondExecutor.remove(new TimerKey(userKey, dashId, deviceId,
-                    widgetId, additionalId,
-                    deviceTilesId, templateId, time));
-        }
+        TimerKey timerKey = new TimerKey(userKey, dashId, deviceId,
+                widgetId, additionalId,
+                deviceTilesId, templateId, time);
+        Shard shard = shard(userKey);
+        shard.execute(() -> shard.wheel.remove(timerKey));
     }
 
-    //may be improved in Java9 with compareAndExchange
-    private ConcurrentHashMap<TimerKey, BaseAction[]> getExecutorOrCreate(int seconds) {
-        ConcurrentHashMap<TimerKey, BaseAction[]> secondExecutor = timerExecutors.get(seconds);
-        if (secondExecutor != null) {
-            return secondExecutor;
-        }
-        ConcurrentHashMap<TimerKey, BaseAction[]> newSecondExecutorMap = new ConcurrentHashMap<>();
-        if (timerExecutors.compareAndSet(seconds, null, newSecondExecutorMap)) {
-            return newSecondExecutorMap;
-        }
-        return timerExecutors.get(seconds);
-    }
-
-    private int actuallySendTimers;
-    private int activeTimers;
-
     @Override
     public void run() {
         log.trace("Starting timer...");
 
         long now = System.currentTimeMillis();
-        ConcurrentMap<TimerKey, BaseAction[]> tickedExecutors = timerExecutors.get((int) ((now / 1000) % 86400));
+        Tick tick = new Tick(ticks, now, shards.length);
+        for (Shard shard : shards) {
+            shard.execute(() -> tick(shard, tick));
+        }
 
-        if (tickedExecutors == null) {
-            return;
+        ticks++;
+        if (ticks % REPORT_PERIOD == 0) {
+            report();
         }
+    }
 
+    private void tick(Shard shard, Tick tick) {
         try {
-            this.activeTimers = 0;
-            this.actuallySendTimers = 0;
-            send(tickedExecutors, now);
+            tick.fired.add(shard.wheel.advance(tick.now / 1000, (key, actions) -> fire(key, actions, tick.now)));
         } catch (Exception e) {
             log.error("Error running timers. ", e);
         }
-
-        if (activeTimers > 0) {
-            log.info("Timer finished. Ready {}, Active {}, Actual {}. Processing time : {} ms",
-                    tickedExecutors.size(), activeTimers, actuallySendTimers, System.currentTimeMillis() - now);
-        }
+        tick.done();
     }
 
-    private void send(ConcurrentMap<TimerKey, BaseAction[]> tickedExecutors, long now) {
-        ZonedDateTime currentDateTime = ZonedDateTime.now(DateTimeUtils.UTC);
-
-        for (Map.Entry<TimerKey, BaseAction[]> entry : tickedExecutors.entrySet()) {
-            TimerKey key = entry.getKey();
-            BaseAction[] actions = entry.getValue();
-            if (key.time.isTickTime(currentDateTime)) {
-                User user = userDao.users.get(key.userKey);
-                if (user != null) {
-                    DashBoard dash = user.profile.getDashById(key.dashId);
-                    if (dash != null && dash.isActive) {
-                        activeTimers++;
-                        process(dash, key, actions, now);
-                    }
+    private void fire(TimerKey key, BaseAction[] actions, long now) {
+        try {
+            User user = userDao.users.get(key.userKey);
+            if (user != null) {
+                DashBoard dash = user.profile.getDashById(key.dashId);
+                if (dash != null && dash.isActive) {
+                    activeTimers.increment();
+                    process(dash, key, actions, now);
                 }
             }
+        } catch (Exception e) {
+            log.error("Error processing timer. ", e);
         }
     }
 
     private void process(DashBoard dash, TimerKey key, BaseAction[] actions, long now) {
+        //target devices are resolved once per firing for all actions
+        int[] deviceIds = null;
         for (BaseAction action : actions) {
             if (action instanceof SetPinAction) {
                 SetPinAction setPinAction = (SetPinAction) action;
 
-                int[] deviceIds = EMPTY_INTS;
-                if (key.isTilesTimer()) {
-                    Widget widget = dash.getWidgetById(key.deviceTilesId);
-                    if (widget instanceof DeviceTiles) {
-                        List<Integer> list = new ArrayList<>();
-                        DeviceTiles deviceTiles = (DeviceTiles) widget;
-                        for (Tile tile : deviceTiles.tiles) {
-                            if (tile.templateId == key.templateId) {
-                                list.add(tile.deviceId);
-                            }
-                        }
-                        if (list.size() > 0) {
-                            deviceIds = ArrayUtil.convertIntegersToInt(list);
-                        }
-                    }
-                } else {
-                    Target target = dash.getTarget(key.deviceId);
-                    if (target == null) {
-                        return;
-                    }
-
-                    deviceIds = target.getDeviceIds();
+                if (deviceIds == null) {
+                    deviceIds = resolveDeviceIds(dash, key);
                 }
-
                 if (deviceIds.length == 0) {
                     return;
                 }
@@ -282,11 +265,36 @@ public class TimerWorker implements Runnable {
         }
     }
 
+    private static int[] resolveDeviceIds(DashBoard dash, TimerKey key) {
+        if (key.isTilesTimer()) {
+            Widget widget = dash.getWidgetById(key.deviceTilesId);
+            if (widget instanceof DeviceTiles) {
+                List<Integer> list = new ArrayList<>();
+                DeviceTiles deviceTiles = (DeviceTiles) widget;
+                for (Tile tile : deviceTiles.tiles) {
+                    if (tile.templateId == key.templateId) {
+                        list.add(tile.deviceId);
+                    }
+                }
+                if (list.size() > 0) {
+                    return ArrayUtil.convertIntegersToInt(list);
+                }
+            }
+            return EMPTY_INTS;
+        }
+
+        Target target = dash.getTarget(key.deviceId);
+        if (target == null) {
+            return EMPTY_INTS;
+        }
+        return target.getDeviceIds();
+    }
+
     private void triggerTimer(SessionDao sessionDao, UserKey userKey, String value, int dashId, int[] deviceIds) {
         Session session = sessionDao.userSession.get(userKey);
         if (session != null) {
             if (!session.sendMessageToHardware(dashId, HARDWARE, TIMER_MSG_ID, value, deviceIds)) {
-                actuallySendTimers++;
+                actuallySendTimers.increment();
             }
             for (int deviceId : deviceIds) {
                 session.sendToApps(HARDWARE, TIMER_MSG_ID, dashId, deviceId, value);
@@ -294,6 +302,26 @@ public class TimerWorker implements Runnable {
         }
     }
 
+    private void report() {
+        int count = (int) Math.min(ticks, TICKS_WINDOW);
+        long[] durations = new long[count];
+        for (int i = 0; i < count; i++) {
+            durations[i] = tickDurations.get(i);
+        }
+        Arrays.sort(durations);
+        int timers = 0;
+        for (Shard shard : shards) {
+            timers += shard.wheel.size;
+        }
+        log.info("Timers : {}. Tick duration for last {} ticks p50 {} ms, p90 {} ms, p99 {} ms, max {} ms.",
+                timers, count, percentile(durations, 50), percentile(durations, 90),
+                percentile(durations, 99), durations[count - 1]);
+    }
+
+    private static long percentile(long[] sorted, int percentile) {
+        return sorted[Math.min(sorted.length - 1, sorted.length * percentile / 100)];
+    }
+
     public void deleteTimers(UserKey userKey, DashBoard dash) {
         for (Widget widget : dash.widgets) {
             if (widget instanceof DeviceTiles) {
@@ -316,4 +344,55 @@ public class TimerWorker implements Runnable {
             }
         }
     }
+
+    private static final class Shard {
+
+        //null when sharding is not used, in that case wheel is guarded by shard lock
+        private final EventLoop loop;
+        private final TimerWheel wheel;
+
+        private Shard(EventLoop loop, TimerWheel wheel) {
+            this.loop = loop;
+            this.wheel = wheel;
+        }
+
+        private void execute(Runnable task) {
+            if (loop == null) {
+                synchronized (this) {
+                    task.run();
+                }
+            } else if (loop.inEventLoop()) {
+                task.run();
+            } else {
+                loop.execute(task);
+            }
+        }
+    }
+
+    //one tick of all shards, the last finished shard reports the tick duration
+    private final class Tick {
+
+        private final long number;
+        private final long now;
+        private final AtomicInteger pending;
+        private final LongAdder fired = new LongAdder();
+
+        private Tick(long number, long now, int shards) {
+            this.number = number;
+            this.now = now;
+            this.pending = new AtomicInteger(shards);
+        }
+
+        private void done() {
+            if (pending.decrementAndGet() == 0) {
+                long duration = System.currentTimeMillis() - now;
+                tickDurations.set((int) (number % TICKS_WINDOW), duration);
+                long active = activeTimers.sumThenReset();
+                if (active > 0) {
+                    log.info("Timer finished. Ready {}, Active {}, Actual {}. Processing time : {} ms",
+                            fired.sum(), active, actuallySendTimers.sumThenReset(), duration);
+                }
+            }
+        }
+    }
 }
@@ -29,6 +29,7 @@ module cc.blynk.core {
     exports cc.blynk.server.internal;
     exports cc.blynk.server.common;
     exports cc.blynk.server.core.model.device;
+    exports cc.blynk.server.core.reporting.raw;
     requires cc.blynk.server.notifications.mail;
     requires cc.blynk.server.notifications.push;
     requires cc.blynk.server.notifications.sms;
@@ -45,6 +46,7 @@ module cc.blynk.core {
     requires async.http.client;
     requires com.zaxxer.hikari;
     requires java.sql;
+    requires org.postgresql.jdbc;
     requires com.fasterxml.jackson.databind;
     requires jackson.annotations;
     requires org.apache.logging.log4j;
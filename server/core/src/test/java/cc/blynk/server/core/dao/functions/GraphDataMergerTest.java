@@ -0,0 +1,82 @@
+package cc.blynk.server.core.dao.functions;
+
+import cc.blynk.server.core.model.widgets.outputs.graph.AggregationFunctionType;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.Assert.assertEquals;
+
+public class GraphDataMergerTest {
+
+    private static ByteBuffer records(double... valueAndTs) {
+        ByteBuffer buf = ByteBuffer.allocate(valueAndTs.length * 8);
+        for (int i = 0; i < valueAndTs.length; i += 2) {
+            buf.putDouble(valueAndTs[i]).putLong((long) valueAndTs[i + 1]);
+        }
+        buf.flip();
+        return buf;
+    }
+
+    @Test
+    public void testMergeDevicesWithDifferentTimestamps() {
+        ByteBuffer[] devices = {
+                records(1, 10, 2, 20),
+                null,
+                records(3, 20, 5, 30),
+                records(-1, 5)
+        };
+
+        ByteBuffer result = ByteBuffer.wrap(GraphDataMerger.merge(devices, AggregationFunctionType.AVG).array());
+        assertEquals(4 * 16, result.capacity());
+        assertEquals(-1, result.getDouble(), 0);
+        assertEquals(5, result.getLong());
+        assertEquals(1, result.getDouble(), 0);
+        assertEquals(10, result.getLong());
+        assertEquals(2.5, result.getDouble(), 0);
+        assertEquals(20, result.getLong());
+        assertEquals(5, result.getDouble(), 0);
+        assertEquals(30, result.getLong());
+
+        //source buffers are not consumed
+        assertEquals(32, devices[0].remaining());
+    }
+
+    @Test
+    public void testSameResultAsGraphFunctions() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        ByteBuffer[] devices = new ByteBuffer[50];
+        for (int i = 0; i < devices.length; i++) {
+            int points = random.nextInt(100);
+            devices[i] = ByteBuffer.allocate(points * 16);
+            long ts = random.nextInt(10);
+            for (int j = 0; j < points; j++) {
+                ts += random.nextInt(3);
+                devices[i].putDouble(random.nextInt(-100, 100)).putLong(ts);
+            }
+            devices[i].flip();
+        }
+
+        for (AggregationFunctionType functionType : AggregationFunctionType.values()) {
+            TreeMap<Long, GraphFunction> expected = new TreeMap<>();
+            for (ByteBuffer device : devices) {
+                ByteBuffer buf = device.duplicate();
+                while (buf.hasRemaining()) {
+                    double value = buf.getDouble();
+                    expected.computeIfAbsent(buf.getLong(), ts -> functionType.produce()).apply(value);
+                }
+            }
+
+            ByteBuffer result = ByteBuffer.wrap(GraphDataMerger.merge(devices, functionType).array());
+            assertEquals(expected.size() * 16, result.capacity());
+            for (Map.Entry<Long, GraphFunction> entry : expected.entrySet()) {
+                assertEquals(entry.getValue().getResult(), result.getDouble(), 0.0001);
+                assertEquals((long) entry.getKey(), result.getLong());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,72 @@
+package cc.blynk.server.core.model;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.widgets.OnePinWidget;
+import cc.blynk.server.core.model.widgets.Widget;
+import cc.blynk.server.core.model.widgets.controls.Button;
+import cc.blynk.server.core.model.widgets.others.webhook.WebHook;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class DashBoardPinIndexTest {
+
+    private static <T extends OnePinWidget> T widget(T widget, long id, int deviceId, int pin) {
+        widget.id = id;
+        widget.deviceId = deviceId;
+        widget.pin = (byte) pin;
+        widget.pinType = PinType.VIRTUAL;
+        return widget;
+    }
+
+    @Test
+    public void testUpdateGoesToAllWidgetsOfPin() {
+        Button button1 = widget(new Button(), 1, 0, 1);
+        Button button2 = widget(new Button(), 2, 0, 1);
+        Button otherPin = widget(new Button(), 3, 0, 2);
+        Button otherDevice = widget(new Button(), 4, 1, 1);
+        WebHook webHook = widget(new WebHook(), 5, 0, 1);
+
+        DashBoard dash = new DashBoard();
+        dash.widgets = new Widget[] {otherPin, button1, otherDevice, webHook, button2};
+
+        dash.update(0, (byte) 1, PinType.VIRTUAL, "10", 1);
+        assertEquals("10", button1.value);
+        assertEquals("10", button2.value);
+        assertNull(otherPin.value);
+        assertNull(otherDevice.value);
+        assertNull(webHook.value);
+
+        assertSame(button1, dash.findWidgetByPin(0, (byte) 1, PinType.VIRTUAL));
+        assertSame(webHook, dash.findWebhookByPin(0, (byte) 1, PinType.VIRTUAL));
+        assertNull(dash.findWebhookByPin(0, (byte) 2, PinType.VIRTUAL));
+        assertFalse(dash.needRawDataForGraph(0, (byte) 1, PinType.VIRTUAL));
+        assertNull(dash.findWidgetByPin(0, (byte) 3, PinType.VIRTUAL));
+    }
+
+    @Test
+    public void testIndexFollowsWidgetChanges() {
+        Button button = widget(new Button(), 1, 0, 1);
+        DashBoard dash = new DashBoard();
+        dash.widgets = new Widget[] {button};
+        assertSame(button, dash.findWidgetByPin(0, (byte) 1, PinType.VIRTUAL));
+
+        //widgets array replaced
+        Button newButton = widget(new Button(), 2, 0, 1);
+        dash.widgets = new Widget[] {newButton};
+        dash.update(0, (byte) 1, PinType.VIRTUAL, "20", 1);
+        assertEquals("20", newButton.value);
+        assertNull(button.value);
+
+        //pin of existing widget changed
+        newButton.pin = 5;
+        dash.invalidatePinIndex();
+        assertNull(dash.findWidgetByPin(0, (byte) 1, PinType.VIRTUAL));
+        dash.update(0, (byte) 5, PinType.VIRTUAL, "30", 2);
+        assertEquals("30", newButton.value);
+    }
+
+}
@@ -7,13 +7,12 @@ import cc.blynk.server.core.model.serialization.JsonParser;
 import cc.blynk.server.core.model.storage.MultiPinStorageValue;
 import cc.blynk.server.core.model.storage.MultiPinStorageValueType;
 import cc.blynk.server.core.model.storage.PinPropertyStorageKey;
+import cc.blynk.server.core.model.storage.PinStorage;
 import cc.blynk.server.core.model.storage.PinStorageKey;
 import cc.blynk.server.core.model.storage.PinStorageValue;
 import cc.blynk.server.core.model.storage.SinglePinStorageValue;
 import org.junit.Test;
 
-import java.util.HashMap;
-
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
@@ -34,7 +33,7 @@ public class DataStreamStorageSerializationTest {
                 new DashBoard()
         };
         user.lastModifiedTs = 0;
-        user.profile.dashBoards[0].pinsStorage = new HashMap<>();
+        user.profile.dashBoards[0].pinsStorage = new PinStorage();
         PinStorageKey pinStorageKey = new PinStorageKey(0, PinType.VIRTUAL, (byte) 0);
         user.profile.dashBoards[0].pinsStorage.put(pinStorageKey, new SinglePinStorageValue());
 
@@ -51,7 +50,7 @@ public class DataStreamStorageSerializationTest {
                 new DashBoard()
         };
         user.lastModifiedTs = 0;
-        user.profile.dashBoards[0].pinsStorage = new HashMap<>();
+        user.profile.dashBoards[0].pinsStorage = new PinStorage();
         PinStorageKey pinStorageKey = new PinStorageKey(0, PinType.VIRTUAL, (byte) 0);
         PinStorageKey pinStorageKey2 = new PinStorageKey(0, PinType.DIGITAL, (byte) 1);
         PinPropertyStorageKey pinStorageKey3 = new PinPropertyStorageKey(0, PinType.VIRTUAL, (byte) 0, WidgetProperty.LABEL);
@@ -74,7 +73,7 @@ public class DataStreamStorageSerializationTest {
                 new DashBoard()
         };
         user.lastModifiedTs = 0;
-        user.profile.dashBoards[0].pinsStorage = new HashMap<>();
+        user.profile.dashBoards[0].pinsStorage = new PinStorage();
         PinStorageKey pinStorageKey = new PinStorageKey(0, PinType.VIRTUAL, (byte) 0);
         PinStorageValue pinStorageValue = new MultiPinStorageValue(MultiPinStorageValueType.LCD);
         user.profile.dashBoards[0].pinsStorage.put(pinStorageKey, pinStorageValue);
@@ -92,7 +91,7 @@ public class DataStreamStorageSerializationTest {
                 new DashBoard()
         };
         user.lastModifiedTs = 0;
-        user.profile.dashBoards[0].pinsStorage = new HashMap<>();
+        user.profile.dashBoards[0].pinsStorage = new PinStorage();
         PinStorageKey pinStorageKey = new PinStorageKey(0, PinType.VIRTUAL, (byte) 0);
         PinStorageValue pinStorageValue = new MultiPinStorageValue(MultiPinStorageValueType.LCD);
         pinStorageValue.update("1");
@@ -111,7 +110,7 @@ public class DataStreamStorageSerializationTest {
                 new DashBoard()
         };
         user.lastModifiedTs = 0;
-        user.profile.dashBoards[0].pinsStorage = new HashMap<>();
+        user.profile.dashBoards[0].pinsStorage = new PinStorage();
         PinStorageKey pinStorageKey = new PinStorageKey(0, PinType.VIRTUAL, (byte) 0);
         PinStorageValue pinStorageValue = new MultiPinStorageValue(MultiPinStorageValueType.LCD);
         pinStorageValue.update("1");
@@ -131,7 +130,7 @@ public class DataStreamStorageSerializationTest {
                 new DashBoard()
         };
         user.lastModifiedTs = 0;
-        user.profile.dashBoards[0].pinsStorage = new HashMap<>();
+        user.profile.dashBoards[0].pinsStorage = new PinStorage();
         PinStorageKey pinStorageKey = new PinStorageKey(0, PinType.VIRTUAL, (byte) 0);
         PinStorageValue pinStorageValue = new MultiPinStorageValue(MultiPinStorageValueType.LCD);
         pinStorageValue.update("1");
@@ -156,7 +155,7 @@ public class DataStreamStorageSerializationTest {
                 new DashBoard()
         };
         user.lastModifiedTs = 0;
-        user.profile.dashBoards[0].pinsStorage = new HashMap<>();
+        user.profile.dashBoards[0].pinsStorage = new PinStorage();
         PinStorageKey pinStorageKey = new PinStorageKey(0, PinType.VIRTUAL, (byte) 0);
         PinStorageValue pinStorageValue = new MultiPinStorageValue(MultiPinStorageValueType.LCD);
         pinStorageValue.update("\0");
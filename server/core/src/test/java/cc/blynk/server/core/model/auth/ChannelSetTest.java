@@ -0,0 +1,62 @@
+package cc.blynk.server.core.model.auth;
+
+import io.netty.channel.Channel;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import java.util.Iterator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ChannelSetTest {
+
+    @Test
+    public void testAddRemove() {
+        ChannelSet channels = new ChannelSet();
+        Channel channel1 = new EmbeddedChannel();
+        Channel channel2 = new EmbeddedChannel();
+        Channel channel3 = new EmbeddedChannel();
+
+        assertTrue(channels.isEmpty());
+        assertTrue(channels.addChannel(channel1));
+        assertFalse(channels.addChannel(channel1));
+        assertTrue(channels.addChannel(channel2));
+        assertTrue(channels.addChannel(channel3));
+        assertEquals(3, channels.size());
+
+        assertTrue(channels.removeChannel(channel2));
+        assertFalse(channels.removeChannel(channel2));
+        assertFalse(channels.contains(channel2));
+        assertTrue(channels.contains(channel1));
+        assertTrue(channels.contains(channel3));
+
+        assertTrue(channels.removeChannel(channel1));
+        assertTrue(channels.removeChannel(channel3));
+        assertTrue(channels.isEmpty());
+    }
+
+    @Test
+    public void testIteratorIsSnapshot() {
+        ChannelSet channels = new ChannelSet();
+        Channel channel1 = new EmbeddedChannel();
+        Channel channel2 = new EmbeddedChannel();
+        channels.addChannel(channel1);
+
+        Iterator<Channel> iterator = channels.iterator();
+        channels.addChannel(channel2);
+        channels.removeChannel(channel1);
+
+        assertSame(channel1, iterator.next());
+        assertFalse(iterator.hasNext());
+        assertSame(channel2, channels.iterator().next());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testCantBeChangedViaSetApi() {
+        new ChannelSet().add(new EmbeddedChannel());
+    }
+
+}
@@ -0,0 +1,174 @@
+package cc.blynk.server.core.model.auth;
+
+import cc.blynk.server.common.BaseSimpleChannelInboundHandler;
+import cc.blynk.server.core.model.DashBoard;
+import cc.blynk.server.core.model.device.Device;
+import cc.blynk.server.core.protocol.model.messages.StringMessage;
+import cc.blynk.server.core.session.HardwareStateHolder;
+import cc.blynk.server.core.session.StateHolderBase;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Before;
+import org.junit.Test;
+
+import static cc.blynk.server.core.protocol.enums.Command.HARDWARE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SessionTest {
+
+    private User user;
+    private Session session;
+
+    @Before
+    public void init() {
+        user = new User();
+        user.email = "test@blynk.cc";
+        //embedded loop is always "in event loop", so session changes are applied right away
+        session = new Session(new EmbeddedChannel().eventLoop());
+    }
+
+    private EmbeddedChannel hardwareChannel(int dashId, int deviceId) {
+        DashBoard dash = new DashBoard();
+        dash.id = dashId;
+        HardwareStateHolder state = new HardwareStateHolder(user, dash, new Device(deviceId, "device", null));
+        EmbeddedChannel channel = new EmbeddedChannel(new StateHandler(state));
+        session.addHardChannel(channel);
+        return channel;
+    }
+
+    private static void assertReceived(EmbeddedChannel channel, String body) {
+        StringMessage message = channel.readOutbound();
+        assertEquals(body, message.body);
+        assertNull(channel.readOutbound());
+    }
+
+    private static void assertNothingReceived(EmbeddedChannel... channels) {
+        for (EmbeddedChannel channel : channels) {
+            assertNull(channel.readOutbound());
+        }
+    }
+
+    @Test
+    public void testHardwareRoutedByDashAndDevice() {
+        EmbeddedChannel dash1Device0 = hardwareChannel(1, 0);
+        EmbeddedChannel dash1Device1 = hardwareChannel(1, 1);
+        EmbeddedChannel dash2Device0 = hardwareChannel(2, 0);
+
+        assertEquals(3, session.hardwareChannels.size());
+        assertTrue(session.isHardwareConnected(1, 0));
+        assertTrue(session.isHardwareConnected(1, 1));
+        assertTrue(session.isHardwareConnected(2, 0));
+        assertFalse(session.isHardwareConnected(2, 1));
+
+        assertFalse(session.sendMessageToHardware(1, HARDWARE, 1, "device", 0));
+        assertReceived(dash1Device0, "device");
+        assertNothingReceived(dash1Device1, dash2Device0);
+
+        assertFalse(session.sendMessageToHardware(1, HARDWARE, 2, "dash"));
+        assertReceived(dash1Device0, "dash");
+        assertReceived(dash1Device1, "dash");
+        assertNothingReceived(dash2Device0);
+
+        assertFalse(session.sendMessageToHardware(2, HARDWARE, 3, "devices", 0, 1));
+        assertReceived(dash2Device0, "devices");
+        assertNothingReceived(dash1Device0, dash1Device1);
+
+        assertTrue(session.sendMessageToHardware(3, HARDWARE, 4, "none", 0));
+        assertTrue(session.sendMessageToHardware(3, HARDWARE, 5, "none"));
+    }
+
+    @Test
+    public void testHardwareRemovedFromIndexesOnClose() {
+        EmbeddedChannel dash1Device0 = hardwareChannel(1, 0);
+        EmbeddedChannel dash1Device1 = hardwareChannel(1, 1);
+
+        dash1Device0.close();
+        assertEquals(1, session.hardwareChannels.size());
+        assertFalse(session.isHardwareConnected(1, 0));
+        assertTrue(session.isHardwareConnected(1, 1));
+        assertTrue(session.isHardwareConnected(1));
+        assertTrue(session.sendMessageToHardware(1, HARDWARE, 1, "device", 0));
+
+        dash1Device1.close();
+        assertFalse(session.isHardwareConnected(1));
+        assertFalse(session.isHardwareConnected());
+        assertTrue(session.sendMessageToHardware(1, HARDWARE, 2, "dash"));
+    }
+
+    @Test
+    public void testReLoginRoutesToNewChannel() {
+        EmbeddedChannel oldChannel = hardwareChannel(1, 0);
+        //device reconnects before the old connection is closed
+        EmbeddedChannel newChannel = hardwareChannel(1, 0);
+
+        assertFalse(session.sendMessageToHardware(1, HARDWARE, 1, "both", 0));
+        assertReceived(oldChannel, "both");
+        assertReceived(newChannel, "both");
+
+        oldChannel.close();
+        assertTrue(session.isHardwareConnected(1, 0));
+        assertFalse(session.sendMessageToHardware(1, HARDWARE, 2, "new"));
+        assertReceived(newChannel, "new");
+
+        newChannel.close();
+        assertFalse(session.isHardwareConnected(1, 0));
+        EmbeddedChannel reLogin = hardwareChannel(1, 0);
+        assertFalse(session.sendMessageToHardware(1, HARDWARE, 3, "relogin", 0));
+        assertReceived(reLogin, "relogin");
+    }
+
+    @Test
+    public void testMainAndSharedAppChannels() {
+        EmbeddedChannel mainApp = new EmbeddedChannel();
+        EmbeddedChannel sharedApp = new EmbeddedChannel();
+        session.addAppChannel(mainApp);
+        session.addAppChannel(sharedApp, 1);
+        assertEquals(2, session.appChannels.size());
+        assertTrue(session.isAppConnected());
+
+        session.sendToApps(HARDWARE, 1, 1, "dash1");
+        assertReceived(mainApp, "dash1");
+        assertReceived(sharedApp, "dash1");
+
+        session.sendToApps(HARDWARE, 2, 2, "dash2");
+        assertReceived(mainApp, "dash2");
+        assertNothingReceived(sharedApp);
+
+        mainApp.close();
+        assertEquals(1, session.appChannels.size());
+        session.sendToApps(HARDWARE, 3, 2, "dash2");
+        session.sendToApps(HARDWARE, 4, 1, "dash1");
+        assertReceived(sharedApp, "dash1");
+
+        sharedApp.close();
+        assertFalse(session.isAppConnected());
+        EmbeddedChannel sharedAppReLogin = new EmbeddedChannel();
+        session.addAppChannel(sharedAppReLogin, 1);
+        session.sendToApps(HARDWARE, 5, 1, "dash1");
+        assertReceived(sharedAppReLogin, "dash1");
+        assertNothingReceived(mainApp, sharedApp);
+    }
+
+    private static final class StateHandler extends BaseSimpleChannelInboundHandler<Object> {
+
+        private final HardwareStateHolder state;
+
+        private StateHandler(HardwareStateHolder state) {
+            super(Object.class);
+            this.state = state;
+        }
+
+        @Override
+        public void messageReceived(ChannelHandlerContext ctx, Object msg) {
+        }
+
+        @Override
+        public StateHolderBase getState() {
+            return state;
+        }
+    }
+
+}
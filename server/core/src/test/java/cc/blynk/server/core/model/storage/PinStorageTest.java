@@ -0,0 +1,90 @@
+package cc.blynk.server.core.model.storage;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.enums.WidgetProperty;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PinStorageTest {
+
+    @Test
+    public void testKeyRoundTrip() {
+        long key = PinStorage.key(-5, PinType.DIGITAL, (byte) 200);
+        assertEquals(-5, PinStorage.deviceId(key));
+        assertEquals(PinType.DIGITAL, PinStorage.pinType(key));
+        assertEquals((byte) 200, PinStorage.pin(key));
+        assertFalse(PinStorage.isProperty(key));
+        assertEquals(new PinStorageKey(-5, PinType.DIGITAL, (byte) 200), PinStorage.toStorageKey(key));
+
+        long propertyKey = PinStorage.key(7, PinType.VIRTUAL, (byte) 1, WidgetProperty.LABEL);
+        assertTrue(PinStorage.isProperty(propertyKey));
+        PinStorageKey storageKey = PinStorage.toStorageKey(propertyKey);
+        assertTrue(storageKey instanceof PinPropertyStorageKey);
+        assertEquals("7-v1-label", storageKey.toString());
+        assertEquals(propertyKey, PinStorage.key(storageKey));
+    }
+
+    @Test
+    public void testPutGet() {
+        PinStorage pinStorage = new PinStorage();
+        assertTrue(pinStorage.isEmpty());
+
+        SinglePinStorageValue value = new SinglePinStorageValue("1");
+        assertNull(pinStorage.putIfAbsent(PinStorage.key(1, PinType.VIRTUAL, (byte) 1), value));
+        assertSame(value, pinStorage.putIfAbsent(PinStorage.key(1, PinType.VIRTUAL, (byte) 1),
+                new SinglePinStorageValue("2")));
+        pinStorage.put(new PinStorageKey(0, PinType.DIGITAL, (byte) 3), new SinglePinStorageValue("3"));
+
+        assertEquals(2, pinStorage.size());
+        assertSame(value, pinStorage.get(1, PinType.VIRTUAL, (byte) 1));
+        assertNotNull(pinStorage.get(new PinStorageKey(0, PinType.DIGITAL, (byte) 3)));
+        assertNull(pinStorage.get(1, PinType.DIGITAL, (byte) 1));
+
+        //entries are sorted by device
+        PinStorage.Entries entries = pinStorage.entries();
+        assertEquals(0, PinStorage.deviceId(entries.keys[0]));
+        assertEquals(1, PinStorage.deviceId(entries.keys[1]));
+    }
+
+    @Test
+    public void testRemovePinWithProperties() {
+        PinStorage pinStorage = new PinStorage();
+        pinStorage.put(PinStorage.key(1, PinType.VIRTUAL, (byte) 1), new SinglePinStorageValue("1"));
+        pinStorage.put(PinStorage.key(1, PinType.VIRTUAL, (byte) 1, WidgetProperty.LABEL),
+                new SinglePinStorageValue("label"));
+        pinStorage.put(PinStorage.key(1, PinType.VIRTUAL, (byte) 2), new SinglePinStorageValue("2"));
+
+        pinStorage.remove(1, PinType.VIRTUAL, (byte) 1, false);
+        assertEquals(2, pinStorage.size());
+        assertNull(pinStorage.get(1, PinType.VIRTUAL, (byte) 1));
+
+        pinStorage.remove(1, PinType.VIRTUAL, (byte) 1, true);
+        assertEquals(1, pinStorage.size());
+        assertNotNull(pinStorage.get(1, PinType.VIRTUAL, (byte) 2));
+    }
+
+    @Test
+    public void testRemoveDevice() {
+        PinStorage pinStorage = new PinStorage();
+        for (int deviceId = -1; deviceId <= 1; deviceId++) {
+            pinStorage.put(PinStorage.key(deviceId, PinType.VIRTUAL, (byte) 255), new SinglePinStorageValue());
+            pinStorage.put(PinStorage.key(deviceId, PinType.DIGITAL, (byte) 0), new SinglePinStorageValue());
+        }
+
+        pinStorage.removeDevice(-1);
+        assertEquals(4, pinStorage.size());
+        pinStorage.removeDevice(0);
+        assertEquals(2, pinStorage.size());
+        assertNotNull(pinStorage.get(1, PinType.VIRTUAL, (byte) 255));
+
+        pinStorage.clear();
+        assertTrue(pinStorage.isEmpty());
+    }
+
+}
@@ -0,0 +1,82 @@
+package cc.blynk.server.core.model.widgets.others;
+
+import cc.blynk.server.core.model.DashBoard;
+import cc.blynk.server.core.model.DataStream;
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.widgets.Widget;
+import cc.blynk.server.core.model.widgets.others.eventor.CompiledEventor;
+import cc.blynk.server.core.model.widgets.others.eventor.Eventor;
+import cc.blynk.server.core.model.widgets.others.eventor.Rule;
+import cc.blynk.server.core.model.widgets.others.eventor.model.action.BaseAction;
+import cc.blynk.server.core.model.widgets.others.eventor.model.action.SetPinAction;
+import cc.blynk.server.core.model.widgets.others.eventor.model.condition.BaseCondition;
+import cc.blynk.server.core.model.widgets.others.eventor.model.condition.number.GreaterThan;
+import cc.blynk.server.core.model.widgets.others.eventor.model.condition.string.StringEqual;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CompiledEventorTest {
+
+    private static Rule rule(byte pin, PinType pinType, BaseCondition condition, boolean isActive) {
+        return new Rule(new DataStream(pin, pinType), null, condition,
+                new BaseAction[] {new SetPinAction((byte) 2, PinType.VIRTUAL, "1")}, isActive);
+    }
+
+    @Test
+    public void testRulesGroupedByTriggerPin() {
+        Rule v1Number = rule((byte) 1, PinType.VIRTUAL, new GreaterThan(10), true);
+        Rule v3String = rule((byte) 3, PinType.VIRTUAL, new StringEqual("on"), true);
+        Rule v1String = rule((byte) 1, PinType.VIRTUAL, new StringEqual("on"), true);
+        Rule v1Inactive = rule((byte) 1, PinType.VIRTUAL, new GreaterThan(10), false);
+        Rule d1Number = rule((byte) 1, PinType.DIGITAL, new GreaterThan(10), true);
+
+        CompiledEventor compiled = CompiledEventor.compile(new Widget[] {
+                new Eventor(new Rule[] {v1Number, v3String, v1String, v1Inactive, d1Number})
+        });
+
+        CompiledEventor.PinRules v1 = compiled.get((byte) 1, PinType.VIRTUAL);
+        assertArrayEquals(new Rule[] {v1Number, v1String}, v1.rules);
+        assertTrue(v1.hasNumericCondition);
+
+        CompiledEventor.PinRules v3 = compiled.get((byte) 3, PinType.VIRTUAL);
+        assertArrayEquals(new Rule[] {v3String}, v3.rules);
+        assertFalse(v3.hasNumericCondition);
+
+        assertArrayEquals(new Rule[] {d1Number}, compiled.get((byte) 1, PinType.DIGITAL).rules);
+        assertNull(compiled.get((byte) 2, PinType.VIRTUAL));
+        assertNull(compiled.get((byte) 1, PinType.ANALOG));
+    }
+
+    @Test
+    public void testNoEventor() {
+        CompiledEventor compiled = CompiledEventor.compile(new Widget[0]);
+        assertNull(compiled.eventor);
+        assertNull(compiled.get((byte) 1, PinType.VIRTUAL));
+    }
+
+    @Test
+    public void testRebuiltOnWidgetsReplace() {
+        DashBoard dash = new DashBoard();
+        dash.widgets = new Widget[] {
+                new Eventor(new Rule[] {rule((byte) 1, PinType.VIRTUAL, new GreaterThan(10), true)})
+        };
+
+        CompiledEventor compiled = dash.getCompiledEventor();
+        assertSame(compiled, dash.getCompiledEventor());
+
+        dash.widgets = new Widget[] {
+                new Eventor(new Rule[] {rule((byte) 5, PinType.VIRTUAL, new GreaterThan(10), true)})
+        };
+        CompiledEventor rebuilt = dash.getCompiledEventor();
+        assertNotSame(compiled, rebuilt);
+        assertNull(rebuilt.get((byte) 1, PinType.VIRTUAL));
+        assertTrue(rebuilt.get((byte) 5, PinType.VIRTUAL) != null);
+    }
+
+}
@@ -0,0 +1,123 @@
+package cc.blynk.server.core.model.widgets.others;
+
+import cc.blynk.server.core.model.widgets.others.webhook.WebHookTemplate;
+import cc.blynk.utils.StringUtils;
+import org.junit.Test;
+
+import java.util.regex.Matcher;
+
+import static cc.blynk.utils.StringUtils.GENERIC_PLACEHOLDER;
+import static cc.blynk.utils.StringUtils.PIN_PATTERN;
+import static cc.blynk.utils.StringUtils.PIN_PATTERN_0;
+import static cc.blynk.utils.StringUtils.PIN_PATTERN_1;
+import static cc.blynk.utils.StringUtils.PIN_PATTERN_2;
+import static cc.blynk.utils.StringUtils.PIN_PATTERN_3;
+import static cc.blynk.utils.StringUtils.PIN_PATTERN_4;
+import static cc.blynk.utils.StringUtils.PIN_PATTERN_5;
+import static cc.blynk.utils.StringUtils.PIN_PATTERN_6;
+import static cc.blynk.utils.StringUtils.PIN_PATTERN_7;
+import static cc.blynk.utils.StringUtils.PIN_PATTERN_8;
+import static cc.blynk.utils.StringUtils.PIN_PATTERN_9;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class WebHookTemplateTest {
+
+    private static final String[] TEMPLATES = {
+            "http://example.com",
+            "http://example.com/pin/",
+            "http://example.com/pin//pin/",
+            "http://example.com?value=%s&other=%s",
+            "http://example.com?v0=/pin[0]/&v1=/pin[1]/&v2=/pin[2]/",
+            "http://example.com?v9=/pin[9]/&v0=/pin[0]/&v=/pin/",
+            "{\"value\":\"/pin/\",\"a\":/pin[0]/,\"b\":/pin[1]/,\"c\":\"%s\"}",
+            "/pin[1]//pin[0]//pin[1]/",
+            "%s/pin/%s",
+            "",
+    };
+
+    private static final String[] VALUES = {
+            "",
+            "10",
+            "1.5",
+            "a b$c\\d",
+            "1\0" + "2",
+            "1\0" + "2\0" + "3",
+            "\0" + "2",
+            "1\0\0",
+            "\0",
+            "0\0" + "1\0" + "2\0" + "3\0" + "4\0" + "5\0" + "6\0" + "7\0" + "8\0" + "9",
+            "0\0" + "1\0" + "2\0" + "3\0" + "4\0" + "5\0" + "6\0" + "7\0" + "8\0" + "9\0" + "10",
+    };
+
+    //previous regex based implementation
+    private static String format(String data, String triggerValue) {
+        String quotedValue = Matcher.quoteReplacement(triggerValue);
+        data = PIN_PATTERN.matcher(data).replaceFirst(quotedValue);
+
+        String[] splitted = quotedValue.split(StringUtils.BODY_SEPARATOR_STRING);
+        switch (splitted.length) {
+            case 10 :
+                data = PIN_PATTERN_9.matcher(data).replaceFirst(splitted[9]);
+            case 9 :
+                data = PIN_PATTERN_8.matcher(data).replaceFirst(splitted[8]);
+            case 8 :
+                data = PIN_PATTERN_7.matcher(data).replaceFirst(splitted[7]);
+            case 7 :
+                data = PIN_PATTERN_6.matcher(data).replaceFirst(splitted[6]);
+            case 6 :
+                data = PIN_PATTERN_5.matcher(data).replaceFirst(splitted[5]);
+            case 5 :
+                data = PIN_PATTERN_4.matcher(data).replaceFirst(splitted[4]);
+            case 4 :
+                data = PIN_PATTERN_3.matcher(data).replaceFirst(splitted[3]);
+            case 3 :
+                data = PIN_PATTERN_2.matcher(data).replaceFirst(splitted[2]);
+            case 2 :
+                data = PIN_PATTERN_1.matcher(data).replaceFirst(splitted[1]);
+            case 1 :
+                data = PIN_PATTERN_0.matcher(data).replaceFirst(splitted[0]);
+            default :
+                data = GENERIC_PLACEHOLDER.matcher(data).replaceFirst(quotedValue);
+        }
+        return data;
+    }
+
+    @Test
+    public void testSameAsRegexFormat() {
+        for (String source : TEMPLATES) {
+            WebHookTemplate template = WebHookTemplate.compile(source);
+            for (String value : VALUES) {
+                String expected = format(source, value);
+                String actual = template.render(value, WebHookTemplate.splitValue(value));
+                assertEquals("Template : " + source + ", value : " + value.replace('\0', ' '), expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void testSplitValue() {
+        assertArrayEquals(new String[] {""}, WebHookTemplate.splitValue(""));
+        assertArrayEquals(new String[] {"1", "2"}, WebHookTemplate.splitValue("1\0" + "2"));
+        assertArrayEquals(new String[] {"", "2"}, WebHookTemplate.splitValue("\0" + "2"));
+        assertArrayEquals(new String[] {"1"}, WebHookTemplate.splitValue("1\0\0"));
+        assertNull(WebHookTemplate.splitValue("\0"));
+    }
+
+    @Test
+    public void testLiteralTemplate() {
+        WebHookTemplate template = WebHookTemplate.compile("http://example.com");
+        assertTrue(template.isLiteral());
+        assertSame(template.source, template.render("1", null));
+    }
+
+    @Test
+    public void testDateTime() {
+        String rendered = WebHookTemplate.compile("t=/datetime_iso/&v=/pin/").render("1", null);
+        assertTrue(rendered, rendered.matches("t=\\d{4}-\\d{2}-\\d{2}T.*Z&v=1"));
+    }
+
+}
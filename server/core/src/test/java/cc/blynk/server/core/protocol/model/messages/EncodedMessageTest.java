@@ -0,0 +1,52 @@
+package cc.blynk.server.core.protocol.model.messages;
+
+import cc.blynk.server.core.protocol.handlers.encoders.AppMessageEncoder;
+import cc.blynk.server.core.protocol.handlers.encoders.MessageEncoder;
+import cc.blynk.server.core.protocol.handlers.encoders.WebAppMessageEncoder;
+import cc.blynk.server.core.stats.GlobalStats;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufHolder;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import static cc.blynk.server.core.protocol.enums.Command.HARDWARE;
+import static org.junit.Assert.assertEquals;
+
+public class EncodedMessageTest {
+
+    @Test
+    public void testEncodedMessageIsTheSameAsEncoderOutput() {
+        StringMessage msg = new StringMessage(123, HARDWARE, "vw\u00001\u0000тест");
+        assertSameOutput(new MessageEncoder(new GlobalStats()), EncodedMessage.Format.HARDWARE, msg);
+        assertSameOutput(new AppMessageEncoder(new GlobalStats()), EncodedMessage.Format.APP, msg);
+        assertSameOutput(new WebAppMessageEncoder(), EncodedMessage.Format.WEB_APP, msg);
+    }
+
+    private static void assertSameOutput(ChannelHandler encoder, EncodedMessage.Format format, StringMessage msg) {
+        EmbeddedChannel channel = new EmbeddedChannel(encoder);
+        channel.writeOutbound(msg);
+        ByteBuf expected = content(channel.readOutbound());
+
+        ByteBuf encoded = format.encode(ByteBufAllocator.DEFAULT, msg);
+        channel.writeOutbound(new EncodedMessage(msg.command, encoded.retainedDuplicate()));
+        channel.writeOutbound(new EncodedMessage(msg.command, encoded.retainedDuplicate()));
+        encoded.release();
+
+        ByteBuf first = content(channel.readOutbound());
+        ByteBuf second = content(channel.readOutbound());
+        assertEquals(expected, first);
+        assertEquals(expected, second);
+
+        expected.release();
+        first.release();
+        second.release();
+        assertEquals(0, encoded.refCnt());
+    }
+
+    private static ByteBuf content(Object msg) {
+        return msg instanceof ByteBufHolder ? ((ByteBufHolder) msg).content() : (ByteBuf) msg;
+    }
+
+}
@@ -0,0 +1,55 @@
+package cc.blynk.server.core.protocol.model.messages.hardware;
+
+import cc.blynk.utils.NumberUtil;
+import cc.blynk.utils.StringUtils;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RawHardwareMessageTest {
+
+    private static RawHardwareMessage message(String body) {
+        return new RawHardwareMessage(1, body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testSameAsStringParsing() {
+        String[] bodies = {"vw\u00001\u000022.5", "dw\u0000127\u00001", "aw\u0000-128\u00000",
+                "vw\u000010\u0000a\u0000b", "vw\u000010\u0000тест", "vw\u0000+3\u00001e2"};
+        for (String body : bodies) {
+            String[] split = StringUtils.split3(body);
+            RawHardwareMessage message = message(body);
+            assertTrue(message.isWriteOperation());
+            assertTrue(message.hasPinAndValue());
+            assertEquals(split[0].charAt(0), message.pinTypeChar());
+            assertEquals(Byte.parseByte(split[1]), message.pin());
+            assertEquals(split[2], message.value());
+            assertEquals(NumberUtil.parseDouble(split[2]), message.doubleValue(), 0);
+            assertEquals(body, message.body());
+        }
+    }
+
+    @Test
+    public void testWrongBodies() {
+        assertFalse(message("vr\u00001").isWriteOperation());
+        assertFalse(message("vw\u00001").hasPinAndValue());
+        assertFalse(message("vw\u00001\u0000").hasPinAndValue());
+
+        String[] wrongPins = {"vw\u0000\u00001", "vw\u0000128\u00001", "vw\u0000-129\u00001",
+                "vw\u00001a\u00001", "vw\u0000-\u00001"};
+        for (String body : wrongPins) {
+            try {
+                message(body).pin();
+                fail(body);
+            } catch (NumberFormatException e) {
+                //expected, same as Byte.parseByte()
+            }
+        }
+    }
+
+}
@@ -13,10 +13,14 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
+import java.util.Map;
 
 import static cc.blynk.server.core.reporting.average.AverageAggregatorProcessor.DAY;
 import static cc.blynk.server.core.reporting.average.AverageAggregatorProcessor.HOUR;
+import static cc.blynk.server.core.reporting.average.AverageAggregatorProcessor.MINUTE;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -98,6 +102,129 @@ public class AverageAggregatorTest {
         assertEquals(expectedDailyAverage, averageAggregator.getDaily().get(new AggregationKey(user.email, user.appName, dashId, 0, pinType, pin, getMillis(2015, 8, 1, 0, 0) / DAY)).calcAverage(), 0);
     }
 
+    @Test
+    public void testDrainRemovesOnlyRequestedKeys() {
+        AverageAggregatorProcessor averageAggregator = new AverageAggregatorProcessor("");
+
+        long ts = getMillis(2015, 8, 1, 0, 0);
+        int series = 1000;
+        for (int minute = 0; minute < 3; minute++) {
+            for (int i = 0; i < series; i++) {
+                BaseReportingKey key = new BaseReportingKey("test" + i + "@test.com", AppNameUtil.BLYNK,
+                        1, 0, PinType.VIRTUAL, (byte) 1);
+                averageAggregator.collect(key, ts + minute * MINUTE, i);
+                averageAggregator.collect(key, ts + minute * MINUTE, i + 2);
+            }
+        }
+
+        Map<AggregationKey, AggregationValue> minuteMap = averageAggregator.getMinute();
+        assertEquals(3 * series, minuteMap.size());
+
+        for (AggregationKey key : minuteMap.keySet()) {
+            if (key.ts == ts / MINUTE) {
+                assertEquals(key.getEmail(), minuteMap.get(key).calcAverage(),
+                        Integer.parseInt(key.getEmail().substring(4, key.getEmail().indexOf('@'))) + 1, 0);
+                assertNotNull(minuteMap.remove(key));
+            }
+        }
+
+        assertEquals(2 * series, minuteMap.size());
+        for (int i = 0; i < series; i++) {
+            AggregationKey removed = new AggregationKey("test" + i + "@test.com", AppNameUtil.BLYNK,
+                    1, 0, PinType.VIRTUAL, (byte) 1, ts / MINUTE);
+            AggregationKey left = new AggregationKey("test" + i + "@test.com", AppNameUtil.BLYNK,
+                    1, 0, PinType.VIRTUAL, (byte) 1, ts / MINUTE + 2);
+            assertNull(minuteMap.get(removed));
+            assertEquals(i + 1, minuteMap.get(left).calcAverage(), 0);
+        }
+        assertEquals(series, averageAggregator.getHourly().size());
+        assertEquals(series, averageAggregator.getDaily().size());
+    }
+
+    @Test
+    public void testIdleSeriesReleased() {
+        AverageAggregatorProcessor averageAggregator = new AverageAggregatorProcessor("");
+        long ts = getMillis(2015, 8, 1, 0, 0);
+        BaseReportingKey idle =
+                new BaseReportingKey("test@test.com", AppNameUtil.BLYNK, 1, 0, PinType.VIRTUAL, (byte) 1);
+        BaseReportingKey active =
+                new BaseReportingKey("test@test.com", AppNameUtil.BLYNK, 1, 0, PinType.VIRTUAL, (byte) 2);
+        averageAggregator.collect(idle, ts, 1);
+        averageAggregator.collect(active, ts, 2);
+
+        //flushed
+        averageAggregator.getMinute().remove(new AggregationKey(idle, ts / MINUTE));
+        averageAggregator.getHourly().remove(new AggregationKey(idle, ts / HOUR));
+        averageAggregator.getDaily().remove(new AggregationKey(idle, ts / DAY));
+        averageAggregator.releaseIdleSeries();
+
+        //new series may get id of the released one
+        BaseReportingKey newSeries =
+                new BaseReportingKey("test@test.com", AppNameUtil.BLYNK, 1, 0, PinType.VIRTUAL, (byte) 3);
+        averageAggregator.collect(newSeries, ts, 3);
+        averageAggregator.collect(idle, ts + MINUTE, 4);
+
+        Map<AggregationKey, AggregationValue> minuteMap = averageAggregator.getMinute();
+        assertEquals(3, minuteMap.size());
+        assertNull(minuteMap.get(new AggregationKey(idle, ts / MINUTE)));
+        assertEquals(2, minuteMap.get(new AggregationKey(active, ts / MINUTE)).calcAverage(), 0);
+        assertEquals(3, minuteMap.get(new AggregationKey(newSeries, ts / MINUTE)).calcAverage(), 0);
+        assertEquals(4, minuteMap.get(new AggregationKey(idle, ts / MINUTE + 1)).calcAverage(), 0);
+    }
+
+    @Test
+    public void testCheckpointKeepsAllMinuteAggregates() throws IOException {
+        Path dir = Paths.get(reportingFolder, "checkpoint");
+        Files.createDirectories(dir);
+
+        AverageAggregatorProcessor averageAggregator = new AverageAggregatorProcessor(dir.toString());
+        long ts = getMillis(2015, 8, 1, 0, 0);
+        for (int i = 0; i < 150_000; i++) {
+            BaseReportingKey key = new BaseReportingKey("test" + (i % 1000) + "@test.com", AppNameUtil.BLYNK,
+                    1, 0, PinType.VIRTUAL, (byte) 1);
+            averageAggregator.collect(key, ts + (i / 1000) * MINUTE, i);
+        }
+        assertEquals(150_000, averageAggregator.getMinute().size());
+
+        averageAggregator.checkpoint();
+        assertTrue(Files.exists(Paths.get(dir.toString(), AverageAggregatorProcessor.SNAPSHOT_FILENAME)));
+
+        AverageAggregatorProcessor restored = new AverageAggregatorProcessor(dir.toString());
+        assertEquals(150_000, restored.getMinute().size());
+        assertEquals(averageAggregator.getHourly().size(), restored.getHourly().size());
+        assertEquals(1000, restored.getDaily().size());
+        AggregationKey key = new AggregationKey("test5@test.com", AppNameUtil.BLYNK,
+                1, 0, PinType.VIRTUAL, (byte) 1, ts / MINUTE + 7);
+        assertEquals(7005, restored.getMinute().get(key).calcAverage(), 0);
+        assertTrue(Files.notExists(Paths.get(dir.toString(), AverageAggregatorProcessor.SNAPSHOT_FILENAME)));
+    }
+
+    @Test
+    public void testFlushedAggregatesAreNotRestoredFromCheckpoint() throws IOException {
+        Path dir = Paths.get(reportingFolder, "flushed");
+        Files.createDirectories(dir);
+
+        AverageAggregatorProcessor averageAggregator = new AverageAggregatorProcessor(dir.toString());
+        BaseReportingKey key = new BaseReportingKey("test@test.com", AppNameUtil.BLYNK,
+                1, 0, PinType.VIRTUAL, (byte) 1);
+        long ts = getMillis(2015, 8, 1, 0, 0);
+        averageAggregator.collect(key, ts, 1);
+        averageAggregator.collect(key, ts + MINUTE, 2);
+        averageAggregator.checkpoint();
+
+        //first minute is flushed after the checkpoint, then server crashes
+        averageAggregator.flushed(ts + MINUTE);
+        assertTrue(Files.exists(Paths.get(dir.toString(), AverageAggregatorProcessor.FLUSHED_FILENAME)));
+
+        AverageAggregatorProcessor restored = new AverageAggregatorProcessor(dir.toString());
+        assertEquals(1, restored.getMinute().size());
+        assertNull(restored.getMinute().get(new AggregationKey(key, ts / MINUTE)));
+        assertEquals(2, restored.getMinute().get(new AggregationKey(key, ts / MINUTE + 1)).calcAverage(), 0);
+        assertEquals(1, restored.getHourly().size());
+        assertEquals(1, restored.getDaily().size());
+        assertTrue(Files.notExists(Paths.get(dir.toString(), AverageAggregatorProcessor.FLUSHED_FILENAME)));
+    }
+
     @Test
     public void testTempFilesCreated() throws IOException {
         Path dir = Paths.get(reportingFolder, "");
@@ -142,8 +269,7 @@ public class AverageAggregatorTest {
 
         averageAggregator.close();
 
-        assertTrue(Files.exists(Paths.get(reportingFolder, AverageAggregatorProcessor.HOURLY_TEMP_FILENAME)));
-        assertTrue(Files.exists(Paths.get(reportingFolder, AverageAggregatorProcessor.DAILY_TEMP_FILENAME)));
+        assertTrue(Files.exists(Paths.get(reportingFolder, AverageAggregatorProcessor.SNAPSHOT_FILENAME)));
 
         averageAggregator = new AverageAggregatorProcessor(reportingFolder);
 
@@ -151,14 +277,12 @@ public class AverageAggregatorTest {
         assertEquals(1, averageAggregator.getDaily().size());
         assertEquals(expectedDailyAverage, averageAggregator.getDaily().get(new AggregationKey(new BaseReportingKey(user.email, user.appName, dashId, 0, pinType, pin), getMillis(2015, 8, 1, 0, 0) / DAY)).calcAverage(), 0);
 
-        assertTrue(Files.notExists(Paths.get(reportingFolder, AverageAggregatorProcessor.HOURLY_TEMP_FILENAME)));
-        assertTrue(Files.notExists(Paths.get(reportingFolder, AverageAggregatorProcessor.DAILY_TEMP_FILENAME)));
+        assertTrue(Files.notExists(Paths.get(reportingFolder, AverageAggregatorProcessor.SNAPSHOT_FILENAME)));
 
         ReportingDiskDao reportingDao = new ReportingDiskDao(reportingFolder, true);
 
         reportingDao.delete(user, dashId, 0, PinType.VIRTUAL, pin);
-        assertTrue(Files.notExists(Paths.get(reportingFolder, AverageAggregatorProcessor.HOURLY_TEMP_FILENAME)));
-        assertTrue(Files.notExists(Paths.get(reportingFolder, AverageAggregatorProcessor.DAILY_TEMP_FILENAME)));
+        assertTrue(Files.notExists(Paths.get(reportingFolder, AverageAggregatorProcessor.SNAPSHOT_FILENAME)));
     }
 
 }
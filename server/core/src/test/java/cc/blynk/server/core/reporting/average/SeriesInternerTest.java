@@ -0,0 +1,145 @@
+package cc.blynk.server.core.reporting.average;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.reporting.average.SeriesInterner.CollectSlot;
+import cc.blynk.server.core.reporting.raw.BaseReportingKey;
+import org.junit.Test;
+
+import java.util.BitSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SeriesInternerTest {
+
+    private static BaseReportingKey key(byte pin) {
+        return new BaseReportingKey("test@test.com", "Blynk", 1, 0, PinType.VIRTUAL, pin);
+    }
+
+    private static BitSet live(int... ids) {
+        BitSet result = new BitSet();
+        for (int id : ids) {
+            result.set(id);
+        }
+        return result;
+    }
+
+    private static BitSet live(AggregationTable table) {
+        BitSet result = new BitSet();
+        table.markSeries(result);
+        return result;
+    }
+
+    @Test
+    public void testIdReusedOnlyAfterFree() {
+        SeriesInterner interner = new SeriesInterner();
+        BaseReportingKey idle = key((byte) 1);
+        BaseReportingKey active = key((byte) 2);
+        assertEquals(0, interner.intern(idle));
+        assertEquals(1, interner.intern(active));
+
+        assertEquals(1, interner.unlink(live(1)));
+        assertEquals(-1, interner.find(idle));
+        assertEquals(1, interner.find(active));
+        assertEquals(1, interner.size());
+        assertSame(idle, interner.get(0));
+
+        //unlinked series gets new id
+        assertEquals(2, interner.intern(idle));
+        interner.awaitCollects();
+        assertEquals(1, interner.free(live(1, 2)));
+        assertNull(interner.get(0));
+
+        BaseReportingKey newSeries = key((byte) 3);
+        assertEquals(0, interner.intern(newSeries));
+        assertSame(newSeries, interner.get(0));
+        assertEquals(3, interner.size());
+    }
+
+    @Test
+    public void testUnlinkedIdWithLateAggregatesIsNotFreed() {
+        SeriesInterner interner = new SeriesInterner();
+        BaseReportingKey series = key((byte) 1);
+        assertEquals(0, interner.intern(series));
+
+        assertEquals(1, interner.unlink(live()));
+        interner.awaitCollects();
+        //aggregate was added with the old id right before unlink
+        assertEquals(0, interner.free(live(0)));
+        assertSame(series, interner.get(0));
+        assertEquals(1, interner.intern(key((byte) 2)));
+
+        assertEquals(0, interner.unlink(live(1)));
+        assertEquals(1, interner.free(live(1)));
+        assertNull(interner.get(0));
+        assertEquals(0, interner.intern(key((byte) 3)));
+    }
+
+    @Test
+    public void testReleaseDuringCollectKeepsValuesOfUnlinkedId() throws Exception {
+        SeriesInterner interner = new SeriesInterner();
+        AggregationTable table = new AggregationTable(interner);
+        BaseReportingKey series = key((byte) 1);
+        CountDownLatch interned = new CountDownLatch(1);
+        CountDownLatch unlinked = new CountDownLatch(1);
+
+        Thread collector = new Thread(() -> {
+            CollectSlot collectSlot = interner.enterCollect();
+            try {
+                int seriesId = interner.intern(series);
+                interned.countDown();
+                unlinked.await();
+                table.aggregate(seriesId, 1, 10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                SeriesInterner.exitCollect(collectSlot);
+            }
+        });
+        collector.start();
+        assertTrue(interned.await(5, TimeUnit.SECONDS));
+
+        //series has no aggregates yet, while collector already holds its id
+        assertEquals(1, interner.unlink(live(table)));
+        Thread releaser = new Thread(interner::awaitCollects);
+        releaser.start();
+        releaser.join(200);
+        assertTrue(releaser.isAlive());
+
+        unlinked.countDown();
+        releaser.join(5000);
+        assertFalse(releaser.isAlive());
+        assertEquals(0, interner.free(live(table)));
+
+        //new values of the series go to the new id
+        int newId = interner.intern(series);
+        assertEquals(1, newId);
+        table.aggregate(newId, 1, 20);
+        table.aggregate(newId, 2, 30);
+
+        //drain finds value of the unlinked id by the key it was read with
+        int drained = 0;
+        double sum = 0;
+        for (AggregationKey key : table.keySet()) {
+            AggregationValue value = table.remove(key);
+            if (key.ts == 1) {
+                sum += value.calcAverage();
+            }
+            drained++;
+        }
+        assertEquals(3, drained);
+        assertEquals(30, sum, 0);
+        assertEquals(0, table.size());
+
+        assertEquals(1, interner.free(live(table)));
+        assertNull(interner.get(0));
+        assertNull(table.get(new AggregationKey(series, 1)));
+        assertTrue(table.entrySet().isEmpty());
+    }
+
+}
@@ -0,0 +1,196 @@
+package cc.blynk.server.core.reporting.raw;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.utils.AppNameUtil;
+import cc.blynk.utils.NumberUtil;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.BitSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RawDataProcessorTest {
+
+    private final Path journalFolder = Paths.get(System.getProperty("java.io.tmpdir"), "raw_data");
+    private final BaseReportingKey key =
+            new BaseReportingKey("test@test.com", AppNameUtil.BLYNK, 1, 2, PinType.VIRTUAL, (byte) 3);
+
+    @Before
+    public void cleanup() throws Exception {
+        org.apache.commons.io.FileUtils.deleteDirectory(journalFolder.toFile());
+        Files.createDirectories(journalFolder);
+    }
+
+    //50 bytes per record
+    @Test
+    public void testOverflowSpilledInBackgroundAndDrainedInBatches() throws Exception {
+        //16k segment, 48k for full segments, spill above 24k
+        RawDataProcessor rawDataProcessor = new RawDataProcessor(true, journalFolder.toString(), 64 * 1024, 1);
+        for (int i = 0; i < 699; i++) {
+            rawDataProcessor.collect(key, i, "" + i, i);
+        }
+        rawDataProcessor.collect(key, 699, "Lamp is ON", NumberUtil.NO_RESULT);
+
+        //2 full segments of 327 records, oldest one is spilled
+        long deadline = System.currentTimeMillis() + 5000;
+        while (rawDataProcessor.getSpilledRecords() < 327 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(327, rawDataProcessor.getSpilledRecords());
+        assertEquals(373, rawDataProcessor.getQueueSize());
+        assertEquals(16350, rawDataProcessor.getQueueBytes());
+        assertTrue(rawDataProcessor.getJournalBytes() > 0);
+
+        RawDataBatch batch = new RawDataBatch(100);
+        BitSet drained = new BitSet();
+        int total = 0;
+        while (rawDataProcessor.drain(batch) > 0) {
+            for (int i = 0; i < batch.size; i++) {
+                drained.set((int) batch.ts[i]);
+            }
+            total += batch.size;
+            batch.clear();
+        }
+
+        assertEquals(700, total);
+        assertEquals(700, drained.cardinality());
+        assertEquals(0, rawDataProcessor.getQueueSize());
+        assertEquals(0, rawDataProcessor.getDroppedRecords());
+        assertEquals(0, rawDataProcessor.getJournalBytes());
+        assertFalse(rawDataProcessor.hasData());
+    }
+
+    @Test
+    public void testStringValueKeptInJournal() {
+        RawDataProcessor rawDataProcessor = new RawDataProcessor(true, journalFolder.toString(), 1024);
+        rawDataProcessor.collect(key, 1, "1.5", 1.5D);
+        rawDataProcessor.collect(key, 2, "Lamp is ON", NumberUtil.NO_RESULT);
+        rawDataProcessor.close();
+
+        rawDataProcessor = new RawDataProcessor(true, journalFolder.toString(), 1024);
+        RawDataBatch batch = new RawDataBatch(10);
+        assertEquals(2, rawDataProcessor.drain(batch));
+        assertNull(batch.stringValues[0]);
+        assertEquals(1.5D, batch.doubleValues[0], 0);
+        assertEquals("Lamp is ON", batch.stringValues[1]);
+        assertEquals(key, batch.keys[1]);
+    }
+
+    @Test
+    public void testFailedBatchAndQueueSurviveRestart() {
+        RawDataProcessor rawDataProcessor = new RawDataProcessor(true, journalFolder.toString(), 1024);
+        for (int i = 0; i < 20; i++) {
+            rawDataProcessor.collect(key, i, "" + i, i);
+        }
+
+        RawDataBatch batch = new RawDataBatch(5);
+        assertEquals(5, rawDataProcessor.drain(batch));
+        //DB insert failed
+        rawDataProcessor.spill(batch);
+        rawDataProcessor.close();
+
+        rawDataProcessor = new RawDataProcessor(true, journalFolder.toString(), 1024);
+        assertTrue(rawDataProcessor.hasData());
+        batch = new RawDataBatch(100);
+        assertEquals(20, rawDataProcessor.drain(batch));
+    }
+
+    @Test
+    public void testDroppedWithoutJournal() {
+        //1k segment of 20 records, 3k for full segments
+        RawDataProcessor rawDataProcessor = new RawDataProcessor(true, null, 4096, 1);
+        for (int i = 0; i < 100; i++) {
+            rawDataProcessor.collect(key, i, "" + i, i);
+        }
+        assertEquals(80, rawDataProcessor.getQueueSize());
+        assertEquals(3000, rawDataProcessor.getQueueBytes());
+        assertEquals(20, rawDataProcessor.getDroppedRecords());
+
+        RawDataBatch batch = new RawDataBatch(100);
+        assertEquals(80, rawDataProcessor.drain(batch));
+        assertEquals(59, batch.ts[59]);
+        assertEquals(80, batch.ts[60]);
+    }
+
+    @Test
+    public void testConcurrentCollectsGoToStripes() throws Exception {
+        RawDataProcessor rawDataProcessor = new RawDataProcessor(true, journalFolder.toString(), 1024 * 1024, 4);
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            int offset = t * 1000;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    rawDataProcessor.collect(key, offset + i, "" + i, i);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(8000, rawDataProcessor.getQueueSize());
+
+        RawDataBatch batch = new RawDataBatch(RawDataProcessor.BATCH_SIZE);
+        BitSet drained = new BitSet();
+        while (rawDataProcessor.drain(batch) > 0) {
+            for (int i = 0; i < batch.size; i++) {
+                drained.set((int) batch.ts[i]);
+            }
+            batch.clear();
+        }
+        assertEquals(8000, drained.cardinality());
+        assertEquals(0, rawDataProcessor.getDroppedRecords());
+        assertFalse(rawDataProcessor.hasData());
+    }
+
+    @Test
+    public void testDuplicatesRemovedLastValueWins() {
+        BaseReportingKey otherPin =
+                new BaseReportingKey("test@test.com", AppNameUtil.BLYNK, 1, 2, PinType.VIRTUAL, (byte) 4);
+        RawDataProcessor rawDataProcessor = new RawDataProcessor(true, journalFolder.toString(), 1024);
+        rawDataProcessor.collect(key, 1, "1", 1);
+        rawDataProcessor.collect(otherPin, 1, "10", 10);
+        rawDataProcessor.collect(key, 1, "2", 2);
+        rawDataProcessor.collect(key, 2, "3", 3);
+        rawDataProcessor.collect(key, 1, "4", 4);
+
+        RawDataBatch batch = new RawDataBatch(10);
+        assertEquals(5, rawDataProcessor.drain(batch));
+        assertEquals(2, batch.removeDuplicates());
+        assertEquals(3, batch.size);
+
+        assertEquals(otherPin, batch.keys[0]);
+        assertEquals(10, batch.doubleValues[0], 0);
+        assertEquals(2, batch.ts[1]);
+        assertEquals(3, batch.doubleValues[1], 0);
+        assertEquals(1, batch.ts[2]);
+        assertEquals(4, batch.doubleValues[2], 0);
+        assertNull(batch.keys[3]);
+        assertEquals(0, batch.removeDuplicates());
+    }
+
+    @Test
+    public void testQuarantinedBatchIsNotDrained() {
+        RawDataProcessor rawDataProcessor = new RawDataProcessor(true, journalFolder.toString(), 1024);
+        for (int i = 0; i < 3; i++) {
+            rawDataProcessor.collect(key, i, "" + i, i);
+        }
+        RawDataBatch batch = new RawDataBatch(10);
+        assertEquals(3, rawDataProcessor.drain(batch));
+        rawDataProcessor.quarantine(batch);
+        batch.clear();
+
+        assertEquals(3, rawDataProcessor.getQuarantinedRecords());
+        assertTrue(Files.exists(journalFolder.resolve(RawDataProcessor.QUARANTINE_FILENAME)));
+        assertEquals(0, rawDataProcessor.drain(batch));
+        assertFalse(rawDataProcessor.hasData());
+    }
+
+}
@@ -0,0 +1,121 @@
+package cc.blynk.server.core.reporting.rollup;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphPeriod;
+import cc.blynk.server.core.reporting.storage.FileReportingStorage;
+import cc.blynk.server.core.reporting.storage.ReportingStorage;
+import cc.blynk.server.core.reporting.storage.SeriesKey;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+
+import static cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType.FIFTEEN_MINUTES;
+import static cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType.FIVE_MINUTES;
+import static cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType.MINUTE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class RollupEngineTest {
+
+    private static final long MINUTE_MS = 60_000L;
+
+    private final String reportingFolder = Paths.get(System.getProperty("java.io.tmpdir"), "rollup_data").toString();
+    private final String userDir = "test@test.com";
+    private final SeriesKey key = new SeriesKey(1, 0, PinType.VIRTUAL, (byte) 1);
+
+    @Before
+    public void cleanup() throws Exception {
+        org.apache.commons.io.FileUtils.deleteDirectory(Paths.get(reportingFolder).toFile());
+    }
+
+    @Test
+    public void testRollupIsIncrementalAndChained() throws Exception {
+        ReportingStorage storage = new FileReportingStorage(reportingFolder);
+        RollupEngine rollupEngine = new RollupEngine(storage, reportingFolder);
+        for (int i = 0; i < 35; i++) {
+            storage.write(userDir, 1, 0, PinType.VIRTUAL, (byte) 1, MINUTE, i, i * MINUTE_MS);
+        }
+
+        //6 complete 5 minute points + 1 15 minute point, every tier waits for its source
+        //period + flush margin, so the last 5 minutes and the second 15 minutes are not rolled up yet
+        assertEquals(7, rollupEngine.rollup(userDir, 35 * MINUTE_MS));
+        assertEquals(1, rollupEngine.rollup(userDir, 36 * MINUTE_MS));
+        assertEquals(0, rollupEngine.rollup(userDir, 36 * MINUTE_MS));
+
+        ByteBuffer fiveMinutes = read(storage, FIVE_MINUTES, 100);
+        assertEquals(6 * 16, fiveMinutes.remaining());
+        for (int i = 0; i < 6; i++) {
+            assertEquals(i * 5 + 2, fiveMinutes.getDouble(), 0);
+            assertEquals(i * 5 * MINUTE_MS, fiveMinutes.getLong());
+        }
+
+        ByteBuffer stats = rollupEngine.stats.readRange(userDir, key, FIFTEEN_MINUTES, 0, Long.MAX_VALUE);
+        assertNotNull(stats);
+        assertEquals(2 * RollupStats.SIZE_OF_STATS_ENTRY, stats.remaining());
+        assertEquals(0, stats.getDouble(), 0);
+        assertEquals(14, stats.getDouble(), 0);
+        assertEquals(15, stats.getLong());
+        assertEquals(15, stats.getLong(16 + RollupStats.SIZE_OF_STATS_ENTRY));
+
+        storage.write(userDir, 1, 0, PinType.VIRTUAL, (byte) 1, MINUTE, 100, 35 * MINUTE_MS);
+        assertEquals(1, rollupEngine.rollup(userDir, 41 * MINUTE_MS));
+
+        ByteBuffer last = read(storage, FIVE_MINUTES, 1);
+        assertEquals((30 + 31 + 32 + 33 + 34) / 5D, last.getDouble(), 0);
+        assertEquals(30 * MINUTE_MS, last.getLong());
+
+        //15 minute points are weighted by the number of minute points behind 5 minute ones
+        ByteBuffer fifteenMinutes = read(storage, FIFTEEN_MINUTES, 100);
+        assertEquals(7, fifteenMinutes.getDouble(), 0);
+        assertEquals(22, fifteenMinutes.getDouble(16), 0);
+    }
+
+    @Test
+    public void testCheapestTier() {
+        assertEquals(FIVE_MINUTES, RollupTier.cheapestFor(MINUTE,
+                GraphPeriod.DAY.numberOfPoints, 720));
+        assertEquals(FIFTEEN_MINUTES, RollupTier.cheapestFor(MINUTE,
+                GraphPeriod.DAY.numberOfPoints, 100));
+        assertEquals(MINUTE, RollupTier.cheapestFor(MINUTE,
+                GraphPeriod.TWELVE_HOURS.numberOfPoints, 720));
+        assertEquals(GraphGranularityType.HOURLY, RollupTier.cheapestFor(GraphGranularityType.HOURLY,
+                GraphPeriod.THREE_MONTHS.numberOfPoints, 720));
+        assertEquals(GraphGranularityType.WEEKLY, RollupTier.cheapestFor(GraphGranularityType.DAILY,
+                GraphPeriod.ONE_YEAR.numberOfPoints, 100));
+    }
+
+    @Test
+    public void testNotRolledUpPeriodsDownsampledFromSource() throws Exception {
+        ReportingStorage storage = new FileReportingStorage(reportingFolder);
+        RollupEngine rollupEngine = new RollupEngine(storage, reportingFolder);
+        for (int i = 0; i < 23; i++) {
+            storage.write(userDir, 1, 0, PinType.VIRTUAL, (byte) 1, MINUTE, i, i * MINUTE_MS);
+        }
+        //4 five minute points and 1 fifteen minute point, minutes 20-22 are not rolled up yet
+        assertEquals(5, rollupEngine.rollup(userDir, 23 * MINUTE_MS));
+        ByteBuffer rolledUp = read(storage, FIVE_MINUTES, 100);
+        long from = rolledUp.getLong(rolledUp.limit() - 8) + FIVE_MINUTES.period;
+        assertEquals(20 * MINUTE_MS, from);
+
+        ByteBuffer latest = RollupEngine.downsample(storage.readRange(userDir, 1, 0, PinType.VIRTUAL, (byte) 1,
+                MINUTE, from - 5 * MINUTE_MS, Long.MAX_VALUE), FIVE_MINUTES);
+        assertEquals(2 * 16, latest.remaining());
+        assertEquals(17, latest.getDouble(), 0);
+        assertEquals(15 * MINUTE_MS, latest.getLong());
+        //current period is not complete yet
+        assertEquals(21, latest.getDouble(), 0);
+        assertEquals(20 * MINUTE_MS, latest.getLong());
+
+        assertEquals(0, RollupEngine.downsample(null, FIVE_MINUTES).remaining());
+    }
+
+    private ByteBuffer read(ReportingStorage storage, GraphGranularityType type, int count) throws Exception {
+        ByteBuffer data = storage.read(userDir, 1, 0, PinType.VIRTUAL, (byte) 1, type, count, 0);
+        assertNotNull(data);
+        return data;
+    }
+
+}
@@ -0,0 +1,226 @@
+package cc.blynk.server.core.reporting.storage;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import cc.blynk.utils.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static java.nio.file.StandardOpenOption.APPEND;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CompressedReportingStorageTest {
+
+    private final String reportingFolder =
+            Paths.get(System.getProperty("java.io.tmpdir"), "compressed_data").toString();
+    private final String userDir = "test@test.com";
+
+    @Before
+    public void cleanup() throws Exception {
+        org.apache.commons.io.FileUtils.deleteDirectory(Paths.get(reportingFolder).toFile());
+    }
+
+    @Test
+    public void testSameDataAsFileStorage() throws Exception {
+        ReportingStorage fileStorage = new FileReportingStorage(reportingFolder);
+        ReportingStorage compressedStorage = new CompressedReportingStorage(reportingFolder);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        long ts = 1_500_000_000_000L;
+        double value = 20;
+        for (int i = 0; i < 2000; i++) {
+            //mostly regular minute points with slowly changing values, with some gaps and jumps
+            ts += random.nextInt(10) == 0 ? random.nextInt(1_000_000) : 60_000;
+            value = random.nextInt(5) == 0 ? random.nextDouble() * 1000 : value + random.nextInt(3) - 1;
+            fileStorage.write(userDir, 1, 0, PinType.VIRTUAL, (byte) 1, GraphGranularityType.MINUTE, value, ts);
+            if (random.nextBoolean()) {
+                compressedStorage.write(userDir, 1, 0, PinType.VIRTUAL, (byte) 1,
+                        GraphGranularityType.MINUTE, value, ts);
+            } else {
+                ByteBuffer record = ByteBuffer.allocate(16);
+                record.putDouble(value).putLong(ts).flip();
+                compressedStorage.write(userDir, 1, 0, PinType.VIRTUAL, (byte) 1,
+                        GraphGranularityType.MINUTE, record);
+            }
+        }
+
+        Path plainFile = Paths.get(reportingFolder, userDir,
+                FileReportingStorage.generateFilename(1, 0, PinType.VIRTUAL, (byte) 1, GraphGranularityType.MINUTE));
+        Path compressedFile = Paths.get(reportingFolder, userDir,
+                CompressedReportingStorage.generateFilename(1, 0, PinType.VIRTUAL, (byte) 1,
+                        GraphGranularityType.MINUTE));
+        assertTrue(Files.size(compressedFile) < Files.size(plainFile) / 2);
+
+        int[][] countAndSkip = {{1, 0}, {60, 0}, {1440, 0}, {5000, 0}, {300, 100}, {256, 256}, {10, 1995}};
+        for (int[] params : countAndSkip) {
+            assertEquals(fileStorage.read(userDir, 1, 0, PinType.VIRTUAL, (byte) 1,
+                    GraphGranularityType.MINUTE, params[0], params[1]),
+                    compressedStorage.read(userDir, 1, 0, PinType.VIRTUAL, (byte) 1,
+                            GraphGranularityType.MINUTE, params[0], params[1]));
+        }
+        assertNull(compressedStorage.read(userDir, 1, 0, PinType.VIRTUAL, (byte) 1,
+                GraphGranularityType.MINUTE, 10, 2000));
+
+        ByteBuffer all = fileStorage.read(userDir, 1, 0, PinType.VIRTUAL, (byte) 1,
+                GraphGranularityType.MINUTE, 2000, 0);
+        long from = all.getLong(500 * 16 + 8);
+        long to = all.getLong(1500 * 16 + 8);
+        ByteBuffer expected = FileUtils.slice(all, from, to);
+        assertEquals(expected, compressedStorage.readRange(userDir, 1, 0, PinType.VIRTUAL, (byte) 1,
+                GraphGranularityType.MINUTE, from, to));
+
+        assertEquals(1, compressedStorage.listSeries(userDir, GraphGranularityType.MINUTE).size());
+        assertEquals(1, compressedStorage.truncate(userDir, GraphGranularityType.MINUTE, 700));
+        assertEquals(fileStorage.read(userDir, 1, 0, PinType.VIRTUAL, (byte) 1,
+                GraphGranularityType.MINUTE, 700, 0),
+                compressedStorage.read(userDir, 1, 0, PinType.VIRTUAL, (byte) 1,
+                        GraphGranularityType.MINUTE, 1000, 0));
+    }
+
+    @Test
+    public void testCachedIndexFollowsFileChanges() throws Exception {
+        ReportingStorage storage = new CompressedReportingStorage(reportingFolder);
+        for (int i = 0; i < 600; i++) {
+            storage.write(userDir, 1, 0, PinType.VIRTUAL, (byte) 1, GraphGranularityType.MINUTE, i, i * 60_000L);
+        }
+        assertEquals(599, storage.read(userDir, 1, 0, PinType.VIRTUAL, (byte) 1,
+                GraphGranularityType.MINUTE, 1, 0).getDouble(), 0);
+
+        //file changed not through the storage
+        Path compressedFile = Paths.get(reportingFolder, userDir,
+                CompressedReportingStorage.generateFilename(1, 0, PinType.VIRTUAL, (byte) 1,
+                        GraphGranularityType.MINUTE));
+        ByteBuffer record = ByteBuffer.allocate(16);
+        record.putDouble(600).putLong(600 * 60_000L).flip();
+        CompressedReportingStorage.append(compressedFile, record);
+        ByteBuffer last = storage.read(userDir, 1, 0, PinType.VIRTUAL, (byte) 1, GraphGranularityType.MINUTE, 2, 0);
+        assertEquals(599, last.getDouble(), 0);
+        assertEquals(599 * 60_000L, last.getLong());
+        assertEquals(600, last.getDouble(), 0);
+
+        assertEquals(1, storage.truncate(userDir, GraphGranularityType.MINUTE, 300));
+        assertTrue(Files.notExists(Paths.get(compressedFile.toString() + ".tmp")));
+        storage.write(userDir, 1, 0, PinType.VIRTUAL, (byte) 1, GraphGranularityType.MINUTE, 601, 601 * 60_000L);
+        ByteBuffer all = storage.read(userDir, 1, 0, PinType.VIRTUAL, (byte) 1,
+                GraphGranularityType.MINUTE, 1000, 0);
+        assertEquals(301 * 16, all.remaining());
+        assertEquals(301, all.getDouble(), 0);
+        assertEquals(601, all.getDouble(300 * 16), 0);
+    }
+
+    @Test
+    public void testTailLeftByCrashIsNotDuplicated() throws Exception {
+        ReportingStorage storage = new CompressedReportingStorage(reportingFolder);
+        int maxBlockRecords = CompressedReportingStorage.MAX_BLOCK_RECORDS;
+        for (int i = 0; i < maxBlockRecords - 1; i++) {
+            storage.write(userDir, 1, 0, PinType.VIRTUAL, (byte) 1, GraphGranularityType.MINUTE, i, i * 60_000L);
+        }
+        Path compressedFile = Paths.get(reportingFolder, userDir,
+                CompressedReportingStorage.generateFilename(1, 0, PinType.VIRTUAL, (byte) 1,
+                        GraphGranularityType.MINUTE));
+        Path tailFile = Paths.get(compressedFile.toString().replace(
+                CompressedReportingStorage.COMPRESSED_FILE_EXTENSION, CompressedReportingStorage.TAIL_FILE_EXTENSION));
+        byte[] tail = Files.readAllBytes(tailFile);
+        assertEquals(0, Files.size(compressedFile));
+
+        storage.write(userDir, 1, 0, PinType.VIRTUAL, (byte) 1, GraphGranularityType.MINUTE,
+                maxBlockRecords - 1, (maxBlockRecords - 1) * 60_000L);
+        assertEquals(0, Files.size(tailFile));
+
+        //crash after the block is written, but before the tail is cleared
+        ByteBuffer fullTail = ByteBuffer.allocate(tail.length + 16);
+        fullTail.put(tail).putDouble(maxBlockRecords - 1).putLong((maxBlockRecords - 1) * 60_000L);
+        Files.write(tailFile, fullTail.array());
+        //incomplete block of the next write
+        Files.write(compressedFile, new byte[] {1, 2, 3}, APPEND);
+
+        storage = new CompressedReportingStorage(reportingFolder);
+        assertEquals(maxBlockRecords * 16, storage.read(userDir, 1, 0, PinType.VIRTUAL, (byte) 1,
+                GraphGranularityType.MINUTE, 1000, 0).remaining());
+
+        storage.write(userDir, 1, 0, PinType.VIRTUAL, (byte) 1, GraphGranularityType.MINUTE,
+                maxBlockRecords, maxBlockRecords * 60_000L);
+        assertEquals(16, Files.size(tailFile));
+        ByteBuffer all = storage.read(userDir, 1, 0, PinType.VIRTUAL, (byte) 1,
+                GraphGranularityType.MINUTE, 1000, 0);
+        assertEquals((maxBlockRecords + 1) * 16, all.remaining());
+        for (int i = 0; i <= maxBlockRecords; i++) {
+            assertEquals(i, all.getDouble(), 0);
+            assertEquals(i * 60_000L, all.getLong());
+        }
+    }
+
+    @Test
+    public void testConcurrentWritesOfSameSeries() throws Exception {
+        ReportingStorage storage = new CompressedReportingStorage(reportingFolder);
+        int threads = 4;
+        int recordsPerThread = 500;
+        Thread[] writers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            writers[t] = new Thread(() -> {
+                try {
+                    for (int i = 0; i < recordsPerThread; i++) {
+                        storage.write(userDir, 1, 0, PinType.VIRTUAL, (byte) 1, GraphGranularityType.MINUTE,
+                                thread, i);
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            writers[t].start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        ByteBuffer all = storage.read(userDir, 1, 0, PinType.VIRTUAL, (byte) 1,
+                GraphGranularityType.MINUTE, Integer.MAX_VALUE, 0);
+        assertEquals(threads * recordsPerThread * 16, all.remaining());
+        int[] counts = new int[threads];
+        while (all.hasRemaining()) {
+            counts[(int) all.getDouble()]++;
+            all.getLong();
+        }
+        for (int count : counts) {
+            assertEquals(recordsPerThread, count);
+        }
+    }
+
+    @Test
+    public void testLegacyFilesConvertedAndDeleted() throws Exception {
+        Path userFolder = Paths.get(reportingFolder, userDir);
+        Files.createDirectories(userFolder);
+        String plainFileName = FileReportingStorage.generateFilename(1, 2, PinType.ANALOG, (byte) 3,
+                GraphGranularityType.DAILY);
+        Path legacyFile = Paths.get(userFolder.toString(), plainFileName);
+        FileUtils.write(legacyFile, 1.5D, 1000);
+        FileUtils.write(legacyFile, 2.5D, 2000);
+
+        ReportingStorage storage = new CompressedReportingStorage(reportingFolder);
+        assertTrue(Files.notExists(legacyFile));
+        storage.write(userDir, 1, 2, PinType.ANALOG, (byte) 3, GraphGranularityType.DAILY, 3.5D, 3000);
+
+        ByteBuffer data = storage.read(userDir, 1, 2, PinType.ANALOG, (byte) 3, GraphGranularityType.DAILY, 10, 0);
+        assertNotNull(data);
+        assertEquals(48, data.capacity());
+        assertEquals(1.5D, data.getDouble(), 0);
+        assertEquals(1000, data.getLong());
+
+        assertEquals(1, CompressedReportingStorage.decompressAll(userFolder));
+        assertEquals(48, Files.size(legacyFile));
+
+        assertEquals(1, storage.delete(userDir, plainFileName::equals));
+        assertTrue(Files.notExists(legacyFile));
+    }
+
+}
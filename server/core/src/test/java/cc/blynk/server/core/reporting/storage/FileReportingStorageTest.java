@@ -0,0 +1,110 @@
+package cc.blynk.server.core.reporting.storage;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+public class FileReportingStorageTest {
+
+    private final String reportingFolder = Paths.get(System.getProperty("java.io.tmpdir"), "file_data").toString();
+    private final String userDir = "test@test.com";
+
+    @Before
+    public void cleanup() throws Exception {
+        org.apache.commons.io.FileUtils.deleteDirectory(Paths.get(reportingFolder).toFile());
+    }
+
+    @Test
+    public void testWriteWithOpenChannels() throws Exception {
+        FileReportingStorage storage = new FileReportingStorage(reportingFolder);
+        //more series than open channels, so channels are evicted and reopened
+        for (int i = 0; i < 3; i++) {
+            for (int pin = 0; pin < 128; pin++) {
+                for (int deviceId = 0; deviceId < 10; deviceId++) {
+                    storage.write(userDir, 1, deviceId, PinType.VIRTUAL, (byte) pin,
+                            GraphGranularityType.MINUTE, i, i);
+                }
+            }
+        }
+
+        ByteBuffer data = storage.read(userDir, 1, 9, PinType.VIRTUAL, (byte) 127, GraphGranularityType.MINUTE, 10, 0);
+        assertNotNull(data);
+        assertEquals(48, data.capacity());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i, data.getDouble(), 0);
+            assertEquals(i, data.getLong());
+        }
+        storage.close();
+    }
+
+    @Test
+    public void testWriteAfterDelete() throws Exception {
+        FileReportingStorage storage = new FileReportingStorage(reportingFolder);
+        storage.write(userDir, 1, 0, PinType.VIRTUAL, (byte) 1, GraphGranularityType.MINUTE, 1, 1);
+
+        String fileName = FileReportingStorage.generateFilename(1, 0, PinType.VIRTUAL, (byte) 1,
+                GraphGranularityType.MINUTE);
+        Path filePath = Paths.get(reportingFolder, userDir, fileName);
+        assertEquals(1, storage.delete(userDir, fileName::equals));
+        assertFalse(Files.exists(filePath));
+
+        //cached channel is closed on delete, so record goes to the new file
+        storage.write(userDir, 1, 0, PinType.VIRTUAL, (byte) 1, GraphGranularityType.MINUTE, 2, 2);
+        ByteBuffer data = storage.read(userDir, 1, 0, PinType.VIRTUAL, (byte) 1, GraphGranularityType.MINUTE, 10, 0);
+        assertNotNull(data);
+        assertEquals(16, data.capacity());
+        assertEquals(2, data.getDouble(), 0);
+        storage.close();
+    }
+
+    @Test
+    public void testParallelWritesWithEviction() throws Exception {
+        FileReportingStorage storage = new FileReportingStorage(reportingFolder);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> tasks = new ArrayList<>();
+        //every thread writes all series, so channels are shared, evicted and reopened concurrently
+        for (int thread = 0; thread < 4; thread++) {
+            tasks.add(executor.submit(() -> {
+                for (int pin = 0; pin < 128; pin++) {
+                    for (int deviceId = 0; deviceId < 10; deviceId++) {
+                        storage.write(userDir, 1, deviceId, PinType.VIRTUAL, (byte) pin,
+                                GraphGranularityType.MINUTE, pin, deviceId);
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> task : tasks) {
+            task.get();
+        }
+        executor.shutdown();
+
+        for (int deviceId = 0; deviceId < 10; deviceId++) {
+            ByteBuffer data = storage.read(userDir, 1, deviceId, PinType.VIRTUAL, (byte) 127,
+                    GraphGranularityType.MINUTE, 10, 0);
+            assertNotNull(data);
+            assertEquals(64, data.capacity());
+            for (int i = 0; i < 4; i++) {
+                assertEquals(127, data.getDouble(), 0);
+                assertEquals(deviceId, data.getLong());
+            }
+        }
+        storage.close();
+    }
+
+}
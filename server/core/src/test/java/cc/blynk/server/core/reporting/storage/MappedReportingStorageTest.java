@@ -0,0 +1,228 @@
+package cc.blynk.server.core.reporting.storage;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import cc.blynk.utils.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MappedReportingStorageTest {
+
+    private final String reportingFolder = Paths.get(System.getProperty("java.io.tmpdir"), "mapped_data").toString();
+    private final String userDir = "test@test.com";
+
+    @Before
+    public void cleanup() throws Exception {
+        org.apache.commons.io.FileUtils.deleteDirectory(Paths.get(reportingFolder).toFile());
+    }
+
+    @Test
+    public void testWriteAndReadLastRecords() throws Exception {
+        MappedReportingStorage storage = new MappedReportingStorage(reportingFolder);
+
+        //enough records to move series to the bigger extent few times
+        for (int i = 0; i < 1000; i++) {
+            storage.write(userDir, 1, 0, PinType.VIRTUAL, (byte) 1, GraphGranularityType.MINUTE, i, i * 60_000L);
+            storage.write(userDir, 1, 0, PinType.VIRTUAL, (byte) 2, GraphGranularityType.MINUTE, -i, i * 60_000L);
+        }
+
+        ByteBuffer data = storage.read(userDir, 1, 0, PinType.VIRTUAL, (byte) 1,
+                GraphGranularityType.MINUTE, 10, 0);
+        assertNotNull(data);
+        assertEquals(160, data.capacity());
+        for (int i = 990; i < 1000; i++) {
+            assertEquals(i, data.getDouble(), 0);
+            assertEquals(i * 60_000L, data.getLong());
+        }
+
+        data = storage.read(userDir, 1, 0, PinType.VIRTUAL, (byte) 2,
+                GraphGranularityType.MINUTE, 5, 995);
+        assertNotNull(data);
+        assertEquals(80, data.capacity());
+        assertEquals(0, data.getDouble(), 0);
+        assertEquals(0, data.getLong());
+
+        assertNull(storage.read(userDir, 1, 0, PinType.VIRTUAL, (byte) 2,
+                GraphGranularityType.MINUTE, 5, 1000));
+        assertNull(storage.read(userDir, 1, 0, PinType.VIRTUAL, (byte) 3,
+                GraphGranularityType.MINUTE, 5, 0));
+        assertNull(storage.read(userDir, 1, 0, PinType.VIRTUAL, (byte) 1,
+                GraphGranularityType.HOURLY, 5, 0));
+    }
+
+    @Test
+    public void testReadTimeRange() throws Exception {
+        ReportingStorage[] storages = {
+                new MappedReportingStorage(reportingFolder),
+                new FileReportingStorage(reportingFolder)
+        };
+        for (ReportingStorage storage : storages) {
+            for (int i = 0; i < 1000; i++) {
+                storage.write(userDir, 1, 1, PinType.VIRTUAL, (byte) 1, GraphGranularityType.HOURLY,
+                        i, i * 3_600_000L);
+            }
+
+            //[100, 200) hours
+            ByteBuffer data = storage.readRange(userDir, 1, 1, PinType.VIRTUAL, (byte) 1,
+                    GraphGranularityType.HOURLY, 100 * 3_600_000L - 1, 200 * 3_600_000L);
+            assertNotNull(data);
+            assertEquals(100 * 16, data.remaining());
+            assertEquals(100, data.getDouble(), 0);
+            assertEquals(100 * 3_600_000L, data.getLong());
+            assertEquals(199 * 3_600_000L, data.getLong(data.limit() - 8));
+
+            data = storage.readRange(userDir, 1, 1, PinType.VIRTUAL, (byte) 1,
+                    GraphGranularityType.HOURLY, 990 * 3_600_000L, Long.MAX_VALUE);
+            assertNotNull(data);
+            assertEquals(10 * 16, data.remaining());
+
+            assertNull(storage.readRange(userDir, 1, 1, PinType.VIRTUAL, (byte) 1,
+                    GraphGranularityType.HOURLY, 1000 * 3_600_000L, Long.MAX_VALUE));
+            assertNull(storage.readRange(userDir, 1, 1, PinType.VIRTUAL, (byte) 1,
+                    GraphGranularityType.HOURLY, 5L, 5L));
+            storage.close();
+            cleanup();
+        }
+    }
+
+    @Test
+    public void testDataSurvivesReopenAndTruncate() throws Exception {
+        MappedReportingStorage storage = new MappedReportingStorage(reportingFolder);
+        for (int i = 0; i < 300; i++) {
+            storage.write(userDir, 1, 0, PinType.VIRTUAL, (byte) 1, GraphGranularityType.MINUTE, i, i);
+        }
+        storage.close();
+
+        storage = new MappedReportingStorage(reportingFolder);
+        assertEquals(1, storage.truncate(userDir, GraphGranularityType.MINUTE, 100));
+        storage.write(userDir, 1, 0, PinType.VIRTUAL, (byte) 1, GraphGranularityType.MINUTE, 300, 300);
+
+        ByteBuffer data = storage.read(userDir, 1, 0, PinType.VIRTUAL, (byte) 1,
+                GraphGranularityType.MINUTE, 1000, 0);
+        assertNotNull(data);
+        assertEquals(101 * 16, data.capacity());
+        assertEquals(200, data.getDouble(), 0);
+        assertEquals(200, data.getLong());
+    }
+
+    @Test
+    public void testDelete() throws Exception {
+        MappedReportingStorage storage = new MappedReportingStorage(reportingFolder);
+        storage.write(userDir, 1, 0, PinType.VIRTUAL, (byte) 1, GraphGranularityType.MINUTE, 1, 1);
+        storage.write(userDir, 1, 0, PinType.VIRTUAL, (byte) 1, GraphGranularityType.HOURLY, 1, 1);
+        storage.write(userDir, 1, 1, PinType.VIRTUAL, (byte) 1, GraphGranularityType.MINUTE, 1, 1);
+
+        String prefix = FileReportingStorage.generateFilenamePrefix(1, 0);
+        assertEquals(2, storage.delete(userDir, fileName -> fileName.startsWith(prefix)));
+        assertNull(storage.read(userDir, 1, 0, PinType.VIRTUAL, (byte) 1, GraphGranularityType.MINUTE, 1, 0));
+        assertNotNull(storage.read(userDir, 1, 1, PinType.VIRTUAL, (byte) 1, GraphGranularityType.MINUTE, 1, 0));
+        assertFalse(Files.exists(Paths.get(reportingFolder, userDir, "hourly.seg")));
+    }
+
+    @Test
+    public void testWriteAfterSegmentClosed() throws Exception {
+        MappedReportingStorage storage = new MappedReportingStorage(reportingFolder);
+        storage.write(userDir, 1, 0, PinType.VIRTUAL, (byte) 1, GraphGranularityType.MINUTE, 1, 1);
+        ByteBuffer data = storage.read(userDir, 1, 0, PinType.VIRTUAL, (byte) 1, GraphGranularityType.MINUTE, 1, 0);
+
+        assertEquals(1, storage.delete(userDir, fileName -> true));
+        assertFalse(Files.exists(Paths.get(reportingFolder, userDir, "minute.seg")));
+        //returned data is a copy, so it is valid after segment was unmapped
+        assertEquals(1, data.getDouble(), 0);
+
+        storage.write(userDir, 1, 0, PinType.VIRTUAL, (byte) 1, GraphGranularityType.MINUTE, 2, 2);
+        assertTrue(Files.exists(Paths.get(reportingFolder, userDir, "minute.seg")));
+        data = storage.read(userDir, 1, 0, PinType.VIRTUAL, (byte) 1, GraphGranularityType.MINUTE, 10, 0);
+        assertNotNull(data);
+        assertEquals(16, data.capacity());
+        assertEquals(2, data.getDouble(), 0);
+        storage.close();
+    }
+
+    @Test
+    public void testLegacyFilesMigrated() throws Exception {
+        Path userFolder = Paths.get(reportingFolder, userDir);
+        Files.createDirectories(userFolder);
+        Path legacyFile = Paths.get(userFolder.toString(),
+                FileReportingStorage.generateFilename(1, 2, PinType.ANALOG, (byte) 3, GraphGranularityType.DAILY));
+        FileUtils.write(legacyFile, 1.5D, 1000);
+        FileUtils.write(legacyFile, 2.5D, 2000);
+
+        Path migratedFile = Paths.get(legacyFile + MappedReportingStorage.MIGRATED_EXTENSION);
+        MappedReportingStorage storage = new MappedReportingStorage(reportingFolder);
+        assertTrue(Files.notExists(legacyFile));
+        //kept till removal is confirmed
+        assertTrue(Files.exists(migratedFile));
+
+        ByteBuffer data = storage.read(userDir, 1, 2, PinType.ANALOG, (byte) 3, GraphGranularityType.DAILY, 10, 0);
+        assertNotNull(data);
+        assertEquals(32, data.capacity());
+        assertEquals(1.5D, data.getDouble(), 0);
+        assertEquals(1000, data.getLong());
+        assertEquals(2.5D, data.getDouble(), 0);
+        assertEquals(2000, data.getLong());
+        storage.close();
+
+        storage = new MappedReportingStorage(reportingFolder, true);
+        assertTrue(Files.notExists(migratedFile));
+        data = storage.read(userDir, 1, 2, PinType.ANALOG, (byte) 3, GraphGranularityType.DAILY, 10, 0);
+        assertEquals(32, data.capacity());
+    }
+
+    @Test
+    public void testInterruptedMigrationDoesNotDuplicateRecords() throws Exception {
+        Path userFolder = Paths.get(reportingFolder, userDir);
+        Files.createDirectories(userFolder);
+        Path legacyFile = Paths.get(userFolder.toString(),
+                FileReportingStorage.generateFilename(1, 2, PinType.ANALOG, (byte) 3, GraphGranularityType.DAILY));
+        FileUtils.write(legacyFile, 1.5D, 1000);
+        FileUtils.write(legacyFile, 2.5D, 2000);
+
+        //records were copied to the segment, but file was not moved aside
+        MappedReportingStorage storage = new MappedReportingStorage(reportingFolder);
+        storage.close();
+        Files.move(Paths.get(legacyFile + MappedReportingStorage.MIGRATED_EXTENSION), legacyFile);
+        FileUtils.write(legacyFile, 3.5D, 3000);
+
+        storage = new MappedReportingStorage(reportingFolder);
+        ByteBuffer data = storage.read(userDir, 1, 2, PinType.ANALOG, (byte) 3, GraphGranularityType.DAILY, 10, 0);
+        assertEquals(48, data.capacity());
+        assertEquals(1000, data.getLong(8));
+        assertEquals(2000, data.getLong(24));
+        assertEquals(3000, data.getLong(40));
+    }
+
+    @Test
+    public void testSliceValidTillReaderReturns() throws Exception {
+        MappedReportingStorage storage = new MappedReportingStorage(reportingFolder);
+        storage.write(userDir, 1, 0, PinType.VIRTUAL, (byte) 1, GraphGranularityType.MINUTE, 1, 1);
+        storage.write(userDir, 1, 0, PinType.VIRTUAL, (byte) 1, GraphGranularityType.MINUTE, 2, 2);
+
+        double sum = storage.read(userDir, 1, 0, PinType.VIRTUAL, (byte) 1, GraphGranularityType.MINUTE, 10, 0,
+                records -> {
+                    assertTrue(records.isDirect());
+                    //segment is closed and its mapping replaced while reader still uses the slice
+                    assertEquals(1, storage.delete(userDir, fileName -> true));
+                    assertFalse(Files.exists(Paths.get(reportingFolder, userDir, "minute.seg")));
+                    return records.getDouble(0) + records.getDouble(16);
+                });
+        assertEquals(3, sum, 0);
+
+        Long lastTs = storage.readRange(userDir, 1, 0, PinType.VIRTUAL, (byte) 1, GraphGranularityType.MINUTE,
+                0, Long.MAX_VALUE, records -> records == null ? null : records.getLong(8));
+        assertNull(lastTs);
+        storage.close();
+    }
+
+}
@@ -4,6 +4,7 @@ import cc.blynk.server.core.BlockingIOProcessor;
 import cc.blynk.server.core.model.auth.User;
 import cc.blynk.server.core.model.enums.PinType;
 import cc.blynk.server.core.reporting.raw.BaseReportingKey;
+import cc.blynk.server.core.reporting.raw.RawDataBatch;
 import cc.blynk.server.core.reporting.raw.RawDataProcessor;
 import cc.blynk.utils.AppNameUtil;
 import cc.blynk.utils.NumberUtil;
@@ -61,7 +62,9 @@ public class RawDataDBTest {
         rawDataProcessor.collect(new BaseReportingKey(user.email, user.appName, 1, 2, PinType.VIRTUAL, (byte) 3), 1111111111, "Lamp is ON", NumberUtil.NO_RESULT);
 
         //invoking directly dao to avoid separate thread execution
-        reportingDBManager.reportingDBDao.insertRawData(rawDataProcessor.rawStorage);
+        RawDataBatch batch = new RawDataBatch(10);
+        rawDataProcessor.drain(batch);
+        reportingDBManager.reportingDBDao.insertRawData(batch);
 
         try (Connection connection = reportingDBManager.getConnection();
              Statement statement = connection.createStatement();
@@ -90,7 +93,9 @@ public class RawDataDBTest {
         rawDataProcessor.collect(new BaseReportingKey(user.email, user.appName, 1, 2, PinType.VIRTUAL, (byte) 3), 1111111111, "Lamp is ON", 1.33D);
 
         //invoking directly dao to avoid separate thread execution
-        reportingDBManager.reportingDBDao.insertRawData(rawDataProcessor.rawStorage);
+        RawDataBatch batch = new RawDataBatch(10);
+        rawDataProcessor.drain(batch);
+        reportingDBManager.reportingDBDao.insertRawData(batch);
 
         try (Connection connection = reportingDBManager.getConnection();
              Statement statement = connection.createStatement();
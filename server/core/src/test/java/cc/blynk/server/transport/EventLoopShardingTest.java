@@ -0,0 +1,78 @@
+package cc.blynk.server.transport;
+
+import cc.blynk.server.core.dao.UserKey;
+import io.netty.channel.Channel;
+import io.netty.channel.DefaultEventLoopGroup;
+import io.netty.channel.EventLoop;
+import org.junit.After;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class EventLoopShardingTest {
+
+    private final DefaultEventLoopGroup group = new DefaultEventLoopGroup(4);
+    private final EventLoopSharding sharding = new EventLoopSharding(group);
+
+    @After
+    public void shutdown() {
+        group.shutdownGracefully();
+    }
+
+    private static Channel channel(String host, EventLoop loop) {
+        Channel channel = mock(Channel.class);
+        when(channel.remoteAddress()).thenReturn(new InetSocketAddress(host, 1234));
+        when(channel.eventLoop()).thenReturn(loop);
+        return channel;
+    }
+
+    private UserKey userOnOtherLoop(UserKey userKey) {
+        int i = 0;
+        UserKey other;
+        do {
+            other = new UserKey("user" + i++ + "@blynk.cc", null);
+        } while (sharding.forUser(other) == sharding.forUser(userKey));
+        return other;
+    }
+
+    @Test
+    public void testChannelFromKnownHostGoesToUserLoop() {
+        UserKey userKey = new UserKey("test@blynk.cc", null);
+        EventLoop userLoop = sharding.forUser(userKey);
+        assertSame(userLoop, sharding.forUser(new UserKey("test@blynk.cc", null)));
+        assertNotEquals(-1, sharding.indexOf(userLoop));
+
+        EventLoop otherLoop = sharding.forUser(userOnOtherLoop(userKey));
+        Channel device = channel("10.0.0.1", otherLoop);
+        assertNull(sharding.forChannel(device));
+        sharding.onLogin(device, userLoop);
+
+        Channel app = channel("10.0.0.1", userLoop);
+        assertSame(userLoop, sharding.forChannel(app));
+        sharding.onLogin(app, userLoop);
+
+        assertEquals(1, sharding.hostDispatches.sum());
+        assertEquals(1, sharding.reRegistrations.sum());
+        assertEquals(1, sharding.sameLoopLogins.sum());
+    }
+
+    @Test
+    public void testSharedHostIsNotUsedForDispatching() {
+        UserKey userKey = new UserKey("test@blynk.cc", null);
+        UserKey otherUserKey = userOnOtherLoop(userKey);
+
+        sharding.onLogin(channel("10.0.0.2", group.next()), sharding.forUser(userKey));
+        sharding.onLogin(channel("10.0.0.2", group.next()), sharding.forUser(otherUserKey));
+
+        assertNull(sharding.forChannel(channel("10.0.0.2", group.next())));
+        assertEquals(2, sharding.sameLoopLogins.sum() + sharding.reRegistrations.sum());
+    }
+
+}
@@ -0,0 +1,189 @@
+package cc.blynk.server.workers;
+
+import cc.blynk.server.common.BaseSimpleChannelInboundHandler;
+import cc.blynk.server.core.model.DashBoard;
+import cc.blynk.server.core.model.auth.Session;
+import cc.blynk.server.core.model.auth.User;
+import cc.blynk.server.core.model.device.Device;
+import cc.blynk.server.core.model.widgets.Widget;
+import cc.blynk.server.core.model.widgets.outputs.ValueDisplay;
+import cc.blynk.server.core.session.HardwareStateHolder;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoop;
+import io.netty.util.concurrent.GenericFutureListener;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ReadingScheduleTest {
+
+    private static final int DEVICE_ID = 0;
+
+    private EventLoop loop;
+    private ReadingSchedule schedule;
+    private Session session;
+    private DashBoard dash;
+
+    @Before
+    public void init() {
+        loop = mock(EventLoop.class);
+        doAnswer(invocation -> {
+            ((Runnable) invocation.getArgument(0)).run();
+            return null;
+        }).when(loop).execute(any(Runnable.class));
+        schedule = new ReadingSchedule(loop);
+        session = mock(Session.class);
+        when(session.isAppConnected()).thenReturn(true);
+
+        dash = new DashBoard();
+        dash.id = 1;
+        dash.isActive = true;
+        dash.devices = new Device[] {new Device(DEVICE_ID, "device", null)};
+    }
+
+    private Channel hardwareChannel() {
+        User user = new User();
+        user.email = "test@blynk.cc";
+        HardwareStateHolder state = new HardwareStateHolder(user, dash, dash.devices[0]);
+        BaseSimpleChannelInboundHandler handler = mock(BaseSimpleChannelInboundHandler.class);
+        when(handler.getState()).thenReturn(state);
+        ChannelPipeline pipeline = mock(ChannelPipeline.class);
+        when(pipeline.get(BaseSimpleChannelInboundHandler.class)).thenReturn(handler);
+
+        Channel channel = mock(Channel.class);
+        when(channel.pipeline()).thenReturn(pipeline);
+        when(channel.isActive()).thenReturn(true);
+        when(channel.isWritable()).thenReturn(true);
+        when(channel.closeFuture()).thenReturn(mock(ChannelFuture.class));
+        return channel;
+    }
+
+    private static ValueDisplay widget(int deviceId, int frequency) {
+        ValueDisplay widget = mock(ValueDisplay.class);
+        when(widget.getDeviceId()).thenReturn(deviceId);
+        when(widget.getFrequency()).thenReturn(frequency);
+        return widget;
+    }
+
+    @Test
+    public void testDueReadingsInDeadlineOrder() {
+        ValueDisplay everySecond = widget(DEVICE_ID, 1000);
+        ValueDisplay everyThreeSeconds = widget(DEVICE_ID, 3000);
+        ValueDisplay otherDevice = widget(DEVICE_ID + 1, 1000);
+        ValueDisplay noFrequency = widget(DEVICE_ID, 0);
+        dash.widgets = new Widget[] {everyThreeSeconds, everySecond, otherDevice, noFrequency};
+        Channel channel = hardwareChannel();
+
+        schedule.register(session, channel, 0);
+        assertEquals(2, schedule.size());
+
+        assertEquals(2, schedule.tick(0, false));
+        assertEquals(0, schedule.tick(999, false));
+        assertEquals(1, schedule.tick(1000, false));
+        assertEquals(1, schedule.tick(2000, false));
+        assertEquals(2, schedule.tick(3000, false));
+
+        verify(everySecond, times(4)).writeReadingCommand(channel);
+        verify(everyThreeSeconds, times(2)).writeReadingCommand(channel);
+        verify(otherDevice, never()).writeReadingCommand(any());
+        verify(noFrequency, never()).writeReadingCommand(any());
+        verify(channel, times(4)).flush();
+    }
+
+    @Test
+    public void testNoReadingWithoutAppUnlessAllowed() {
+        ValueDisplay widget = widget(DEVICE_ID, 1000);
+        dash.widgets = new Widget[] {widget};
+        Channel channel = hardwareChannel();
+        when(session.isAppConnected()).thenReturn(false);
+
+        schedule.register(session, channel, 0);
+        assertEquals(0, schedule.tick(0, false));
+        assertEquals(1, schedule.size());
+        assertEquals(1, schedule.tick(1000, true));
+        verify(widget).writeReadingCommand(channel);
+    }
+
+    @Test
+    public void testReRegisterCancelsPreviousReadings() {
+        ValueDisplay widget = widget(DEVICE_ID, 1000);
+        dash.widgets = new Widget[] {widget};
+        Channel channel = hardwareChannel();
+
+        schedule.register(session, channel, 0);
+        ValueDisplay newWidget = widget(DEVICE_ID, 1000);
+        dash.widgets = new Widget[] {newWidget};
+        schedule.register(session, channel, 0);
+
+        assertEquals(1, schedule.tick(0, false));
+        //cancelled reading is dropped when it comes due
+        assertEquals(1, schedule.size());
+        verify(widget, never()).writeReadingCommand(any());
+        verify(newWidget).writeReadingCommand(channel);
+        //close listener is added only once per channel
+        verify(channel.closeFuture()).addListener(any());
+    }
+
+    @Test
+    public void testReadingsOfInactiveDashAreDropped() {
+        ValueDisplay widget = widget(DEVICE_ID, 1000);
+        dash.widgets = new Widget[] {widget};
+        Channel channel = hardwareChannel();
+
+        schedule.register(session, channel, 0);
+        dash.isActive = false;
+        assertEquals(0, schedule.tick(0, false));
+        assertEquals(0, schedule.size());
+
+        //nothing is scheduled until dash is activated
+        schedule.register(session, channel, 0);
+        assertEquals(0, schedule.size());
+        dash.isActive = true;
+        schedule.register(session, channel, 0);
+        assertEquals(1, schedule.tick(0, false));
+        verify(widget).writeReadingCommand(channel);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testChannelCloseDeregisters() throws Exception {
+        ValueDisplay widget = widget(DEVICE_ID, 1000);
+        dash.widgets = new Widget[] {widget};
+        Channel channel = hardwareChannel();
+
+        schedule.register(session, channel, 0);
+        ArgumentCaptor<GenericFutureListener> listener = ArgumentCaptor.forClass(GenericFutureListener.class);
+        verify(channel.closeFuture()).addListener(listener.capture());
+        listener.getValue().operationComplete(channel.closeFuture());
+
+        assertEquals(0, schedule.tick(0, false));
+        assertEquals(0, schedule.size());
+        verify(widget, never()).writeReadingCommand(any());
+    }
+
+    @Test
+    public void testNotWritableChannelIsRetriedOnNextTick() {
+        ValueDisplay widget = widget(DEVICE_ID, 5000);
+        dash.widgets = new Widget[] {widget};
+        Channel channel = hardwareChannel();
+        when(channel.isWritable()).thenReturn(false);
+
+        schedule.register(session, channel, 0);
+        assertEquals(0, schedule.tick(0, false));
+        when(channel.isWritable()).thenReturn(true);
+        assertEquals(1, schedule.tick(1000, false));
+        verify(widget).writeReadingCommand(channel);
+    }
+
+}
@@ -0,0 +1,124 @@
+package cc.blynk.server.workers;
+
+import cc.blynk.server.common.BaseSimpleChannelInboundHandler;
+import cc.blynk.server.core.dao.SessionDao;
+import cc.blynk.server.core.dao.UserKey;
+import cc.blynk.server.core.model.DashBoard;
+import cc.blynk.server.core.model.auth.Session;
+import cc.blynk.server.core.model.auth.User;
+import cc.blynk.server.core.model.device.Device;
+import cc.blynk.server.core.model.widgets.Widget;
+import cc.blynk.server.core.model.widgets.outputs.ValueDisplay;
+import cc.blynk.server.core.session.HardwareStateHolder;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoop;
+import io.netty.util.Attribute;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ReadingWidgetsWorkerTest {
+
+    private User user;
+    private DashBoard dash;
+    private Session session;
+    private ReadingWidgetsWorker worker;
+
+    @Before
+    public void init() {
+        EventLoop loop = mock(EventLoop.class);
+        when(loop.inEventLoop()).thenReturn(true);
+        doAnswer(invocation -> {
+            ((Runnable) invocation.getArgument(0)).run();
+            return null;
+        }).when(loop).execute(any(Runnable.class));
+
+        user = new User();
+        user.email = "test@blynk.cc";
+        dash = new DashBoard();
+        dash.id = 1;
+        dash.isActive = true;
+        dash.devices = new Device[] {new Device(0, "device", null)};
+
+        SessionDao sessionDao = new SessionDao();
+        session = new Session(loop);
+        sessionDao.userSession.put(new UserKey(user), session);
+        worker = new ReadingWidgetsWorker(sessionDao, true);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Channel hardwareChannel(DashBoard dash) {
+        HardwareStateHolder state = new HardwareStateHolder(user, dash, dash.devices[0]);
+        BaseSimpleChannelInboundHandler handler = mock(BaseSimpleChannelInboundHandler.class);
+        when(handler.getState()).thenReturn(state);
+        ChannelPipeline pipeline = mock(ChannelPipeline.class);
+        when(pipeline.get(BaseSimpleChannelInboundHandler.class)).thenReturn(handler);
+
+        Channel channel = mock(Channel.class);
+        when(channel.pipeline()).thenReturn(pipeline);
+        when(channel.isActive()).thenReturn(true);
+        when(channel.isWritable()).thenReturn(true);
+        when(channel.closeFuture()).thenReturn(mock(ChannelFuture.class));
+        when(channel.attr(any())).thenReturn(mock(Attribute.class));
+        return channel;
+    }
+
+    private static ValueDisplay widget() {
+        ValueDisplay widget = mock(ValueDisplay.class);
+        when(widget.getFrequency()).thenReturn(60_000);
+        return widget;
+    }
+
+    @Test
+    public void testRefreshReplacesReadingsOfDashChannels() {
+        ValueDisplay widget = widget();
+        dash.widgets = new Widget[] {widget};
+        Channel channel = hardwareChannel(dash);
+        session.addHardChannel(channel);
+
+        DashBoard otherDash = new DashBoard();
+        otherDash.id = 2;
+        otherDash.isActive = true;
+        otherDash.devices = dash.devices;
+        ValueDisplay otherDashWidget = widget();
+        otherDash.widgets = new Widget[] {otherDashWidget};
+        Channel otherDashChannel = hardwareChannel(otherDash);
+        session.addHardChannel(otherDashChannel);
+
+        worker.register(session, channel);
+        worker.register(session, otherDashChannel);
+        worker.run();
+        verify(widget).writeReadingCommand(channel);
+        verify(otherDashWidget).writeReadingCommand(otherDashChannel);
+
+        ValueDisplay newWidget = widget();
+        dash.widgets = new Widget[] {newWidget};
+        worker.refresh(new UserKey(user), dash);
+        //readings of the refreshed dash are due right away, the rest wait for their frequency
+        worker.run();
+        verify(newWidget).writeReadingCommand(channel);
+        verify(widget).writeReadingCommand(any());
+        verify(otherDashWidget).writeReadingCommand(any());
+    }
+
+    @Test
+    public void testRefreshOfUserWithoutSession() {
+        ValueDisplay widget = widget();
+        dash.widgets = new Widget[] {widget};
+        User otherUser = new User();
+        otherUser.email = "other@blynk.cc";
+
+        worker.refresh(new UserKey(otherUser), dash);
+        worker.run();
+        verify(widget, never()).writeReadingCommand(any());
+    }
+
+}
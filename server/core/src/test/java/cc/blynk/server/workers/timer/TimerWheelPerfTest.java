@@ -0,0 +1,52 @@
+package cc.blynk.server.workers.timer;
+
+import cc.blynk.server.core.dao.UserKey;
+import cc.blynk.server.core.model.widgets.others.eventor.TimerTime;
+import cc.blynk.server.core.model.widgets.others.eventor.model.action.BaseAction;
+
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Tick duration percentiles of one wheel (one shard) with millions of timers,
+ * for one day of ticks. Handler does nothing, so it is the wheel overhead only.
+ *
+ * Run with : java -Xmx4g TimerWheelPerfTest [timers]
+ */
+public class TimerWheelPerfTest {
+
+    private static final ZoneId[] ZONES = {
+            ZoneId.of("UTC"), ZoneId.of("Europe/Kiev"), ZoneId.of("America/New_York"), ZoneId.of("Asia/Tokyo")
+    };
+
+    public static void main(String[] args) {
+        int timers = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        long start = System.currentTimeMillis() / 1000;
+        TimerWheel wheel = new TimerWheel(start);
+        BaseAction[] actions = new BaseAction[0];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        long addStart = System.nanoTime();
+        for (int i = 0; i < timers; i++) {
+            UserKey userKey = new UserKey("user" + (i / 10) + "@blynk.cc", "Blynk");
+            int[] days = random.nextBoolean() ? new int[] {1, 2, 3, 4, 5, 6, 7} : new int[] {random.nextInt(1, 8)};
+            TimerTime time = new TimerTime(0, days, random.nextInt(86400), ZONES[i % ZONES.length]);
+            wheel.add(new TimerKey(userKey, 1, 0, i, 0, -1, -1, time), actions);
+        }
+        System.out.println("Added " + timers + " timers in " + (System.nanoTime() - addStart) / 1_000_000 + " ms.");
+
+        long[] durations = new long[86400];
+        long fired = 0;
+        for (int i = 0; i < durations.length; i++) {
+            long tickStart = System.nanoTime();
+            fired += wheel.advance(start + i, (key, timerActions) -> { });
+            durations[i] = System.nanoTime() - tickStart;
+        }
+        Arrays.sort(durations);
+        System.out.println("Fired " + fired + ". Tick duration p50 " + durations[43200] / 1000
+                + " us, p99 " + durations[85536] / 1000 + " us, p99.9 " + durations[86313] / 1000
+                + " us, max " + durations[86399] / 1000 + " us.");
+    }
+
+}
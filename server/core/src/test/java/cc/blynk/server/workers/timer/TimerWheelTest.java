@@ -0,0 +1,88 @@
+package cc.blynk.server.workers.timer;
+
+import cc.blynk.server.core.dao.UserKey;
+import cc.blynk.server.core.model.widgets.others.eventor.TimerTime;
+import cc.blynk.server.core.model.widgets.others.eventor.model.action.BaseAction;
+import org.junit.Test;
+
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TimerWheelTest {
+
+    private static final BaseAction[] NO_ACTIONS = new BaseAction[0];
+    private static final UserKey USER = new UserKey("test@blynk.cc", "Blynk");
+    //Monday, 16.10.2023 00:00:00 UTC
+    private static final long MONDAY = ZonedDateTime.of(2023, 10, 16, 0, 0, 0, 0, ZoneId.of("UTC")).toEpochSecond();
+
+    private static TimerKey key(int id, TimerTime time) {
+        return new TimerKey(USER, 1, 0, id, 0, -1, -1, time);
+    }
+
+    private static List<Long> run(TimerWheel wheel, long from, long to) {
+        List<Long> fired = new ArrayList<>();
+        for (long second = from; second <= to; second++) {
+            long now = second;
+            wheel.advance(now, (key, actions) -> fired.add(now));
+        }
+        return fired;
+    }
+
+    @Test
+    public void testNextFireSecondRespectsUserDays() {
+        //10:00 UTC, only sunday in Kiev (UTC+3), that is sunday 13:00 in Kiev
+        TimerTime time = new TimerTime(0, new int[] {7}, 36000, ZoneId.of("Europe/Kiev"));
+        assertEquals(MONDAY + 6 * 86400 + 36000, TimerWheel.nextFireSecond(time, MONDAY));
+
+        //23:30 UTC is next day in Kiev, so monday in Kiev is sunday 23:30 UTC
+        time = new TimerTime(0, new int[] {1}, 84600, ZoneId.of("Europe/Kiev"));
+        assertEquals(MONDAY + 6 * 86400 + 84600, TimerWheel.nextFireSecond(time, MONDAY));
+
+        assertEquals(-1, TimerWheel.nextFireSecond(new TimerTime(0, new int[0], 10, ZoneId.of("UTC")), MONDAY));
+    }
+
+    @Test
+    public void testFiresEveryDayAcrossHours() {
+        TimerWheel wheel = new TimerWheel(MONDAY);
+        wheel.add(key(1, new TimerTime(7205)), NO_ACTIONS);
+
+        List<Long> fired = run(wheel, MONDAY, MONDAY + 2 * 86400);
+        assertEquals(2, fired.size());
+        assertEquals(MONDAY + 7205, (long) fired.get(0));
+        assertEquals(MONDAY + 86400 + 7205, (long) fired.get(1));
+    }
+
+    @Test
+    public void testRemovedAndReplacedTimers() {
+        TimerWheel wheel = new TimerWheel(MONDAY);
+        TimerKey removed = key(1, new TimerTime(5));
+        wheel.add(removed, NO_ACTIONS);
+        wheel.add(key(2, new TimerTime(5)), NO_ACTIONS);
+        wheel.add(key(2, new TimerTime(5)), NO_ACTIONS);
+        wheel.remove(removed);
+
+        assertEquals(1, wheel.size);
+        assertEquals(1, run(wheel, MONDAY, MONDAY + 10).size());
+    }
+
+    @Test
+    public void testLongPauseSkipsMissedTimers() {
+        TimerWheel wheel = new TimerWheel(MONDAY);
+        wheel.add(key(1, new TimerTime(5)), NO_ACTIONS);
+        wheel.add(key(2, new TimerTime(100)), NO_ACTIONS);
+
+        List<Long> fired = run(wheel, MONDAY + 99, MONDAY + 100);
+        assertEquals(1, fired.size());
+        assertEquals(MONDAY + 100, (long) fired.get(0));
+
+        fired = run(wheel, MONDAY + 86400, MONDAY + 86400 + 100);
+        assertEquals(2, fired.size());
+        assertTrue(fired.contains(MONDAY + 86400 + 5));
+    }
+
+}
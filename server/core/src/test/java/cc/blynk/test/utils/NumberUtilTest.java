@@ -2,6 +2,7 @@ package cc.blynk.test.utils;
 
 import org.junit.Test;
 
+import java.nio.charset.StandardCharsets;
 import java.util.concurrent.ThreadLocalRandom;
 
 import static cc.blynk.utils.NumberUtil.NO_RESULT;
@@ -89,4 +90,19 @@ public class NumberUtilTest {
         d = parseDouble("-1.0");
         assertEquals(d, -1.0, 0.0000000001);
     }
+
+    @Test
+    public void testBytesParsingSameAsString() {
+        String[] values = {"0", "1.0", "+1.0", "-1.0", "123.123F", "p 123.123", "", "-", ".", "1e3", "-2.5E-3",
+                "22.5", "1\u00002", "тест", String.valueOf(Long.MAX_VALUE), String.valueOf(Double.MIN_VALUE)};
+        for (String value : values) {
+            byte[] bytes = ("vw\u00001\u0000" + value).getBytes(StandardCharsets.UTF_8);
+            assertEquals(value, parseDouble(value), parseDouble(bytes, 5, bytes.length), 0);
+        }
+        for (int i = 0; i < 10_000; i++) {
+            String value = String.valueOf(ThreadLocalRandom.current().nextDouble(-100000, 100000));
+            byte[] bytes = value.getBytes(StandardCharsets.US_ASCII);
+            assertEquals(parseDouble(value), parseDouble(bytes, 0, bytes.length), 0);
+        }
+    }
 }
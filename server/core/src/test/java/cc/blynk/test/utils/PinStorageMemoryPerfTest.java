@@ -0,0 +1,82 @@
+package cc.blynk.test.utils;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.enums.WidgetProperty;
+import cc.blynk.server.core.model.storage.PinPropertyStorageKey;
+import cc.blynk.server.core.model.storage.PinStorage;
+import cc.blynk.server.core.model.storage.PinStorageKey;
+import cc.blynk.server.core.model.storage.PinStorageValue;
+import cc.blynk.server.core.model.storage.SinglePinStorageValue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compares retained heap per user of the old Map<PinStorageKey, PinStorageValue> pins storage
+ * and PinStorage on the large set of synthetic profiles.
+ *
+ * Run with : java -Xmx4g PinStorageMemoryPerfTest [users] [devicesPerUser] [pinsPerDevice]
+ */
+public class PinStorageMemoryPerfTest {
+
+    public static void main(String[] args) {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int devices = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        int pins = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+
+        long base = usedMemory();
+        Object[] maps = new Object[users];
+        for (int i = 0; i < users; i++) {
+            maps[i] = fillMap(devices, pins);
+        }
+        long mapBytes = usedMemory() - base;
+        maps = null;
+
+        base = usedMemory();
+        PinStorage[] storages = new PinStorage[users];
+        for (int i = 0; i < users; i++) {
+            storages[i] = fillStorage(devices, pins);
+        }
+        long storageBytes = usedMemory() - base;
+
+        System.out.println("Users : " + users + ", values per user : " + storages[0].size());
+        System.out.println("HashMap    : " + mapBytes / users + " bytes per user.");
+        System.out.println("PinStorage : " + storageBytes / users + " bytes per user.");
+    }
+
+    //every pin has value and label property, the same values shape for both storages
+    private static Map<PinStorageKey, PinStorageValue> fillMap(int devices, int pins) {
+        Map<PinStorageKey, PinStorageValue> map = new HashMap<>();
+        for (int deviceId = 0; deviceId < devices; deviceId++) {
+            for (int pin = 0; pin < pins; pin++) {
+                map.put(new PinStorageKey(deviceId, PinType.VIRTUAL, (byte) pin),
+                        new SinglePinStorageValue("1"));
+                map.put(new PinPropertyStorageKey(deviceId, PinType.VIRTUAL, (byte) pin, WidgetProperty.LABEL),
+                        new SinglePinStorageValue("label"));
+            }
+        }
+        return map;
+    }
+
+    private static PinStorage fillStorage(int devices, int pins) {
+        PinStorage pinStorage = new PinStorage();
+        for (int deviceId = 0; deviceId < devices; deviceId++) {
+            for (int pin = 0; pin < pins; pin++) {
+                pinStorage.put(PinStorage.key(deviceId, PinType.VIRTUAL, (byte) pin),
+                        new SinglePinStorageValue("1"));
+                pinStorage.put(PinStorage.key(deviceId, PinType.VIRTUAL, (byte) pin, WidgetProperty.LABEL),
+                        new SinglePinStorageValue("label"));
+            }
+        }
+        return pinStorage;
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+}
@@ -0,0 +1,108 @@
+package cc.blynk.test.utils;
+
+import cc.blynk.server.core.BlockingIOProcessor;
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import cc.blynk.server.core.reporting.average.AggregationKey;
+import cc.blynk.server.core.reporting.average.AggregationValue;
+import cc.blynk.server.core.reporting.raw.BaseReportingKey;
+import cc.blynk.server.core.reporting.raw.RawDataBatch;
+import cc.blynk.server.core.reporting.raw.RawDataProcessor;
+import cc.blynk.server.db.ReportingDBManager;
+import cc.blynk.server.db.dao.ReportingBulkLoader;
+import cc.blynk.utils.AppNameUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.Connection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rows/sec of binary COPY vs multi-row INSERT for reporting tables.
+ * Requires DB from db-test.properties. Every invocation is rolled back,
+ * so tables don't grow during the run.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 2, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 2, timeUnit = TimeUnit.SECONDS)
+public class ReportingDBInsertPerfTest {
+
+    private static final int ROWS = 10_000;
+
+    @Param({"copy", "insert"})
+    private String method;
+
+    private BlockingIOProcessor blockingIOProcessor;
+    private ReportingDBManager reportingDBManager;
+    private Connection connection;
+    private Map<AggregationKey, AggregationValue> averageData;
+    private RawDataBatch rawDataBatch;
+
+    @Setup
+    public void setup() throws Exception {
+        blockingIOProcessor = new BlockingIOProcessor(1, 100);
+        reportingDBManager = new ReportingDBManager("db-test.properties", blockingIOProcessor, true);
+        connection = reportingDBManager.getConnection();
+
+        averageData = new HashMap<>();
+        RawDataProcessor rawDataProcessor = new RawDataProcessor(true, null, ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            BaseReportingKey key = new BaseReportingKey("test" + (i % 100) + "@test.com", AppNameUtil.BLYNK,
+                    1, i % 10, PinType.VIRTUAL, (byte) (i % 128));
+            AggregationValue value = new AggregationValue();
+            value.update(i);
+            averageData.put(new AggregationKey(key, i), value);
+            rawDataProcessor.collect(key, i, "" + i, i);
+        }
+        rawDataBatch = new RawDataBatch(ROWS);
+        rawDataProcessor.drain(rawDataBatch);
+    }
+
+    @TearDown(Level.Invocation)
+    public void rollback() throws Exception {
+        connection.rollback();
+    }
+
+    @TearDown
+    public void close() throws Exception {
+        connection.close();
+        reportingDBManager.close();
+        blockingIOProcessor.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public long averageMinute() throws Exception {
+        if ("copy".equals(method)) {
+            return ReportingBulkLoader.copyAverage(connection, averageData, GraphGranularityType.MINUTE);
+        }
+        return ReportingBulkLoader.insertAverage(connection, averageData, GraphGranularityType.MINUTE);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public long rawData() throws Exception {
+        if ("copy".equals(method)) {
+            return ReportingBulkLoader.copyRawData(connection, rawDataBatch);
+        }
+        return ReportingBulkLoader.insertRawData(connection, rawDataBatch);
+    }
+
+}
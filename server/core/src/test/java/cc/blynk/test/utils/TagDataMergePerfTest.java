@@ -0,0 +1,90 @@
+package cc.blynk.test.utils;
+
+import cc.blynk.server.core.dao.functions.GraphDataMerger;
+import cc.blynk.server.core.dao.functions.GraphFunction;
+import cc.blynk.server.core.model.widgets.outputs.graph.AggregationFunctionType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tag graph of DAY period (1440 minute points per device).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+public class TagDataMergePerfTest {
+
+    private static final int POINTS = 1440;
+
+    @Param({"10", "100", "500"})
+    private int devices;
+
+    @Param({"AVG", "MED"})
+    private AggregationFunctionType functionType;
+
+    private ByteBuffer[] devicesData;
+
+    @Setup
+    public void setup() {
+        devicesData = new ByteBuffer[devices];
+        long now = System.currentTimeMillis() / 60_000 * 60_000;
+        for (int i = 0; i < devices; i++) {
+            ByteBuffer buf = ByteBuffer.allocate(POINTS * 16);
+            for (int point = 0; point < POINTS; point++) {
+                buf.putDouble(ThreadLocalRandom.current().nextDouble())
+                   .putLong(now - (POINTS - point) * 60_000L);
+            }
+            buf.flip();
+            devicesData[i] = buf;
+        }
+    }
+
+    @Benchmark
+    public ByteBuffer treeMap() {
+        TreeMap<Long, GraphFunction> data = new TreeMap<>();
+        for (ByteBuffer deviceData : devicesData) {
+            ByteBuffer localByteBuf = deviceData.duplicate();
+            while (localByteBuf.hasRemaining()) {
+                double newVal = localByteBuf.getDouble();
+                Long ts = localByteBuf.getLong();
+                GraphFunction graphFunctionObj = data.get(ts);
+                if (graphFunctionObj == null) {
+                    graphFunctionObj = functionType.produce();
+                    data.put(ts, graphFunctionObj);
+                }
+                graphFunctionObj.apply(newVal);
+            }
+        }
+
+        ByteBuffer result = ByteBuffer.allocate(data.size() * 16);
+        for (Map.Entry<Long, GraphFunction> entry : data.entrySet()) {
+            result.putDouble(entry.getValue().getResult())
+                    .putLong(entry.getKey());
+        }
+        return result;
+    }
+
+    @Benchmark
+    public ByteBuffer kWayMerge() {
+        return GraphDataMerger.merge(devicesData, functionType);
+    }
+
+}
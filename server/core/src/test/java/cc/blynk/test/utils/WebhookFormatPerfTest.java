@@ -0,0 +1,120 @@
+package cc.blynk.test.utils;
+
+import cc.blynk.server.core.model.widgets.others.webhook.WebHookTemplate;
+import cc.blynk.utils.StringUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+
+import static cc.blynk.utils.StringUtils.DATETIME_PATTERN;
+import static cc.blynk.utils.StringUtils.GENERIC_PLACEHOLDER;
+import static cc.blynk.utils.StringUtils.PIN_PATTERN;
+import static cc.blynk.utils.StringUtils.PIN_PATTERN_0;
+import static cc.blynk.utils.StringUtils.PIN_PATTERN_1;
+import static cc.blynk.utils.StringUtils.PIN_PATTERN_2;
+import static cc.blynk.utils.StringUtils.PIN_PATTERN_3;
+import static cc.blynk.utils.StringUtils.PIN_PATTERN_4;
+import static cc.blynk.utils.StringUtils.PIN_PATTERN_5;
+import static cc.blynk.utils.StringUtils.PIN_PATTERN_6;
+import static cc.blynk.utils.StringUtils.PIN_PATTERN_7;
+import static cc.blynk.utils.StringUtils.PIN_PATTERN_8;
+import static cc.blynk.utils.StringUtils.PIN_PATTERN_9;
+
+/**
+ * Webhook url + body formatting with regex replace per placeholder
+ * against precompiled templates. Covers /pin/, /pin[N]/, %s and /datetime_iso/ placeholders.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+public class WebhookFormatPerfTest {
+
+    private static final String URL = "https://api.example.com/update?api_key=abc&field1=/pin/";
+    private static final String BODY =
+            "{\"ts\":\"/datetime_iso/\",\"t\":/pin[0]/,\"h\":/pin[1]/,\"p\":/pin[2]/,\"raw\":\"%s\"}";
+
+    @Param({"22.5", "22.5\0" + "41\0" + "1013"})
+    public String value;
+
+    private WebHookTemplate urlTemplate;
+    private WebHookTemplate bodyTemplate;
+
+    @Setup
+    public void setup() {
+        this.urlTemplate = WebHookTemplate.compile(URL);
+        this.bodyTemplate = WebHookTemplate.compile(BODY);
+
+        //both ways should produce the same result, datetime differs between calls so it is skipped
+        String[] parts = WebHookTemplate.splitValue(value);
+        String noDateTimeBody = BODY.replace("/datetime_iso/", "");
+        if (!format(URL, value).equals(urlTemplate.render(value, parts))
+                || !format(noDateTimeBody, value).equals(
+                        WebHookTemplate.compile(noDateTimeBody).render(value, parts))) {
+            throw new IllegalStateException("Template differs from regex format.");
+        }
+    }
+
+    @Benchmark
+    public void regexFormat(Blackhole bh) {
+        bh.consume(format(URL, value));
+        bh.consume(format(BODY, value));
+    }
+
+    @Benchmark
+    public void templateRender(Blackhole bh) {
+        String[] parts = WebHookTemplate.splitValue(value);
+        bh.consume(urlTemplate.render(value, parts));
+        bh.consume(bodyTemplate.render(value, parts));
+    }
+
+    //previous WebhookProcessor.format
+    private static String format(String data, String triggerValue) {
+        String quotedValue = Matcher.quoteReplacement(triggerValue);
+        data = PIN_PATTERN.matcher(data).replaceFirst(quotedValue);
+
+        String[] splitted = quotedValue.split(StringUtils.BODY_SEPARATOR_STRING);
+        switch (splitted.length) {
+            case 10 :
+                data = PIN_PATTERN_9.matcher(data).replaceFirst(splitted[9]);
+            case 9 :
+                data = PIN_PATTERN_8.matcher(data).replaceFirst(splitted[8]);
+            case 8 :
+                data = PIN_PATTERN_7.matcher(data).replaceFirst(splitted[7]);
+            case 7 :
+                data = PIN_PATTERN_6.matcher(data).replaceFirst(splitted[6]);
+            case 6 :
+                data = PIN_PATTERN_5.matcher(data).replaceFirst(splitted[5]);
+            case 5 :
+                data = PIN_PATTERN_4.matcher(data).replaceFirst(splitted[4]);
+            case 4 :
+                data = PIN_PATTERN_3.matcher(data).replaceFirst(splitted[3]);
+            case 3 :
+                data = PIN_PATTERN_2.matcher(data).replaceFirst(splitted[2]);
+            case 2 :
+                data = PIN_PATTERN_1.matcher(data).replaceFirst(splitted[1]);
+            case 1 :
+                data = PIN_PATTERN_0.matcher(data).replaceFirst(splitted[0]);
+            default :
+                data = GENERIC_PLACEHOLDER.matcher(data).replaceFirst(quotedValue);
+                data = DATETIME_PATTERN.matcher(data).replaceFirst(Instant.now().toString());
+        }
+        return data;
+    }
+
+}
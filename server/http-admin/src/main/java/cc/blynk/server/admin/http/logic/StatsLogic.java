@@ -6,10 +6,12 @@ import cc.blynk.core.http.annotation.GET;
 import cc.blynk.core.http.annotation.Path;
 import cc.blynk.core.http.annotation.QueryParam;
 import cc.blynk.server.Holder;
+import cc.blynk.server.admin.http.response.EventorRuleStatResponse;
 import cc.blynk.server.admin.http.response.IpNameResponse;
 import cc.blynk.server.admin.http.response.RequestPerSecondResponse;
 import cc.blynk.server.core.BlockingIOProcessor;
 import cc.blynk.server.core.dao.FileManager;
+import cc.blynk.server.core.dao.LoopSessions;
 import cc.blynk.server.core.dao.UserDao;
 import cc.blynk.server.core.dao.UserKey;
 import cc.blynk.server.core.model.DashBoard;
@@ -17,7 +19,10 @@ import cc.blynk.server.core.model.auth.Session;
 import cc.blynk.server.core.model.auth.User;
 import cc.blynk.server.core.model.device.Device;
 import cc.blynk.server.core.model.serialization.JsonParser;
+import cc.blynk.server.core.model.widgets.others.eventor.Eventor;
+import cc.blynk.server.core.model.widgets.others.eventor.Rule;
 import cc.blynk.server.core.model.widgets.ui.reporting.ReportScheduler;
+import cc.blynk.server.core.reporting.raw.RawDataProcessor;
 import cc.blynk.server.core.stats.GlobalStats;
 import cc.blynk.server.core.stats.model.Stat;
 import io.netty.channel.ChannelHandler;
@@ -47,6 +52,7 @@ public class StatsLogic extends CookiesBaseHttpHandler {
     private final BlockingIOProcessor blockingIOProcessor;
     private final GlobalStats globalStats;
     private final ReportScheduler reportScheduler;
+    private final RawDataProcessor rawDataProcessor;
 
     public StatsLogic(Holder holder, String rootPath) {
         super(holder, rootPath);
@@ -55,13 +61,15 @@ public class StatsLogic extends CookiesBaseHttpHandler {
         this.blockingIOProcessor = holder.blockingIOProcessor;
         this.globalStats = holder.stats;
         this.reportScheduler = holder.reportScheduler;
+        this.rawDataProcessor = holder.reportingDiskDao.rawDataProcessor;
     }
 
     @GET
     @Path("/realtime")
     public Response getReatime() {
        return ok(Collections.singletonList(
-               new Stat(sessionDao, userDao, blockingIOProcessor, globalStats, reportScheduler, false)));
+               new Stat(sessionDao, userDao, blockingIOProcessor, globalStats, reportScheduler,
+                        rawDataProcessor, false)));
     }
 
     @GET
@@ -69,14 +77,16 @@ public class StatsLogic extends CookiesBaseHttpHandler {
     public Response getRequestPerUser(@QueryParam("_sortField") String sortField,
                                           @QueryParam("_sortDir") String sortOrder) {
         List<RequestPerSecondResponse> res = new ArrayList<>();
-        for (Map.Entry<UserKey, Session> entry : sessionDao.userSession.entrySet()) {
-            Session session = entry.getValue();
+        for (LoopSessions loopSessions : sessionDao.loopSessions()) {
+            for (Map.Entry<UserKey, Session> entry : loopSessions.snapshot().entrySet()) {
+                Session session = entry.getValue();
 
-            int appReqRate = session.getAppRequestRate();
-            int hardReqRate = session.getHardRequestRate();
+                int appReqRate = session.getAppRequestRate();
+                int hardReqRate = session.getHardRequestRate();
 
-            if (appReqRate > 0 || hardReqRate > 0) {
-                res.add(new RequestPerSecondResponse(entry.getKey().email, appReqRate, hardReqRate));
+                if (appReqRate > 0 || hardReqRate > 0) {
+                    res.add(new RequestPerSecondResponse(entry.getKey().email, appReqRate, hardReqRate));
+                }
             }
         }
         return ok(sort(res, sortField, sortOrder));
@@ -87,7 +97,8 @@ public class StatsLogic extends CookiesBaseHttpHandler {
     public Response getMessages(@QueryParam("_sortField") String sortField,
                                     @QueryParam("_sortDir") String sortOrder) {
         return ok(sort(convertObjectToMap(
-                new Stat(sessionDao, userDao, blockingIOProcessor, globalStats, reportScheduler, false).commands),
+                new Stat(sessionDao, userDao, blockingIOProcessor, globalStats, reportScheduler,
+                        rawDataProcessor, false).commands),
                 sortField, sortOrder));
     }
 
@@ -141,6 +152,29 @@ public class StatsLogic extends CookiesBaseHttpHandler {
         return ok(sortStringAsInt(convertMapToPair(userDao.getWebHookHosts()), sortField, sortOrder));
     }
 
+    @GET
+    @Path("/eventorRules")
+    public Response getEventorRules(@QueryParam("_sortField") String sortField,
+                                    @QueryParam("_sortDir") String sortOrder) {
+        List<EventorRuleStatResponse> res = new ArrayList<>();
+        for (User user : userDao.users.values()) {
+            for (DashBoard dash : user.profile.dashBoards) {
+                Eventor eventor = dash.getEventorWidget();
+                if (eventor != null && eventor.rules != null) {
+                    for (int i = 0; i < eventor.rules.length; i++) {
+                        Rule rule = eventor.rules[i];
+                        long evaluations = rule.evaluations.sum();
+                        if (evaluations > 0) {
+                            res.add(new EventorRuleStatResponse(user.email + "-" + dash.id + "-" + i,
+                                    evaluations, rule.hits.sum()));
+                        }
+                    }
+                }
+            }
+        }
+        return ok(sort(res, sortField, sortOrder));
+    }
+
     @GET
     @Path("/ips")
     public Response getIps(@QueryParam("_filters") String filterParam,
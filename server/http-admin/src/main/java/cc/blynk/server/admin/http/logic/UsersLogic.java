@@ -224,7 +224,7 @@ public class UsersLogic extends CookiesBaseHttpHandler {
 
         dbManager.deleteUser(userKey);
 
-        Session session = sessionDao.userSession.remove(userKey);
+        Session session = sessionDao.remove(userKey);
         if (session != null) {
             session.closeAll();
         }
@@ -0,0 +1,18 @@
+package cc.blynk.server.admin.http.response;
+
+public final class EventorRuleStatResponse {
+
+    //email-dashId-ruleIndex
+    public final String name;
+
+    public final long evaluations;
+
+    public final long hits;
+
+    public EventorRuleStatResponse(String name, long evaluations, long hits) {
+        this.name = name;
+        this.evaluations = evaluations;
+        this.hits = hits;
+    }
+
+}
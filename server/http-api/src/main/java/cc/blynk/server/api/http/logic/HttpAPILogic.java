@@ -3,8 +3,10 @@ package cc.blynk.server.api.http.logic;
 import cc.blynk.core.http.Response;
 import cc.blynk.core.http.TokenBaseHttpHandler;
 import cc.blynk.core.http.annotation.Consumes;
+import cc.blynk.core.http.annotation.Context;
 import cc.blynk.core.http.annotation.EnumQueryParam;
 import cc.blynk.core.http.annotation.GET;
+import cc.blynk.core.http.annotation.HeaderParam;
 import cc.blynk.core.http.annotation.Metric;
 import cc.blynk.core.http.annotation.POST;
 import cc.blynk.core.http.annotation.PUT;
@@ -12,10 +14,12 @@ import cc.blynk.core.http.annotation.Path;
 import cc.blynk.core.http.annotation.PathParam;
 import cc.blynk.core.http.annotation.QueryParam;
 import cc.blynk.server.Holder;
+import cc.blynk.server.api.http.pojo.BatchPinData;
 import cc.blynk.server.api.http.pojo.EmailPojo;
 import cc.blynk.server.api.http.pojo.PinData;
 import cc.blynk.server.api.http.pojo.PushMessagePojo;
 import cc.blynk.server.core.BlockingIOProcessor;
+import cc.blynk.server.core.dao.CSVGenerator;
 import cc.blynk.server.core.dao.FileManager;
 import cc.blynk.server.core.dao.ReportingDiskDao;
 import cc.blynk.server.core.dao.TokenValue;
@@ -27,7 +31,6 @@ import cc.blynk.server.core.model.auth.User;
 import cc.blynk.server.core.model.enums.PinType;
 import cc.blynk.server.core.model.enums.WidgetProperty;
 import cc.blynk.server.core.model.serialization.JsonParser;
-import cc.blynk.server.core.model.storage.PinStorageKey;
 import cc.blynk.server.core.model.storage.PinStorageValue;
 import cc.blynk.server.core.model.storage.SinglePinStorageValue;
 import cc.blynk.server.core.model.widgets.MultiPinWidget;
@@ -35,6 +38,7 @@ import cc.blynk.server.core.model.widgets.OnePinWidget;
 import cc.blynk.server.core.model.widgets.Widget;
 import cc.blynk.server.core.model.widgets.notifications.Notification;
 import cc.blynk.server.core.model.widgets.others.rtc.RTC;
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
 import cc.blynk.server.core.model.widgets.ui.tiles.DeviceTiles;
 import cc.blynk.server.core.processors.EventorProcessor;
 import cc.blynk.server.core.protocol.exceptions.IllegalCommandBodyException;
@@ -46,14 +50,27 @@ import cc.blynk.utils.StringUtils;
 import cc.blynk.utils.TokenGeneratorUtil;
 import cc.blynk.utils.http.MediaType;
 import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.HttpChunkedInput;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpResponse;
 import net.glxn.qrgen.core.image.ImageType;
 import net.glxn.qrgen.javase.QRCode;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.nio.ByteBuffer;
 import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import static cc.blynk.core.http.Response.badRequest;
+import static cc.blynk.core.http.Response.noResponse;
 import static cc.blynk.core.http.Response.ok;
 import static cc.blynk.core.http.Response.redirect;
 import static cc.blynk.server.core.protocol.enums.Command.HARDWARE;
@@ -68,6 +85,13 @@ import static cc.blynk.server.core.protocol.enums.Command.HTTP_QR;
 import static cc.blynk.server.core.protocol.enums.Command.HTTP_UPDATE_PIN_DATA;
 import static cc.blynk.server.core.protocol.enums.Command.SET_WIDGET_PROPERTY;
 import static cc.blynk.utils.StringUtils.BODY_SEPARATOR;
+import static io.netty.handler.codec.http.HttpHeaderNames.ACCESS_CONTROL_ALLOW_ORIGIN;
+import static io.netty.handler.codec.http.HttpHeaderNames.CONTENT_DISPOSITION;
+import static io.netty.handler.codec.http.HttpHeaderNames.CONTENT_ENCODING;
+import static io.netty.handler.codec.http.HttpHeaderNames.CONTENT_TYPE;
+import static io.netty.handler.codec.http.HttpHeaderNames.TRANSFER_ENCODING;
+import static io.netty.handler.codec.http.HttpResponseStatus.OK;
+import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
 
 /**
  * The Blynk Project.
@@ -194,7 +218,7 @@ public class HttpAPILogic extends TokenBaseHttpHandler {
         Widget widget = dashBoard.findWidgetByPin(deviceId, pin, pinType);
 
         if (widget == null) {
-            PinStorageValue value = dashBoard.pinsStorage.get(new PinStorageKey(deviceId, pinType, pin));
+            PinStorageValue value = dashBoard.pinsStorage.get(deviceId, pinType, pin);
             if (value == null) {
                 log.debug("Requested pin {} not found. User {}", pinString, user.email);
                 return badRequest("Requested pin doesn't exist in the app.");
@@ -277,8 +301,14 @@ public class HttpAPILogic extends TokenBaseHttpHandler {
     @GET
     @Path("{token}/data/{pin}")
     @Metric(HTTP_GET_HISTORY_DATA)
-    public Response getPinHistoryData(@PathParam("token") String token,
-                                      @PathParam("pin") String pinString) {
+    public Response getPinHistoryData(@Context ChannelHandlerContext ctx,
+                                      @PathParam("token") String token,
+                                      @PathParam("pin") String pinString,
+                                      @QueryParam("format") String format,
+                                      @QueryParam("from") String fromString,
+                                      @QueryParam("to") String toString,
+                                      @QueryParam("granularity") String granularityString,
+                                      @HeaderParam("Accept-Encoding") String acceptEncoding) {
         TokenValue tokenValue = tokenManager.getTokenValueByToken(token);
 
         if (tokenValue == null) {
@@ -301,6 +331,11 @@ public class HttpAPILogic extends TokenBaseHttpHandler {
             return badRequest("Wrong pin format.");
         }
 
+        if (format != null) {
+            return streamPinHistoryData(ctx, user, dashId, deviceId, pinType, pin,
+                    format, fromString, toString, granularityString, acceptEncoding);
+        }
+
         //todo may be optimized
         try {
             java.nio.file.Path path = reportingDao.csvGenerator.createCSV(
@@ -315,6 +350,97 @@ public class HttpAPILogic extends TokenBaseHttpHandler {
         }
     }
 
+    private Response streamPinHistoryData(ChannelHandlerContext ctx, User user, int dashId, int deviceId,
+                                          PinType pinType, byte pin, String format,
+                                          String fromString, String toString, String granularityString,
+                                          String acceptEncoding) {
+        boolean ndjson;
+        if ("csv".equals(format)) {
+            ndjson = false;
+        } else if ("ndjson".equals(format)) {
+            ndjson = true;
+        } else {
+            log.debug("Wrong export format {}.", format);
+            return badRequest("Wrong format. Expecting csv or ndjson.");
+        }
+
+        if (!DataStream.isValid(pin, pinType)) {
+            log.debug("Wrong pin format. {}{}", pinType.pintTypeChar, pin);
+            return badRequest("Wrong pin format.");
+        }
+
+        GraphGranularityType granularity = getExportGranularity(granularityString);
+        if (granularity == null) {
+            log.debug("Wrong granularity {}.", granularityString);
+            return badRequest("Wrong granularity. Expecting minute, hourly or daily.");
+        }
+
+        long from;
+        long to;
+        try {
+            //by default the same amount of points as for csv file export is returned
+            from = fromString == null
+                    ? System.currentTimeMillis() - CSVGenerator.FETCH_COUNT * granularity.period
+                    : Long.parseLong(fromString);
+            to = toString == null ? Long.MAX_VALUE : Long.parseLong(toString);
+        } catch (NumberFormatException nfe) {
+            log.debug("Wrong time range. From : {}, to : {}.", fromString, toString);
+            return badRequest("Wrong time range.");
+        }
+        if (from >= to) {
+            log.debug("Wrong time range. From : {}, to : {}.", from, to);
+            return badRequest("Wrong time range.");
+        }
+
+        boolean gzip = acceptEncoding != null && acceptEncoding.contains(HttpHeaderValues.GZIP);
+        blockingIOProcessor.executeHistory(() -> {
+            ByteBuffer data = reportingDao.getByteBufferFromDisk(user, dashId, deviceId,
+                    pinType, pin, granularity, from, to);
+            if (!ctx.channel().isActive()) {
+                return;
+            }
+            if (data == null || !data.hasRemaining()) {
+                ctx.writeAndFlush(badRequest("No data."), ctx.voidPromise());
+                return;
+            }
+
+            String fileName = pinType.pintTypeChar + String.valueOf(pin) + (ndjson ? ".ndjson" : ".csv");
+            HttpResponse response = new DefaultHttpResponse(HTTP_1_1, OK);
+            response.headers()
+                    .set(CONTENT_TYPE, ndjson ? MediaType.APPLICATION_NDJSON : MediaType.TEXT_CSV)
+                    .set(TRANSFER_ENCODING, HttpHeaderValues.CHUNKED)
+                    .set(CONTENT_DISPOSITION, "attachment; filename=\"" + fileName + "\"")
+                    .set(ACCESS_CONTROL_ALLOW_ORIGIN, "*");
+            //compressed by PinHistoryChunkedInput, see there why not by HttpContentCompressor
+            if (gzip) {
+                response.headers().set(CONTENT_ENCODING, HttpHeaderValues.GZIP);
+            }
+
+            ctx.write(response);
+            //HttpChunkedInput writes the end marker (LastHttpContent) for us
+            ctx.writeAndFlush(new HttpChunkedInput(new PinHistoryChunkedInput(data, deviceId, ndjson, gzip)));
+        });
+
+        return noResponse();
+    }
+
+    private static GraphGranularityType getExportGranularity(String granularity) {
+        if (granularity == null) {
+            return GraphGranularityType.MINUTE;
+        }
+        //only base tiers keep raw history
+        switch (granularity) {
+            case "minute" :
+                return GraphGranularityType.MINUTE;
+            case "hourly" :
+                return GraphGranularityType.HOURLY;
+            case "daily" :
+                return GraphGranularityType.DAILY;
+            default:
+                return null;
+        }
+    }
+
     public Response updateWidgetProperty(String token,
                                          String pinString,
                                          WidgetProperty property,
@@ -536,6 +662,123 @@ public class HttpAPILogic extends TokenBaseHttpHandler {
         return ok();
     }
 
+    /**
+     * Updates many pins of many devices of the same user with one request.
+     * Body is json array or newline delimited json of the BatchPinData.
+     * Reporting gets every value, pins storage, eventor, hardware and apps get only
+     * the latest value of every pin. Messages are flushed once per channel.
+     */
+    @PUT
+    @Path("{token}/batch/update")
+    @Consumes(value = {MediaType.APPLICATION_JSON, MediaType.APPLICATION_NDJSON})
+    @Metric(HTTP_UPDATE_PIN_DATA)
+    public Response updateWidgetsPinData(@PathParam("token") String token,
+                                         BatchPinData[] pinsData) {
+
+        if (pinsData.length == 0) {
+            log.debug("No pin for update provided.");
+            return badRequest("No pin for update provided.");
+        }
+
+        TokenValue tokenValue = tokenManager.getTokenValueByToken(token);
+
+        if (tokenValue == null) {
+            log.debug("Requested token {} not found.", token);
+            return badRequest("Invalid token.");
+        }
+
+        User user = tokenValue.user;
+        UserKey userKey = new UserKey(user);
+        long now = System.currentTimeMillis();
+
+        //whole batch is validated before any write
+        Map<String, DeviceBatch> devices = new LinkedHashMap<>();
+        for (BatchPinData pinData : pinsData) {
+            String pinToken = pinData.token == null ? token : pinData.token;
+            DeviceBatch deviceBatch = devices.get(pinToken);
+            if (deviceBatch == null) {
+                TokenValue pinTokenValue = pinToken.equals(token)
+                        ? tokenValue
+                        : tokenManager.getTokenValueByToken(pinToken);
+                if (pinTokenValue == null) {
+                    log.debug("Requested token {} not found.", pinToken);
+                    return badRequest("Invalid token.");
+                }
+                if (!userKey.equals(new UserKey(pinTokenValue.user))) {
+                    log.debug("Token {} belongs to the other user. User {}.", pinToken, user.email);
+                    return badRequest("Token of the other user.");
+                }
+                deviceBatch = new DeviceBatch(pinTokenValue);
+                devices.put(pinToken, deviceBatch);
+            }
+
+            if (pinData.values == null || pinData.values.length == 0) {
+                log.debug("No pin for update provided.");
+                return badRequest("No pin for update provided.");
+            }
+
+            if (pinData.pin == null || pinData.pin.isEmpty()) {
+                log.debug("No pin provided.");
+                return badRequest("Wrong pin format.");
+            }
+
+            PinType pinType;
+            byte pin;
+
+            try {
+                pinType = PinType.getPinType(pinData.pin.charAt(0));
+                pin = Byte.parseByte(pinData.pin.substring(1));
+            } catch (NumberFormatException | IllegalCommandBodyException e) {
+                log.debug("Wrong pin format. {}", pinData.pin);
+                return badRequest("Wrong pin format.");
+            }
+
+            String pinValue = String.join(StringUtils.BODY_SEPARATOR_STRING, pinData.values);
+            deviceBatch.add(pinType, pin, pinValue, pinData.timestamp > 0 ? pinData.timestamp : now);
+        }
+
+        Session session = sessionDao.userSession.get(userKey);
+
+        for (DeviceBatch deviceBatch : devices.values()) {
+            DashBoard dash = deviceBatch.tokenValue.dash;
+            int deviceId = deviceBatch.tokenValue.device.id;
+            List<String> bodies = new ArrayList<>(deviceBatch.pins.size());
+
+            for (PinBatch pinBatch : deviceBatch.pins.values()) {
+                reportingDao.process(user, dash, deviceId, pinBatch.pin, pinBatch.pinType,
+                        pinBatch.values, pinBatch.timestamps, pinBatch.size);
+
+                String pinValue = pinBatch.values[pinBatch.latest];
+                long ts = pinBatch.timestamps[pinBatch.latest];
+                dash.update(deviceId, pinBatch.pin, pinBatch.pinType, pinValue, ts);
+
+                if (session != null) {
+                    eventorProcessor.process(user, session, dash, deviceId,
+                            pinBatch.pin, pinBatch.pinType, pinValue, ts);
+                }
+
+                String body = makeBody(dash, deviceId, pinBatch.pin, pinBatch.pinType, pinValue);
+                if (body != null) {
+                    bodies.add(body);
+                }
+            }
+            deviceBatch.tokenValue.device.dataReceivedAt = now;
+
+            if (session != null && bodies.size() > 0) {
+                session.sendMessagesToHardware(dash.id, HARDWARE, 111, bodies, deviceId);
+                if (dash.isActive) {
+                    session.sendToApps(HARDWARE, 111, dash.id, deviceId, bodies);
+                }
+            }
+        }
+
+        if (session == null) {
+            log.debug("No session for user {}.", user.email);
+        }
+
+        return ok();
+    }
+
     @POST
     @Path("{token}/notify")
     @Consumes(value = MediaType.APPLICATION_JSON)
@@ -633,4 +876,62 @@ public class HttpAPILogic extends TokenBaseHttpHandler {
         });
     }
 
+    //all batch values of one device, pins are in order of first appearance
+    private static final class DeviceBatch {
+
+        private final TokenValue tokenValue;
+        private final Map<Integer, PinBatch> pins = new LinkedHashMap<>();
+
+        private DeviceBatch(TokenValue tokenValue) {
+            this.tokenValue = tokenValue;
+        }
+
+        private void add(PinType pinType, byte pin, String value, long ts) {
+            int pinKey = (pinType.ordinal() << 8) | (pin & 0xFF);
+            PinBatch pinBatch = pins.get(pinKey);
+            if (pinBatch == null) {
+                pinBatch = new PinBatch(pinType, pin);
+                pins.put(pinKey, pinBatch);
+            }
+            pinBatch.add(value, ts);
+        }
+    }
+
+    //values of one pin, one value per timestamp, as reporting can't store 2 values with the same ts
+    private static final class PinBatch {
+
+        private final PinType pinType;
+        private final byte pin;
+        private String[] values = new String[4];
+        private long[] timestamps = new long[4];
+        private final Map<Long, Integer> indexByTs = new HashMap<>();
+        private int size;
+        //index of the value with the latest timestamp
+        private int latest;
+
+        private PinBatch(PinType pinType, byte pin) {
+            this.pinType = pinType;
+            this.pin = pin;
+        }
+
+        private void add(String value, long ts) {
+            //entries without timestamp get the same request time, the last value wins
+            Integer index = indexByTs.putIfAbsent(ts, size);
+            if (index != null) {
+                values[index] = value;
+                return;
+            }
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+                timestamps = Arrays.copyOf(timestamps, size * 2);
+            }
+            values[size] = value;
+            timestamps[size] = ts;
+            if (ts >= timestamps[latest]) {
+                latest = size;
+            }
+            size++;
+        }
+    }
+
 }
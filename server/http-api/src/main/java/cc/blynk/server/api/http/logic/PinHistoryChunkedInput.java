@@ -0,0 +1,141 @@
+package cc.blynk.server.api.http.logic;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.compression.ZlibCodecFactory;
+import io.netty.handler.codec.compression.ZlibWrapper;
+import io.netty.handler.stream.ChunkedInput;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Formats pin history records (8 bytes double value + 8 bytes long ts) into CSV or NDJSON
+ * lines chunk by chunk. Raw records are read into memory at once (16 bytes per point, bounded
+ * by the records count kept in the reporting storage), while the formatted export, that is
+ * few times bigger, is never materialized in memory or on disk.
+ * Chunks are optionally gzipped on the fly with netty zlib encoder.
+ * HttpContentCompressor is not used on purpose : it would have to sit in the http pipeline
+ * shared by all api calls, static files and websocket upgrades and it can't compress
+ * DefaultFileRegion that StaticFileHandler sends on plain connections - it would set
+ * gzip Content-Encoding and pass raw file bytes. So only this export is compressed, here.
+ */
+final class PinHistoryChunkedInput implements ChunkedInput<ByteBuf> {
+
+    private static final int SIZE_OF_RECORD = 16;
+    private static final int RECORDS_PER_CHUNK = 1024;
+
+    private final ByteBuffer data;
+    private final int deviceId;
+    private final boolean ndjson;
+    private final long length;
+    private final StringBuilder sb = new StringBuilder(RECORDS_PER_CHUNK * 32);
+    private final EmbeddedChannel encoder;
+    private long progress;
+    private boolean finished;
+
+    PinHistoryChunkedInput(ByteBuffer data, int deviceId, boolean ndjson, boolean gzip) {
+        this.data = data;
+        this.deviceId = deviceId;
+        this.ndjson = ndjson;
+        this.length = data.remaining() / SIZE_OF_RECORD;
+        this.encoder = gzip ? new EmbeddedChannel(ZlibCodecFactory.newZlibEncoder(ZlibWrapper.GZIP)) : null;
+    }
+
+    @Override
+    public boolean isEndOfInput() {
+        return !data.hasRemaining() && (encoder == null || finished);
+    }
+
+    @Override
+    public void close() {
+        if (encoder != null) {
+            encoder.finishAndReleaseAll();
+        }
+    }
+
+    @Override
+    @Deprecated
+    public ByteBuf readChunk(ChannelHandlerContext ctx) {
+        return readChunk(ctx.alloc());
+    }
+
+    @Override
+    public ByteBuf readChunk(ByteBufAllocator allocator) {
+        while (data.hasRemaining()) {
+            ByteBuf chunk = formatChunk(allocator);
+            if (encoder == null) {
+                return chunk;
+            }
+            encoder.writeOutbound(chunk);
+            ByteBuf compressed = readCompressed(allocator);
+            //deflater may buffer small input, so keep feeding it
+            if (compressed != null) {
+                return compressed;
+            }
+        }
+
+        if (encoder != null && !finished) {
+            finished = true;
+            //writes gzip trailer
+            encoder.finish();
+            ByteBuf trailer = readCompressed(allocator);
+            return trailer == null ? allocator.buffer(0) : trailer;
+        }
+        return null;
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public long progress() {
+        return progress;
+    }
+
+    private ByteBuf formatChunk(ByteBufAllocator allocator) {
+        sb.setLength(0);
+        for (int i = 0; i < RECORDS_PER_CHUNK && data.hasRemaining(); i++) {
+            double value = data.getDouble();
+            long ts = data.getLong();
+            if (ndjson) {
+                sb.append("{\"value\":");
+                //NaN and Infinity are not valid json numbers
+                if (Double.isFinite(value)) {
+                    sb.append(value);
+                } else {
+                    sb.append("null");
+                }
+                sb.append(",\"ts\":").append(ts).append(",\"deviceId\":").append(deviceId).append("}\n");
+            } else {
+                sb.append(value).append(',').append(ts).append(',').append(deviceId).append('\n');
+            }
+            progress++;
+        }
+        ByteBuf chunk = allocator.buffer(sb.length());
+        ByteBufUtil.writeAscii(chunk, sb);
+        return chunk;
+    }
+
+    private ByteBuf readCompressed(ByteBufAllocator allocator) {
+        CompositeByteBuf result = null;
+        ByteBuf buf;
+        while ((buf = encoder.readOutbound()) != null) {
+            if (!buf.isReadable()) {
+                buf.release();
+                continue;
+            }
+            if (result == null) {
+                result = allocator.compositeBuffer();
+            }
+            result.addComponent(true, buf);
+        }
+        return result;
+    }
+
+}
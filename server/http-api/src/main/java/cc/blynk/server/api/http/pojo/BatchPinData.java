@@ -0,0 +1,18 @@
+package cc.blynk.server.api.http.pojo;
+
+/**
+ * One entry of the batch pins update. Token may be omitted,
+ * in that case token of the request is used.
+ */
+public class BatchPinData {
+
+    public String token;
+
+    public String pin;
+
+    public String[] values;
+
+    //0 means time of the request
+    public long timestamp;
+
+}
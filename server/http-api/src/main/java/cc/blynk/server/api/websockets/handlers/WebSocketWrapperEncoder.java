@@ -1,5 +1,6 @@
 package cc.blynk.server.api.websockets.handlers;
 
+import cc.blynk.server.core.protocol.model.messages.EncodedMessage;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
@@ -22,6 +23,8 @@ public class WebSocketWrapperEncoder extends ChannelOutboundHandlerAdapter {
         if (ctx.channel().isWritable()) {
             if (msg instanceof ByteBuf) {
                 super.write(ctx, new BinaryWebSocketFrame((ByteBuf) msg), promise);
+            } else if (msg instanceof EncodedMessage) {
+                super.write(ctx, new BinaryWebSocketFrame(((EncodedMessage) msg).content()), promise);
             } else {
                 super.write(ctx, msg, promise);
             }
@@ -0,0 +1,73 @@
+package cc.blynk.server.api.http.logic;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+
+public class PinHistoryChunkedInputTest {
+
+    private static ByteBuffer records(int count) {
+        ByteBuffer data = ByteBuffer.allocate(count * 16);
+        for (int i = 0; i < count; i++) {
+            data.putDouble(i);
+            data.putLong(1000L + i);
+        }
+        data.flip();
+        return data;
+    }
+
+    private static ByteBuf readAll(PinHistoryChunkedInput input) {
+        ByteBuf result = Unpooled.buffer();
+        while (!input.isEndOfInput()) {
+            ByteBuf chunk = input.readChunk(ByteBufAllocator.DEFAULT);
+            result.writeBytes(chunk);
+            chunk.release();
+        }
+        input.close();
+        return result;
+    }
+
+    @Test
+    public void testCsv() {
+        PinHistoryChunkedInput input = new PinHistoryChunkedInput(records(2), 7, false, false);
+        assertEquals(2, input.length());
+        ByteBuf result = readAll(input);
+        assertEquals("0.0,1000,7\n1.0,1001,7\n", result.toString(StandardCharsets.US_ASCII));
+        assertEquals(2, input.progress());
+    }
+
+    @Test
+    public void testNdjsonNonFiniteValue() {
+        ByteBuffer data = ByteBuffer.allocate(16);
+        data.putDouble(Double.NaN).putLong(1000L).flip();
+        ByteBuf result = readAll(new PinHistoryChunkedInput(data, 0, true, false));
+        assertEquals("{\"value\":null,\"ts\":1000,\"deviceId\":0}\n", result.toString(StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void testGzipSpansManyChunks() throws Exception {
+        int count = 5000;
+        ByteBuf result = readAll(new PinHistoryChunkedInput(records(count), 1, false, true));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = new GZIPInputStream(new ByteBufInputStream(result, true))) {
+            in.transferTo(out);
+        }
+        String[] lines = new String(out.toByteArray(), StandardCharsets.US_ASCII).split("\n");
+        assertEquals(count, lines.length);
+        assertEquals("0.0,1000,1", lines[0]);
+        assertEquals("4999.0,5999,1", lines[count - 1]);
+        assertEquals(0, result.refCnt());
+    }
+
+}
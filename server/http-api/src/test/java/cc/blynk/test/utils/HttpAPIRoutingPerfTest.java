@@ -0,0 +1,166 @@
+package cc.blynk.test.utils;
+
+import cc.blynk.core.http.AnnotationsProcessor;
+import cc.blynk.core.http.BaseHttpHandler;
+import cc.blynk.core.http.UriRouter;
+import cc.blynk.core.http.annotation.Path;
+import cc.blynk.core.http.rest.HandlerHolder;
+import cc.blynk.core.http.rest.HandlerWrapper;
+import cc.blynk.core.http.rest.URIDecoder;
+import cc.blynk.server.api.http.logic.HttpAPILogic;
+import cc.blynk.server.core.dao.TokenManager;
+import cc.blynk.server.core.stats.GlobalStats;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpVersion;
+import org.objenesis.ObjenesisStd;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Route + invoke latency of the HttpAPILogic /{token}/update/{pin} and /{token}/get/{pin} endpoints.
+ * Compares segment trie routing with generated invokers against the previous regex per handler
+ * lookup with Method.invoke. Token is unknown, so handler returns right after token lookup.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 20, time = 1, timeUnit = TimeUnit.SECONDS)
+public class HttpAPIRoutingPerfTest {
+
+    //the same conversion UriTemplate did
+    private static final String URL_PARAM_REGEX = "\\{(\\w*?)\\}";
+    private static final String URL_PARAM_MATCH_REGEX =
+            "\\([%\\\\w-.\\\\~!\\$&'\\\\(\\\\)\\\\*\\\\+,;=:\\\\[\\\\]@]+?\\)";
+    private static final String URL_QUERY_STRING_REGEX = "(?:\\?.*?)?$";
+
+    private static final String TOKEN = "4ae3851817194e2596cf1b7103603ef8";
+
+    private UriRouter router;
+    private List<LegacyRoute> legacyRoutes;
+    private HttpAPILogic httpAPILogic;
+
+    private final DefaultFullHttpRequest updateRequest =
+            new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/" + TOKEN + "/update/V1?value=10");
+    private final DefaultFullHttpRequest getRequest =
+            new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/" + TOKEN + "/get/V1");
+
+    @Setup
+    public void setup() throws Exception {
+        //handler without holder, only token manager is used for the unknown token
+        this.httpAPILogic = new ObjenesisStd().newInstance(HttpAPILogic.class);
+        Field tokenManagerField = BaseHttpHandler.class.getDeclaredField("tokenManager");
+        tokenManagerField.setAccessible(true);
+        tokenManagerField.set(httpAPILogic, new TokenManager(new ConcurrentHashMap<>(), null, "localhost"));
+
+        this.router = AnnotationsProcessor.register("", httpAPILogic, new GlobalStats());
+
+        this.legacyRoutes = new ArrayList<>();
+        String classPath = HttpAPILogic.class.getAnnotation(Path.class).value();
+        for (Method method : HttpAPILogic.class.getMethods()) {
+            Path path = method.getAnnotation(Path.class);
+            if (path != null) {
+                String fullPath = classPath + path.value();
+                String sampleUri = fullPath.replaceAll(URL_PARAM_REGEX, "p");
+                for (HttpMethod httpMethod : new HttpMethod[] {HttpMethod.GET, HttpMethod.PUT, HttpMethod.POST}) {
+                    HandlerHolder holder = router.route(httpMethod, sampleUri);
+                    if (holder != null && holder.handler.classMethod.equals(method)) {
+                        legacyRoutes.add(new LegacyRoute(fullPath, holder.handler));
+                    }
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public FullHttpResponse routeAndInvokeUpdate() {
+        return routeAndInvoke(updateRequest);
+    }
+
+    @Benchmark
+    public FullHttpResponse routeAndInvokeGet() {
+        return routeAndInvoke(getRequest);
+    }
+
+    @Benchmark
+    public FullHttpResponse legacyRouteAndInvokeUpdate() throws Exception {
+        return legacyRouteAndInvoke(updateRequest);
+    }
+
+    @Benchmark
+    public FullHttpResponse legacyRouteAndInvokeGet() throws Exception {
+        return legacyRouteAndInvoke(getRequest);
+    }
+
+    private FullHttpResponse routeAndInvoke(DefaultFullHttpRequest req) {
+        HandlerHolder holder = router.route(req.method(), req.uri());
+        try (URIDecoder uriDecoder = new URIDecoder(req, holder.extractedParams)) {
+            Object[] params = holder.handler.fetchParams(null, uriDecoder);
+            FullHttpResponse response = holder.handler.invoke(params);
+            response.release();
+            return response;
+        }
+    }
+
+    private FullHttpResponse legacyRouteAndInvoke(DefaultFullHttpRequest req) throws Exception {
+        for (LegacyRoute route : legacyRoutes) {
+            if (route.handler.httpMethod == req.method()) {
+                Matcher matcher = route.pattern.matcher(req.uri());
+                if (matcher.matches()) {
+                    Map<String, String> extractedParams = new HashMap<>();
+                    for (int i = 0; i < matcher.groupCount(); i++) {
+                        extractedParams.put(route.paramNames.get(i), matcher.group(i + 1));
+                    }
+                    try (URIDecoder uriDecoder = new URIDecoder(req, extractedParams)) {
+                        Object[] params = route.handler.fetchParams(null, uriDecoder);
+                        FullHttpResponse response =
+                                (FullHttpResponse) route.handler.classMethod.invoke(httpAPILogic, params);
+                        response.release();
+                        return response;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    private static final class LegacyRoute {
+
+        private final Pattern pattern;
+        private final List<String> paramNames = new ArrayList<>();
+        private final HandlerWrapper handler;
+
+        private LegacyRoute(String path, HandlerWrapper handler) {
+            Matcher matcher = Pattern.compile(URL_PARAM_REGEX).matcher(path);
+            while (matcher.find()) {
+                paramNames.add(matcher.group(1));
+            }
+            this.pattern = Pattern.compile(path.replaceAll(URL_PARAM_REGEX, URL_PARAM_MATCH_REGEX)
+                    + URL_QUERY_STRING_REGEX);
+            this.handler = handler;
+        }
+    }
+
+}
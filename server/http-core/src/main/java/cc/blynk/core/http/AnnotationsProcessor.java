@@ -4,6 +4,7 @@ import cc.blynk.core.http.annotation.Consumes;
 import cc.blynk.core.http.annotation.Context;
 import cc.blynk.core.http.annotation.Path;
 import cc.blynk.core.http.rest.HandlerWrapper;
+import cc.blynk.core.http.rest.RequestHeaderParam;
 import cc.blynk.core.http.rest.params.BodyParam;
 import cc.blynk.core.http.rest.params.ContextParam;
 import cc.blynk.core.http.rest.params.EnumQueryParam;
@@ -18,8 +19,6 @@ import io.netty.channel.ChannelHandlerContext;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
 import java.lang.reflect.Parameter;
-import java.util.ArrayList;
-import java.util.List;
 
 /**
  * The Blynk Project.
@@ -31,45 +30,43 @@ public final class AnnotationsProcessor {
     private AnnotationsProcessor() {
     }
 
-    public static HandlerWrapper[] register(String rootPath, Object o, GlobalStats globalStats) {
+    public static UriRouter register(String rootPath, Object o, GlobalStats globalStats) {
         return registerHandler(rootPath, o, globalStats);
     }
 
-    private static HandlerWrapper[] registerHandler(String rootPath, Object handler, GlobalStats globalStats) {
+    private static UriRouter registerHandler(String rootPath, Object handler, GlobalStats globalStats) {
         Class<?> handlerClass = handler.getClass();
         Annotation pathAnnotation = handlerClass.getAnnotation(Path.class);
         String handlerMainPath = ((Path) pathAnnotation).value();
 
-        List<HandlerWrapper> processors = new ArrayList<>();
+        UriRouter router = new UriRouter();
 
         for (Method method : handlerClass.getMethods()) {
             Annotation consumes = method.getAnnotation(Consumes.class);
-            String contentType = MediaType.APPLICATION_JSON;
+            String[] contentTypes = {MediaType.APPLICATION_JSON};
             if (consumes != null) {
-                contentType = ((Consumes) consumes).value()[0];
+                contentTypes = ((Consumes) consumes).value();
             }
 
             Annotation path = method.getAnnotation(Path.class);
             if (path != null) {
                 String fullPath = rootPath + handlerMainPath + ((Path) path).value();
-                UriTemplate uriTemplate = new UriTemplate(fullPath);
-
-                HandlerWrapper handlerHolder = new HandlerWrapper(uriTemplate, method, handler, globalStats);
+                HandlerWrapper handlerHolder = new HandlerWrapper(fullPath, method, handler, globalStats);
 
                 for (int i = 0; i < method.getParameterCount(); i++) {
                     Parameter parameter = method.getParameters()[i];
-                    handlerHolder.params[i] = resolveParam(parameter, contentType);
+                    handlerHolder.params[i] = resolveParam(parameter, contentTypes);
                 }
 
-                processors.add(handlerHolder);
+                router.add(handlerHolder);
             }
         }
 
-        return processors.toArray(new HandlerWrapper[0]);
+        return router;
     }
 
     //todo simplify
-    private static Param resolveParam(Parameter parameter, String contentType) {
+    private static Param resolveParam(Parameter parameter, String[] contentTypes) {
         cc.blynk.core.http.annotation.QueryParam queryParamAnnotation =
                 parameter.getAnnotation(cc.blynk.core.http.annotation.QueryParam.class);
         if (queryParamAnnotation != null) {
@@ -88,6 +85,12 @@ public final class AnnotationsProcessor {
             return new PathParam(pathParamAnnotation.value(), parameter.getType());
         }
 
+        cc.blynk.core.http.annotation.HeaderParam headerParamAnnotation =
+                parameter.getAnnotation(cc.blynk.core.http.annotation.HeaderParam.class);
+        if (headerParamAnnotation != null) {
+            return new RequestHeaderParam(headerParamAnnotation.value(), parameter.getType());
+        }
+
         cc.blynk.core.http.annotation.FormParam formParamAnnotation =
                 parameter.getAnnotation(cc.blynk.core.http.annotation.FormParam.class);
         if (formParamAnnotation != null) {
@@ -99,6 +102,6 @@ public final class AnnotationsProcessor {
             return new ContextParam(ChannelHandlerContext.class);
         }
 
-        return new BodyParam(parameter.getName(), parameter.getType(), contentType);
+        return new BodyParam(parameter.getName(), parameter.getType(), contentTypes);
     }
 }
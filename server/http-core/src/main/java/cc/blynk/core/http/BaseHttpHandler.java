@@ -16,7 +16,6 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.util.Map;
-import java.util.regex.Matcher;
 
 import static cc.blynk.core.http.Response.serverError;
 import static cc.blynk.server.core.protocol.handlers.DefaultExceptionHandler.handleUnexpectedException;
@@ -32,7 +31,7 @@ public abstract class BaseHttpHandler extends ChannelInboundHandlerAdapter {
 
     protected final TokenManager tokenManager;
     protected final SessionDao sessionDao;
-    protected final HandlerWrapper[] handlers;
+    protected final UriRouter router;
     protected final String rootPath;
 
     public BaseHttpHandler(Holder holder, String rootPath) {
@@ -44,7 +43,7 @@ public abstract class BaseHttpHandler extends ChannelInboundHandlerAdapter {
         this.tokenManager = tokenManager;
         this.sessionDao = sessionDao;
         this.rootPath = rootPath;
-        this.handlers = AnnotationsProcessor.register(rootPath, this, globalStats);
+        this.router = AnnotationsProcessor.register(rootPath, this, globalStats);
     }
 
     @Override
@@ -59,7 +58,7 @@ public abstract class BaseHttpHandler extends ChannelInboundHandlerAdapter {
     }
 
     public boolean process(ChannelHandlerContext ctx, HttpRequest req) {
-        HandlerHolder handlerHolder = lookupHandler(req);
+        HandlerHolder handlerHolder = router.route(req.method(), req.uri());
 
         if (handlerHolder != null) {
             try {
@@ -93,19 +92,6 @@ public abstract class BaseHttpHandler extends ChannelInboundHandlerAdapter {
         }
     }
 
-    private HandlerHolder lookupHandler(HttpRequest req) {
-        for (HandlerWrapper handler : handlers) {
-            if (handler.httpMethod == req.method()) {
-                Matcher matcher = handler.uriTemplate.matcher(req.uri());
-                if (matcher.matches()) {
-                    Map<String, String> extractedParams = handler.uriTemplate.extractParameters(matcher);
-                    return new HandlerHolder(handler, extractedParams);
-                }
-            }
-        }
-        return null;
-    }
-
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
         handleUnexpectedException(ctx, cause);
@@ -42,7 +42,7 @@ public abstract class TokenBaseHttpHandler extends BaseHttpHandler {
             return;
         }
 
-        Session session = sessionDao.getOrCreateSessionByUser(new UserKey(tokenValue.user), ctx.channel().eventLoop());
+        Session session = sessionDao.getOrCreateSessionByUser(new UserKey(tokenValue.user), ctx.channel());
         if (session.isSameEventLoop(ctx)) {
             completeLogin(ctx.channel(), handler.invoke(params));
         } else {
@@ -53,7 +53,10 @@ public abstract class TokenBaseHttpHandler extends BaseHttpHandler {
     }
 
     private void completeLogin(Channel channel, FullHttpResponse response) {
-        channel.writeAndFlush(response);
+        //handler already wrote response by itself
+        if (response != Response.NO_RESPONSE) {
+            channel.writeAndFlush(response);
+        }
         log.debug("Re registering http channel finished.");
     }
 }
@@ -0,0 +1,198 @@
+package cc.blynk.core.http;
+
+import cc.blynk.core.http.rest.HandlerHolder;
+import cc.blynk.core.http.rest.HandlerWrapper;
+import io.netty.handler.codec.http.HttpMethod;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Segment trie of the handler paths. Built once on handler creation, so request lookup
+ * is one walk over the uri segments instead of the regex match for every handler.
+ *
+ * Path is split by '/', segment is either static text or {name} parameter.
+ * Static segment has priority over the parameter on the same level.
+ * Parameter value is not decoded and may contain only the chars allowed in the uri path.
+ * Query string is ignored.
+ */
+public final class UriRouter {
+
+    private static final boolean[] PARAM_CHARS = new boolean[128];
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++) {
+            PARAM_CHARS[c] = true;
+        }
+        for (char c = 'A'; c <= 'Z'; c++) {
+            PARAM_CHARS[c] = true;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            PARAM_CHARS[c] = true;
+        }
+        for (char c : "%_-.~!$&'()*+,;=:[]@".toCharArray()) {
+            PARAM_CHARS[c] = true;
+        }
+    }
+
+    private final Node root = new Node();
+    //max number of the segments in the registered paths
+    private int depth;
+    private int size;
+
+    public void add(HandlerWrapper handler) {
+        String[] segments = handler.path.split("/", -1);
+        Node node = root;
+        int paramsCount = 0;
+        for (String segment : segments) {
+            if (isParam(segment)) {
+                if (node.param == null) {
+                    node.param = new Node();
+                }
+                node = node.param;
+                paramsCount++;
+            } else {
+                if (segment.indexOf('{') != -1 || segment.indexOf('}') != -1) {
+                    throw new IllegalArgumentException("Path parameter should be whole segment. " + handler.path);
+                }
+                if (node.statics == null) {
+                    node.statics = new HashMap<>();
+                }
+                node = node.statics.computeIfAbsent(segment, k -> new Node());
+            }
+        }
+
+        int[] paramIndexes = new int[paramsCount];
+        String[] paramNames = new String[paramsCount];
+        for (int i = 0, param = 0; i < segments.length; i++) {
+            if (isParam(segments[i])) {
+                paramIndexes[param] = i;
+                paramNames[param] = segments[i].substring(1, segments[i].length() - 1);
+                param++;
+            }
+        }
+
+        if (node.get(handler.httpMethod) != null) {
+            throw new IllegalArgumentException("Duplicate handler for " + handler.httpMethod + " " + handler.path);
+        }
+        node.add(new Route(handler, paramIndexes, paramNames));
+        depth = Math.max(depth, segments.length);
+        size++;
+    }
+
+    public HandlerHolder route(HttpMethod method, String uri) {
+        int queryStart = uri.indexOf('?');
+        int pathEnd = queryStart == -1 ? uri.length() : queryStart;
+        String[] values = new String[depth];
+        Route route = match(root, method, uri, 0, pathEnd, 0, values);
+        if (route == null) {
+            return null;
+        }
+        return new HandlerHolder(route.handler, route.extractParameters(values));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private static Route match(Node node, HttpMethod method, String uri,
+                               int from, int pathEnd, int index, String[] values) {
+        if (index == values.length) {
+            return null;
+        }
+        int slash = uri.indexOf('/', from);
+        boolean last = slash == -1 || slash >= pathEnd;
+        int to = last ? pathEnd : slash;
+        String segment = uri.substring(from, to);
+
+        if (node.statics != null) {
+            Node child = node.statics.get(segment);
+            if (child != null) {
+                Route route = last
+                        ? child.get(method)
+                        : match(child, method, uri, to + 1, pathEnd, index + 1, values);
+                if (route != null) {
+                    return route;
+                }
+            }
+        }
+
+        if (node.param != null && isParamValue(segment)) {
+            Route route = last
+                    ? node.param.get(method)
+                    : match(node.param, method, uri, to + 1, pathEnd, index + 1, values);
+            if (route != null) {
+                values[index] = segment;
+                return route;
+            }
+        }
+
+        return null;
+    }
+
+    private static boolean isParam(String segment) {
+        return segment.length() > 2 && segment.charAt(0) == '{' && segment.charAt(segment.length() - 1) == '}';
+    }
+
+    private static boolean isParamValue(String segment) {
+        if (segment.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < segment.length(); i++) {
+            char c = segment.charAt(i);
+            if (c >= PARAM_CHARS.length || !PARAM_CHARS[c]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final class Node {
+
+        private HashMap<String, Node> statics;
+        private Node param;
+        private Route[] routes = new Route[0];
+
+        private Route get(HttpMethod method) {
+            for (Route route : routes) {
+                if (route.handler.httpMethod == method) {
+                    return route;
+                }
+            }
+            return null;
+        }
+
+        private void add(Route route) {
+            Route[] newRoutes = new Route[routes.length + 1];
+            System.arraycopy(routes, 0, newRoutes, 0, routes.length);
+            newRoutes[routes.length] = route;
+            this.routes = newRoutes;
+        }
+    }
+
+    private static final class Route {
+
+        private final HandlerWrapper handler;
+        private final int[] paramIndexes;
+        private final String[] paramNames;
+
+        private Route(HandlerWrapper handler, int[] paramIndexes, String[] paramNames) {
+            this.handler = handler;
+            this.paramIndexes = paramIndexes;
+            this.paramNames = paramNames;
+        }
+
+        private Map<String, String> extractParameters(String[] values) {
+            if (paramNames.length == 0) {
+                return Collections.emptyMap();
+            }
+            Map<String, String> params = new HashMap<>(paramNames.length * 2);
+            for (int i = 0; i < paramNames.length; i++) {
+                params.put(paramNames[i], values[paramIndexes[i]]);
+            }
+            return params;
+        }
+    }
+
+}
@@ -1,7 +1,6 @@
 package cc.blynk.core.http.rest;
 
 import cc.blynk.core.http.Response;
-import cc.blynk.core.http.UriTemplate;
 import cc.blynk.core.http.annotation.DELETE;
 import cc.blynk.core.http.annotation.Metric;
 import cc.blynk.core.http.annotation.POST;
@@ -30,7 +29,7 @@ public class HandlerWrapper {
 
     private static final Logger log = LogManager.getLogger(HandlerWrapper.class);
 
-    public final UriTemplate uriTemplate;
+    public final String path;
 
     public final HttpMethod httpMethod;
 
@@ -38,16 +37,19 @@ public class HandlerWrapper {
 
     public final Object handler;
 
+    private final MethodInvoker invoker;
+
     public final Param[] params;
 
     public final short metricIndex;
 
     public final GlobalStats globalStats;
 
-    public HandlerWrapper(UriTemplate uriTemplate, Method method, Object handler, GlobalStats globalStats) {
-        this.uriTemplate = uriTemplate;
+    public HandlerWrapper(String path, Method method, Object handler, GlobalStats globalStats) {
+        this.path = path;
         this.classMethod = method;
         this.handler = handler;
+        this.invoker = MethodInvoker.of(handler, method);
 
         if (method.isAnnotationPresent(POST.class)) {
             this.httpMethod = HttpMethod.POST;
@@ -82,17 +84,10 @@ public class HandlerWrapper {
     public FullHttpResponse invoke(Object[] params) {
         try {
             mark();
-            return (FullHttpResponse) classMethod.invoke(handler, params);
-        } catch (Exception e) {
-            Throwable cause = e.getCause();
-            if (cause == null) {
-                log.error("Error invoking handler. Reason : {}.", e.getMessage());
-                log.debug(e);
-            } else {
-                log.error("Error invoking handler. Reason : {}.", cause.getMessage());
-                log.debug(cause);
-            }
-
+            return (FullHttpResponse) invoker.invoke(params);
+        } catch (Throwable e) {
+            log.error("Error invoking handler. Reason : {}.", e.getMessage());
+            log.debug(e);
             return Response.serverError(e.getMessage());
         }
     }
@@ -115,7 +110,7 @@ public class HandlerWrapper {
 
         HandlerWrapper that = (HandlerWrapper) o;
 
-        if (uriTemplate != null ? !uriTemplate.equals(that.uriTemplate) : that.uriTemplate != null) {
+        if (path != null ? !path.equals(that.path) : that.path != null) {
             return false;
         }
         return !(httpMethod != null ? !httpMethod.equals(that.httpMethod) : that.httpMethod != null);
@@ -124,7 +119,7 @@ public class HandlerWrapper {
 
     @Override
     public int hashCode() {
-        int result = uriTemplate != null ? uriTemplate.hashCode() : 0;
+        int result = path != null ? path.hashCode() : 0;
         result = 31 * result + (httpMethod != null ? httpMethod.hashCode() : 0);
         return result;
     }
@@ -0,0 +1,104 @@
+package cc.blynk.core.http.rest;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+
+/**
+ * Calls handler method without reflection.
+ *
+ * For the methods with up to 5 parameters the call is done via class generated with LambdaMetafactory,
+ * so it is plain interface call that JIT may inline. Other methods (or when lambda can't be
+ * generated, for example for non public handler class) are called via spread method handle.
+ */
+@FunctionalInterface
+interface MethodInvoker {
+
+    Object invoke(Object[] params) throws Throwable;
+
+    static MethodInvoker of(Object handler, Method method) {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        MethodHandle methodHandle;
+        try {
+            methodHandle = lookup.unreflect(method);
+        } catch (IllegalAccessException e) {
+            method.setAccessible(true);
+            try {
+                methodHandle = lookup.unreflect(method);
+            } catch (IllegalAccessException iae) {
+                throw new IllegalArgumentException("Handler method is not accessible. " + method, iae);
+            }
+        }
+
+        try {
+            switch (method.getParameterCount()) {
+                case 0 :
+                    Call0 call0 = lambda(lookup, methodHandle, Call0.class);
+                    return params -> call0.call(handler);
+                case 1 :
+                    Call1 call1 = lambda(lookup, methodHandle, Call1.class);
+                    return params -> call1.call(handler, params[0]);
+                case 2 :
+                    Call2 call2 = lambda(lookup, methodHandle, Call2.class);
+                    return params -> call2.call(handler, params[0], params[1]);
+                case 3 :
+                    Call3 call3 = lambda(lookup, methodHandle, Call3.class);
+                    return params -> call3.call(handler, params[0], params[1], params[2]);
+                case 4 :
+                    Call4 call4 = lambda(lookup, methodHandle, Call4.class);
+                    return params -> call4.call(handler, params[0], params[1], params[2], params[3]);
+                case 5 :
+                    Call5 call5 = lambda(lookup, methodHandle, Call5.class);
+                    return params -> call5.call(handler, params[0], params[1], params[2], params[3], params[4]);
+                default :
+                    break;
+            }
+        } catch (Throwable e) {
+            //falling back to method handle
+        }
+
+        MethodHandle spreadHandle = methodHandle.bindTo(handler)
+                .asSpreader(Object[].class, method.getParameterCount())
+                .asType(MethodType.methodType(Object.class, Object[].class));
+        return params -> spreadHandle.invokeExact(params);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T lambda(MethodHandles.Lookup lookup, MethodHandle methodHandle,
+                                Class<T> callType) throws Throwable {
+        Method callMethod = callType.getMethods()[0];
+        MethodType callMethodType = MethodType.methodType(callMethod.getReturnType(),
+                callMethod.getParameterTypes());
+        CallSite callSite = LambdaMetafactory.metafactory(lookup, callMethod.getName(),
+                MethodType.methodType(callType), callMethodType, methodHandle, methodHandle.type().wrap());
+        return (T) callSite.getTarget().invoke();
+    }
+
+    interface Call0 {
+        Object call(Object handler);
+    }
+
+    interface Call1 {
+        Object call(Object handler, Object p0);
+    }
+
+    interface Call2 {
+        Object call(Object handler, Object p0, Object p1);
+    }
+
+    interface Call3 {
+        Object call(Object handler, Object p0, Object p1, Object p2);
+    }
+
+    interface Call4 {
+        Object call(Object handler, Object p0, Object p1, Object p2, Object p3);
+    }
+
+    interface Call5 {
+        Object call(Object handler, Object p0, Object p1, Object p2, Object p3, Object p4);
+    }
+
+}
@@ -4,6 +4,7 @@ import cc.blynk.utils.http.MediaType;
 import io.netty.buffer.ByteBuf;
 import io.netty.handler.codec.http.HttpContent;
 import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.HttpMethod;
 import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.QueryStringDecoder;
@@ -26,7 +27,7 @@ public class URIDecoder extends QueryStringDecoder implements Closeable {
     public final String[] paths;
     public final Map<String, String> pathData;
     public String contentType;
-    public Map<String, String> headers;
+    public final HttpHeaders headers;
 
     private HttpPostRequestDecoder decoder;
     private ByteBuf bodyData;
@@ -34,6 +35,7 @@ public class URIDecoder extends QueryStringDecoder implements Closeable {
     public URIDecoder(HttpRequest httpRequest, Map<String, String> extractedParams) {
         super(httpRequest.uri());
         this.paths = path().split("/");
+        this.headers = httpRequest.headers();
         if (httpRequest.method() == HttpMethod.PUT || httpRequest.method() == HttpMethod.POST) {
             if (httpRequest instanceof HttpContent) {
                 this.contentType = httpRequest.headers().get(HttpHeaderNames.CONTENT_TYPE);
@@ -5,10 +5,16 @@ import cc.blynk.server.core.model.serialization.JsonParser;
 import cc.blynk.utils.http.MediaType;
 import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.RuntimeJsonMappingException;
 import io.netty.channel.ChannelHandlerContext;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.util.List;
+
 /**
  * The Blynk Project.
  * Created by Dmitriy Dumanskiy.
@@ -18,26 +24,32 @@ public class BodyParam extends Param {
 
     private static final Logger log = LogManager.getLogger(BodyParam.class);
 
-    private final String expectedContentType;
+    private final String[] expectedContentTypes;
 
-    public BodyParam(String name, Class<?> type, String expectedContentType) {
+    public BodyParam(String name, Class<?> type, String... expectedContentTypes) {
         super(name, type);
-        this.expectedContentType = expectedContentType;
+        this.expectedContentTypes = expectedContentTypes;
     }
 
     @Override
     public Object get(ChannelHandlerContext ctx, URIDecoder uriDecoder) {
-        if (uriDecoder.contentType == null || !uriDecoder.contentType.contains(expectedContentType)) {
-            throw new RuntimeException("Unexpected content type. Expecting " + expectedContentType + ".");
+        String contentType = matchContentType(uriDecoder.contentType);
+        if (contentType == null) {
+            throw new RuntimeException("Unexpected content type. Expecting "
+                    + String.join(" or ", expectedContentTypes) + ".");
         }
 
-        switch (expectedContentType) {
+        switch (contentType) {
             case MediaType.APPLICATION_JSON :
+            case MediaType.APPLICATION_NDJSON :
                 String data = "";
                 try {
                     data = uriDecoder.getContentAsString();
+                    if (contentType.equals(MediaType.APPLICATION_NDJSON) && type.isArray()) {
+                        return readLines(data);
+                    }
                     return JsonParser.MAPPER.readValue(data, type);
-                } catch (JsonParseException | JsonMappingException jsonParseError) {
+                } catch (JsonParseException | JsonMappingException | RuntimeJsonMappingException jsonParseError) {
                     log.debug("Error parsing body param : '{}'.", data);
                     throw new RuntimeException("Error parsing body param. " + data);
                 } catch (Exception e) {
@@ -49,4 +61,28 @@ public class BodyParam extends Param {
         }
     }
 
+    private String matchContentType(String contentType) {
+        if (contentType != null) {
+            for (String expectedContentType : expectedContentTypes) {
+                if (contentType.contains(expectedContentType)) {
+                    return expectedContentType;
+                }
+            }
+        }
+        return null;
+    }
+
+    //every line is separate json value of the array component type
+    private Object readLines(String data) throws IOException {
+        Class<?> componentType = type.getComponentType();
+        try (MappingIterator<?> values = JsonParser.MAPPER.readerFor(componentType).readValues(data)) {
+            List<?> list = values.readAll();
+            Object array = Array.newInstance(componentType, list.size());
+            for (int i = 0; i < list.size(); i++) {
+                Array.set(array, i, list.get(i));
+            }
+            return array;
+        }
+    }
+
 }
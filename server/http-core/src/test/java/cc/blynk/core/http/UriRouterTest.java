@@ -0,0 +1,100 @@
+package cc.blynk.core.http;
+
+import cc.blynk.core.http.annotation.GET;
+import cc.blynk.core.http.annotation.PUT;
+import cc.blynk.core.http.annotation.Path;
+import cc.blynk.core.http.annotation.PathParam;
+import cc.blynk.core.http.rest.HandlerHolder;
+import cc.blynk.server.core.stats.GlobalStats;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpMethod;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class UriRouterTest {
+
+    private final UriRouter router = AnnotationsProcessor.register("/admin", new TestHandler(), new GlobalStats());
+
+    @Test
+    public void testCorrectMatch() {
+        HandlerHolder holder = router.route(HttpMethod.GET, "/admin/users/dmitriy@blynk.cc");
+        assertEquals("getUser", holder.handler.classMethod.getName());
+        assertEquals("dmitriy@blynk.cc", holder.extractedParams.get("name"));
+
+        holder = router.route(HttpMethod.GET, "/admin/users/changePass/dmitriy@blynk.cc");
+        assertEquals("changePass", holder.handler.classMethod.getName());
+        assertEquals("dmitriy@blynk.cc", holder.extractedParams.get("name"));
+
+        assertNull(router.route(HttpMethod.GET, "/admin/users/changePass/dmitriy@blynk.cc/1"));
+        assertNull(router.route(HttpMethod.GET, "/admin/users/"));
+        assertNull(router.route(HttpMethod.GET, "/users/dmitriy@blynk.cc"));
+    }
+
+    @Test
+    public void testStaticSegmentHasPriority() {
+        HandlerHolder holder = router.route(HttpMethod.GET, "/admin/users/names");
+        assertEquals("getNames", holder.handler.classMethod.getName());
+        assertEquals(0, holder.extractedParams.size());
+
+        //no PUT for static segment, so parameter is used
+        holder = router.route(HttpMethod.PUT, "/admin/users/names");
+        assertEquals("updateUser", holder.handler.classMethod.getName());
+        assertEquals("names", holder.extractedParams.get("name"));
+    }
+
+    @Test
+    public void testQueryStringIgnored() {
+        HandlerHolder holder = router.route(HttpMethod.GET, "/admin/users/names?_page=1&_perPage=10");
+        assertEquals("getNames", holder.handler.classMethod.getName());
+
+        holder = router.route(HttpMethod.GET, "/admin/users/dmitriy?x=/y");
+        assertEquals("dmitriy", holder.extractedParams.get("name"));
+    }
+
+    @Test
+    public void testMethodMismatch() {
+        assertNull(router.route(HttpMethod.POST, "/admin/users/dmitriy@blynk.cc"));
+        assertNull(router.route(HttpMethod.DELETE, "/admin/users/names"));
+    }
+
+    @Test
+    public void testInvoke() {
+        HandlerHolder holder = router.route(HttpMethod.GET, "/admin/users/dmitriy");
+        FullHttpResponse response = holder.handler.invoke(new Object[] {"dmitriy"});
+        assertEquals("user dmitriy", response.content().toString(StandardCharsets.UTF_8));
+        response.release();
+    }
+
+    @Path("/users")
+    public static class TestHandler {
+
+        @GET
+        @Path("/{name}")
+        public Response getUser(@PathParam("name") String name) {
+            return Response.ok("user " + name);
+        }
+
+        @PUT
+        @Path("/{name}")
+        public Response updateUser(@PathParam("name") String name) {
+            return Response.ok();
+        }
+
+        @GET
+        @Path("/names")
+        public Response getNames() {
+            return Response.ok();
+        }
+
+        @GET
+        @Path("/changePass/{name}")
+        public Response changePass(@PathParam("name") String name) {
+            return Response.ok();
+        }
+    }
+
+}
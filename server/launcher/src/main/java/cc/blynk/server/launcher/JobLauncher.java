@@ -6,6 +6,7 @@ import cc.blynk.server.servers.BaseServer;
 import cc.blynk.server.workers.CertificateRenewalWorker;
 import cc.blynk.server.workers.HistoryGraphUnusedPinDataCleanerWorker;
 import cc.blynk.server.workers.ProfileSaverWorker;
+import cc.blynk.server.workers.ReportingRollupWorker;
 import cc.blynk.server.workers.ReportingTruncateWorker;
 import cc.blynk.server.workers.ReportingWorker;
 import cc.blynk.server.workers.ShutdownHookWorker;
@@ -20,6 +21,7 @@ import java.util.concurrent.TimeUnit;
 import static java.util.concurrent.TimeUnit.DAYS;
 import static java.util.concurrent.TimeUnit.HOURS;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
 
 /**
  * Launches a bunch of separate jobs/schedulers responsible for different aspects of business logic
@@ -40,8 +42,8 @@ final class JobLauncher {
 
         ReportingWorker reportingWorker = new ReportingWorker(
                 holder.reportingDiskDao,
-                holder.props.getReportingFolder(),
-                holder.reportingDBManager
+                holder.reportingDBManager,
+                holder.stats.reportingFlush
         );
 
         //to start at the beggining of an minute
@@ -50,6 +52,13 @@ final class JobLauncher {
         scheduler.scheduleAtFixedRate(reportingWorker, startDelay,
                 AverageAggregatorProcessor.MINUTE, MILLISECONDS);
 
+        //running right after reporting flush, so snapshot has only not flushed aggregates
+        long checkpointPeriod = holder.props.getLongProperty("reporting.checkpoint.period", 0);
+        if (checkpointPeriod > 0) {
+            scheduler.scheduleAtFixedRate(holder.reportingDiskDao.averageAggregator::checkpoint,
+                    startDelay + 500, checkpointPeriod, MILLISECONDS);
+        }
+
         var profileSaverWorker = new ProfileSaverWorker(holder.userDao, holder.fileManager, holder.dbManager);
 
         //running 1 sec later after reporting
@@ -78,6 +87,12 @@ final class JobLauncher {
         //once every week
         scheduler.scheduleAtFixedRate(reportingTruncateWorker, 1, 144, HOURS);
 
+        var reportingRollupWorker = new ReportingRollupWorker(holder.reportingDiskDao);
+        //once every 5 minutes, as often as the finest rollup tier. 2 sec after reporting flush,
+        //on the same thread, so rollup never reads series while they are flushed
+        scheduler.scheduleAtFixedRate(reportingRollupWorker, startDelay + 2000,
+                MINUTES.toMillis(5), MILLISECONDS);
+
         //millis we need to wait to start scheduler at the beginning of a second.
         startDelay = 1000 - (System.currentTimeMillis() % 1000);
 
@@ -88,7 +103,7 @@ final class JobLauncher {
 
         //shutdown hook thread catcher
         Runtime.getRuntime().addShutdownHook(new Thread(
-                new ShutdownHookWorker(servers, holder, scheduler, profileSaverWorker)
+                new ShutdownHookWorker(servers, holder, scheduler, reportingWorker, profileSaverWorker)
         ));
     }
 
@@ -5,13 +5,16 @@ import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.ServerChannel;
 import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.flush.FlushConsolidationHandler;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.net.InetSocketAddress;
+import java.util.Map;
 
 /**
  * Base server abstraction. Class responsible for Netty EventLoops starting amd port listening.
@@ -51,10 +54,13 @@ public abstract class BaseServer {
 
         var b = new ServerBootstrap();
         try {
+            var childHandler = getChannelInitializer();
             b.group(bossGroup, workerGroup)
                     .channel(channelClass)
+                    .handler(new ShardingAcceptorHandler(transportTypeHolder.sharding, childHandler,
+                            Map.of(ChannelOption.SO_KEEPALIVE, true)))
                     .childOption(ChannelOption.SO_KEEPALIVE, true)
-                    .childHandler(getChannelInitializer());
+                    .childHandler(childHandler);
 
             var listenTo = (listenAddress == null || listenAddress.isEmpty())
                     ? new InetSocketAddress(port)
@@ -68,6 +74,21 @@ public abstract class BaseServer {
         log.info("{} server listening at {} port.", getServerName(), port);
     }
 
+    /**
+     * Adds handler that batches flushes of the channel, so messages written during
+     * one event loop iteration (read loop or tasks from other channels) go to the socket with 1 syscall.
+     *
+     * @param beforeHandler - name of the first handler that may flush
+     * @param limit - max number of flushes before real flush, 0 means disabled
+     */
+    protected static ChannelPipeline consolidateFlushes(ChannelPipeline pipeline, String beforeHandler, int limit) {
+        if (limit > 0) {
+            pipeline.addBefore(beforeHandler, beforeHandler + "FlushConsolidation",
+                    new FlushConsolidationHandler(limit, true));
+        }
+        return pipeline;
+    }
+
     protected abstract ChannelInitializer<SocketChannel> getChannelInitializer();
 
     protected abstract String getServerName();
@@ -0,0 +1,63 @@
+package cc.blynk.server.servers;
+
+import cc.blynk.server.transport.EventLoopSharding;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoop;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Map;
+
+/**
+ * Acceptor-side dispatch of the accepted channels. Channel from the known host is registered
+ * directly on the loop of the user from that host (see EventLoopSharding), so login doesn't need
+ * channel re-registration. Other channels are passed to the default bootstrap acceptor.
+ */
+@ChannelHandler.Sharable
+public class ShardingAcceptorHandler extends ChannelInboundHandlerAdapter {
+
+    private static final Logger log = LogManager.getLogger(ShardingAcceptorHandler.class);
+
+    private final EventLoopSharding sharding;
+    private final ChannelHandler childHandler;
+    private final Map<ChannelOption<Boolean>, Boolean> childOptions;
+
+    public ShardingAcceptorHandler(EventLoopSharding sharding, ChannelHandler childHandler,
+                                   Map<ChannelOption<Boolean>, Boolean> childOptions) {
+        this.sharding = sharding;
+        this.childHandler = childHandler;
+        this.childOptions = childOptions;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        Channel child = (Channel) msg;
+        EventLoop loop = sharding.forChannel(child);
+        if (loop == null) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+
+        //the same as ServerBootstrapAcceptor does
+        child.pipeline().addLast(childHandler);
+        for (Map.Entry<ChannelOption<Boolean>, Boolean> option : childOptions.entrySet()) {
+            child.config().setOption(option.getKey(), option.getValue());
+        }
+        try {
+            loop.register(child).addListener(future -> {
+                if (!future.isSuccess()) {
+                    log.debug("Error registering accepted channel.", future.cause());
+                    child.unsafe().closeForcibly();
+                }
+            });
+        } catch (Throwable t) {
+            log.debug("Error registering accepted channel.", t);
+            child.unsafe().closeForcibly();
+        }
+    }
+
+}
@@ -83,6 +83,7 @@ public class AppAndHttpsServer extends BaseServer {
 
         var hardwareIdleTimeout = holder.limits.hardwareIdleTimeout;
         var appIdleTimeout = holder.limits.appIdleTimeout;
+        var flushConsolidationLimit = holder.limits.flushConsolidationLimit;
 
         var hardwareChannelStateHandler = new HardwareChannelStateHandler(holder);
         var hardwareLoginHandler = new HardwareLoginHandler(holder, port);
@@ -198,6 +199,7 @@ public class AppAndHttpsServer extends BaseServer {
                         .addLast("AGetServer", getServerHandler)
                         .addLast("ALogin", appLoginHandler)
                         .addLast("ANotLogged", userNotLoggedHandler);
+                consolidateFlushes(pipeline, "WSMessageDecoder", flushConsolidationLimit);
                 pipeline.remove(ChunkedWriteHandler.class);
                 pipeline.remove(UrlReWriterHandler.class);
                 pipeline.remove(StaticFileHandler.class);
@@ -216,11 +218,12 @@ public class AppAndHttpsServer extends BaseServer {
                         .addLast("WSWebSocketServerProtocolHandler",
                         new WebSocketServerProtocolHandler(websocketPath, true))
                         .addLast("WSWebSocket", webSocketHandler)
-                        .addLast("WSMessageDecoder", new MessageDecoder(stats, holder.limits))
+                        .addLast("WSMessageDecoder", new MessageDecoder(stats, holder.limits, true))
                         .addLast("WSSocketWrapper", webSocketWrapperEncoder)
                         .addLast("WSMessageEncoder", new MessageEncoder(stats))
                         .addLast("WSLogin", hardwareLoginHandler)
                         .addLast("WSNotLogged", alreadyLoggedHandler);
+                consolidateFlushes(pipeline, "WSMessageDecoder", flushConsolidationLimit);
                 pipeline.remove(ChunkedWriteHandler.class);
                 pipeline.remove(UrlReWriterHandler.class);
                 pipeline.remove(StaticFileHandler.class);
@@ -258,8 +261,7 @@ public class AppAndHttpsServer extends BaseServer {
                     @Override
                     public ChannelPipeline buildBlynkPipeline(ChannelPipeline pipeline) {
                         log.trace("Blynk protocol connection detected.", pipeline.channel());
-                        return pipeline
-                                .addFirst("AChannelState", appChannelStateHandler)
+                        pipeline.addFirst("AChannelState", appChannelStateHandler)
                                 .addFirst("AReadTimeout", new IdleStateHandler(appIdleTimeout, 0, 0))
                                 .addLast("AMessageDecoder", new AppMessageDecoder(holder.stats, holder.limits))
                                 .addLast("AMessageEncoder", new AppMessageEncoder(holder.stats))
@@ -269,6 +271,7 @@ public class AppAndHttpsServer extends BaseServer {
                                 .addLast("AResetPass", resetPasswordHandler)
                                 .addLast("AShareLogin", appShareLoginHandler)
                                 .addLast("ANotLogged", userNotLoggedHandler);
+                        return consolidateFlushes(pipeline, "AMessageDecoder", flushConsolidationLimit);
                     }
                 });
             }
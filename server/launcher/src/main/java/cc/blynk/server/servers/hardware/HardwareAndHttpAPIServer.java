@@ -56,6 +56,7 @@ public class HardwareAndHttpAPIServer extends BaseServer {
         var alreadyLoggedHandler = new AlreadyLoggedHandler();
         var maxWebLength = holder.limits.webRequestMaxSize;
         var hardTimeoutSecs = holder.limits.hardwareIdleTimeout;
+        var flushConsolidationLimit = holder.limits.flushConsolidationLimit;
 
         var stats = holder.stats;
 
@@ -113,12 +114,13 @@ public class HardwareAndHttpAPIServer extends BaseServer {
                         .addLast("WSWebSocketServerProtocolHandler",
                         new WebSocketServerProtocolHandler(websocketPath, true))
                         .addLast("WSWebSocket", new WebSocketHandler(stats))
-                        .addLast("WSMessageDecoder", new MessageDecoder(stats, holder.limits))
+                        .addLast("WSMessageDecoder", new MessageDecoder(stats, holder.limits, true))
                         .addLast("WSSocketWrapper", new WebSocketWrapperEncoder())
                         .addLast("WSMessageEncoder", new MessageEncoder(stats))
                         .addLast("WSLogin", hardwareLoginHandler)
                         .addLast("WSNotLogged", alreadyLoggedHandler)
                         .remove(this);
+                consolidateFlushes(pipeline, "WSMessageDecoder", flushConsolidationLimit);
                 if (log.isTraceEnabled()) {
                     log.trace("Initialized hardware websocket pipeline. {}", ctx.pipeline().names());
                 }
@@ -143,14 +145,15 @@ public class HardwareAndHttpAPIServer extends BaseServer {
                             @Override
                             public ChannelPipeline buildBlynkPipeline(ChannelPipeline pipeline) {
                                 log.trace("Blynk protocol connection detected.", pipeline.channel());
-                                return pipeline
-                                        .addFirst("H_IdleStateHandler",
+                                pipeline.addFirst("H_IdleStateHandler",
                                                 new IdleStateHandler(hardTimeoutSecs, 0, 0))
                                         .addLast("H_ChannelState", hardwareChannelStateHandler)
-                                        .addLast("H_MessageDecoder", new MessageDecoder(holder.stats, holder.limits))
+                                        .addLast("H_MessageDecoder",
+                                                new MessageDecoder(holder.stats, holder.limits, true))
                                         .addLast("H_MessageEncoder", new MessageEncoder(holder.stats))
                                         .addLast("H_Login", hardwareLoginHandler)
                                         .addLast("H_AlreadyLogged", alreadyLoggedHandler);
+                                return consolidateFlushes(pipeline, "H_MessageDecoder", flushConsolidationLimit);
                             }
                         }
                 );
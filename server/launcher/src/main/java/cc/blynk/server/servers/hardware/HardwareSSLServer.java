@@ -30,6 +30,7 @@ public class HardwareSSLServer extends BaseServer {
         var alreadyLoggedHandler = new AlreadyLoggedHandler();
 
         var hardTimeoutSecs = holder.limits.hardwareIdleTimeout;
+        var flushConsolidationLimit = holder.limits.flushConsolidationLimit;
 
         this.channelInitializer = new ChannelInitializer<>() {
             @Override
@@ -38,10 +39,11 @@ public class HardwareSSLServer extends BaseServer {
                     .addLast("HSSL_ReadTimeout", new IdleStateHandler(hardTimeoutSecs, hardTimeoutSecs, 0))
                     .addLast("HSSL", holder.sslContextHolder.sslCtx.newHandler(ch.alloc()))
                     .addLast("HSSLChannelState", hardwareChannelStateHandler)
-                    .addLast("HSSLMessageDecoder", new MessageDecoder(holder.stats, holder.limits))
+                    .addLast("HSSLMessageDecoder", new MessageDecoder(holder.stats, holder.limits, true))
                     .addLast("HSSLMessageEncoder", new MessageEncoder(holder.stats))
                     .addLast("HSSLLogin", hardwareLoginHandler)
                     .addLast("HSSLAlreadyLogged", alreadyLoggedHandler);
+                consolidateFlushes(ch.pipeline(), "HSSLMessageDecoder", flushConsolidationLimit);
             }
         };
     }
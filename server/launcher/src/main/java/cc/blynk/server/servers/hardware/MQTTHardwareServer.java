@@ -26,6 +26,7 @@ public class MQTTHardwareServer extends BaseServer {
                 holder.props.getIntProperty("hardware.mqtt.port"), holder.transportTypeHolder);
 
         var hardTimeoutSecs = holder.limits.hardwareIdleTimeout;
+        var flushConsolidationLimit = holder.limits.flushConsolidationLimit;
         var mqttHardwareLoginHandler = new MqttHardwareLoginHandler(holder);
         var alreadyLoggedHandler = new AlreadyLoggedHandler();
         var hardwareChannelStateHandler = new HardwareChannelStateHandler(holder);
@@ -36,10 +37,11 @@ public class MQTTHardwareServer extends BaseServer {
                 ch.pipeline()
                     .addLast("MqttIdleStateHandler", new IdleStateHandler(hardTimeoutSecs, hardTimeoutSecs, 0))
                     .addLast(hardwareChannelStateHandler)
-                    .addLast(new MqttDecoder())
+                    .addLast("MqttDecoder", new MqttDecoder())
                     .addLast(MqttEncoder.INSTANCE)
                     .addLast(mqttHardwareLoginHandler)
                     .addLast(alreadyLoggedHandler);
+                consolidateFlushes(ch.pipeline(), "MqttDecoder", flushConsolidationLimit);
             }
         };
 
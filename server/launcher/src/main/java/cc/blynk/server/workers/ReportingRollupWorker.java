@@ -0,0 +1,58 @@
+package cc.blynk.server.workers;
+
+import cc.blynk.server.core.dao.ReportingDiskDao;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Downsamples reporting data of all users into rollup tiers.
+ */
+public class ReportingRollupWorker implements Runnable {
+
+    private static final Logger log = LogManager.getLogger(ReportingRollupWorker.class);
+
+    private final ReportingDiskDao reportingDao;
+
+    public ReportingRollupWorker(ReportingDiskDao reportingDao) {
+        this.reportingDao = reportingDao;
+    }
+
+    @Override
+    public void run() {
+        try {
+            long now = System.currentTimeMillis();
+            int result = rollup(now);
+            log.debug("Rolled up {} points. Time : {} ms.", result, System.currentTimeMillis() - now);
+        } catch (Throwable t) {
+            log.error("Error rolling up reporting data.", t);
+        }
+    }
+
+    private int rollup(long now) throws Exception {
+        Path reportingFolderPath = Paths.get(reportingDao.dataFolder);
+        if (Files.notExists(reportingFolderPath)) {
+            return 0;
+        }
+
+        int points = 0;
+        try (DirectoryStream<Path> reportingFolder = Files.newDirectoryStream(reportingFolderPath, "*")) {
+            for (Path userReportingDirectory : reportingFolder) {
+                if (Files.isDirectory(userReportingDirectory)) {
+                    try {
+                        String userDir = userReportingDirectory.getFileName().toString();
+                        points += reportingDao.rollupEngine.rollup(userDir, now);
+                    } catch (Exception e) {
+                        log.error("Rollup failed for {}. Reason : {}.", userReportingDirectory, e.getMessage());
+                    }
+                }
+            }
+        }
+        return points;
+    }
+
+}
@@ -2,24 +2,19 @@ package cc.blynk.server.workers;
 
 import cc.blynk.server.core.dao.CSVGenerator;
 import cc.blynk.server.core.dao.ReportingDiskDao;
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import cc.blynk.server.core.reporting.rollup.RollupTier;
 import cc.blynk.utils.FileUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.IOException;
-import java.io.OutputStream;
-import java.nio.ByteBuffer;
 import java.nio.file.DirectoryStream;
-import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
 import java.util.concurrent.TimeUnit;
 
-import static cc.blynk.utils.ReportingUtil.REPORTING_RECORD_SIZE;
-import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
-
 /**
  * The Blynk Project.
  * Created by Dmitriy Dumanskiy.
@@ -96,23 +91,12 @@ public class ReportingTruncateWorker implements Runnable {
         try (DirectoryStream<Path> reportingFolder = Files.newDirectoryStream(reportingFolderPath, "*")) {
             for (Path userReportingDirectory : reportingFolder) {
                 if (Files.isDirectory(userReportingDirectory)) {
-                    int filesCounter = 0;
                     try {
-                        try (DirectoryStream<Path> userReportingFolder = directoryStream(userReportingDirectory)) {
-                            for (Path userReportingFile : userReportingFolder) {
-                                filesCounter++;
-                                long fileSize = Files.size(userReportingFile);
-                                if (fileSize > maxRecordsCount * REPORTING_RECORD_SIZE) {
-                                    ByteBuffer userReportingData = FileUtils.read(userReportingFile, maxRecordsCount);
-                                    try (OutputStream os =
-                                                 Files.newOutputStream(userReportingFile, TRUNCATE_EXISTING)) {
-                                        os.write(userReportingData.array());
-                                    }
-                                    truncatedFilesCounter++;
-                                }
-                            }
-                        }
-                        if (filesCounter == 0) {
+                        String userDir = userReportingDirectory.getFileName().toString();
+                        truncatedFilesCounter += reportingDao.storage.truncate(userDir,
+                                GraphGranularityType.MINUTE, maxRecordsCount);
+                        truncatedFilesCounter += truncateRollupTiers(userDir);
+                        if (isEmpty(userReportingDirectory)) {
                             Files.delete(userReportingDirectory);
                         }
                     } catch (Exception e) {
@@ -124,12 +108,21 @@ public class ReportingTruncateWorker implements Runnable {
         return truncatedFilesCounter;
     }
 
-    private static final PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:*_minute.bin");
-    private static final DirectoryStream.Filter<Path> filter = entry -> matcher.matches(entry.getFileName());
+    private int truncateRollupTiers(String userDir) throws IOException {
+        int truncatedFilesCounter = 0;
+        for (RollupTier tier : RollupTier.values()) {
+            if (tier.retention > 0) {
+                int tierMaxRecordsCount = tier.maxRecordsCount();
+                truncatedFilesCounter += reportingDao.storage.truncate(userDir, tier.target, tierMaxRecordsCount);
+                reportingDao.rollupEngine.stats.truncate(userDir, tier.target, tierMaxRecordsCount);
+            }
+        }
+        return truncatedFilesCounter;
+    }
 
-    //utility method to avoid allocation of PathMatcher
-    private DirectoryStream<Path> directoryStream(Path dir) throws IOException {
-        // create a matcher and return a filter that uses it.
-        return dir.getFileSystem().provider().newDirectoryStream(dir, filter);
+    private static boolean isEmpty(Path dir) throws IOException {
+        try (DirectoryStream<Path> dirStream = Files.newDirectoryStream(dir)) {
+            return !dirStream.iterator().hasNext();
+        }
     }
 }
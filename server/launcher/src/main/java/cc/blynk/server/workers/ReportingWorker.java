@@ -4,61 +4,93 @@ import cc.blynk.server.core.dao.ReportingDiskDao;
 import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
 import cc.blynk.server.core.reporting.average.AggregationKey;
 import cc.blynk.server.core.reporting.average.AggregationValue;
+import cc.blynk.server.core.reporting.raw.BaseReportingKey;
+import cc.blynk.server.core.stats.ReportingFlushStats;
 import cc.blynk.server.db.ReportingDBManager;
+import cc.blynk.utils.BlynkTPFactory;
 import cc.blynk.utils.FileUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.io.Closeable;
+import java.nio.ByteBuffer;
 import java.time.Instant;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
-import static cc.blynk.server.core.dao.ReportingDiskDao.generateFilename;
+import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
 
 /**
  * Worker that runs once a minute. During run - stores all aggregated reporting data
  * to disk. Also sends all data in batches to RDBMS in case DBManager was initialized.
  *
+ * Outdated keys are grouped by user folder and series, so every series file is
+ * written with single write per run. Users are flushed in parallel on the bounded pool.
+ *
  * The Blynk Project.
  * Created by Dmitriy Dumanskiy.
  * Created on 10.08.15.
  */
-public class ReportingWorker implements Runnable {
+public class ReportingWorker implements Runnable, Closeable {
 
     private static final Logger log = LogManager.getLogger(ReportingWorker.class);
 
+    private static final int DEFAULT_FLUSH_THREADS = Math.min(4, Runtime.getRuntime().availableProcessors());
+
     private final ReportingDiskDao reportingDao;
-    private final String reportingPath;
     private final ReportingDBManager reportingDBManager;
+    private final ReportingFlushStats flushStats;
+    private final ThreadPoolExecutor flushExecutor;
+
+    //for tests only
+    public ReportingWorker(ReportingDiskDao reportingDao, ReportingDBManager reportingDBManager) {
+        this(reportingDao, reportingDBManager, new ReportingFlushStats(), DEFAULT_FLUSH_THREADS);
+    }
+
+    public ReportingWorker(ReportingDiskDao reportingDao, ReportingDBManager reportingDBManager,
+                           ReportingFlushStats flushStats) {
+        this(reportingDao, reportingDBManager, flushStats, DEFAULT_FLUSH_THREADS);
+    }
 
-    public ReportingWorker(ReportingDiskDao reportingDao,
-                           String reportingPath, ReportingDBManager reportingDBManager) {
+    public ReportingWorker(ReportingDiskDao reportingDao, ReportingDBManager reportingDBManager,
+                           ReportingFlushStats flushStats, int flushThreads) {
         this.reportingDao = reportingDao;
-        this.reportingPath = reportingPath;
         this.reportingDBManager = reportingDBManager;
+        this.flushStats = flushStats;
+        int poolSize = Math.max(1, flushThreads);
+        this.flushExecutor = new ThreadPoolExecutor(poolSize, poolSize,
+                30L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                BlynkTPFactory.build("ReportingFlush"));
+        //worker runs once a minute, so there is no need to keep threads between runs
+        this.flushExecutor.allowCoreThreadTimeOut(true);
     }
 
     @Override
     public void run() {
         try {
+            long now = System.currentTimeMillis();
             Map<AggregationKey, AggregationValue> removedKeysMinute =
-                    process(reportingDao.averageAggregator.getMinute(), GraphGranularityType.MINUTE);
+                    process(reportingDao.averageAggregator.getMinute(), GraphGranularityType.MINUTE, now);
             Map<AggregationKey, AggregationValue> removedKeysHour =
-                    process(reportingDao.averageAggregator.getHourly(), GraphGranularityType.HOURLY);
+                    process(reportingDao.averageAggregator.getHourly(), GraphGranularityType.HOURLY, now);
             Map<AggregationKey, AggregationValue> removedKeysDay =
-                    process(reportingDao.averageAggregator.getDaily(), GraphGranularityType.DAILY);
+                    process(reportingDao.averageAggregator.getDaily(), GraphGranularityType.DAILY, now);
+            reportingDao.averageAggregator.flushed(now);
+            reportingDao.averageAggregator.releaseIdleSeries();
 
             reportingDBManager.insertReporting(removedKeysMinute, GraphGranularityType.MINUTE);
             reportingDBManager.insertReporting(removedKeysHour, GraphGranularityType.HOURLY);
             reportingDBManager.insertReporting(removedKeysDay, GraphGranularityType.DAILY);
 
-            reportingDBManager.insertReportingRaw(reportingDao.rawDataProcessor.rawStorage);
+            reportingDBManager.insertReportingRaw(reportingDao.rawDataProcessor);
 
             reportingDBManager.cleanOldReportingRecords(Instant.now());
         } catch (Exception e) {
@@ -68,53 +100,159 @@ public class ReportingWorker implements Runnable {
 
     /**
      * Iterates over all reporting entries that were created during last minute.
-     * And stores all entries one by one to disk.
+     * Groups them by user folder and series and stores every series with single write.
      *
      * @param map - reporting entires that were created during last minute.
      * @param type - type of reporting. Could be minute, hourly, daily.
+     * @param now - time of the flush, all entries before its period are flushed.
      * @return - returns list of reporting entries that were successfully flushed to disk.
      */
-    private Map<AggregationKey, AggregationValue>  process(Map<AggregationKey, AggregationValue> map,
-                                                           GraphGranularityType type) {
+    private Map<AggregationKey, AggregationValue> process(Map<AggregationKey, AggregationValue> map,
+                                                          GraphGranularityType type, long now) {
         if (map.size() == 0) {
             return Collections.emptyMap();
         }
 
-        Set<AggregationKey> aggregationKeySet = map.keySet();
-        AggregationKey[] keys = aggregationKeySet.toArray(new AggregationKey[0]);
-        Arrays.sort(keys, AggregationKey.AGGREGATION_KEY_COMPARATOR);
+        long start = System.currentTimeMillis();
+        long nowTruncatedToPeriod = now / type.period;
 
-        var removedKeys = new HashMap<AggregationKey, AggregationValue>();
-
-        long nowTruncatedToPeriod = System.currentTimeMillis() / type.period;
-        for (AggregationKey keyToRemove : keys) {
+        var userGroups = new HashMap<String, Map<BaseReportingKey, List<AggregationKey>>>();
+        int keysCount = 0;
+        for (AggregationKey key : map.keySet()) {
             //if prev hour
-            if (keyToRemove.isOutdated(nowTruncatedToPeriod)) {
-                AggregationValue value = map.get(keyToRemove);
-
-                try {
-                    Path userReportFolder = Paths.get(reportingPath,
-                            FileUtils.getUserStorageDir(keyToRemove.getEmail(), keyToRemove.getAppName()));
-                    if (Files.notExists(userReportFolder)) {
-                        Files.createDirectories(userReportFolder);
-                    }
-
-                    String fileName = generateFilename(keyToRemove.getDashId(),
-                            keyToRemove.getDeviceId(), keyToRemove.getPinType(), keyToRemove.getPin(), type);
-                    Path filePath = Paths.get(userReportFolder.toString(), fileName);
-
-                    FileUtils.write(filePath, value.calcAverage(), keyToRemove.getTs(type));
-
-                    removedKeys.put(keyToRemove, value);
-                } catch (Exception ioe) {
-                    log.error("Error writing reporting file. Reason : {}", ioe.getMessage());
-                } finally {
-                    map.remove(keyToRemove);
+            if (key.isOutdated(nowTruncatedToPeriod)) {
+                String userDir = FileUtils.getUserStorageDir(key.getEmail(), key.getAppName());
+                userGroups.computeIfAbsent(userDir, k -> new HashMap<>())
+                        .computeIfAbsent(key.getBaseReportingKey(), k -> new ArrayList<>())
+                        .add(key);
+                keysCount++;
+            }
+        }
+
+        if (keysCount == 0) {
+            return Collections.emptyMap();
+        }
+
+        var flushTasks = new ArrayList<Future<FlushResult>>(userGroups.size());
+        for (var userGroup : userGroups.entrySet()) {
+            flushTasks.add(flushExecutor.submit(() ->
+                    flushUser(map, userGroup.getKey(), userGroup.getValue(), type)));
+        }
+
+        var result = new FlushResult();
+        for (Future<FlushResult> flushTask : flushTasks) {
+            try {
+                result.merge(flushTask.get());
+            } catch (Exception e) {
+                result.errors++;
+                log.error("Error flushing reporting data.", e);
+            }
+        }
+
+        long time = System.currentTimeMillis() - start;
+        flushStats.mark(type, result.removedKeys.size(), result.filesTouched, result.bytesWritten,
+                time, result.errors);
+        log.debug("Reporting {} flush. Keys : {}, files : {}, bytes : {}, errors : {}, time : {} ms.",
+                type.label, result.removedKeys.size(), result.filesTouched, result.bytesWritten,
+                result.errors, time);
+
+        return result.removedKeys;
+    }
+
+    private FlushResult flushUser(Map<AggregationKey, AggregationValue> map, String userDir,
+                                  Map<BaseReportingKey, List<AggregationKey>> userGroup,
+                                  GraphGranularityType type) {
+        var result = new FlushResult();
+        //reused for all series of the user, grows to the biggest series
+        ByteBuffer records = null;
+
+        for (Map.Entry<BaseReportingKey, List<AggregationKey>> seriesEntry : userGroup.entrySet()) {
+            BaseReportingKey seriesKey = seriesEntry.getKey();
+            List<AggregationKey> keys = seriesEntry.getValue();
+            keys.sort(AggregationKey.AGGREGATION_KEY_COMPARATOR);
+
+            int size = keys.size() * SIZE_OF_REPORT_ENTRY;
+            if (records == null || records.capacity() < size) {
+                records = ByteBuffer.allocate(size);
+            }
+            records.clear();
+
+            //keys of the same period may come from unlinked and new id of the series
+            var flushedKeys = new ArrayList<AggregationKey>(keys.size());
+            var values = new ArrayList<AggregationValue>(keys.size());
+            for (AggregationKey key : keys) {
+                AggregationValue value = map.get(key);
+                if (value == null) {
+                    continue;
+                }
+                int last = flushedKeys.size() - 1;
+                if (last >= 0 && flushedKeys.get(last).equals(key)) {
+                    values.get(last).merge(value);
+                } else {
+                    flushedKeys.add(key);
+                    values.add(value);
+                }
+            }
+            if (flushedKeys.isEmpty()) {
+                continue;
+            }
+            for (int i = 0; i < flushedKeys.size(); i++) {
+                records.putDouble(values.get(i).calcAverage())
+                       .putLong(flushedKeys.get(i).getTs(type));
+            }
+            records.flip();
+
+            try {
+                reportingDao.storage.write(userDir, seriesKey.dashId, seriesKey.deviceId,
+                        seriesKey.pinType, seriesKey.pin, type, records);
+
+                for (int i = 0; i < flushedKeys.size(); i++) {
+                    result.removedKeys.put(flushedKeys.get(i), values.get(i));
+                }
+                result.filesTouched++;
+                result.bytesWritten += records.limit();
+            } catch (Exception ioe) {
+                result.errors++;
+                log.error("Error writing reporting file. Reason : {}", ioe.getMessage());
+            } finally {
+                for (AggregationKey key : keys) {
+                    map.remove(key);
                 }
             }
         }
 
-        return removedKeys;
+        return result;
+    }
+
+    private static final class FlushResult {
+
+        private final Map<AggregationKey, AggregationValue> removedKeys = new HashMap<>();
+        private int filesTouched;
+        private long bytesWritten;
+        private int errors;
+
+        private void merge(FlushResult other) {
+            removedKeys.putAll(other.removedKeys);
+            filesTouched += other.filesTouched;
+            bytesWritten += other.bytesWritten;
+            errors += other.errors;
+        }
+    }
+
+    /**
+     * Waits for the flush in progress, so data is not lost on shutdown.
+     */
+    @Override
+    public void close() {
+        flushExecutor.shutdown();
+        try {
+            if (!flushExecutor.awaitTermination(30, TimeUnit.SECONDS)) {
+                flushExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            flushExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
     }
 
 }
@@ -18,14 +18,17 @@ public class ShutdownHookWorker implements Runnable {
     private final Holder holder;
     private final ProfileSaverWorker profileSaverWorker;
     private final ScheduledExecutorService scheduler;
+    private final ReportingWorker reportingWorker;
 
     public ShutdownHookWorker(BaseServer[] servers, Holder holder,
                               ScheduledExecutorService scheduler,
+                              ReportingWorker reportingWorker,
                               ProfileSaverWorker profileSaverWorker) {
         this.servers = servers;
         this.holder = holder;
         this.profileSaverWorker = profileSaverWorker;
         this.scheduler = scheduler;
+        this.reportingWorker = reportingWorker;
     }
 
     @Override
@@ -43,6 +46,7 @@ public class ShutdownHookWorker implements Runnable {
 
         System.out.println("Stopping scheduler...");
         scheduler.shutdown();
+        reportingWorker.close();
 
         try {
             holder.close();
@@ -5,6 +5,7 @@ import cc.blynk.server.core.BlockingIOProcessor;
 import cc.blynk.server.core.dao.SessionDao;
 import cc.blynk.server.core.dao.UserDao;
 import cc.blynk.server.core.model.widgets.ui.reporting.ReportScheduler;
+import cc.blynk.server.core.reporting.raw.RawDataProcessor;
 import cc.blynk.server.core.stats.GlobalStats;
 import cc.blynk.server.core.stats.model.Stat;
 import cc.blynk.server.db.ReportingDBManager;
@@ -31,6 +32,7 @@ public class StatsWorker implements Runnable {
     private final String region;
     private final BlockingIOProcessor blockingIOProcessor;
     private final ReportScheduler reportScheduler;
+    private final RawDataProcessor rawDataProcessor;
 
     public StatsWorker(Holder holder) {
         this.stats = holder.stats;
@@ -40,12 +42,14 @@ public class StatsWorker implements Runnable {
         this.region = holder.props.region;
         this.blockingIOProcessor = holder.blockingIOProcessor;
         this.reportScheduler = holder.reportScheduler;
+        this.rawDataProcessor = holder.reportingDiskDao.rawDataProcessor;
     }
 
     @Override
     public void run() {
         try {
-            var stat = new Stat(sessionDao, userDao, blockingIOProcessor, stats, reportScheduler, true);
+            var stat = new Stat(sessionDao, userDao, blockingIOProcessor, stats, reportScheduler,
+                    rawDataProcessor, true);
             log.info(stat);
             reportingDBManager.insertStat(this.region, stat);
         } catch (Exception e) {
@@ -90,7 +90,7 @@ public class ReportingWorkerTest {
         user.email = "test";
         user.appName = AppNameUtil.BLYNK;
         ReportingWorker reportingWorker = new ReportingWorker(reportingDaoMock,
-                reportingFolder, new ReportingDBManager(blockingIOProcessor, true));
+                new ReportingDBManager(blockingIOProcessor, true));
 
         ConcurrentHashMap<AggregationKey, AggregationValue> map = new ConcurrentHashMap<>();
 
@@ -115,7 +115,7 @@ public class ReportingWorkerTest {
         user.email = "test";
         user.appName = AppNameUtil.BLYNK;
         ReportingWorker reportingWorker = new ReportingWorker(reportingDaoMock,
-                reportingFolder, new ReportingDBManager(blockingIOProcessor, true));
+                new ReportingDBManager(blockingIOProcessor, true));
 
         ConcurrentHashMap<AggregationKey, AggregationValue> map = new ConcurrentHashMap<>();
 
@@ -171,7 +171,7 @@ public class ReportingWorkerTest {
     @Test
     public void testStore2() {
         ReportingWorker reportingWorker = new ReportingWorker(reportingDaoMock,
-                reportingFolder, new ReportingDBManager(blockingIOProcessor, true));
+                new ReportingDBManager(blockingIOProcessor, true));
 
         ConcurrentHashMap<AggregationKey, AggregationValue> map = new ConcurrentHashMap<>();
 
@@ -234,7 +234,7 @@ public class ReportingWorkerTest {
     @Test
     public void testDeleteCommand() {
         ReportingWorker reportingWorker = new ReportingWorker(reportingDaoMock,
-                reportingFolder, new ReportingDBManager(blockingIOProcessor, true));
+                new ReportingDBManager(blockingIOProcessor, true));
 
         ConcurrentHashMap<AggregationKey, AggregationValue> map = new ConcurrentHashMap<>();
 
@@ -246,13 +246,13 @@ public class AppHandler extends BaseSimpleChannelInboundHandler<StringMessage> {
                 break;
 
             case CREATE_TILE_TEMPLATE :
-                CreateTileTemplateLogic.messageReceived(ctx, state, msg);
+                CreateTileTemplateLogic.messageReceived(holder, ctx, state, msg);
                 break;
             case UPDATE_TILE_TEMPLATE :
-                UpdateTileTemplateLogic.messageReceived(ctx, state, msg);
+                UpdateTileTemplateLogic.messageReceived(holder, ctx, state, msg);
                 break;
             case DELETE_TILE_TEMPLATE :
-                DeleteTileTemplateLogic.messageReceived(ctx, state, msg);
+                DeleteTileTemplateLogic.messageReceived(holder, ctx, state, msg);
                 break;
 
             case REDEEM :
@@ -188,7 +188,7 @@ public class AppLoginHandler extends SimpleChannelInboundHandler<LoginMessage> {
             user.region = holder.props.region;
         }
 
-        var session = holder.sessionDao.getOrCreateSessionByUser(appStateHolder.userKey, channel.eventLoop());
+        var session = holder.sessionDao.getOrCreateSessionByUser(appStateHolder.userKey, channel);
         if (session.isSameEventLoop(channel)) {
             completeLogin(channel, session, user, messageId, version);
         } else {
@@ -46,6 +46,7 @@ public final class ActivateDashboardLogic {
         DashBoard dash = user.profile.getDashByIdOrThrow(dashId);
         dash.activate();
         user.lastModifiedTs = dash.updatedAt;
+        holder.readingWidgetsWorker.refresh(state.userKey, dash);
 
         SessionDao sessionDao = holder.sessionDao;
         Session session = sessionDao.userSession.get(state.userKey);
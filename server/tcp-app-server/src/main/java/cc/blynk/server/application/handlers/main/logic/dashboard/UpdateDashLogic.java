@@ -59,6 +59,8 @@ public final class UpdateDashLogic {
         existingDash.updateFields(updatedDash);
         user.lastModifiedTs = existingDash.updatedAt;
 
+        holder.readingWidgetsWorker.refresh(state.userKey, existingDash);
+
         ctx.writeAndFlush(ok(message.id), ctx.voidPromise());
     }
 
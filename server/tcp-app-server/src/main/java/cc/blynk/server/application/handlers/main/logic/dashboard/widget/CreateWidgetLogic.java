@@ -115,6 +115,8 @@ public final class CreateWidgetLogic {
             timerWorker.add(state.userKey, (Eventor) newWidget, dashId);
         }
 
+        holder.readingWidgetsWorker.refresh(state.userKey, dash);
+
         ctx.writeAndFlush(ok(message.id), ctx.voidPromise());
     }
 
@@ -110,6 +110,8 @@ public final class DeleteWidgetLogic {
             timerWorker.delete(state.userKey, (Eventor) widgetToDelete, dashId);
         }
 
+        holder.readingWidgetsWorker.refresh(state.userKey, dash);
+
         ctx.writeAndFlush(ok(message.id), ctx.voidPromise());
     }
 
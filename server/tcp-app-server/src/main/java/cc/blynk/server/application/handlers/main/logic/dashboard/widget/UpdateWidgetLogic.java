@@ -158,6 +158,8 @@ public final class UpdateWidgetLogic {
             timerWorker.add(state.userKey, (Eventor) newWidget, dashId);
         }
 
+        holder.readingWidgetsWorker.refresh(state.userKey, dash);
+
         ctx.writeAndFlush(ok(message.id), ctx.voidPromise());
     }
 
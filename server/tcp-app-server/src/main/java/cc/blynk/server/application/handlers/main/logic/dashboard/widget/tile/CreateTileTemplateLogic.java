@@ -1,5 +1,6 @@
 package cc.blynk.server.application.handlers.main.logic.dashboard.widget.tile;
 
+import cc.blynk.server.Holder;
 import cc.blynk.server.application.handlers.main.auth.AppStateHolder;
 import cc.blynk.server.core.model.serialization.JsonParser;
 import cc.blynk.server.core.model.widgets.ui.tiles.DeviceTiles;
@@ -27,7 +28,8 @@ public final class CreateTileTemplateLogic {
     private CreateTileTemplateLogic() {
     }
 
-    public static void messageReceived(ChannelHandlerContext ctx, AppStateHolder state, StringMessage message) {
+    public static void messageReceived(Holder holder, ChannelHandlerContext ctx,
+                                       AppStateHolder state, StringMessage message) {
         var split = split3(message.body);
 
         if (split.length < 3) {
@@ -66,6 +68,8 @@ public final class CreateTileTemplateLogic {
 
         dash.cleanPinStorage(deviceTiles, true);
 
+        holder.readingWidgetsWorker.refresh(state.userKey, dash);
+
         ctx.writeAndFlush(ok(message.id), ctx.voidPromise());
     }
 
@@ -1,5 +1,6 @@
 package cc.blynk.server.application.handlers.main.logic.dashboard.widget.tile;
 
+import cc.blynk.server.Holder;
 import cc.blynk.server.application.handlers.main.auth.AppStateHolder;
 import cc.blynk.server.core.model.DashBoard;
 import cc.blynk.server.core.model.auth.User;
@@ -28,7 +29,8 @@ public final class DeleteTileTemplateLogic {
     private DeleteTileTemplateLogic() {
     }
 
-    public static void messageReceived(ChannelHandlerContext ctx, AppStateHolder state, StringMessage message) {
+    public static void messageReceived(Holder holder, ChannelHandlerContext ctx,
+                                       AppStateHolder state, StringMessage message) {
         String[] split = split3(message.body);
 
         if (split.length < 2) {
@@ -61,6 +63,8 @@ public final class DeleteTileTemplateLogic {
 
         dash.updatedAt = System.currentTimeMillis();
 
+        holder.readingWidgetsWorker.refresh(state.userKey, dash);
+
         ctx.writeAndFlush(ok(message.id), ctx.voidPromise());
     }
 
@@ -1,5 +1,6 @@
 package cc.blynk.server.application.handlers.main.logic.dashboard.widget.tile;
 
+import cc.blynk.server.Holder;
 import cc.blynk.server.application.handlers.main.auth.AppStateHolder;
 import cc.blynk.server.core.model.serialization.JsonParser;
 import cc.blynk.server.core.model.widgets.ui.tiles.DeviceTiles;
@@ -26,7 +27,8 @@ public final class UpdateTileTemplateLogic {
     private UpdateTileTemplateLogic() {
     }
 
-    public static void messageReceived(ChannelHandlerContext ctx, AppStateHolder state, StringMessage message) {
+    public static void messageReceived(Holder holder, ChannelHandlerContext ctx,
+                                       AppStateHolder state, StringMessage message) {
         var split = split3(message.body);
 
         if (split.length < 3) {
@@ -67,6 +69,8 @@ public final class UpdateTileTemplateLogic {
 
         dash.cleanPinStorage(deviceTiles, true);
 
+        holder.readingWidgetsWorker.refresh(state.userKey, dash);
+
         ctx.writeAndFlush(ok(message.id), ctx.voidPromise());
     }
 
@@ -91,19 +91,19 @@ public class AppShareLoginHandler extends SimpleChannelInboundHandler<ShareLogin
         ctx.pipeline().addLast("AAppSHareHandler", new AppShareHandler(holder, appShareStateHolder));
 
         Session session = holder.sessionDao.getOrCreateSessionByUser(
-                appShareStateHolder.userKey, ctx.channel().eventLoop());
+                appShareStateHolder.userKey, ctx.channel());
 
         if (session.isSameEventLoop(ctx)) {
-            completeLogin(ctx.channel(), session, user.email, messageId);
+            completeLogin(ctx.channel(), session, user.email, dashId, messageId);
         } else {
             log.debug("Re registering app channel. {}", ctx.channel());
             ReregisterChannelUtil.reRegisterChannel(ctx, session, channelFuture ->
-                    completeLogin(channelFuture.channel(), session, user.email, messageId));
+                    completeLogin(channelFuture.channel(), session, user.email, dashId, messageId));
         }
     }
 
-    private void completeLogin(Channel channel, Session session, String userName, int msgId) {
-        session.addAppChannel(channel);
+    private void completeLogin(Channel channel, Session session, String userName, int dashId, int msgId) {
+        session.addAppChannel(channel, dashId);
         channel.writeAndFlush(ok(msgId), channel.voidPromise());
         log.info("Shared {} app joined.", userName);
     }
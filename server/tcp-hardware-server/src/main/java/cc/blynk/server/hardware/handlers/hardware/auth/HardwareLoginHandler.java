@@ -73,6 +73,7 @@ public class HardwareLoginHandler extends SimpleChannelInboundHandler<LoginMessa
         log.debug("completeLogin. {}", channel);
 
         session.addHardChannel(channel);
+        holder.readingWidgetsWorker.register(session, channel);
         channel.write(ok(msgId));
 
         String body = dash.buildPMMessage(device.id);
@@ -129,7 +130,7 @@ public class HardwareLoginHandler extends SimpleChannelInboundHandler<LoginMessa
         pipeline.replace(this, "HHArdwareHandler", new HardwareHandler(holder, hardwareStateHolder));
 
         Session session = holder.sessionDao.getOrCreateSessionByUser(
-                hardwareStateHolder.userKey, ctx.channel().eventLoop());
+                hardwareStateHolder.userKey, ctx.channel());
 
         if (session.isSameEventLoop(ctx)) {
             completeLogin(ctx.channel(), session, user, dash, device, message.id);
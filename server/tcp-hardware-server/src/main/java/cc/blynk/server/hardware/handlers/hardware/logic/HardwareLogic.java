@@ -12,6 +12,7 @@ import cc.blynk.server.core.model.enums.PinType;
 import cc.blynk.server.core.processors.BaseProcessorHandler;
 import cc.blynk.server.core.processors.WebhookProcessor;
 import cc.blynk.server.core.protocol.model.messages.StringMessage;
+import cc.blynk.server.core.protocol.model.messages.hardware.RawHardwareMessage;
 import cc.blynk.server.core.session.HardwareStateHolder;
 import io.netty.channel.ChannelHandlerContext;
 
@@ -53,6 +54,51 @@ public class HardwareLogic extends BaseProcessorHandler {
         messageReceived(ctx, message, state.userKey, state.user, state.dash, state.device);
     }
 
+    /**
+     * Fast path for the commands from the hardware connection. Pin and value are parsed from bytes,
+     * full body string is created only when there are apps to forward the message to.
+     */
+    public void messageReceived(ChannelHandlerContext ctx, HardwareStateHolder state, RawHardwareMessage message) {
+        //minimum command - "ar 1"
+        if (message.length() < 4) {
+            log.debug("HardwareLogic command body too short.");
+            ctx.writeAndFlush(illegalCommand(message.id), ctx.voidPromise());
+            return;
+        }
+
+        if (message.isWriteOperation()) {
+            User user = state.user;
+            Device device = state.device;
+            if (!message.hasPinAndValue()) {
+                log.debug("Write command is wrong {} for {} and deviceId {}.", message.body(), user.email, device.id);
+                ctx.writeAndFlush(illegalCommand(message.id), ctx.voidPromise());
+                return;
+            }
+
+            PinType pinType = PinType.getPinType(message.pinTypeChar());
+            byte pin = message.pin();
+            String value = message.value();
+            long now = System.currentTimeMillis();
+            DashBoard dash = state.dash;
+            int deviceId = device.id;
+
+            reportingDao.process(user, dash, deviceId, pin, pinType, value, now, message.doubleValue());
+            dash.update(deviceId, pin, pinType, value, now);
+            device.dataReceivedAt = now;
+
+            Session session = sessionDao.userSession.get(state.userKey);
+            processEventorAndWebhook(user, dash, deviceId, session, pin, pinType, value, now);
+
+            if (dash.isActive) {
+                if (session.isAppConnected()) {
+                    session.sendToApps(HARDWARE, message.id, dash.id, deviceId, message.body());
+                }
+            } else {
+                log.trace("No active dashboard.");
+            }
+        }
+    }
+
     public void messageReceived(ChannelHandlerContext ctx, StringMessage message,
                                 UserKey userKey, User user, DashBoard dash, Device device) {
         String body = message.body;
@@ -3,8 +3,7 @@ package cc.blynk.server.hardware.handlers.hardware.logic;
 import cc.blynk.server.core.model.DashBoard;
 import cc.blynk.server.core.model.DataStream;
 import cc.blynk.server.core.model.enums.PinType;
-import cc.blynk.server.core.model.storage.PinPropertyStorageKey;
-import cc.blynk.server.core.model.storage.PinStorageKey;
+import cc.blynk.server.core.model.storage.PinStorage;
 import cc.blynk.server.core.model.widgets.HardwareSyncWidget;
 import cc.blynk.server.core.model.widgets.others.rtc.RTC;
 import cc.blynk.server.core.protocol.model.messages.StringMessage;
@@ -47,11 +46,12 @@ public final class HardwareSyncLogic {
             }
         }
         //return all static server holders
-        for (var entry : dash.pinsStorage.entrySet()) {
-            var key = entry.getKey();
-            if (deviceId == key.deviceId && !(key instanceof PinPropertyStorageKey) && ctx.channel().isWritable()) {
-                for (String value : entry.getValue().values()) {
-                    var body = key.makeHardwareBody(value);
+        var entries = dash.pinsStorage.entries();
+        for (int i = 0; i < entries.size(); i++) {
+            long key = entries.keys[i];
+            if (deviceId == PinStorage.deviceId(key) && !PinStorage.isProperty(key) && ctx.channel().isWritable()) {
+                for (String value : entries.values[i].values()) {
+                    var body = DataStream.makeHardwareBody(PinStorage.pinType(key), PinStorage.pin(key), value);
                     ctx.write(makeUTF8StringMessage(HARDWARE, msgId, body), ctx.voidPromise());
                 }
             }
@@ -79,7 +79,7 @@ public final class HardwareSyncLogic {
                 var widget = dash.findWidgetByPin(deviceId, pin, pinType);
                 if (ctx.channel().isWritable()) {
                     if (widget == null) {
-                        var pinStorageValue = dash.pinsStorage.get(new PinStorageKey(deviceId, pinType, pin));
+                        var pinStorageValue = dash.pinsStorage.get(deviceId, pinType, pin);
                         if (pinStorageValue != null) {
                             for (String value : pinStorageValue.values()) {
                                 var body = DataStream.makeHardwareBody(pinType, pin, value);
@@ -52,11 +52,12 @@ public class MqttHardwareLoginHandler extends SimpleChannelInboundHandler<MqttCo
         this.holder = holder;
     }
 
-    private static void completeLogin(Channel channel, Session session, User user,
-                                      DashBoard dash, Device device, int msgId) {
+    private void completeLogin(Channel channel, Session session, User user,
+                               DashBoard dash, Device device, int msgId) {
         log.debug("completeLogin. {}", channel);
 
         session.addHardChannel(channel);
+        holder.readingWidgetsWorker.register(session, channel);
         channel.writeAndFlush(ACCEPTED);
 
         String responseBody = String.valueOf(dash.id) + DEVICE_SEPARATOR + device.id;
@@ -94,7 +95,7 @@ public class MqttHardwareLoginHandler extends SimpleChannelInboundHandler<MqttCo
         pipeline.replace(this, "HHArdwareMqttHandler", new MqttHardwareHandler(holder, hardwareStateHolder));
 
         Session session = holder.sessionDao.getOrCreateSessionByUser(
-                hardwareStateHolder.userKey, ctx.channel().eventLoop());
+                hardwareStateHolder.userKey, ctx.channel());
 
         if (session.isSameEventLoop(ctx)) {
             completeLogin(ctx.channel(), session, user, dash, device, -1);
@@ -0,0 +1,70 @@
+package cc.blynk.server.tools;
+
+import cc.blynk.server.core.reporting.storage.CompressedReportingStorage;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Converts reporting files between plain (history_*.bin) and compressed (history_*.gbin) formats.
+ * Server should be stopped during conversion.
+ *
+ * Usage : java -cp tools.jar cc.blynk.server.tools.ReportingDataConverter /path/to/data [compress|decompress]
+ */
+public final class ReportingDataConverter {
+
+    private static final String COMPRESS = "compress";
+    private static final String DECOMPRESS = "decompress";
+
+    private ReportingDataConverter() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        String reportingFolder = args[0];
+        String mode = args.length > 1 ? args[1] : COMPRESS;
+        if (!COMPRESS.equals(mode) && !DECOMPRESS.equals(mode)) {
+            System.out.println("Unknown mode " + mode + ". Expecting " + COMPRESS + " or " + DECOMPRESS + ".");
+            return;
+        }
+
+        Path reportingPath = Paths.get(reportingFolder);
+        if (Files.exists(reportingPath)) {
+            System.out.println("Starting processing " + reportingPath.toString());
+            start(reportingPath, COMPRESS.equals(mode));
+        } else {
+            System.out.println(reportingPath.toString() + " not exists.");
+        }
+    }
+
+    private static void start(Path reportingPath, boolean compress) throws Exception {
+        File[] allReporting = reportingPath.toFile().listFiles();
+        if (allReporting == null || allReporting.length == 0) {
+            System.out.println("No files.");
+            return;
+        }
+
+        System.out.println("Directories number : " + allReporting.length);
+
+        long start = System.currentTimeMillis();
+        int filesCount = 0;
+        int directoriesCount = 0;
+        for (File userDirectory : allReporting) {
+            if (userDirectory.isDirectory()) {
+                Path userPath = userDirectory.toPath();
+                filesCount += compress
+                        ? CompressedReportingStorage.compressAll(userPath)
+                        : CompressedReportingStorage.decompressAll(userPath);
+                directoriesCount++;
+                if (directoriesCount % 1000 == 0) {
+                    System.out.println("Visited " + directoriesCount + " directories.");
+                }
+            }
+        }
+
+        System.out.println("Converted : " + filesCount + " files. Time : "
+                + (System.currentTimeMillis() - start) + " ms.");
+    }
+
+}
@@ -2,10 +2,12 @@ package cc.blynk.utils;
 
 import java.io.BufferedWriter;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -125,6 +127,102 @@ public final class FileUtils {
         }
     }
 
+    /**
+     * Read records with timestamps within [from, to) range.
+     * Records are sorted by time, so range bounds are found with binary search
+     * and only requested slice is read from disk.
+     *
+     * @param userDataFile - file to read
+     * @param from         - inclusive start of the range
+     * @param to           - exclusive end of the range
+     * @return - byte buffer with data or null if there is no data within range
+     */
+    public static ByteBuffer readRange(Path userDataFile, long from, long to) throws IOException {
+        return readRange(userDataFile, SIZE_OF_REPORT_ENTRY, from, to);
+    }
+
+    /**
+     * Same as above, but for records of any fixed size that end with long ts.
+     *
+     * @param recordSize - size of one record in bytes
+     */
+    public static ByteBuffer readRange(Path userDataFile, int recordSize, long from, long to) throws IOException {
+        try (FileChannel channel = FileChannel.open(userDataFile, READ)) {
+            int recordsCount = (int) (channel.size() / recordSize);
+            ByteBuffer tsBuf = ByteBuffer.allocate(8);
+            int start = lowerBound(channel, recordSize, 0, recordsCount, from, tsBuf);
+            int end = lowerBound(channel, recordSize, start, recordsCount, to, tsBuf);
+            if (start >= end) {
+                return null;
+            }
+
+            ByteBuffer buf = ByteBuffer.allocate((end - start) * recordSize);
+            long position = (long) start * recordSize;
+            while (buf.hasRemaining()) {
+                if (channel.read(buf, position + buf.position()) < 0) {
+                    break;
+                }
+            }
+            ((Buffer) buf).flip();
+            return buf;
+        }
+    }
+
+    /**
+     * @return - index of first record in [low, high) with timestamp not less than ts
+     */
+    private static int lowerBound(FileChannel channel, int recordSize, int low, int high,
+                                  long ts, ByteBuffer tsBuf) throws IOException {
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            ((Buffer) tsBuf).clear();
+            long tsPosition = (long) mid * recordSize + recordSize - 8;
+            while (tsBuf.hasRemaining()) {
+                if (channel.read(tsBuf, tsPosition + tsBuf.position()) < 0) {
+                    throw new EOFException();
+                }
+            }
+            if (tsBuf.getLong(0) < ts) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Same as file range read, but for records already in memory
+     * (for example, mapped file), between position and limit of the buffer.
+     *
+     * @return - slice with records within [from, to) range or null if there is no such records
+     */
+    public static ByteBuffer slice(ByteBuffer records, long from, long to) {
+        int base = records.position();
+        int recordsCount = records.remaining() / SIZE_OF_REPORT_ENTRY;
+        int start = lowerBound(records, base, 0, recordsCount, from);
+        int end = lowerBound(records, base, start, recordsCount, to);
+        if (start >= end) {
+            return null;
+        }
+        ByteBuffer slice = records.duplicate();
+        ((Buffer) slice).position(base + start * SIZE_OF_REPORT_ENTRY)
+                .limit(base + end * SIZE_OF_REPORT_ENTRY);
+        return slice.slice();
+    }
+
+    private static int lowerBound(ByteBuffer records, int base, int low, int high, long ts) {
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (records.getLong(base + mid * SIZE_OF_REPORT_ENTRY + 8) < ts) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
     public static boolean writeBufToCsvFilterAndFormat(BufferedWriter writer, ByteBuffer onePinData,
                                                       String pin, String deviceName,
                                                       long startFrom, DateTimeFormatter formatter) throws IOException {
@@ -187,7 +285,7 @@ public final class FileUtils {
         return formatter.format(Instant.ofEpochMilli(ts));
     }
 
-    public static void writeBufToCsv(BufferedWriter writer, ByteBuffer onePinData, int deviceId) throws Exception {
+    public static void writeBufToCsv(BufferedWriter writer, ByteBuffer onePinData, int deviceId) throws IOException {
         while (onePinData.remaining() > 0) {
             double value = onePinData.getDouble();
             long ts = onePinData.getLong();
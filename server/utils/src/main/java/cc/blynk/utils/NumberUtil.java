@@ -28,6 +28,14 @@ public final class NumberUtil {
         }
     }
 
+    //stateless accessors, so String and byte[] share parsing without wrapping the source
+    private interface CharAccessor<T> {
+        int charAt(T source, int index);
+    }
+
+    private static final CharAccessor<String> STRING_CHARS = String::charAt;
+    private static final CharAccessor<byte[]> BYTE_CHARS = (source, index) -> source[index];
+
     // Calculate the value of the specified exponent - reuse a precalculated value if possible
     private static double getPow10(final int exp) {
         if (exp > -POW_RANGE) {
@@ -49,18 +57,32 @@ public final class NumberUtil {
     }
 
     public static double parseDouble(final String s) {
+        return parseDouble(s, 0, s.length(), STRING_CHARS);
+    }
 
-        int off = 0;
-        int len = s.length();
+    /**
+     * Same as {@link #parseDouble(String)}, but parses ASCII bytes, so value doesn't need to be
+     * converted to String first.
+     *
+     * @param s - bytes to parse
+     * @param off - offset of the first byte of the number
+     * @param end - offset after the last byte of the number
+     */
+    public static double parseDouble(final byte[] s, int off, final int end) {
+        return parseDouble(s, off, end, BYTE_CHARS);
+    }
+
+    private static <T> double parseDouble(final T s, int off, final int end, final CharAccessor<T> chars) {
+        int len = end - off;
 
-        if (len == 0) {
+        if (len <= 0) {
             return NO_RESULT;
         }
 
-        char ch;
+        int ch;
         boolean numSign = true;
 
-        ch = s.charAt(off);
+        ch = chars.charAt(s, off);
         if (ch == '+') {
             off++;
             len--;
@@ -77,7 +99,7 @@ public final class NumberUtil {
         int startOffset = off;
         double dval;
 
-        for (dval = 0d; (len > 0) && ((ch = s.charAt(off)) >= '0') && (ch <= '9');) {
+        for (dval = 0d; (len > 0) && ((ch = chars.charAt(s, off)) >= '0') && (ch <= '9');) {
             dval *= 10d;
             dval += ch - '0';
             off++;
@@ -92,14 +114,14 @@ public final class NumberUtil {
         }
 
         // Check for fractional values after decimal
-        if ((len > 0) && (s.charAt(off) == '.')) {
+        if ((len > 0) && (chars.charAt(s, off) == '.')) {
 
             off++;
             len--;
 
             startOffset = off;
 
-            for (dval = 0d; (len > 0) && ((ch = s.charAt(off)) >= '0') && (ch <= '9');) {
+            for (dval = 0d; (len > 0) && ((ch = chars.charAt(s, off)) >= '0') && (ch <= '9');) {
                 dval *= 10d;
                 dval += ch - '0';
                 off++;
@@ -121,7 +143,7 @@ public final class NumberUtil {
         if (len > 0) {
             // note: ignore any non-digit character at end:
 
-            if ((ch = s.charAt(off)) == 'e' || ch == 'E') {
+            if ((ch = chars.charAt(s, off)) == 'e' || ch == 'E') {
 
                 off++;
                 len--;
@@ -129,7 +151,7 @@ public final class NumberUtil {
                 if (len > 0) {
                     boolean expSign = true;
 
-                    ch = s.charAt(off);
+                    ch = chars.charAt(s, off);
                     if (ch == '+') {
                         off++;
                         len--;
@@ -142,7 +164,7 @@ public final class NumberUtil {
                     int exponent;
 
                     // note: ignore any non-digit character at end:
-                    for (exponent = 0; (len > 0) && ((ch = s.charAt(off)) >= '0') && (ch <= '9');) {
+                    for (exponent = 0; (len > 0) && ((ch = chars.charAt(s, off)) >= '0') && (ch <= '9');) {
                         exponent *= 10;
                         exponent += ch - '0';
                         off++;
@@ -168,7 +190,6 @@ public final class NumberUtil {
             return NO_RESULT;
         }
 
-
         return (numSign) ? number : -number;
     }
 
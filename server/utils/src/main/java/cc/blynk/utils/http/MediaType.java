@@ -11,8 +11,11 @@ public final class MediaType {
     }
 
     public final static String APPLICATION_JSON = "application/json";
+    //newline delimited json, one value per line
+    public final static String APPLICATION_NDJSON = "application/x-ndjson";
     public final static String APPLICATION_FORM_URLENCODED = "application/x-www-form-urlencoded";
     public final static String TEXT_PLAIN = "text/plain";
     public final static String TEXT_HTML = "text/html";
+    public final static String TEXT_CSV = "text/csv";
 
 }
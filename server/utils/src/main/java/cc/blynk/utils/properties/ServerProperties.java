@@ -66,6 +66,18 @@ public class ServerProperties extends BaseProperties {
         return Paths.get(getDataFolder(), "data").toString();
     }
 
+    public String getReportingStorageType() {
+        return getProperty("reporting.storage.type", "file");
+    }
+
+    public boolean removeMigratedReportingFiles() {
+        return getBoolProperty("reporting.migration.cleanup");
+    }
+
+    public long getRawDataQueueBytes() {
+        return getLongProperty("raw.data.queue.bytes", 8 * 1024 * 1024);
+    }
+
     public int getHttpPort() {
         return getIntProperty("http.port");
     }
@@ -21,6 +21,12 @@ public class LRUCache<K, V> extends LinkedHashMap<K, V> {
         this.maxSize = maxSize;
     }
 
+    //with accessOrder eldest entry is the least recently used one instead of the first inserted
+    public LRUCache(int maxSize, boolean accessOrder) {
+        super(16, 0.75f, accessOrder);
+        this.maxSize = maxSize;
+    }
+
     @Override
     protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
         return size() > maxSize;